@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013-2014 Zhang Rui <bbcallen@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+/**
+ * When buffering ends, see {@link IjkMediaPlayer#setBufferingPolicy(BufferingPolicy)}.
+ * <p>
+ * Buffering ends once the cached duration reaches the high water mark (hwm),
+ * or the cached bytes when duration is unknown. The hwm is start ms after
+ * prepared or seeked. Each time it is reached, the hwm for next buffering
+ * becomes next ms, then grows by growth percent, up to max ms.
+ * </p>
+ * <p>
+ * An adaptive policy sizes the hwm from the lower quartile of
+ * {@link IjkMediaPlayer#getBandwidthEstimate(int)} relative to bitrate of
+ * the stream instead: start ms when the network is twice as fast as the
+ * stream, more as they get closer, max ms when the network is slower.
+ * </p>
+ * Values of 0 or less mean default.
+ */
+public final class BufferingPolicy {
+    public static final int DEFAULT_START_MS = 100;
+    public static final int DEFAULT_NEXT_MS = 1000;
+    public static final int DEFAULT_MAX_MS = 5000;
+    public static final int DEFAULT_HWM_BYTES = 256 * 1024;
+    public static final int DEFAULT_MAX_BUFFER_BYTES = 10 * 1024 * 1024;
+    public static final int DEFAULT_GROWTH_PERCENT = 200;
+    public static final int DEFAULT_RESUME_MIN_PACKETS = 5;
+
+    public static final int ADAPTIVE_START_MS = 300;
+
+    private int mStartMs;
+    private int mNextMs;
+    private int mMaxMs;
+    private int mHwmBytes;
+    private int mMaxBufferBytes;
+    private int mGrowthPercent;
+    private int mResumeMinPackets = -1;
+    private boolean mAdaptive;
+
+    /**
+     * Stepping policy of defaults.
+     */
+    public BufferingPolicy() {
+    }
+
+    /**
+     * Resume after {@link #ADAPTIVE_START_MS} on fast networks, buffer up to
+     * {@link #DEFAULT_MAX_MS} on slow ones.
+     */
+    public static BufferingPolicy createAdaptive() {
+        return new BufferingPolicy().setWaterMarks(ADAPTIVE_START_MS, 0, 0).setAdaptive(true);
+    }
+
+    public BufferingPolicy setWaterMarks(int startMs, int nextMs, int maxMs) {
+        mStartMs = startMs;
+        mNextMs = nextMs;
+        mMaxMs = maxMs;
+        return this;
+    }
+
+    /**
+     * @param hwmBytes
+     *            buffering ends above, when cached duration is unknown
+     * @param maxBufferBytes
+     *            reading pauses above, at most {@link #DEFAULT_MAX_BUFFER_BYTES}
+     */
+    public BufferingPolicy setByteCaps(int hwmBytes, int maxBufferBytes) {
+        mHwmBytes = hwmBytes;
+        mMaxBufferBytes = maxBufferBytes;
+        return this;
+    }
+
+    /**
+     * @param growthPercent
+     *            hwm after next ms is multiplied by growthPercent / 100 each
+     *            time it is reached, 100 to stay at next ms
+     */
+    public BufferingPolicy setGrowthPercent(int growthPercent) {
+        mGrowthPercent = growthPercent;
+        return this;
+    }
+
+    /**
+     * @param minPackets
+     *            buffering does not end until each queue has more packets,
+     *            -1 for default
+     */
+    public BufferingPolicy setResumeMinPackets(int minPackets) {
+        mResumeMinPackets = minPackets;
+        return this;
+    }
+
+    public BufferingPolicy setAdaptive(boolean adaptive) {
+        mAdaptive = adaptive;
+        return this;
+    }
+
+    public int getStartMs() {
+        return mStartMs;
+    }
+
+    public int getNextMs() {
+        return mNextMs;
+    }
+
+    public int getMaxMs() {
+        return mMaxMs;
+    }
+
+    public int getHwmBytes() {
+        return mHwmBytes;
+    }
+
+    public int getMaxBufferBytes() {
+        return mMaxBufferBytes;
+    }
+
+    public int getGrowthPercent() {
+        return mGrowthPercent;
+    }
+
+    public int getResumeMinPackets() {
+        return mResumeMinPackets;
+    }
+
+    public boolean isAdaptive() {
+        return mAdaptive;
+    }
+}
@@ -35,6 +35,8 @@ public interface IMediaPlayer {
     public static final int MEDIA_INFO_VIDEO_TRACK_LAGGING = 700;
     public static final int MEDIA_INFO_BUFFERING_START = 701;
     public static final int MEDIA_INFO_BUFFERING_END = 702;
+    public static final int MEDIA_INFO_NETWORK_BANDWIDTH = 703; // extra = kbit/s
+    public static final int MEDIA_INFO_BUFFER_LOW_PREDICTED = 704; // extra = estimated ms to stall
     public static final int MEDIA_INFO_BAD_INTERLEAVING = 800;
     public static final int MEDIA_INFO_NOT_SEEKABLE = 801;
     public static final int MEDIA_INFO_METADATA_UPDATE = 802;
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2013-2014 Zhang Rui <bbcallen@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tv.danmaku.ijk.media.player.pragma.DebugLog;
+
+/**
+ * Two level LRU cache of RGBA frames produced by {@link IjkFrameExtractor},
+ * keyed by url, time bucket and size. Memory level holds raw pixels, disk
+ * level holds one file per frame under the given directory.
+ * <p>
+ * Extraction returns the keyframe at or before the time asked, so all times
+ * within one bucket share the frame of the first one extracted. Disk io is
+ * done without holding the memory level, a hit in memory never waits for it.
+ * </p>
+ */
+public class IjkFrameCache {
+    private static final String TAG = IjkFrameCache.class.getName();
+
+    private static final String FILE_SUFFIX = ".frame";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int FILE_HEADER_SIZE = 8; // pts in ms
+
+    // frames only, the directory may be shared and writes in flight are not counted
+    private static final FileFilter FRAME_FILE_FILTER = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.getName().endsWith(FILE_SUFFIX) && file.isFile();
+        }
+    };
+
+    public static final int DEFAULT_TIME_BUCKET_MS = 1000;
+
+    private static final class Entry {
+        final long pts;
+        final byte[] pixels;
+
+        Entry(long pts, byte[] pixels) {
+            this.pts = pts;
+            this.pixels = pixels;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> mMemory = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final int mMaxMemoryBytes;
+    private int mMemoryBytes;
+    private final int mTimeBucketMs;
+
+    private final File mDiskDir;
+    private final long mMaxDiskBytes;
+    private final Object mDiskLock = new Object(); // guards mDiskBytes and trimming
+    private long mDiskBytes = -1; // counted on first access
+
+    /**
+     * @param maxMemoryBytes
+     *            memory limit, 0 to disable memory level
+     * @param diskDir
+     *            directory of this cache, null to disable disk level; only
+     *            files named by this cache are counted and deleted
+     * @param maxDiskBytes
+     *            disk limit
+     */
+    public IjkFrameCache(int maxMemoryBytes, File diskDir, long maxDiskBytes) {
+        this(maxMemoryBytes, diskDir, maxDiskBytes, DEFAULT_TIME_BUCKET_MS);
+    }
+
+    /**
+     * @param timeBucketMs
+     *            times within one bucket share one frame, usually not more
+     *            than the keyframe interval
+     */
+    public IjkFrameCache(int maxMemoryBytes, File diskDir, long maxDiskBytes, int timeBucketMs) {
+        mMaxMemoryBytes = maxMemoryBytes;
+        mDiskDir = diskDir;
+        mMaxDiskBytes = maxDiskBytes;
+        mTimeBucketMs = Math.max(timeBucketMs, 1);
+    }
+
+    private String makeKey(String url, long msec, int width, int height) {
+        return url + '#' + (msec / mTimeBucketMs) + '#' + width + 'x' + height;
+    }
+
+    /**
+     * Copy cached frame into {@code out} from its position.
+     *
+     * @return pts of cached frame in milliseconds, or -1 if not cached
+     */
+    public long get(String url, long msec, int width, int height, ByteBuffer out) {
+        int size = width * height * 4;
+        if (out.remaining() < size)
+            return -1;
+
+        String key = makeKey(url, msec, width, height);
+        synchronized (this) {
+            Entry entry = mMemory.get(key);
+            if (entry != null) {
+                out.duplicate().put(entry.pixels, 0, size);
+                return entry.pts;
+            }
+        }
+
+        File file = getFile(key);
+        if (file == null || !file.isFile())
+            return -1;
+
+        long pts = readFile(file, out, size);
+        if (pts < 0)
+            return -1;
+
+        file.setLastModified(System.currentTimeMillis());
+        if (size <= mMaxMemoryBytes) {
+            byte[] pixels = new byte[size];
+            out.duplicate().get(pixels);
+            synchronized (this) {
+                putMemory(key, new Entry(pts, pixels));
+            }
+        }
+        return pts;
+    }
+
+    /**
+     * Store frame in {@code frame} from its position.
+     */
+    public void put(String url, long msec, int width, int height, long pts, ByteBuffer frame) {
+        int size = width * height * 4;
+        if (frame.remaining() < size)
+            return;
+
+        String key = makeKey(url, msec, width, height);
+        if (size <= mMaxMemoryBytes) {
+            byte[] pixels = new byte[size];
+            frame.duplicate().get(pixels);
+            synchronized (this) {
+                putMemory(key, new Entry(pts, pixels));
+            }
+        }
+
+        File file = getFile(key);
+        if (file != null)
+            writeFile(file, pts, frame, size);
+    }
+
+    public void clear() {
+        synchronized (this) {
+            mMemory.clear();
+            mMemoryBytes = 0;
+        }
+
+        synchronized (mDiskLock) {
+            File[] files = listFiles();
+            if (files != null) {
+                for (File file : files)
+                    file.delete();
+            }
+            mDiskBytes = 0;
+        }
+    }
+
+    private void putMemory(String key, Entry entry) {
+        Entry old = mMemory.put(key, entry);
+        if (old != null)
+            mMemoryBytes -= old.pixels.length;
+        mMemoryBytes += entry.pixels.length;
+
+        Iterator<Map.Entry<String, Entry>> iter = mMemory.entrySet().iterator();
+        while (mMemoryBytes > mMaxMemoryBytes && iter.hasNext()) {
+            Entry eldest = iter.next().getValue();
+            mMemoryBytes -= eldest.pixels.length;
+            iter.remove();
+        }
+    }
+
+    private File getFile(String key) {
+        if (mDiskDir == null || mMaxDiskBytes <= 0)
+            return null;
+
+        return new File(mDiskDir, md5(key) + FILE_SUFFIX);
+    }
+
+    private File[] listFiles() {
+        if (mDiskDir == null)
+            return null;
+
+        return mDiskDir.listFiles(FRAME_FILE_FILTER);
+    }
+
+
+    private long readFile(File file, ByteBuffer out, int size) {
+        if (file.length() != FILE_HEADER_SIZE + size)
+            return -1;
+
+        FileInputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            FileChannel channel = is.getChannel();
+
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0)
+                    return -1;
+            }
+            header.flip();
+            long pts = header.getLong();
+
+            ByteBuffer dst = out.duplicate();
+            dst.limit(dst.position() + size);
+            while (dst.hasRemaining()) {
+                if (channel.read(dst) < 0)
+                    return -1;
+            }
+            return pts;
+        } catch (IOException e) {
+            DebugLog.w(TAG, "readFile: " + file, e);
+            return -1;
+        } finally {
+            closeQuietly(is);
+        }
+    }
+
+    /* written aside then renamed, readers never see a partial file */
+    private void writeFile(File file, long pts, ByteBuffer frame, int size) {
+        if (!mDiskDir.isDirectory() && !mDiskDir.mkdirs())
+            return;
+
+        File temp;
+        try {
+            temp = File.createTempFile(file.getName(), TEMP_FILE_SUFFIX, mDiskDir);
+        } catch (IOException e) {
+            DebugLog.w(TAG, "writeFile: " + file, e);
+            return;
+        }
+
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(temp);
+            FileChannel channel = os.getChannel();
+
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            header.putLong(pts);
+            header.flip();
+            while (header.hasRemaining())
+                channel.write(header);
+
+            ByteBuffer src = frame.duplicate();
+            src.limit(src.position() + size);
+            while (src.hasRemaining())
+                channel.write(src);
+        } catch (IOException e) {
+            DebugLog.w(TAG, "writeFile: " + file, e);
+            closeQuietly(os);
+            os = null;
+            temp.delete();
+            return;
+        } finally {
+            closeQuietly(os);
+        }
+
+        synchronized (mDiskLock) {
+            long oldLength = file.isFile() ? file.length() : 0;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+
+            if (mDiskBytes < 0)
+                mDiskBytes = countDiskBytes();
+            else
+                mDiskBytes += file.length() - oldLength;
+            trimDisk();
+        }
+    }
+
+    private long countDiskBytes() {
+        long total = 0;
+        File[] files = listFiles();
+        if (files != null) {
+            for (File file : files)
+                total += file.length();
+        }
+        return total;
+    }
+
+    private void trimDisk() {
+        if (mDiskBytes <= mMaxDiskBytes)
+            return;
+
+        File[] files = listFiles();
+        if (files == null)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (mDiskBytes <= mMaxDiskBytes)
+                break;
+            long length = file.length();
+            if (file.delete())
+                mDiskBytes -= length;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static String md5(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(text.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(text.hashCode());
+        } catch (IOException e) {
+            return Integer.toHexString(text.hashCode());
+        }
+    }
+}
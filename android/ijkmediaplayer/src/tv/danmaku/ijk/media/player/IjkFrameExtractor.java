@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2013-2014 Zhang Rui <bbcallen@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.graphics.Bitmap;
+import tv.danmaku.ijk.media.player.annotations.AccessedByNative;
+
+/**
+ * Extracts scaled RGBA keyframes from a media, e.g. for scrub-bar previews
+ * and list thumbnails, without creating a player.
+ * <p>
+ * Only keyframes are decoded and audio is not demuxed, so a frame is the
+ * last keyframe at or before the requested time. All work is done on
+ * caller's thread, call it off the main thread.
+ * </p>
+ */
+public final class IjkFrameExtractor {
+    @AccessedByNative
+    private long mNativeExtractor;
+
+    private final IjkFrameCache mCache;
+    private String mDataSource;
+
+    // scratch for getFrameAtTime(long, Bitmap), reused across calls
+    private ByteBuffer mBitmapBuffer;
+
+    public IjkFrameExtractor() {
+        this(null, null);
+    }
+
+    /**
+     * @param libLoader
+     *            null for default loader
+     * @param cache
+     *            shared between extractors, may be null
+     */
+    public IjkFrameExtractor(IjkLibLoader libLoader, IjkFrameCache cache) {
+        if (!IjkMediaPlayer.isNativeReady()) {
+            IjkMediaPlayer.loadLibrariesOnce(libLoader != null ? libLoader : IjkMediaPlayer.sLocalLibLoader);
+            IjkMediaPlayer.initNativeOnce();
+        }
+
+        mCache = cache;
+        native_setup();
+    }
+
+    public synchronized void setDataSource(String path) throws IOException {
+        mDataSource = path;
+        _open(path);
+    }
+
+    /**
+     * @return duration in milliseconds, 0 if unknown
+     */
+    public synchronized long getDuration() {
+        return _getDuration();
+    }
+
+    public synchronized int getVideoWidth() {
+        return _getVideoWidth();
+    }
+
+    public synchronized int getVideoHeight() {
+        return _getVideoHeight();
+    }
+
+    /**
+     * Fills {@code out} with a frame of {@code width x height}, 4 bytes per
+     * pixel in R, G, B, A order, rows packed. Cached frames are returned
+     * without opening the media.
+     *
+     * @param msec
+     *            time of the frame wanted
+     * @param out
+     *            direct buffer with at least width * height * 4 bytes, may
+     *            be reused across calls
+     * @return pts of the frame returned in milliseconds, or -1 on error
+     */
+    public long getFrameAtTime(long msec, int width, int height, ByteBuffer out) {
+        if (out == null || !out.isDirect())
+            throw new IllegalArgumentException("out must be a direct buffer");
+        if (width <= 0 || height <= 0 || out.capacity() < width * height * 4)
+            throw new IllegalArgumentException("out is too small for " + width + "x" + height);
+
+        synchronized (this) {
+            if (mDataSource == null)
+                throw new IllegalStateException("no data source");
+
+            out.clear();
+            if (mCache != null) {
+                long pts = mCache.get(mDataSource, msec, width, height, out);
+                if (pts >= 0)
+                    return pts;
+            }
+
+            long pts = _extractFrame(msec, out, width, height, width * 4);
+            if (pts >= 0 && mCache != null)
+                mCache.put(mDataSource, msec, width, height, pts, out);
+            return pts;
+        }
+    }
+
+    /**
+     * Same as {@link #getFrameAtTime(long, int, int, ByteBuffer)}, scaled to
+     * the size of {@code bitmap}.
+     *
+     * @param bitmap
+     *            mutable bitmap of {@link Bitmap.Config#ARGB_8888}
+     */
+    public long getFrameAtTime(long msec, Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888)
+            throw new IllegalArgumentException("bitmap must be a mutable ARGB_8888 one");
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        synchronized (this) {
+            int size = width * height * 4;
+            if (mBitmapBuffer == null || mBitmapBuffer.capacity() < size)
+                mBitmapBuffer = ByteBuffer.allocateDirect(size);
+
+            long pts = getFrameAtTime(msec, width, height, mBitmapBuffer);
+            if (pts >= 0) {
+                mBitmapBuffer.clear();
+                mBitmapBuffer.limit(size);
+                bitmap.copyPixelsFromBuffer(mBitmapBuffer);
+            }
+            return pts;
+        }
+    }
+
+    public synchronized void release() {
+        mDataSource = null;
+        mBitmapBuffer = null;
+        native_release();
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            native_release();
+        } finally {
+            super.finalize();
+        }
+    }
+
+    private native void native_setup();
+
+    private native void native_release();
+
+    private native void _open(String path) throws IOException;
+
+    private native long _getDuration();
+
+    private native int _getVideoWidth();
+
+    private native int _getVideoHeight();
+
+    private native long _extractFrame(long msec, ByteBuffer out, int width, int height, int stride);
+}
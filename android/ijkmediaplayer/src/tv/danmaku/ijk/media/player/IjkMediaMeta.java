@@ -1,5 +1,8 @@
 package tv.danmaku.ijk.media.player;
 
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Locale;
 
@@ -40,6 +43,16 @@ public class IjkMediaMeta {
 
     public static final String IJKM_KEY_STREAMS = "streams";
 
+    /*
+     * packed record, see ijkmeta.h
+     */
+    private static final int RECORD_VERSION = 1;
+    private static final int RECORD_HEADER_SIZE = 72;
+    private static final int RECORD_STREAM_SIZE = 72;
+
+    private static final int RECORD_TYPE__VIDEO = 1;
+    private static final int RECORD_TYPE__AUDIO = 2;
+
     public static final long AV_CH_FRONT_LEFT = 0x00000001;
     public static final long AV_CH_FRONT_RIGHT = 0x00000002;
     public static final long AV_CH_FRONT_CENTER = 0x00000004;
@@ -106,6 +119,8 @@ public class IjkMediaMeta {
     public static final long AV_CH_LAYOUT_STEREO_DOWNMIX = (AV_CH_STEREO_LEFT | AV_CH_STEREO_RIGHT);
 
     public Bundle mMediaMeta;
+    // parsed from record, mMediaMeta is built from fields on first get
+    private boolean mFromRecord;
 
     public String mFormat;
     public long mDurationUS;
@@ -116,8 +131,16 @@ public class IjkMediaMeta {
     public IjkStreamMeta mVideoStream;
     public IjkStreamMeta mAudioStream;
 
+    public String mVideoDecoder;
+    public String mVideoDecoderImpl;
+    public String mAudioDecoder;
+    public String mAudioDecoderImpl;
+
     public String getString(String key) {
-        return mMediaMeta.getString(key);
+        Bundle mediaMeta = getMediaMeta();
+        if (mediaMeta == null)
+            return null;
+        return mediaMeta.getString(key);
     }
 
     public int getInt(String key) {
@@ -153,7 +176,49 @@ public class IjkMediaMeta {
     }
 
     public ArrayList<Bundle> getParcelableArrayList(String key) {
-        return mMediaMeta.getParcelableArrayList(key);
+        Bundle mediaMeta = getMediaMeta();
+        if (mediaMeta == null)
+            return null;
+        return mediaMeta.getParcelableArrayList(key);
+    }
+
+    /**
+     * Same keys and string values as the bundle of native player.
+     */
+    public Bundle getMediaMeta() {
+        if (mMediaMeta != null || !mFromRecord)
+            return mMediaMeta;
+
+        Bundle mediaMeta = new Bundle();
+        putString(mediaMeta, IJKM_KEY_FORMAT, mFormat);
+        putLong(mediaMeta, IJKM_KEY_DURATION_US, mDurationUS);
+        putLong(mediaMeta, IJKM_KEY_START_US, mStartUS);
+        putLong(mediaMeta, IJKM_KEY_BITRATE, mBitrate);
+
+        ArrayList<Bundle> streams = new ArrayList<Bundle>();
+        if (mStreams != null) {
+            for (IjkStreamMeta streamMeta : mStreams) {
+                if (streamMeta == mVideoStream)
+                    mediaMeta.putString(IJKM_KEY_VIDEO_STREAM, String.valueOf(streamMeta.mIndex));
+                else if (streamMeta == mAudioStream)
+                    mediaMeta.putString(IJKM_KEY_AUDIO_STREAM, String.valueOf(streamMeta.mIndex));
+                streams.add(streamMeta.getMeta());
+            }
+        }
+        mediaMeta.putParcelableArrayList(IJKM_KEY_STREAMS, streams);
+
+        mMediaMeta = mediaMeta;
+        return mediaMeta;
+    }
+
+    private static void putString(Bundle bundle, String key, String value) {
+        if (value != null)
+            bundle.putString(key, value);
+    }
+
+    private static void putLong(Bundle bundle, String key, long value) {
+        if (value != 0)
+            bundle.putString(key, String.valueOf(value));
     }
 
     public String getDurationInline() {
@@ -235,8 +300,121 @@ public class IjkMediaMeta {
         return meta;
     }
 
+    /**
+     * Decodes the packed record built by native player once per prepare.
+     * Numbers are read as is, each distinct string is decoded only once.
+     *
+     * @return null if the record is missing or malformed
+     */
+    public static IjkMediaMeta parseRecord(byte[] record) {
+        if (record == null || record.length < RECORD_HEADER_SIZE)
+            return null;
+
+        ByteBuffer buf = ByteBuffer.wrap(record).order(ByteOrder.nativeOrder());
+        if (buf.getInt(0) != RECORD_VERSION || buf.getInt(4) != record.length)
+            return null;
+
+        int streamCount = buf.getInt(40);
+        int tableOffset = buf.getInt(44);
+        if (streamCount < 0
+                || tableOffset != RECORD_HEADER_SIZE + streamCount * RECORD_STREAM_SIZE
+                || tableOffset + 4 > record.length)
+            return null;
+
+        String[] strings;
+        try {
+            strings = parseRecordStrings(record, buf, tableOffset);
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+        if (strings == null)
+            return null;
+
+        IjkMediaMeta meta = new IjkMediaMeta();
+        meta.mFromRecord = true;
+        int videoStreamIndex = buf.getInt(8);
+        int audioStreamIndex = buf.getInt(12);
+        meta.mDurationUS = buf.getLong(16);
+        meta.mStartUS = buf.getLong(24);
+        meta.mBitrate = buf.getLong(32);
+        meta.mFormat = recordString(strings, buf.getInt(48));
+        meta.mVideoDecoder = recordString(strings, buf.getInt(52));
+        meta.mVideoDecoderImpl = recordString(strings, buf.getInt(56));
+        meta.mAudioDecoder = recordString(strings, buf.getInt(60));
+        meta.mAudioDecoderImpl = recordString(strings, buf.getInt(64));
+
+        meta.mStreams = new ArrayList<IjkStreamMeta>(streamCount);
+        for (int index = 0; index < streamCount; ++index) {
+            int offset = RECORD_HEADER_SIZE + index * RECORD_STREAM_SIZE;
+            int type = buf.getInt(offset);
+
+            IjkStreamMeta streamMeta = new IjkStreamMeta(index);
+            streamMeta.mFromRecord = true;
+            streamMeta.mCodecName = recordString(strings, buf.getInt(offset + 4));
+            streamMeta.mCodecProfile = recordString(strings, buf.getInt(offset + 8));
+            streamMeta.mCodecLongName = recordString(strings, buf.getInt(offset + 12));
+            streamMeta.mBitrate = buf.getLong(offset + 16);
+
+            if (type == RECORD_TYPE__VIDEO) {
+                streamMeta.mType = IJKM_VAL_TYPE__VIDEO;
+                streamMeta.mWidth = buf.getInt(offset + 24);
+                streamMeta.mHeight = buf.getInt(offset + 28);
+                streamMeta.mFpsNum = buf.getInt(offset + 32);
+                streamMeta.mFpsDen = buf.getInt(offset + 36);
+                streamMeta.mTbrNum = buf.getInt(offset + 40);
+                streamMeta.mTbrDen = buf.getInt(offset + 44);
+                streamMeta.mSarNum = buf.getInt(offset + 48);
+                streamMeta.mSarDen = buf.getInt(offset + 52);
+
+                if (videoStreamIndex == index) {
+                    meta.mVideoStream = streamMeta;
+                }
+            } else if (type == RECORD_TYPE__AUDIO) {
+                streamMeta.mType = IJKM_VAL_TYPE__AUDIO;
+                streamMeta.mSampleRate = buf.getInt(offset + 56);
+                streamMeta.mChannelLayout = buf.getLong(offset + 64);
+
+                if (audioStreamIndex == index) {
+                    meta.mAudioStream = streamMeta;
+                }
+            } else {
+                streamMeta.mType = IJKM_VAL_TYPE__UNKNOWN;
+            }
+            meta.mStreams.add(streamMeta);
+        }
+
+        return meta;
+    }
+
+    private static String[] parseRecordStrings(byte[] record, ByteBuffer buf, int offset)
+            throws UnsupportedEncodingException {
+        int count = buf.getInt(offset);
+        if (count < 0)
+            return null;
+        offset += 4;
+
+        String[] strings = new String[count];
+        for (int i = 0; i < count; ++i) {
+            int length = buf.getInt(offset);
+            if (length < 0 || offset + 4 + length > record.length)
+                return null;
+            strings[i] = new String(record, offset + 4, length, "UTF-8");
+            offset += 4 + length;
+        }
+        return strings;
+    }
+
+    private static String recordString(String[] strings, int id) {
+        if (id < 0 || id >= strings.length)
+            return null;
+        return strings[id];
+    }
+
     public static class IjkStreamMeta {
         public Bundle mMeta;
+        private boolean mFromRecord;
 
         public int mIndex;
         public String mType;
@@ -266,7 +444,38 @@ public class IjkMediaMeta {
         }
 
         public String getString(String key) {
-            return mMeta.getString(key);
+            Bundle meta = getMeta();
+            if (meta == null)
+                return null;
+            return meta.getString(key);
+        }
+
+        public Bundle getMeta() {
+            if (mMeta != null || !mFromRecord)
+                return mMeta;
+
+            Bundle meta = new Bundle();
+            putString(meta, IJKM_KEY_TYPE, mType);
+            putString(meta, IJKM_KEY_CODEC_NAME, mCodecName);
+            putString(meta, IJKM_KEY_CODEC_PROFILE, mCodecProfile);
+            putString(meta, IJKM_KEY_CODEC_LONG_NAME, mCodecLongName);
+            putLong(meta, IJKM_KEY_BITRATE, mBitrate);
+            if (IJKM_VAL_TYPE__VIDEO.equals(mType)) {
+                putLong(meta, IJKM_KEY_WIDTH, mWidth);
+                putLong(meta, IJKM_KEY_HEIGHT, mHeight);
+                putLong(meta, IJKM_KEY_FPS_NUM, mFpsNum);
+                putLong(meta, IJKM_KEY_FPS_DEN, mFpsDen);
+                putLong(meta, IJKM_KEY_TBR_NUM, mTbrNum);
+                putLong(meta, IJKM_KEY_TBR_DEN, mTbrDen);
+                putLong(meta, IJKM_KEY_SAR_NUM, mSarNum);
+                putLong(meta, IJKM_KEY_SAR_DEN, mSarDen);
+            } else if (IJKM_VAL_TYPE__AUDIO.equals(mType)) {
+                putLong(meta, IJKM_KEY_SAMPLE_RATE, mSampleRate);
+                putLong(meta, IJKM_KEY_CHANNEL_LAYOUT, mChannelLayout);
+            }
+
+            mMeta = meta;
+            return meta;
         }
 
         public int getInt(String key) {
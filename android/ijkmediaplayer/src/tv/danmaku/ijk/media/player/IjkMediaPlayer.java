@@ -20,8 +20,11 @@ package tv.danmaku.ijk.media.player;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 import tv.danmaku.ijk.media.player.annotations.AccessedByNative;
 import tv.danmaku.ijk.media.player.annotations.CalledByNative;
@@ -63,6 +66,16 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
     private static final int MEDIA_INFO = 200;
 
     protected static final int MEDIA_SET_VIDEO_SAR = 10001;
+    private static final int MEDIA_EVENT_RING = 10002;
+
+    /*
+     * Layout of the event ring shared with native message loop, in int32:
+     *   header[EVENT_RING_HEADER_INTS], header[0] = bank to read
+     *   bank[2][EVENT_RING_CAPACITY][EVENT_RING_RECORD_INTS] of (what, arg1, arg2)
+     */
+    private static final int EVENT_RING_HEADER_INTS = 4;
+    private static final int EVENT_RING_RECORD_INTS = 3;
+    private static final int EVENT_RING_CAPACITY = 64;
 
     @AccessedByNative
     private long mNativeMediaPlayer;
@@ -74,7 +87,14 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
     private int mListenerContext;
 
     private SurfaceHolder mSurfaceHolder;
+    private Surface mSurface;
+    // display of previous player, taken over when started as next
+    private SurfaceHolder mSharedSurfaceHolder;
+    private Surface mSharedSurface;
     private EventHandler mEventHandler;
+    private ByteBuffer mEventRing;
+    private final int[] mEventBatch = new int[EVENT_RING_CAPACITY * EVENT_RING_RECORD_INTS];
+    private int mEventGeneration; // bumped by reset() and recycleAsync(), stale batches stop there
     private PowerManager.WakeLock mWakeLock = null;
     private boolean mScreenOnWhilePlaying;
     private boolean mStayAwake;
@@ -87,11 +107,14 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
     private String mDataSource;
     private String mFFConcatContent;
 
+    // decoded from native meta record, dropped on MEDIA_INFO_METADATA_UPDATE
+    private MediaInfo mMediaInfo;
+
     /**
      * Default library loader
      * Load them by yourself, if your libraries are not installed at default place.
      */
-    private static IjkLibLoader sLocalLibLoader = new IjkLibLoader() {
+    static IjkLibLoader sLocalLibLoader = new IjkLibLoader() {
         @Override
         public void loadLibrary(String libName) throws UnsatisfiedLinkError, SecurityException {
             System.loadLibrary(libName);
@@ -112,7 +135,7 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
     }
 
     private static volatile boolean mIsNativeInitialized = false;
-    private static void initNativeOnce() {
+    static void initNativeOnce() {
         synchronized (IjkMediaPlayer.class) {
             if (!mIsNativeInitialized) {
                 native_init();
@@ -121,6 +144,72 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
         }
     }
 
+    /**
+     * @return true if libraries are loaded and native part is initialized,
+     *         constructors then do not wait for any loading.
+     */
+    public static boolean isNativeReady() {
+        return mIsLibLoaded && mIsNativeInitialized;
+    }
+
+    public static interface PreloadCallback {
+        public void onPreloaded();
+        public void onPreloadFailed(Throwable e);
+    }
+
+    /**
+     * Load libraries, initialize native part and warm up codec list on
+     * {@code executor}, e.g. at application start, so that the first
+     * constructor on main thread does not pay for them.
+     * <p>
+     * A constructor called while preloading is still running waits for the
+     * running load to finish instead of loading again.
+     * </p>
+     * 
+     * @param libLoader
+     *            null for default loader
+     * @param executor
+     *            where the work is done, null to use a new thread
+     * @param callback
+     *            called on the worker thread when done, may be null
+     */
+    public static void preloadAsync(IjkLibLoader libLoader, Executor executor, final PreloadCallback callback) {
+        final IjkLibLoader loader = libLoader != null ? libLoader : sLocalLibLoader;
+        Runnable preload = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loadLibrariesOnce(loader);
+                    initNativeOnce();
+                    warmUpMediaCodecList();
+                } catch (Throwable e) {
+                    DebugLog.e(TAG, "preloadAsync: failed", e);
+                    if (callback != null)
+                        callback.onPreloadFailed(e);
+                    return;
+                }
+                if (callback != null)
+                    callback.onPreloaded();
+            }
+        };
+
+        if (executor != null) {
+            executor.execute(preload);
+        } else {
+            Thread thread = new Thread(preload, "IjkPreload");
+            thread.start();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void warmUpMediaCodecList() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+            return;
+
+        // first query parses codec list of device
+        MediaCodecList.getCodecCount();
+    }
+
     /**
      * Default constructor. Consider using one of the create() methods for
      * synchronously instantiating a IjkMediaPlayer from a Uri or resource.
@@ -143,8 +232,10 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
     }
 
     private void initPlayer(IjkLibLoader libLoader) {
-        loadLibrariesOnce(libLoader);
-        initNativeOnce();
+        if (!isNativeReady()) {
+            loadLibrariesOnce(libLoader);
+            initNativeOnce();
+        }
 
         Looper looper;
         if ((looper = Looper.myLooper()) != null) {
@@ -160,6 +251,49 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
          * create it here than in C++.
          */
         native_setup(new WeakReference<IjkMediaPlayer>(this));
+
+        /*
+         * Events are batched by native message loop into a direct buffer,
+         * and drained on the looper with a single message per batch.
+         */
+        if (mEventHandler != null) {
+            int ringInts = EVENT_RING_HEADER_INTS + 2 * EVENT_RING_CAPACITY * EVENT_RING_RECORD_INTS;
+            mEventRing = ByteBuffer.allocateDirect(ringInts * 4).order(ByteOrder.nativeOrder());
+            _setEventRing(mEventRing);
+        }
+    }
+
+    private native void _setEventRing(ByteBuffer eventRing);
+
+    private native int _drainEventRing();
+
+    private void drainEventRing() {
+        int count = _drainEventRing();
+        if (count <= 0 || mEventRing == null)
+            return;
+
+        // copy out first, a listener may reset player and drain again, which
+        // hands the front bank back to native
+        int bank = mEventRing.getInt(0);
+        int offset = (EVENT_RING_HEADER_INTS + bank * EVENT_RING_CAPACITY * EVENT_RING_RECORD_INTS) * 4;
+        int[] batch = mEventBatch;
+        for (int i = 0; i < count * EVENT_RING_RECORD_INTS; ++i) {
+            batch[i] = mEventRing.getInt(offset);
+            offset += 4;
+        }
+
+        int generation = mEventGeneration;
+        for (int i = 0; i < count; ++i) {
+            // listeners may release or reset player while dispatching the batch
+            if (mNativeMediaPlayer == 0 || generation != mEventGeneration)
+                return;
+
+            int what = batch[i * EVENT_RING_RECORD_INTS];
+            int arg1 = batch[i * EVENT_RING_RECORD_INTS + 1];
+            int arg2 = batch[i * EVENT_RING_RECORD_INTS + 2];
+
+            EventHandler.dispatchEvent(this, what, arg1, arg2);
+        }
     }
 
     /*
@@ -190,6 +324,7 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
         } else {
             surface = null;
         }
+        mSurface = surface;
         _setVideoSurface(surface);
         updateSurfaceScreenOn();
     }
@@ -220,6 +355,7 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
                     "setScreenOnWhilePlaying(true) is ineffective for Surface");
         }
         mSurfaceHolder = null;
+        mSurface = surface;
         _setVideoSurface(surface);
         updateSurfaceScreenOn();
     }
@@ -378,6 +514,29 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
     @Override
     public native void seekTo(long msec) throws IllegalStateException;
 
+    /*
+     * Seek modes accepted by seekTo(long, int)
+     */
+    public static final int SEEK_MODE_FAST = 0;             // land on the keyframe found by demuxer
+    public static final int SEEK_MODE_EXACT = 1;            // decode and drop frames up to the target
+    public static final int SEEK_MODE_NEAREST_CACHED = 2;   // jump to a buffered keyframe if possible
+
+    /**
+     * Seeks to the specified time position with the given mode. A seek
+     * requested before the previous one completes replaces it, only the
+     * latest target is performed.
+     *
+     * @param msec the offset in milliseconds from the start to seek to
+     * @param seekMode one of SEEK_MODE_FAST, SEEK_MODE_EXACT or
+     *            SEEK_MODE_NEAREST_CACHED; the last falls back to
+     *            SEEK_MODE_FAST when the target is not buffered
+     */
+    public void seekTo(long msec, int seekMode) throws IllegalStateException {
+        _seekToMode(msec, seekMode);
+    }
+
+    private native void _seekToMode(long msec, int seekMode) throws IllegalStateException;
+
     @Override
     public native long getCurrentPosition();
 
@@ -393,6 +552,115 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
     @Override
     public native int getBitRate();
 
+    /*
+     * Indices of the values filled by getStatistics(long[])
+     */
+    public static final int STAT_CURRENT_POSITION = 0;          // ms
+    public static final int STAT_DURATION = 1;                  // ms
+    public static final int STAT_PLAYABLE_DURATION = 2;         // ms
+    public static final int STAT_AUDIO_CACHED_BYTES = 3;
+    public static final int STAT_AUDIO_CACHED_PACKETS = 4;
+    public static final int STAT_AUDIO_CACHED_DURATION = 5;     // ms
+    public static final int STAT_VIDEO_CACHED_BYTES = 6;
+    public static final int STAT_VIDEO_CACHED_PACKETS = 7;
+    public static final int STAT_VIDEO_CACHED_DURATION = 8;     // ms
+    public static final int STAT_FRAME_DROPS_EARLY = 9;
+    public static final int STAT_FRAME_DROPS_LATE = 10;
+    public static final int STAT_DECODE_FPS_X100 = 11;
+    public static final int STAT_RENDER_FPS_X100 = 12;
+    public static final int STAT_BIT_RATE = 13;                 // kbit/s, measured on input
+    public static final int STAT_BUFFERING = 14;                // 0 or 1
+    public static final int STAT_ABSOLUTE_TIMESTAMP = 15;
+    public static final int STAT_BANDWIDTH_ESTIMATE = 16;       // bit/s, measured while reading
+    public static final int STAT_FRAME_BYTES = 17;              // held by decoded pictures
+    public static final int STAT_MEMORY_LIMIT = 18;             // packet bytes allowed by IjkMemoryBudget, -1 if no limit
+    public static final int STAT_DECODE_DEGRADE_LEVEL = 19;     // DECODE_DEGRADE_*, see setFrameDrop(int)
+    public static final int STAT_PACKET_POOL_HITS = 20;         // packet payloads from a reused buffer
+    public static final int STAT_PACKET_POOL_MISSES = 21;       // packet payloads from a new pooled buffer
+    public static final int STAT_PICTQ_DEPTH = 22;              // frames picture queue holds at most now
+    public static final int STAT_MSG_QUEUE_DEPTH = 23;          // native events not delivered yet
+    public static final int STAT_MSG_COALESCED = 24;            // buffering and bandwidth updates replaced by newer ones
+    public static final int STAT_MSG_DROPPED = 25;              // size, sar and metadata events dropped when queue was full
+    public static final int STAT_COUNT = 26;
+
+    /**
+     * Fills {@code out} with a snapshot of playback statistics, taken under a
+     * single native lock. Values are indexed by the STAT_* constants; an array
+     * shorter than {@link #STAT_COUNT} receives only the leading values.
+     *
+     * Reuse the same array when polling, nothing is allocated per call.
+     *
+     * @param out the array to fill
+     * @return the number of values filled
+     */
+    public int getStatistics(long[] out) {
+        if (out == null)
+            throw new IllegalArgumentException("out must not be null");
+        return _getStatistics(out);
+    }
+
+    private native int _getStatistics(long[] out);
+
+    /**
+     * Network throughput measured over the time blocked in reading, so idle
+     * periods, e.g. queues are full or paused, do not drag it down. Also
+     * posted about once a second while reading, as
+     * {@link IMediaPlayer#MEDIA_INFO_NETWORK_BANDWIDTH} in kbit/s.
+     *
+     * @return moving average in bit/s, 0 if unknown
+     */
+    public long getBandwidthEstimate() {
+        return _getBandwidthEstimate(-1);
+    }
+
+    /**
+     * @param percentile
+     *            0 ~ 100, e.g. 10 for a conservative estimate
+     * @return percentile of recent samples in bit/s, 0 if unknown
+     */
+    public long getBandwidthEstimate(int percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile must be in [0, 100]");
+        return _getBandwidthEstimate(percentile);
+    }
+
+    private native long _getBandwidthEstimate(int percentile);
+
+    public static final int PICTQ_HISTOGRAM_DEPTH = 0;
+    public static final int PICTQ_HISTOGRAM_OCCUPANCY = 1;
+    public static final int PICTQ_HISTOGRAM_SIZE = 17;
+
+    /**
+     * Frames shown since prepared, bucketed by picture queue depth, or by
+     * pictures ready in the queue when shown. Bucket i counts frames shown
+     * with i pictures, the last bucket also counts more.
+     *
+     * @param type
+     *            {@link #PICTQ_HISTOGRAM_DEPTH} or
+     *            {@link #PICTQ_HISTOGRAM_OCCUPANCY}
+     * @param out
+     *            up to {@link #PICTQ_HISTOGRAM_SIZE} buckets
+     * @return the number of buckets filled
+     */
+    public int getPictureQueueHistogram(int type, long[] out) {
+        if (out == null)
+            throw new IllegalArgumentException("out must not be null");
+        return _getPictureQueueHistogram(type, out);
+    }
+
+    private native int _getPictureQueueHistogram(int type, long[] out);
+
+    /**
+     * @return bytes held by cached packets and decoded pictures, as counted
+     *         by {@link IjkMemoryBudget}
+     */
+    public long getMemoryUsage() {
+        long[] stats = new long[STAT_COUNT];
+        if (_getStatistics(stats) < STAT_COUNT)
+            return 0;
+        return stats[STAT_AUDIO_CACHED_BYTES] + stats[STAT_VIDEO_CACHED_BYTES] + stats[STAT_FRAME_BYTES];
+    }
+
     /**
      * Releases resources associated with this IjkMediaPlayer object. It is
      * considered good practice to call this method when you're done using the
@@ -419,24 +687,219 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
 
     private native void _release();
 
+    /**
+     * Same as {@link #release()}, but returns at once. The player is detached
+     * from this object immediately, stopping and freeing native resources is
+     * done by a native reaper thread, which may take long on a stalled
+     * network read.
+     * 
+     * @param listener
+     *            called after native resources are freed, on the thread
+     *            calling this method if it has a {@link Looper}, otherwise
+     *            on the main thread. May be null.
+     */
+    public void releaseAsync(OnReleaseCompleteListener listener) {
+        stayAwake(false);
+        updateSurfaceScreenOn();
+        resetListeners();
+        if (mEventHandler != null) {
+            mEventHandler.removeCallbacksAndMessages(null);
+        }
+
+        ReleaseToken token = null;
+        if (listener != null) {
+            Looper looper = Looper.myLooper();
+            if (looper == null)
+                looper = Looper.getMainLooper();
+            token = new ReleaseToken(new Handler(looper), listener);
+        }
+
+        if (mNativeMediaPlayer == 0) {
+            if (token != null)
+                token.post();
+            return;
+        }
+        _releaseAsync(token);
+    }
+
+    private native void _releaseAsync(Object token);
+
+    public static interface OnReleaseCompleteListener {
+        public void onReleaseComplete();
+    }
+
+    private static class ReleaseToken implements Runnable {
+        private final Handler mHandler;
+        private final OnReleaseCompleteListener mListener;
+
+        public ReleaseToken(Handler handler, OnReleaseCompleteListener listener) {
+            mHandler = handler;
+            mListener = listener;
+        }
+
+        public void post() {
+            mHandler.post(this);
+        }
+
+        @Override
+        public void run() {
+            mListener.onReleaseComplete();
+        }
+    }
+
+    @CalledByNative
+    private static void onNativeReleased(Object token) {
+        if (token == null || !(token instanceof ReleaseToken))
+            return;
+
+        ((ReleaseToken) token).post();
+    }
+
     @Override
     public void reset() {
         stayAwake(false);
+        mEventGeneration++;
         _reset();
         // make sure none of the listeners get called anymore
         mEventHandler.removeCallbacksAndMessages(null);
+        _drainEventRing();
 
+        mMediaInfo = null;
         mVideoWidth = 0;
         mVideoHeight = 0;
     }
 
     private native void _reset();
 
+    /**
+     * Set the player to start when this player finishes playback, for
+     * gapless transition between items.
+     * <p>
+     * Call {@link #prepareAsync()} on {@code next} without
+     * {@link #start()}, it keeps reading and decoding in background, but
+     * is held at its first frame. It is started natively at completion of
+     * this player, and then reports
+     * {@link IMediaPlayer#MEDIA_INFO_STARTED_AS_NEXT}.
+     * </p>
+     * If {@code next} has no display at the switch, it takes over the
+     * display of this player then. Sharing works with software rendering
+     * only, MediaCodec can not attach to a surface in use.
+     * 
+     * @param next
+     *            the player to start after this one, or null to clear
+     * @throws IllegalStateException
+     *             if {@code next} is already started or completed
+     */
+    public void setNextMediaPlayer(IjkMediaPlayer next) {
+        if (next == this)
+            throw new IllegalArgumentException("next player can not be this player");
+
+        boolean shareDisplay = next != null && next.mSurface == null && mSurface != null;
+        _setNextMediaPlayer(next, shareDisplay);
+        if (next != null) {
+            // handed over natively right before next is started
+            next.mSharedSurfaceHolder = shareDisplay ? mSurfaceHolder : null;
+            next.mSharedSurface = shareDisplay ? mSurface : null;
+        }
+    }
+
+    private native void _setNextMediaPlayer(IjkMediaPlayer next, boolean shareDisplay);
+
+    /* started natively at completion of previous player, only client side state here */
+    private void onStartedAsNext() {
+        if (mSurface == null && mSharedSurface != null) {
+            mSurfaceHolder = mSharedSurfaceHolder;
+            mSurface = mSharedSurface;
+        }
+        mSharedSurfaceHolder = null;
+        mSharedSurface = null;
+        stayAwake(true);
+    }
+
+    /**
+     * Same as {@link #reset()}, but native video/audio output and pipeline
+     * are kept alive, so that {@link IjkMediaPlayerPool} can hand out this
+     * player again without paying for native setup.
+     * Listeners and surface are detached at once, stopping is done by the
+     * native reaper thread, as in {@link #releaseAsync(OnReleaseCompleteListener)}.
+     * The player must not be used before {@code listener} is called, on
+     * the thread calling this method if it has a {@link Looper}, otherwise
+     * on the main thread.
+     */
+    void recycleAsync(final OnReleaseCompleteListener listener) {
+        stayAwake(false);
+        mEventGeneration++;
+        resetListeners();
+        mOnControlMessageListener = null;
+        mSurfaceHolder = null;
+        mSurface = null;
+        mSharedSurfaceHolder = null;
+        mSharedSurface = null;
+        // make sure none of the listeners get called anymore
+        if (mEventHandler != null) {
+            mEventHandler.removeCallbacksAndMessages(null);
+        }
+        clearMediaState();
+
+        Looper looper = Looper.myLooper();
+        if (looper == null)
+            looper = Looper.getMainLooper();
+        ReleaseToken token = new ReleaseToken(new Handler(looper), new OnReleaseCompleteListener() {
+            @Override
+            public void onReleaseComplete() {
+                // drop events posted while stopping
+                if (mEventHandler != null) {
+                    mEventHandler.removeCallbacksAndMessages(null);
+                }
+                _drainEventRing();
+                clearMediaState();
+
+                if (listener != null)
+                    listener.onReleaseComplete();
+            }
+        });
+        _recycleAsync(token);
+    }
+
+    private void clearMediaState() {
+        mDataSource = null;
+        mFFConcatContent = null;
+        mMediaInfo = null;
+        mVideoWidth = 0;
+        mVideoHeight = 0;
+        mVideoSarNum = 0;
+        mVideoSarDen = 0;
+    }
+
+    private native void _recycleAsync(Object token);
+
     public native void setVolume(float leftVolume, float rightVolume);
 
+    /**
+     * The returned object is cached and shared between calls until the next
+     * {@link IMediaPlayer#MEDIA_INFO_METADATA_UPDATE}, do not modify it.
+     */
     @Override
     public MediaInfo getMediaInfo() {
-        MediaInfo mediaInfo = new MediaInfo();
+        MediaInfo mediaInfo = mMediaInfo;
+        if (mediaInfo != null)
+            return mediaInfo;
+
+        IjkMediaMeta meta = IjkMediaMeta.parseRecord(_getMediaMetaRecord());
+        if (meta != null) {
+            mediaInfo = new MediaInfo();
+            mediaInfo.mMediaPlayerName = "ijkplayer";
+            mediaInfo.mVideoDecoder = meta.mVideoDecoder;
+            mediaInfo.mVideoDecoderImpl = meta.mVideoDecoderImpl != null ? meta.mVideoDecoderImpl : "";
+            mediaInfo.mAudioDecoder = meta.mAudioDecoder;
+            mediaInfo.mAudioDecoderImpl = meta.mAudioDecoderImpl != null ? meta.mAudioDecoderImpl : "";
+            mediaInfo.mMeta = meta;
+            mMediaInfo = mediaInfo;
+            return mediaInfo;
+        }
+
+        // not prepared yet, nothing worth caching
+        mediaInfo = new MediaInfo();
         mediaInfo.mMediaPlayerName = "ijkplayer";
 
         String videoCodecInfo = _getVideoCodecInfo();
@@ -505,11 +968,76 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
      *      =0 do not drop any frame
      *      <0 drop as many frames as possible
      *      >0 display 1 frame per `frameDrop` continuous dropped frames, 
+     *
+     * Unless 0, a software decoder that keeps dropping frames also degrades
+     * decoding step by step: skip loop filter, skip non-reference frames,
+     * then skip to next keyframe queued; and steps back after a few seconds
+     * without drops. See {@link #STAT_DECODE_DEGRADE_LEVEL}.
      */
     public void setFrameDrop(int frameDrop) {
         _setFrameDrop(frameDrop);
     }
 
+    /**
+     * Size picture queue at runtime to cover gaps between decoded frames,
+     * e.g. deeper for bursty MediaCodec output. It grows above 3 frames only
+     * while all of them fit in 48MB of pictures, which 3 frames of 4K fit
+     * in YV12, but not in RV32 at about 100MB; those stay at 3 frames.
+     * Takes effect at next prepare.
+     * See {@link #STAT_PICTQ_DEPTH} and
+     * {@link #getPictureQueueHistogram(int, long[])}.
+     *
+     * @param maxFrames
+     *            upper bound, up to 16, 0 or less to keep 3 frames
+     */
+    public void setPictureQueueAdaptive(int maxFrames) {
+        _setPictureQueueAdaptive(maxFrames);
+    }
+
+    /**
+     * Refresh video on a small pool of threads shared by all players, one
+     * per cpu up to 4, instead of a thread of its own, e.g. for a feed
+     * playing several videos. Reading, decoding and audio output keep
+     * their own threads. Takes effect at next prepare.
+     */
+    public void setSharedRefresh(boolean shared) {
+        _setSharedRefresh(shared);
+    }
+
+    public static final int DECODE_DEGRADE_NONE = 0;
+    public static final int DECODE_DEGRADE_SKIP_LOOP_FILTER = 1;
+    public static final int DECODE_DEGRADE_SKIP_NONREF = 2;     // about half the frame rate
+    public static final int DECODE_DEGRADE_SKIP_TO_KEYFRAME = 3;
+    public static final int DECODE_DEGRADE_KEYFRAME_ONLY = 4;
+
+    /**
+     * Keep software decoding at least this degraded, e.g. for secondary
+     * views of a multi-view player. Applies at once, dropping frames may
+     * still degrade further, see {@link #setFrameDrop(int)}. Lifting it from
+     * {@link #DECODE_DEGRADE_KEYFRAME_ONLY} resumes from a queued keyframe
+     * if any. MediaCodec decodes all frames regardless.
+     *
+     * @param level
+     *            one of DECODE_DEGRADE_*
+     */
+    public void setDecodeDegradeFloor(int level) {
+        _setDecodeDegradeFloor(level);
+    }
+
+    /**
+     * Present video by a clock at {@code msec} now instead of own audio,
+     * e.g. {@link #getCurrentPosition()} of another player showing the same
+     * event. The clock runs freely until set again, so call it a few times
+     * a second.
+     *
+     * @param msec
+     *            position in milliseconds, negative to follow own audio
+     *            again
+     */
+    public void setSyncClock(long msec) {
+        _setSyncClock(msec);
+    }
+
     public void setMediaCodecEnabled(boolean enabled) {
         _setMediaCodecEnabled(enabled);
     }
@@ -523,6 +1051,10 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
     private native void _setSwScaleOption(String name, String value);
     private native void _setOverlayFormat(int chromaFourCC);
     private native void _setFrameDrop(int frameDrop);
+    private native void _setPictureQueueAdaptive(int maxFrames);
+    private native void _setSharedRefresh(boolean shared);
+    private native void _setDecodeDegradeFloor(int level);
+    private native void _setSyncClock(long msec);
     private native void _setMediaCodecEnabled(boolean enabled);
     private native void _setOpenSLESEnabled(boolean enabled);
     
@@ -533,6 +1065,7 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
         return _getMediaMeta();
     }
     private native Bundle _getMediaMeta();
+    private native byte[] _getMediaMetaRecord();
 
     public static String getColorFormatName(int mediaCodecColorFormat) {
         return _getColorFormatName(mediaCodecColorFormat);
@@ -540,6 +1073,65 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
 
     private static native final String _getColorFormatName(int mediaCodecColorFormat);
 
+    /*
+     * Roles of native threads, see setThreadRole(int, int, int, int, long)
+     */
+    public static final int THREAD_ROLE_DEMUX = 1;
+    public static final int THREAD_ROLE_VIDEO_DECODE = 2;
+    public static final int THREAD_ROLE_AUDIO_DECODE = 3;
+    public static final int THREAD_ROLE_AUDIO_OUT = 4;
+    public static final int THREAD_ROLE_RENDER = 5;
+    public static final int THREAD_ROLE_MESSAGE = 6;
+
+    public static final int THREAD_POLICY_NORMAL = 0;
+    public static final int THREAD_POLICY_FIFO = 1;
+    public static final int THREAD_POLICY_RR = 2;
+
+    /**
+     * Scheduling of native threads of a role for all players, applied when
+     * such a thread starts, e.g. keep audio output on the big cores of a
+     * big.LITTLE device. Shared render workers, see
+     * {@link #setSharedRefresh(boolean)}, apply it again before their next
+     * frame. By default audio output runs at nice -16 and render
+     * at nice -4, like audio and display threads of the framework, the
+     * others inherit from the caller.
+     *
+     * @param role
+     *            one of THREAD_ROLE_*
+     * @param nice
+     *            -20 ~ 19, also used when a realtime policy is refused, as
+     *            it usually is for apps
+     * @param policy
+     *            one of THREAD_POLICY_*
+     * @param rtPriority
+     *            for {@link #THREAD_POLICY_FIFO} and {@link #THREAD_POLICY_RR}
+     * @param cpuMask
+     *            bit n allows cpu n, 0 for any
+     */
+    public static void setThreadRole(int role, int nice, int policy, int rtPriority, long cpuMask) {
+        initNative();
+        _setThreadRole(role, nice, policy, rtPriority, cpuMask);
+    }
+
+    /**
+     * Back to default scheduling of native threads of a role.
+     */
+    public static void resetThreadRole(int role) {
+        initNative();
+        _resetThreadRole(role);
+    }
+
+    private static void initNative() {
+        if (!isNativeReady()) {
+            loadLibrariesOnce(sLocalLibLoader);
+            initNativeOnce();
+        }
+    }
+
+    private static native void _setThreadRole(int role, int nice, int policy, int rtPriority, long cpuMask);
+
+    private static native void _resetThreadRole(int role);
+
     @Override
     public void setAudioStreamType(int streamtype) {
         // do nothing
@@ -574,7 +1166,16 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
                 return;
             }
 
-            switch (msg.what) {
+            if (msg.what == MEDIA_EVENT_RING) {
+                player.drainEventRing();
+                return;
+            }
+
+            dispatchEvent(player, msg.what, msg.arg1, msg.arg2);
+        }
+
+        private static void dispatchEvent(IjkMediaPlayer player, int what, int arg1, int arg2) {
+            switch (what) {
             case MEDIA_PREPARED:
                 player.notifyOnPrepared();
                 return;
@@ -585,7 +1186,7 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
                 return;
 
             case MEDIA_BUFFERING_UPDATE:
-                long bufferPosition = msg.arg1;
+                long bufferPosition = arg1;
                 if (bufferPosition < 0) {
                     bufferPosition = 0;
                 }
@@ -608,25 +1209,30 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
                 return;
 
             case MEDIA_SET_VIDEO_SIZE:
-                player.mVideoWidth = msg.arg1;
-                player.mVideoHeight = msg.arg2;
+                player.mVideoWidth = arg1;
+                player.mVideoHeight = arg2;
                 player.notifyOnVideoSizeChanged(player.mVideoWidth, player.mVideoHeight,
                         player.mVideoSarNum, player.mVideoSarDen);
                 return;
 
             case MEDIA_ERROR:
-                DebugLog.e(TAG, "Error (" + msg.arg1 + "," + msg.arg2 + ")");
-                if (!player.notifyOnError(msg.arg1, msg.arg2)) {
+                DebugLog.e(TAG, "Error (" + arg1 + "," + arg2 + ")");
+                if (!player.notifyOnError(arg1, arg2)) {
                     player.notifyOnCompletion();
                 }
                 player.stayAwake(false);
                 return;
 
             case MEDIA_INFO:
-                if (msg.arg1 != MEDIA_INFO_VIDEO_TRACK_LAGGING) {
-                    DebugLog.i(TAG, "Info (" + msg.arg1 + "," + msg.arg2 + ")");
+                if (arg1 == MEDIA_INFO_METADATA_UPDATE) {
+                    player.mMediaInfo = null;
+                } else if (arg1 == MEDIA_INFO_STARTED_AS_NEXT) {
+                    player.onStartedAsNext();
+                }
+                if (arg1 != MEDIA_INFO_VIDEO_TRACK_LAGGING) {
+                    DebugLog.i(TAG, "Info (" + arg1 + "," + arg2 + ")");
                 }
-                player.notifyOnInfo(msg.arg1, msg.arg2);
+                player.notifyOnInfo(arg1, arg2);
                 // No real default action so far.
                 return;
             case MEDIA_TIMED_TEXT:
@@ -637,14 +1243,14 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
                 break;
 
             case MEDIA_SET_VIDEO_SAR:
-                player.mVideoSarNum = msg.arg1;
-                player.mVideoSarDen = msg.arg2;
+                player.mVideoSarNum = arg1;
+                player.mVideoSarDen = arg2;
                 player.notifyOnVideoSizeChanged(player.mVideoWidth, player.mVideoHeight,
                         player.mVideoSarNum, player.mVideoSarDen);
                 break;
 
             default:
-                DebugLog.e(TAG, "Unknown message type " + msg.what);
+                DebugLog.e(TAG, "Unknown message type " + what);
                 return;
             }
         }
@@ -669,11 +1275,6 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
             return;
         }
 
-        if (what == MEDIA_INFO && arg1 == MEDIA_INFO_STARTED_AS_NEXT) {
-            // this acquires the wakelock if needed, and sets the client side
-            // state
-            mp.start();
-        }
         if (mp.mEventHandler != null) {
             Message m = mp.mEventHandler.obtainMessage(what, arg1, arg2, obj);
             mp.mEventHandler.sendMessage(m);
@@ -886,6 +1487,147 @@ public final class IjkMediaPlayer extends SimpleMediaPlayer {
 		_setDataCache(cache);
 	}
 	private native void _setDataCache(int cache);
+
+    /**
+     * Decide when buffering ends. Limits apply at once, while playing the
+     * water mark restarts from {@link BufferingPolicy#getStartMs()} at next
+     * seek only.
+     *
+     * @param policy
+     *            null for defaults
+     */
+    public void setBufferingPolicy(BufferingPolicy policy) {
+        if (policy == null)
+            policy = new BufferingPolicy();
+
+        _setBufferingPolicy(policy.getStartMs(), policy.getNextMs(), policy.getMaxMs(),
+                policy.getHwmBytes(), policy.getMaxBufferBytes(), policy.getGrowthPercent(),
+                policy.getResumeMinPackets(), policy.isAdaptive());
+    }
+
+    private native void _setBufferingPolicy(int startMs, int nextMs, int maxMs,
+            int hwmBytes, int maxBufferBytes, int growthPercent,
+            int resumeMinPackets, boolean adaptive);
+
+    /**
+     * Players in background, or paused, are the first to give back cached
+     * packets when {@link IjkMemoryBudget} is exceeded.
+     */
+    public void setInBackground(boolean inBackground) {
+        _setInBackground(inBackground);
+    }
+
+    private native void _setInBackground(boolean inBackground);
+
+    public static final int LIVE_LATENCY_AGGRESSIVENESS_DEFAULT = 50;
+
+    /**
+     * Keep latency of a live stream around {@code targetMs}, instead of the
+     * stepping watermarks bounded by {@link #setDataCache(int)}. Takes effect
+     * at next prepare.
+     *
+     * @param targetMs
+     *            cached duration to hold, 0 to go back to setDataCache()
+     * @param minMs
+     *            no catching up below, 0 for half of target
+     * @param maxMs
+     *            cached packets are dropped when above for a while, 0 for
+     *            3 times of target
+     * @param aggressiveness
+     *            0 ~ 100, how hard to chase target, see
+     *            {@link #LIVE_LATENCY_AGGRESSIVENESS_DEFAULT}
+     */
+    public void setLiveLatency(int targetMs, int minMs, int maxMs, int aggressiveness) {
+        _setLiveLatency(targetMs, minMs, maxMs, aggressiveness);
+    }
+
+    private native void _setLiveLatency(int targetMs, int minMs, int maxMs, int aggressiveness);
+
+    /**
+     * Let a live stream behind its latency target catch up by playing
+     * faster, up to {@code maxSpeed}, with audio time-stretched to keep its
+     * pitch, instead of dropping audio packets. Cached packets are still
+     * flushed above maxMs of {@link #setLiveLatency(int, int, int, int)}.
+     * Needs a latency target. Takes effect at next prepare.
+     *
+     * @param maxSpeed
+     *            e.g. 1.15f, 1.02f at least; 1.0f or less to disable
+     */
+    public void setLiveCatchUpSpeed(float maxSpeed) {
+        _setLiveCatchUpSpeed(maxSpeed);
+    }
+
+    private native void _setLiveCatchUpSpeed(float maxSpeed);
+
+    /**
+     * Keep reading a live stream into a time-shift ring while paused, and
+     * keep the last {@code windowMs} of it, so that resume and
+     * {@link #seekTimeShift(long)} play from local data instead of
+     * rejoining the live edge. Without it, pausing a live stream drops all
+     * cached packets. Takes effect at next prepare, realtime streams only.
+     *
+     * @param windowMs
+     *            0 or less to disable
+     * @param maxBytes
+     *            ring size, older packets are dropped above it, 0 or less
+     *            for 32MB
+     * @param spillDir
+     *            directory for a file mapped ring, paged to disk by kernel,
+     *            null to keep it in memory
+     */
+    public void setTimeShift(int windowMs, long maxBytes, String spillDir) {
+        _setTimeShift(windowMs, maxBytes, spillDir);
+    }
+
+    private native void _setTimeShift(int windowMs, long maxBytes, String spillDir);
+
+    /**
+     * Play from the last keyframe {@code behindMs} before the live edge,
+     * within {@link #getTimeShiftWindow()}.
+     *
+     * @param behindMs
+     *            0 to go back live
+     * @return false if time-shift is not enabled on this stream
+     */
+    public boolean seekTimeShift(long behindMs) {
+        return _seekTimeShift(behindMs);
+    }
+
+    private native boolean _seekTimeShift(long behindMs);
+
+    /**
+     * @return ms of stream kept in time-shift ring, 0 if none
+     */
+    public long getTimeShiftWindow() {
+        return _getTimeShift(false);
+    }
+
+    /**
+     * @return ms playback is behind the live edge of time-shift ring
+     */
+    public long getTimeShiftDelay() {
+        return _getTimeShift(true);
+    }
+
+    private native long _getTimeShift(boolean delay);
+
+    /**
+     * Remember codec parameters of each source opened, one small file per
+     * source under {@code dir}, so that opening it again probes only enough
+     * to find its streams and takes the rest from the cache. If streams no
+     * longer match, it is probed again in full and the cache is updated.
+     * Takes effect at next prepare.
+     *
+     * @param dir
+     *            directory owned by the cache, null to disable
+     * @param key
+     *            identity of the source, null for the url without query
+     */
+    public void setStreamParamsCache(String dir, String key) {
+        _setStreamParamsCache(dir, key);
+    }
+
+    private native void _setStreamParamsCache(String dir, String key);
 	
 	@Override
 	public long getAbsoluteTimestamp()
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2013-2014 Zhang Rui <bbcallen@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+import java.util.ArrayDeque;
+
+import tv.danmaku.ijk.media.player.pragma.DebugLog;
+
+/**
+ * Keeps recycled {@link IjkMediaPlayer} instances whose native video/audio
+ * output and pipeline are still alive, so that switching data source does not
+ * pay for native setup again.
+ * 
+ * Players deliver events on the looper of the thread which created them, so
+ * acquire and recycle players on the same (usually UI) thread.
+ */
+public final class IjkMediaPlayerPool {
+    private final static String TAG = IjkMediaPlayerPool.class.getName();
+
+    /**
+     * Options applied to every player handed out by
+     * {@link IjkMediaPlayerPool#acquire()}. A recycled player keeps pipeline
+     * settings such as MediaCodec, so set them explicitly.
+     */
+    public static interface OptionProfile {
+        public void applyTo(IjkMediaPlayer mp);
+    }
+
+    private final ArrayDeque<IjkMediaPlayer> mIdlePlayers = new ArrayDeque<IjkMediaPlayer>();
+    private final IjkLibLoader mLibLoader;
+    private final int mMaxIdleCount;
+    private OptionProfile mOptionProfile;
+
+    public IjkMediaPlayerPool(int maxIdleCount) {
+        this(maxIdleCount, null);
+    }
+
+    /**
+     * @param maxIdleCount
+     *      max number of warm players kept in pool
+     * @param libLoader
+     *      null to use default library loader
+     */
+    public IjkMediaPlayerPool(int maxIdleCount, IjkLibLoader libLoader) {
+        mMaxIdleCount = maxIdleCount;
+        mLibLoader = libLoader;
+    }
+
+    public synchronized void setOptionProfile(OptionProfile profile) {
+        mOptionProfile = profile;
+    }
+
+    /**
+     * Create players until {@code count} warm players are available.
+     */
+    public void prewarm(int count) {
+        while (true) {
+            synchronized (this) {
+                if (mIdlePlayers.size() >= Math.min(count, mMaxIdleCount))
+                    return;
+            }
+
+            IjkMediaPlayer mp = createPlayer();
+            synchronized (this) {
+                mIdlePlayers.addLast(mp);
+            }
+        }
+    }
+
+    public IjkMediaPlayer acquire() {
+        OptionProfile profile;
+        synchronized (this) {
+            profile = mOptionProfile;
+        }
+        return acquire(profile);
+    }
+
+    /**
+     * @param profile
+     *      options applied to player before it is returned,
+     *      overrides the profile of this pool
+     */
+    public IjkMediaPlayer acquire(OptionProfile profile) {
+        IjkMediaPlayer mp;
+        synchronized (this) {
+            mp = mIdlePlayers.pollFirst();
+        }
+        if (mp == null) {
+            mp = createPlayer();
+        }
+
+        if (profile != null) {
+            profile.applyTo(mp);
+        }
+        return mp;
+    }
+
+    /**
+     * Take back a player acquired from this pool. The player must not be
+     * used by caller any more. It is stopped on a native reaper thread,
+     * and kept warm once stopped if the pool is not full.
+     */
+    public void recycle(final IjkMediaPlayer mp) {
+        if (mp == null)
+            return;
+
+        try {
+            mp.recycleAsync(new IjkMediaPlayer.OnReleaseCompleteListener() {
+                @Override
+                public void onReleaseComplete() {
+                    keepIdle(mp);
+                }
+            });
+        } catch (IllegalStateException e) {
+            DebugLog.w(TAG, "recycle: drop broken player");
+            mp.releaseAsync(null);
+        }
+    }
+
+    private void keepIdle(IjkMediaPlayer mp) {
+        synchronized (this) {
+            if (mIdlePlayers.size() < mMaxIdleCount && !mIdlePlayers.contains(mp)) {
+                mIdlePlayers.addLast(mp);
+                return;
+            }
+        }
+        mp.releaseAsync(null);
+    }
+
+    /**
+     * Release all warm players, e.g. when application is going to background.
+     */
+    public void clear() {
+        while (true) {
+            IjkMediaPlayer mp;
+            synchronized (this) {
+                mp = mIdlePlayers.pollFirst();
+            }
+            if (mp == null)
+                return;
+
+            mp.releaseAsync(null);
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdlePlayers.size();
+    }
+
+    private IjkMediaPlayer createPlayer() {
+        if (mLibLoader != null)
+            return new IjkMediaPlayer(mLibLoader);
+
+        return new IjkMediaPlayer();
+    }
+}
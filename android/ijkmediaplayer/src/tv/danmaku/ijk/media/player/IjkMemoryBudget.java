@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013-2014 Zhang Rui <bbcallen@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.danmaku.ijk.media.player;
+
+/**
+ * Process-wide limit of memory held by cached packets and decoded pictures
+ * of all {@link IjkMediaPlayer}s, e.g. for a feed playing several videos.
+ * <p>
+ * Over the limit, players in background or paused
+ * ({@link IjkMediaPlayer#setInBackground(boolean)}) give back cached packets
+ * first and read them again when needed; the others stop reading ahead
+ * until under the limit. Usage of each player is
+ * {@link IjkMediaPlayer#getMemoryUsage()}.
+ * </p>
+ */
+public final class IjkMemoryBudget {
+    private IjkMemoryBudget() {
+    }
+
+    private static void initNative() {
+        if (!IjkMediaPlayer.isNativeReady()) {
+            IjkMediaPlayer.loadLibrariesOnce(IjkMediaPlayer.sLocalLibLoader);
+            IjkMediaPlayer.initNativeOnce();
+        }
+    }
+
+    /**
+     * @param limitBytes
+     *            0 or less for no limit, which is the default
+     */
+    public static void setLimit(long limitBytes) {
+        initNative();
+        _setLimit(limitBytes);
+    }
+
+    /**
+     * @return limit in bytes, 0 if no limit
+     */
+    public static long getLimit() {
+        initNative();
+        return _getLimit();
+    }
+
+    /**
+     * @return bytes held by all players, as last reported about twice a
+     *         second while reading
+     */
+    public static long getUsage() {
+        initNative();
+        return _getUsage();
+    }
+
+    private static native void _setLimit(long limitBytes);
+
+    private static native long _getLimit();
+
+    private static native long _getUsage();
+}
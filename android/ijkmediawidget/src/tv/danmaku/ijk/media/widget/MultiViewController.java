@@ -0,0 +1,239 @@
+package tv.danmaku.ijk.media.widget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.os.Handler;
+import tv.danmaku.ijk.media.player.IjkMediaPlayer;
+
+/**
+ * Plays several {@link VideoView}s of the same event together, e.g. camera
+ * angles.
+ * <p>
+ * The primary view plays audio and decodes every frame. The others are
+ * muted and present video by the position of the primary. Within the
+ * decode budget, see {@link #setDecodeBudget(int, int)}, secondary views
+ * decode all frames, then about half of them, the rest keyframes only.
+ * While the primary keeps dropping frames, secondary views step down one
+ * more level each second, and back after a few calm seconds.
+ * </p>
+ * <p>
+ * {@link #setPrimary(VideoView)} only changes these settings, no view is
+ * opened again. Views open their own streams as before, and play on their
+ * own while the primary is not playing; call all methods on the main
+ * thread.
+ * </p>
+ */
+public class MultiViewController {
+    private static final String TAG = MultiViewController.class.getName();
+
+    public static final int DEFAULT_FULL_VIEWS = 1;
+    public static final int DEFAULT_REDUCED_VIEWS = 1;
+
+    private static final int SYNC_INTERVAL_MS = 250;
+    private static final int PRESSURE_CHECK_SYNCS = 4;
+    private static final int PRESSURE_CALM_CHECKS = 5;
+
+    // from light to heavy, secondary views step along it under pressure
+    private static final int[] SECONDARY_LEVELS = {
+            IjkMediaPlayer.DECODE_DEGRADE_NONE,
+            IjkMediaPlayer.DECODE_DEGRADE_SKIP_NONREF,
+            IjkMediaPlayer.DECODE_DEGRADE_KEYFRAME_ONLY };
+
+    private final ArrayList<VideoView> mViews = new ArrayList<VideoView>();
+    private VideoView mPrimary;
+
+    private int mFullViews = DEFAULT_FULL_VIEWS;
+    private int mReducedViews = DEFAULT_REDUCED_VIEWS;
+
+    private int mPressure;
+    private int mSyncCount;
+    private int mCalmChecks;
+    private final long[] mStats = new long[IjkMediaPlayer.STAT_COUNT];
+
+    private boolean mSyncing;
+    private final Handler mHandler = new Handler();
+    private final Runnable mSyncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sync();
+            mHandler.postDelayed(this, SYNC_INTERVAL_MS);
+        }
+    };
+
+    /**
+     * The first view added becomes primary.
+     */
+    public void addView(VideoView view) {
+        if (view == null || mViews.contains(view))
+            return;
+
+        mViews.add(view);
+        if (mPrimary == null)
+            mPrimary = view;
+        apply();
+    }
+
+    /**
+     * Give back the view to play on its own.
+     */
+    public void removeView(VideoView view) {
+        if (!mViews.remove(view))
+            return;
+
+        detach(view);
+        if (mPrimary == view)
+            mPrimary = mViews.isEmpty() ? null : mViews.get(0);
+        apply();
+    }
+
+    public List<VideoView> getViews() {
+        return Collections.unmodifiableList(mViews);
+    }
+
+    public VideoView getPrimary() {
+        return mPrimary;
+    }
+
+    /**
+     * Move audio and full decoding to {@code view} at once.
+     */
+    public void setPrimary(VideoView view) {
+        if (!mViews.contains(view))
+            throw new IllegalArgumentException("view is not added");
+        if (view == mPrimary)
+            return;
+
+        mPrimary = view;
+        mPressure = 0;
+        mCalmChecks = 0;
+        apply();
+        sync();
+    }
+
+    /**
+     * @param fullViews
+     *            views decoding all frames, the primary included
+     * @param reducedViews
+     *            views after them decoding about half of the frames, the
+     *            others decode keyframes only
+     */
+    public void setDecodeBudget(int fullViews, int reducedViews) {
+        mFullViews = Math.max(fullViews, 1);
+        mReducedViews = Math.max(reducedViews, 0);
+        apply();
+    }
+
+    public void start() {
+        for (VideoView view : mViews)
+            view.start();
+
+        if (!mSyncing) {
+            mSyncing = true;
+            mHandler.post(mSyncRunnable);
+        }
+    }
+
+    public void pause() {
+        mSyncing = false;
+        mHandler.removeCallbacks(mSyncRunnable);
+
+        for (VideoView view : mViews)
+            view.pause();
+    }
+
+    public void seekTo(long msec) {
+        for (VideoView view : mViews)
+            view.seekTo(msec);
+    }
+
+    /**
+     * Stop syncing and give back all views, views are not stopped.
+     */
+    public void release() {
+        mSyncing = false;
+        mHandler.removeCallbacks(mSyncRunnable);
+
+        for (VideoView view : mViews)
+            detach(view);
+        mViews.clear();
+        mPrimary = null;
+    }
+
+    private static void detach(VideoView view) {
+        view.setSyncClock(-1);
+        view.setDecodeDegradeFloor(IjkMediaPlayer.DECODE_DEGRADE_NONE);
+        view.setVolume(1.0f, 1.0f);
+    }
+
+    private void apply() {
+        int fullViews = 1;
+        int reducedViews = 0;
+
+        for (VideoView view : mViews) {
+            if (view == mPrimary) {
+                view.setSyncClock(-1);
+                view.setDecodeDegradeFloor(IjkMediaPlayer.DECODE_DEGRADE_NONE);
+                view.setVolume(1.0f, 1.0f);
+                continue;
+            }
+
+            int index;
+            if (fullViews < mFullViews) {
+                fullViews++;
+                index = 0;
+            } else if (reducedViews < mReducedViews) {
+                reducedViews++;
+                index = 1;
+            } else {
+                index = 2;
+            }
+            index = Math.min(index + mPressure, SECONDARY_LEVELS.length - 1);
+
+            view.setVolume(0.0f, 0.0f);
+            view.setDecodeDegradeFloor(SECONDARY_LEVELS[index]);
+        }
+    }
+
+    private void sync() {
+        if (mPrimary == null)
+            return;
+
+        // position is 0 while preparing or after an error, let the others run on their own
+        long position = mPrimary.isPlaying() ? mPrimary.getCurrentPosition() : -1;
+        for (VideoView view : mViews) {
+            if (view != mPrimary)
+                view.setSyncClock(position);
+        }
+        if (position < 0)
+            return;
+
+        if (++mSyncCount >= PRESSURE_CHECK_SYNCS) {
+            mSyncCount = 0;
+            checkPressure();
+        }
+    }
+
+    /* primary degrades its decoding only when it keeps dropping frames */
+    private void checkPressure() {
+        if (mPrimary.getStatistics(mStats) <= IjkMediaPlayer.STAT_DECODE_DEGRADE_LEVEL)
+            return;
+
+        int pressure = mPressure;
+        if (mStats[IjkMediaPlayer.STAT_DECODE_DEGRADE_LEVEL] > IjkMediaPlayer.DECODE_DEGRADE_NONE) {
+            mCalmChecks = 0;
+            if (pressure < SECONDARY_LEVELS.length - 1)
+                pressure++;
+        } else if (pressure > 0 && ++mCalmChecks >= PRESSURE_CALM_CHECKS) {
+            mCalmChecks = 0;
+            pressure--;
+        }
+
+        if (pressure != mPressure) {
+            DebugLog.i(TAG, "decode pressure: " + mPressure + " -> " + pressure);
+            mPressure = pressure;
+            apply();
+        }
+    }
+}
@@ -32,6 +32,7 @@ import com.google.gson.Gson;
 import com.loopj.android.http.AsyncHttpClient;
 import com.loopj.android.http.AsyncHttpResponseHandler;
 
+import tv.danmaku.ijk.media.player.BufferingPolicy;
 import tv.danmaku.ijk.media.player.IMediaPlayer;
 import tv.danmaku.ijk.media.player.IMediaPlayer.OnBufferingUpdateListener;
 import tv.danmaku.ijk.media.player.IMediaPlayer.OnCompletionListener;
@@ -41,6 +42,7 @@ import tv.danmaku.ijk.media.player.IMediaPlayer.OnPreparedListener;
 import tv.danmaku.ijk.media.player.IMediaPlayer.OnSeekCompleteListener;
 import tv.danmaku.ijk.media.player.IMediaPlayer.OnVideoSizeChangedListener;
 import tv.danmaku.ijk.media.player.IjkMediaPlayer;
+import tv.danmaku.ijk.media.player.IjkMediaPlayerPool;
 import tv.danmaku.ijk.media.player.option.AvFourCC;
 import tv.danmaku.ijk.media.player.option.format.AvFormatOption_HttpDetectRangeSupport;
 import android.R.bool;
@@ -104,6 +106,8 @@ public class VideoView extends SurfaceView implements
 
     private SurfaceHolder mSurfaceHolder = null;
     private IMediaPlayer mMediaPlayer = null;
+    // warm players shared by all VideoViews, to cut channel switch latency
+    private static final IjkMediaPlayerPool sPlayerPool = new IjkMediaPlayerPool(2);
     private int mVideoWidth;
     private int mVideoHeight;
     private int mVideoSarNum;
@@ -400,6 +404,13 @@ public class VideoView extends SurfaceView implements
     
     public void backPlayWithREL(long relTime) //相对时间
     {
+        // seconds, as wsStreamTimeREL; replay from time-shift ring if it reaches back far enough
+        if (mMediaPlayer instanceof IjkMediaPlayer) {
+            IjkMediaPlayer mp = (IjkMediaPlayer) mMediaPlayer;
+            if (relTime * 1000 <= mp.getTimeShiftWindow() && mp.seekTimeShift(relTime * 1000))
+                return;
+        }
+
     	if (!isTokenMode) return;
     	isBackPlayMode = true;
     	
@@ -414,6 +425,11 @@ public class VideoView extends SurfaceView implements
     
     public void backLivePlay()
     {
+        if (!isBackPlayMode && mMediaPlayer instanceof IjkMediaPlayer
+                && ((IjkMediaPlayer) mMediaPlayer).getTimeShiftDelay() > 0
+                && ((IjkMediaPlayer) mMediaPlayer).seekTimeShift(0))
+            return;
+
     	if (!isTokenMode) return;
     	isBackPlayMode = false;
     	
@@ -447,10 +463,63 @@ public class VideoView extends SurfaceView implements
     	mUserAgent = ua;
     }
     
+    private final IjkMediaPlayerPool.OptionProfile mOptionProfile = new IjkMediaPlayerPool.OptionProfile() {
+        @Override
+        public void applyTo(IjkMediaPlayer ijkMediaPlayer) {
+            if (!isMediaCodecEnabled && isSupportMediaCodec()) {
+                isMediaCodecEnabled = true;
+            }
+            // pooled player keeps pipeline settings, always set it
+            ijkMediaPlayer.setMediaCodecEnabled(isMediaCodecEnabled);
+            ijkMediaPlayer.setDataSourceType(mDataSourceType);
+            ijkMediaPlayer.setDataCache(mCache);
+            ijkMediaPlayer.setLiveLatency(mLiveLatencyTarget, mLiveLatencyMin, mLiveLatencyMax, mLiveLatencyAggressiveness);
+            ijkMediaPlayer.setLiveCatchUpSpeed(mLiveCatchUpSpeed);
+            ijkMediaPlayer.setBufferingPolicy(mBufferingPolicy);
+            ijkMediaPlayer.setTimeShift(mTimeShiftWindowMs, mTimeShiftMaxBytes, mTimeShiftSpillDir);
+            ijkMediaPlayer.setStreamParamsCache(mStreamParamsCacheDir, mStreamParamsCacheKey);
+            ijkMediaPlayer.setAvOption(AvFormatOption_HttpDetectRangeSupport.Disable);
+            ijkMediaPlayer.setOverlayFormat(AvFourCC.SDL_FCC_RV32);
+
+            ijkMediaPlayer.setAvCodecOption("skip_loop_filter", "48");
+            ijkMediaPlayer.setFrameDrop(12);
+            ijkMediaPlayer.setPictureQueueAdaptive(mPictureQueueMaxFrames);
+            ijkMediaPlayer.setSharedRefresh(mSharedRefresh);
+            ijkMediaPlayer.setDecodeDegradeFloor(mDecodeDegradeFloor);
+            ijkMediaPlayer.setVolume(mLeftVolume, mRightVolume);
+            if (mUserAgent != null) {
+                ijkMediaPlayer.setAvFormatOption("user_agent", mUserAgent);
+            }
+        }
+    };
+
+    /**
+     * Pool of warm players shared by all VideoViews.
+     * Call {@link IjkMediaPlayerPool#prewarm(int)} before zapping starts,
+     * and {@link IjkMediaPlayerPool#clear()} when leaving playback.
+     */
+    public static IjkMediaPlayerPool getPlayerPool() {
+        return sPlayerPool;
+    }
+
+    private void recyclePlayer() {
+        if (mMediaPlayer instanceof IjkMediaPlayer) {
+            IjkMediaPlayer mp = (IjkMediaPlayer) mMediaPlayer;
+            // stopping may wait for a stalled network read, both are done on reaper thread
+            if (mCurrentState == STATE_ERROR) {
+                mp.releaseAsync(null);
+            } else {
+                sPlayerPool.recycle(mp);
+            }
+        } else {
+            mMediaPlayer.reset();
+            mMediaPlayer.release();
+        }
+    }
+
     public void stopPlayback() {
         if (mMediaPlayer != null) {
-            mMediaPlayer.stop();
-            mMediaPlayer.release();
+            recyclePlayer();
             mMediaPlayer = null;
             mCurrentState = STATE_IDLE;
             mTargetState = STATE_IDLE;
@@ -478,27 +547,7 @@ public class VideoView extends SurfaceView implements
             // mMediaPlayer = new AndroidMediaPlayer();
             IjkMediaPlayer ijkMediaPlayer = null;
             if (mUri != null) {
-                ijkMediaPlayer = new IjkMediaPlayer();
-                if(isMediaCodecEnabled)
-                {
-                	ijkMediaPlayer.setMediaCodecEnabled(true);
-                }else {
-                    if(isSupportMediaCodec())
-                    {
-                    	ijkMediaPlayer.setMediaCodecEnabled(true);
-                    	isMediaCodecEnabled = true;
-                    }
-				}
-                ijkMediaPlayer.setDataSourceType(mDataSourceType);
-                ijkMediaPlayer.setDataCache(mCache);
-                ijkMediaPlayer.setAvOption(AvFormatOption_HttpDetectRangeSupport.Disable);
-                ijkMediaPlayer.setOverlayFormat(AvFourCC.SDL_FCC_RV32);
-
-                ijkMediaPlayer.setAvCodecOption("skip_loop_filter", "48");
-                ijkMediaPlayer.setFrameDrop(12);
-                if (mUserAgent != null) {
-                    ijkMediaPlayer.setAvFormatOption("user_agent", mUserAgent);
-                }
+                ijkMediaPlayer = sPlayerPool.acquire(mOptionProfile);
             }
             mMediaPlayer = ijkMediaPlayer;
             mMediaPlayer.setOnPreparedListener(mPreparedListener);
@@ -952,8 +1001,7 @@ public class VideoView extends SurfaceView implements
     private void release(boolean cleartargetstate) {
     	
         if (mMediaPlayer != null) {
-            mMediaPlayer.reset();
-            mMediaPlayer.release();
+            recyclePlayer();
             mMediaPlayer = null;
             mCurrentState = STATE_IDLE;
             if (cleartargetstate)
@@ -1212,6 +1260,134 @@ public class VideoView extends SurfaceView implements
     {
     	mCache = cache;
     }
+
+    private int mLiveLatencyTarget = 0;
+    private int mLiveLatencyMin = 0;
+    private int mLiveLatencyMax = 0;
+    private int mLiveLatencyAggressiveness = IjkMediaPlayer.LIVE_LATENCY_AGGRESSIVENESS_DEFAULT;
+
+    /**
+     * see {@link IjkMediaPlayer#setLiveLatency(int, int, int, int)}
+     */
+    public void setLiveLatency(int targetMs, int minMs, int maxMs, int aggressiveness)
+    {
+        mLiveLatencyTarget = targetMs;
+        mLiveLatencyMin = minMs;
+        mLiveLatencyMax = maxMs;
+        mLiveLatencyAggressiveness = aggressiveness;
+    }
+
+    private float mLiveCatchUpSpeed = 1.0f;
+
+    /**
+     * see {@link IjkMediaPlayer#setLiveCatchUpSpeed(float)}
+     */
+    public void setLiveCatchUpSpeed(float maxSpeed)
+    {
+        mLiveCatchUpSpeed = maxSpeed;
+    }
+
+    private int mTimeShiftWindowMs = 0;
+    private long mTimeShiftMaxBytes = 0;
+    private String mTimeShiftSpillDir = null;
+
+    /**
+     * see {@link IjkMediaPlayer#setTimeShift(int, long, String)}, also used
+     * by {@link #backPlayWithREL(long)} within the window
+     */
+    public void setTimeShift(int windowMs, long maxBytes, String spillDir)
+    {
+        mTimeShiftWindowMs = windowMs;
+        mTimeShiftMaxBytes = maxBytes;
+        mTimeShiftSpillDir = spillDir;
+    }
+
+    private int mPictureQueueMaxFrames = 0;
+
+    /**
+     * see {@link IjkMediaPlayer#setPictureQueueAdaptive(int)}
+     */
+    public void setPictureQueueAdaptive(int maxFrames)
+    {
+        mPictureQueueMaxFrames = maxFrames;
+    }
+
+    private boolean mSharedRefresh = false;
+
+    /**
+     * see {@link IjkMediaPlayer#setSharedRefresh(boolean)}
+     */
+    public void setSharedRefresh(boolean shared)
+    {
+        mSharedRefresh = shared;
+    }
+
+    private String mStreamParamsCacheDir = null;
+    private String mStreamParamsCacheKey = null;
+
+    /**
+     * see {@link IjkMediaPlayer#setStreamParamsCache(String, String)}
+     */
+    public void setStreamParamsCache(String dir, String key)
+    {
+        mStreamParamsCacheDir = dir;
+        mStreamParamsCacheKey = key;
+    }
+
+    private BufferingPolicy mBufferingPolicy;
+
+    /**
+     * see {@link IjkMediaPlayer#setBufferingPolicy(BufferingPolicy)}
+     */
+    public void setBufferingPolicy(BufferingPolicy policy)
+    {
+        mBufferingPolicy = policy;
+    }
+
+    private int mDecodeDegradeFloor = IjkMediaPlayer.DECODE_DEGRADE_NONE;
+
+    /**
+     * see {@link IjkMediaPlayer#setDecodeDegradeFloor(int)}, also applies to
+     * the current player at once
+     */
+    public void setDecodeDegradeFloor(int level)
+    {
+        mDecodeDegradeFloor = level;
+        if (mMediaPlayer instanceof IjkMediaPlayer)
+            ((IjkMediaPlayer) mMediaPlayer).setDecodeDegradeFloor(level);
+    }
+
+    private float mLeftVolume = 1.0f;
+    private float mRightVolume = 1.0f;
+
+    public void setVolume(float leftVolume, float rightVolume)
+    {
+        mLeftVolume = leftVolume;
+        mRightVolume = rightVolume;
+        if (mMediaPlayer != null)
+            mMediaPlayer.setVolume(leftVolume, rightVolume);
+    }
+
+    /**
+     * see {@link IjkMediaPlayer#setSyncClock(long)}
+     */
+    public void setSyncClock(long msec)
+    {
+        if (isInPlaybackState() && mMediaPlayer instanceof IjkMediaPlayer)
+            ((IjkMediaPlayer) mMediaPlayer).setSyncClock(msec);
+    }
+
+    /**
+     * see {@link IjkMediaPlayer#getStatistics(long[])}
+     *
+     * @return the number of values filled, 0 if not playing by IjkMediaPlayer
+     */
+    public int getStatistics(long[] out)
+    {
+        if (isInPlaybackState() && mMediaPlayer instanceof IjkMediaPlayer)
+            return ((IjkMediaPlayer) mMediaPlayer).getStatistics(out);
+        return 0;
+    }
     
     public long getAbsoluteTimestamp()
     {
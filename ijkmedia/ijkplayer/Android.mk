@@ -33,9 +33,18 @@ LOCAL_C_INCLUDES += $(realpath $(LOCAL_PATH)/..)
 LOCAL_C_INCLUDES += $(MY_APP_FFMPEG_INCLUDE_PATH)
 
 LOCAL_SRC_FILES += ff_cmdutils.c
+LOCAL_SRC_FILES += ff_ffbandwidth.c
+LOCAL_SRC_FILES += ff_ffmembudget.c
+LOCAL_SRC_FILES += ff_ffpktpool.c
+LOCAL_SRC_FILES += ff_fflatency.c
+LOCAL_SRC_FILES += ff_fftempo.c
+LOCAL_SRC_FILES += ff_fftimeshift.c
+LOCAL_SRC_FILES += ff_ffstreamcache.c
+LOCAL_SRC_FILES += ff_ffscheduler.c
 LOCAL_SRC_FILES += ff_ffplay.c
 LOCAL_SRC_FILES += ff_ffpipeline.c
 LOCAL_SRC_FILES += ff_ffpipenode.c
+LOCAL_SRC_FILES += ijkframe_extractor.c
 LOCAL_SRC_FILES += ijkmeta.c
 LOCAL_SRC_FILES += ijkplayer.c
 
@@ -44,6 +53,8 @@ LOCAL_SRC_FILES += pipeline/ffpipenode_ffplay_vdec.c
 LOCAL_SRC_FILES += pipeline/ffpipenode_ffplay_vout.c
 
 LOCAL_SRC_FILES += android/ffmpeg_api_jni.c
+LOCAL_SRC_FILES += android/ijkframe_extractor_jni.c
+LOCAL_SRC_FILES += android/ijkmemory_budget_jni.c
 LOCAL_SRC_FILES += android/ijkplayer_android.c
 LOCAL_SRC_FILES += android/ijkplayer_jni.c
 
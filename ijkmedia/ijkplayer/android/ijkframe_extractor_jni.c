@@ -0,0 +1,149 @@
+/*
+ * ijkframe_extractor_jni.c
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkframe_extractor_jni.h"
+
+#include <assert.h>
+#include <stdint.h>
+#include <string.h>
+#include <jni.h>
+#include "ijkutil/ijkutil.h"
+#include "ijkutil/android/ijkutil_android.h"
+#include "ijksdl/android/ijksdl_android_jni.h"
+#include "../ijkframe_extractor.h"
+
+#define JNI_CLASS_FRAME_EXTRACTOR "tv/danmaku/ijk/media/player/IjkFrameExtractor"
+
+typedef struct frame_extractor_fields_t {
+    jclass clazz;
+
+    jfieldID mNativeExtractor;
+} frame_extractor_fields_t;
+static frame_extractor_fields_t g_clazz;
+
+// Java side serializes all calls on one object, no lock here
+static IjkFrameExtractor *jni_get_extractor(JNIEnv *env, jobject thiz)
+{
+    return (IjkFrameExtractor *) (intptr_t) (*env)->GetLongField(env, thiz, g_clazz.mNativeExtractor);
+}
+
+static void
+IjkFrameExtractor_native_setup(JNIEnv *env, jobject thiz)
+{
+    IjkFrameExtractor *fe = ijkfe_create();
+    JNI_CHECK_GOTO(fe, env, "java/lang/OutOfMemoryError", "fejni: native_setup: ijkfe_create() failed", LABEL_RETURN);
+
+    (*env)->SetLongField(env, thiz, g_clazz.mNativeExtractor, (intptr_t) fe);
+
+LABEL_RETURN:
+    return;
+}
+
+static void
+IjkFrameExtractor_native_release(JNIEnv *env, jobject thiz)
+{
+    IjkFrameExtractor *fe = jni_get_extractor(env, thiz);
+    (*env)->SetLongField(env, thiz, g_clazz.mNativeExtractor, 0);
+    ijkfe_destroy_p(&fe);
+}
+
+static void
+IjkFrameExtractor_open(JNIEnv *env, jobject thiz, jstring url)
+{
+    const char *c_url = NULL;
+    int retval = 0;
+    IjkFrameExtractor *fe = jni_get_extractor(env, thiz);
+    JNI_CHECK_GOTO(url, env, "java/lang/IllegalArgumentException", "fejni: open: null url", LABEL_RETURN);
+    JNI_CHECK_GOTO(fe, env, "java/lang/IllegalStateException", "fejni: open: null fe", LABEL_RETURN);
+
+    c_url = (*env)->GetStringUTFChars(env, url, NULL);
+    JNI_CHECK_GOTO(c_url, env, "java/lang/OutOfMemoryError", "fejni: open: url.string oom", LABEL_RETURN);
+
+    retval = ijkfe_open(fe, c_url);
+    (*env)->ReleaseStringUTFChars(env, url, c_url);
+    JNI_CHECK_GOTO(retval == 0, env, "java/io/IOException", "fejni: open: failed", LABEL_RETURN);
+
+LABEL_RETURN:
+    return;
+}
+
+static jlong
+IjkFrameExtractor_getDuration(JNIEnv *env, jobject thiz)
+{
+    return ijkfe_get_duration(jni_get_extractor(env, thiz));
+}
+
+static jint
+IjkFrameExtractor_getVideoWidth(JNIEnv *env, jobject thiz)
+{
+    return ijkfe_get_video_width(jni_get_extractor(env, thiz));
+}
+
+static jint
+IjkFrameExtractor_getVideoHeight(JNIEnv *env, jobject thiz)
+{
+    return ijkfe_get_video_height(jni_get_extractor(env, thiz));
+}
+
+static jlong
+IjkFrameExtractor_extractFrame(JNIEnv *env, jobject thiz, jlong msec, jobject buffer, jint width, jint height, jint stride)
+{
+    jlong    retval = -1;
+    uint8_t *rgba   = NULL;
+    jlong    capacity;
+    IjkFrameExtractor *fe = jni_get_extractor(env, thiz);
+    JNI_CHECK_GOTO(fe, env, "java/lang/IllegalStateException", "fejni: extractFrame: null fe", LABEL_RETURN);
+
+    rgba     = (*env)->GetDirectBufferAddress(env, buffer);
+    capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+    JNI_CHECK_GOTO(rgba, env, "java/lang/IllegalArgumentException", "fejni: extractFrame: not a direct buffer", LABEL_RETURN);
+    JNI_CHECK_GOTO(stride >= width * 4 && capacity >= (jlong)stride * height, env,
+        "java/lang/IllegalArgumentException", "fejni: extractFrame: buffer too small", LABEL_RETURN);
+
+    retval = ijkfe_extract_rgba(fe, msec, rgba, width, height, stride);
+    if (retval < 0)
+        retval = -1;
+
+LABEL_RETURN:
+    return retval;
+}
+
+static JNINativeMethod g_methods[] = {
+    { "native_setup",       "()V",                      (void *) IjkFrameExtractor_native_setup },
+    { "native_release",     "()V",                      (void *) IjkFrameExtractor_native_release },
+    { "_open",              "(Ljava/lang/String;)V",    (void *) IjkFrameExtractor_open },
+    { "_getDuration",       "()J",                      (void *) IjkFrameExtractor_getDuration },
+    { "_getVideoWidth",     "()I",                      (void *) IjkFrameExtractor_getVideoWidth },
+    { "_getVideoHeight",    "()I",                      (void *) IjkFrameExtractor_getVideoHeight },
+    { "_extractFrame",      "(JLjava/nio/ByteBuffer;III)J", (void *) IjkFrameExtractor_extractFrame },
+};
+
+int IjkFrameExtractor_global_init(JNIEnv *env)
+{
+    IJK_FIND_JAVA_CLASS(env, g_clazz.clazz, JNI_CLASS_FRAME_EXTRACTOR);
+    (*env)->RegisterNatives(env, g_clazz.clazz, g_methods, NELEM(g_methods));
+
+    g_clazz.mNativeExtractor = (*env)->GetFieldID(env, g_clazz.clazz, "mNativeExtractor", "J");
+    IJK_CHECK_RET(g_clazz.mNativeExtractor, -1, "missing mNativeExtractor");
+
+    return 0;
+}
@@ -0,0 +1,69 @@
+/*
+ * ijkmemory_budget_jni.c
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkmemory_budget_jni.h"
+
+#include <stdint.h>
+#include <jni.h>
+#include "ijkutil/ijkutil.h"
+#include "ijkutil/android/ijkutil_android.h"
+#include "ijksdl/android/ijksdl_android_jni.h"
+#include "../ff_ffmembudget.h"
+
+#define JNI_CLASS_MEMORY_BUDGET "tv/danmaku/ijk/media/player/IjkMemoryBudget"
+
+typedef struct memory_budget_fields_t {
+    jclass clazz;
+} memory_budget_fields_t;
+static memory_budget_fields_t g_clazz;
+
+static void
+IjkMemoryBudget_setLimit(JNIEnv *env, jclass clazz, jlong limit)
+{
+    ffmembudget_set_limit(limit);
+}
+
+static jlong
+IjkMemoryBudget_getLimit(JNIEnv *env, jclass clazz)
+{
+    return ffmembudget_get_limit();
+}
+
+static jlong
+IjkMemoryBudget_getUsage(JNIEnv *env, jclass clazz)
+{
+    return ffmembudget_get_usage();
+}
+
+static JNINativeMethod g_methods[] = {
+    { "_setLimit",          "(J)V",                     (void *) IjkMemoryBudget_setLimit },
+    { "_getLimit",          "()J",                      (void *) IjkMemoryBudget_getLimit },
+    { "_getUsage",          "()J",                      (void *) IjkMemoryBudget_getUsage },
+};
+
+int IjkMemoryBudget_global_init(JNIEnv *env)
+{
+    IJK_FIND_JAVA_CLASS(env, g_clazz.clazz, JNI_CLASS_MEMORY_BUDGET);
+    (*env)->RegisterNatives(env, g_clazz.clazz, g_methods, NELEM(g_methods));
+
+    return 0;
+}
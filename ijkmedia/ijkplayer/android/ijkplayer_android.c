@@ -23,6 +23,7 @@
 #include "ijkplayer_android.h"
 
 #include <assert.h>
+#include <android/native_window.h>
 #include "ijksdl/android/ijksdl_android.h"
 #include "../ff_fferror.h"
 #include "../ff_ffplay.h"
@@ -30,6 +31,26 @@
 #include "../pipeline/ffpipeline_ffplay.h"
 #include "pipeline/ffpipeline_android.h"
 
+// software rendering only, MediaCodec can not attach to a surface in use
+static void ijkmp_android_share_display(IjkMediaPlayer *mp, IjkMediaPlayer *next)
+{
+    if (!mp->ffplayer->vout || !next->ffplayer->vout)
+        return;
+
+    ANativeWindow *next_window = SDL_VoutAndroid_AcquireNativeWindow(next->ffplayer->vout);
+    if (next_window) {
+        // next got a display of its own meanwhile
+        ANativeWindow_release(next_window);
+        return;
+    }
+
+    ANativeWindow *native_window = SDL_VoutAndroid_AcquireNativeWindow(mp->ffplayer->vout);
+    if (native_window) {
+        SDL_VoutAndroid_SetNativeWindow(next->ffplayer->vout, native_window);
+        ANativeWindow_release(native_window);
+    }
+}
+
 IjkMediaPlayer *ijkmp_android_create(int(*msg_loop)(void*))
 {
     IjkMediaPlayer *mp = ijkmp_create(msg_loop);
@@ -50,6 +71,7 @@ IjkMediaPlayer *ijkmp_android_create(int(*msg_loop)(void*))
         goto fail;
 
     ffpipeline_set_vout(mp->ffplayer->pipeline, mp->ffplayer->vout);
+    mp->share_display = ijkmp_android_share_display;
 
     return mp;
 
@@ -41,6 +41,7 @@ enum media_event_type {
 
 
     MEDIA_SET_VIDEO_SAR     = 10001,    // arg1 = sar.num, arg2 = sar.den
+    MEDIA_EVENT_RING        = 10002,    // events are pending in the shared event ring
 };
 
 // Generic error codes for the media player framework.  Errors are fatal, the
@@ -115,6 +116,8 @@ enum media_info_type {
     MEDIA_INFO_BUFFERING_END = 702,
     // Bandwidth in recent past
     MEDIA_INFO_NETWORK_BANDWIDTH = 703,
+    // Playback is likely to stall soon, extra is estimated time to stall in ms
+    MEDIA_INFO_BUFFER_LOW_PREDICTED = 704,
 
     // 8xx
     // Bad interleaving means that a media has been improperly interleaved or not
@@ -21,6 +21,7 @@
  */
 
 #include <assert.h>
+#include <stdlib.h>
 #include <string.h>
 #include <pthread.h>
 #include <jni.h>
@@ -28,6 +29,8 @@
 #include "ijkutil/android/ijkutil_android.h"
 #include "../ff_ffplay.h"
 #include "ffmpeg_api_jni.h"
+#include "ijkframe_extractor_jni.h"
+#include "ijkmemory_budget_jni.h"
 #include "ijkplayer_android_def.h"
 #include "ijkplayer_android.h"
 #include "ijksdl/android/android_arraylist.h"
@@ -60,6 +63,7 @@ typedef struct player_fields_t {
     jmethodID jmid_onControlResolveSegmentUrl;
     jmethodID jmid_onControlResolveSegmentOfflineMrl;
     jmethodID jmid_onControlResolveSegmentDuration;
+    jmethodID jmid_onNativeReleased;
 } player_fields_t;
 static player_fields_t g_clazz;
 
@@ -99,6 +103,131 @@ static IjkMediaPlayer *jni_set_media_player(JNIEnv* env, jobject thiz, IjkMediaP
     return old;
 }
 
+/*
+ * Events are handed to java through a direct ByteBuffer shared with IjkMediaPlayer:
+ *   header: int32[EVENT_RING_HEADER_INTS], header[0] = bank being read by java
+ *   bank 0: int32[capacity][EVENT_RING_RECORD_INTS] of (what, arg1, arg2)
+ *   bank 1: same as bank 0
+ * message_loop_n appends to the back bank, java swaps banks in _drainEventRing()
+ * and reads the front bank without holding any lock.
+ */
+#define EVENT_RING_HEADER_INTS  4
+#define EVENT_RING_RECORD_INTS  3
+
+typedef struct event_ring_t {
+    volatile int ref_count;
+    pthread_mutex_t mutex;
+
+    jobject buffer;
+    int32_t *header;
+    int32_t *banks[2];
+    int capacity;
+
+    int back;
+    int count;
+    int buffering_slot;
+    int notified;
+    int overflowed;     // events went around the ring, none may be coalesced into it until drained
+} event_ring_t;
+
+static event_ring_t *event_ring_create(JNIEnv *env, jobject jbuffer)
+{
+    int32_t *base = (int32_t *) (*env)->GetDirectBufferAddress(env, jbuffer);
+    jlong size = (*env)->GetDirectBufferCapacity(env, jbuffer);
+    if (!base || size <= 0)
+        return NULL;
+
+    int capacity = (int) ((size / sizeof(int32_t) - EVENT_RING_HEADER_INTS) / EVENT_RING_RECORD_INTS / 2);
+    if (capacity <= 0)
+        return NULL;
+
+    event_ring_t *ring = (event_ring_t *) calloc(1, sizeof(event_ring_t));
+    if (!ring)
+        return NULL;
+
+    ring->buffer = (*env)->NewGlobalRef(env, jbuffer);
+    if (!ring->buffer) {
+        free(ring);
+        return NULL;
+    }
+
+    ring->header         = base;
+    ring->banks[0]       = base + EVENT_RING_HEADER_INTS;
+    ring->banks[1]       = ring->banks[0] + capacity * EVENT_RING_RECORD_INTS;
+    ring->capacity       = capacity;
+    ring->buffering_slot = -1;
+    ring->ref_count      = 1;
+    pthread_mutex_init(&ring->mutex, NULL);
+    return ring;
+}
+
+static void event_ring_inc_ref(event_ring_t *ring)
+{
+    __sync_fetch_and_add(&ring->ref_count, 1);
+}
+
+static void event_ring_dec_ref_p(JNIEnv *env, event_ring_t **pring)
+{
+    if (!pring || !*pring)
+        return;
+
+    event_ring_t *ring = *pring;
+    *pring = NULL;
+    if (__sync_sub_and_fetch(&ring->ref_count, 1) != 0)
+        return;
+
+    (*env)->DeleteGlobalRef(env, ring->buffer);
+    pthread_mutex_destroy(&ring->mutex);
+    free(ring);
+}
+
+static event_ring_t *jni_get_event_ring(IjkMediaPlayer *mp)
+{
+    pthread_mutex_lock(&g_clazz.mutex);
+
+    event_ring_t *ring = (event_ring_t *) ijkmp_get_event_ring(mp);
+    if (ring) {
+        event_ring_inc_ref(ring);
+    }
+
+    pthread_mutex_unlock(&g_clazz.mutex);
+    return ring;
+}
+
+static event_ring_t *jni_set_event_ring(IjkMediaPlayer *mp, event_ring_t *ring)
+{
+    pthread_mutex_lock(&g_clazz.mutex);
+
+    if (ring) {
+        event_ring_inc_ref(ring);
+    }
+    event_ring_t *old = (event_ring_t *) ijkmp_set_event_ring(mp, ring);
+
+    pthread_mutex_unlock(&g_clazz.mutex);
+    return old;
+}
+
+/*
+ * Swap banks and return the number of records java can read from the front bank.
+ */
+static int event_ring_drain(event_ring_t *ring)
+{
+    pthread_mutex_lock(&ring->mutex);
+
+    int count = ring->count;
+    if (count > 0) {
+        ring->header[0]      = ring->back;
+        ring->back           = !ring->back;
+        ring->count          = 0;
+        ring->buffering_slot = -1;
+    }
+    ring->notified   = 0;
+    ring->overflowed = 0;
+
+    pthread_mutex_unlock(&ring->mutex);
+    return count;
+}
+
 static int message_loop(void *arg);
 
 static void
@@ -205,6 +334,19 @@ IjkMediaPlayer_seekTo(JNIEnv *env, jobject thiz, int msec)
     ijkmp_dec_ref_p(&mp);
 }
 
+static void
+IjkMediaPlayer_seekToMode(JNIEnv *env, jobject thiz, jlong msec, jint seek_mode)
+{
+    MPTRACE("IjkMediaPlayer_seekToMode");
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: seekToMode: null mp", LABEL_RETURN);
+
+    ijkmp_seek_to_mode(mp, msec, seek_mode);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+}
+
 static jboolean
 IjkMediaPlayer_isPlaying(JNIEnv *env, jobject thiz)
 {
@@ -304,6 +446,60 @@ static int IjkMediaPlayer_getBitRate(JNIEnv *env, jobject thiz)
     return retval;
 }
 
+static jint
+IjkMediaPlayer_getStatistics(JNIEnv *env, jobject thiz, jlongArray out)
+{
+    jint retval = 0;
+    jsize count = 0;
+    int64_t stats[FFP_STAT_COUNT];
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, NULL, "mpjni: getStatistics: null mp", LABEL_RETURN);
+    JNI_CHECK_GOTO(out, env, "java/lang/IllegalArgumentException", "mpjni: getStatistics: null out", LABEL_RETURN);
+
+    count = (*env)->GetArrayLength(env, out);
+    retval = ijkmp_get_statistics(mp, stats, count);
+    if (retval > 0)
+        (*env)->SetLongArrayRegion(env, out, 0, retval, (const jlong *) stats);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+    return retval;
+}
+
+static jint
+IjkMediaPlayer_getPictureQueueHistogram(JNIEnv *env, jobject thiz, jint type, jlongArray out)
+{
+    jint retval = 0;
+    jsize count = 0;
+    int64_t buckets[FFP_PICTQ_HISTOGRAM_SIZE];
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, NULL, "mpjni: getPictureQueueHistogram: null mp", LABEL_RETURN);
+    JNI_CHECK_GOTO(out, env, "java/lang/IllegalArgumentException", "mpjni: getPictureQueueHistogram: null out", LABEL_RETURN);
+
+    count = (*env)->GetArrayLength(env, out);
+    retval = ijkmp_get_pictq_histogram(mp, type, buckets, count);
+    if (retval > 0)
+        (*env)->SetLongArrayRegion(env, out, 0, retval, (const jlong *) buckets);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+    return retval;
+}
+
+static jlong
+IjkMediaPlayer_getBandwidthEstimate(JNIEnv *env, jobject thiz, jint percentile)
+{
+    jlong retval = 0;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, NULL, "mpjni: getBandwidthEstimate: null mp", LABEL_RETURN);
+
+    retval = ijkmp_get_bandwidth_estimate(mp, percentile);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+    return retval;
+}
+
 static void
 IjkMediaPlayer_release(JNIEnv *env, jobject thiz)
 {
@@ -318,11 +514,100 @@ IjkMediaPlayer_release(JNIEnv *env, jobject thiz)
     //only delete weak_thiz at release
     jobject weak_thiz = (jobject) ijkmp_set_weak_thiz(mp, NULL );
     (*env)->DeleteGlobalRef(env, weak_thiz);
+    event_ring_t *ring = jni_set_event_ring(mp, NULL);
+    event_ring_dec_ref_p(env, &ring);
     jni_set_media_player(env, thiz, NULL );
 
     ijkmp_dec_ref_p(&mp);
 }
 
+typedef struct async_done_t {
+    jobject token;
+    jobject weak_thiz;  // message loop posts with it until shutdown, release only
+} async_done_t;
+
+static async_done_t *async_done_create(JNIEnv *env, jobject token)
+{
+    async_done_t *done = (async_done_t *) calloc(1, sizeof(async_done_t));
+    if (!done)
+        return NULL;
+
+    done->token = token ? (*env)->NewGlobalRef(env, token) : NULL;
+    return done;
+}
+
+static void async_done_free_p(JNIEnv *env, async_done_t **pdone)
+{
+    if (!pdone || !*pdone)
+        return;
+
+    async_done_t *done = *pdone;
+    *pdone = NULL;
+    if (done->token)
+        (*env)->DeleteGlobalRef(env, done->token);
+    if (done->weak_thiz)
+        (*env)->DeleteGlobalRef(env, done->weak_thiz);
+    free(done);
+}
+
+// called on reaper thread, after release or reset
+static void
+release_async_complete(void *opaque)
+{
+    JNIEnv *env = NULL;
+    async_done_t *done = (async_done_t *) opaque;
+    if (!done)
+        return;
+
+    if (JNI_OK != SDL_JNI_SetupThreadEnv(&env)) {
+        ALOGE("%s: SetupThreadEnv failed\n", __func__);
+        return;
+    }
+
+    if (done->token) {
+        (*env)->CallStaticVoidMethod(env, g_clazz.clazz, g_clazz.jmid_onNativeReleased, done->token);
+        SDL_JNI_CatchException(env);
+    }
+    async_done_free_p(env, &done);
+}
+
+static void
+IjkMediaPlayer_releaseAsync(JNIEnv *env, jobject thiz, jobject token)
+{
+    MPTRACE("IjkMediaPlayer_releaseAsync");
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    if (!mp)
+        return;
+
+    // detach from java now, anything may block is left to reaper thread
+    ijkmp_android_set_surface(env, mp, NULL );
+    event_ring_t *ring = jni_set_event_ring(mp, NULL);
+    event_ring_dec_ref_p(env, &ring);
+    jni_set_media_player(env, thiz, NULL );
+
+    // weak_thiz is deleted after shutdown has joined the message loop
+    int retval = EIJK_OUT_OF_MEMORY;
+    async_done_t *done = async_done_create(env, token);
+    if (done) {
+        done->weak_thiz = (jobject) ijkmp_get_weak_thiz(mp);
+        retval = ijkmp_release_async(mp, release_async_complete, done);
+    }
+    if (retval != 0) {
+        // out of memory, release it here
+        ijkmp_shutdown(mp);
+        if (done)
+            done->weak_thiz = NULL;
+        jobject weak_thiz = (jobject) ijkmp_set_weak_thiz(mp, NULL );
+        (*env)->DeleteGlobalRef(env, weak_thiz);
+        ijkmp_dec_ref_p(&mp);
+        async_done_free_p(env, &done);
+        IJK_CHECK_MPRET_GOTO(retval, env, LABEL_RETURN);
+    }
+
+    LABEL_RETURN:
+    return;
+}
+
 static void IjkMediaPlayer_native_setup(JNIEnv *env, jobject thiz, jobject weak_this);
 static void
 IjkMediaPlayer_reset(JNIEnv *env, jobject thiz)
@@ -333,11 +618,112 @@ IjkMediaPlayer_reset(JNIEnv *env, jobject thiz)
         return;
 
     jobject weak_thiz = (jobject) ijkmp_set_weak_thiz(mp, NULL );
+    event_ring_t *ring = jni_set_event_ring(mp, NULL);
 
     IjkMediaPlayer_release(env, thiz);
     IjkMediaPlayer_native_setup(env, thiz, weak_thiz);
 
+    IjkMediaPlayer *new_mp = jni_get_media_player(env, thiz);
+    if (new_mp) {
+        event_ring_t *prev_ring = jni_set_event_ring(new_mp, ring);
+        event_ring_dec_ref_p(env, &prev_ring);
+        ijkmp_dec_ref_p(&new_mp);
+    }
+
+    event_ring_dec_ref_p(env, &ring);
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_setNextMediaPlayer(JNIEnv *env, jobject thiz, jobject jnext, jboolean share_display)
+{
+    MPTRACE("IjkMediaPlayer_setNextMediaPlayer");
+    int retval = 0;
+    IjkMediaPlayer *next = NULL;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setNextMediaPlayer: null mp", LABEL_RETURN);
+
+    if (jnext) {
+        next = jni_get_media_player(env, jnext);
+        JNI_CHECK_GOTO(next, env, "java/lang/IllegalArgumentException", "mpjni: setNextMediaPlayer: released next", LABEL_RETURN);
+    }
+
+    retval = ijkmp_set_next_media_player(mp, next, share_display);
+    IJK_CHECK_MPRET_GOTO(retval, env, LABEL_RETURN);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&next);
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_recycleAsync(JNIEnv *env, jobject thiz, jobject token)
+{
+    MPTRACE("IjkMediaPlayer_recycleAsync");
+    int retval = 0;
+    event_ring_t *ring = NULL;
+    async_done_t *done = NULL;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: recycleAsync: null mp", LABEL_RETURN);
+
+    // unlike reset(), keep vout/aout/pipeline alive for next data source
+    ijkmp_android_set_surface(env, mp, NULL);
+
+    // drop events of previous data source, java drains the rest when reset is done
+    ring = jni_get_event_ring(mp);
+    if (ring)
+        event_ring_drain(ring);
+
+    // stopping may wait for a stalled network read, leave it to reaper thread
+    done = async_done_create(env, token);
+    retval = done ? ijkmp_reset_async(mp, release_async_complete, done) : EIJK_OUT_OF_MEMORY;
+    if (retval != 0) {
+        async_done_free_p(env, &done);
+        IJK_CHECK_MPRET_GOTO(retval, env, LABEL_RETURN);
+    }
+
+    LABEL_RETURN:
+    event_ring_dec_ref_p(env, &ring);
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_setEventRing(JNIEnv *env, jobject thiz, jobject jbuffer)
+{
+    MPTRACE("IjkMediaPlayer_setEventRing");
+    event_ring_t *ring = NULL;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setEventRing: null mp", LABEL_RETURN);
+
+    if (jbuffer) {
+        ring = event_ring_create(env, jbuffer);
+        JNI_CHECK_GOTO(ring, env, "java/lang/IllegalArgumentException", "mpjni: setEventRing: invalid direct buffer", LABEL_RETURN);
+    }
+
+    event_ring_t *prev_ring = jni_set_event_ring(mp, ring);
+    event_ring_dec_ref_p(env, &prev_ring);
+
+    LABEL_RETURN:
+    event_ring_dec_ref_p(env, &ring);
+    ijkmp_dec_ref_p(&mp);
+}
+
+static jint
+IjkMediaPlayer_drainEventRing(JNIEnv *env, jobject thiz)
+{
+    jint retval = 0;
+    event_ring_t *ring = NULL;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, NULL, "mpjni: drainEventRing: null mp", LABEL_RETURN);
+
+    ring = jni_get_event_ring(mp);
+    if (ring)
+        retval = event_ring_drain(ring);
+
+    LABEL_RETURN:
+    event_ring_dec_ref_p(env, &ring);
     ijkmp_dec_ref_p(&mp);
+    return retval;
 }
 
 static void
@@ -454,6 +840,57 @@ IjkMediaPlayer_setFrameDrop(JNIEnv *env, jobject thiz, jint frameDrop)
     ijkmp_dec_ref_p(&mp);
 }
 
+static void
+IjkMediaPlayer_setPictureQueueAdaptive(JNIEnv *env, jobject thiz, jint maxFrames)
+{
+    MPTRACE("IjkMediaPlayer_setPictureQueueAdaptive");
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setPictureQueueAdaptive: null mp", LABEL_RETURN);
+
+    ijkmp_set_picture_queue_adaptive(mp, maxFrames);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_setSharedRefresh(JNIEnv *env, jobject thiz, jboolean shared)
+{
+    MPTRACE("IjkMediaPlayer_setSharedRefresh");
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setSharedRefresh: null mp", LABEL_RETURN);
+
+    ijkmp_set_shared_refresh(mp, shared);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_setDecodeDegradeFloor(JNIEnv *env, jobject thiz, jint level)
+{
+    MPTRACE("IjkMediaPlayer_setDecodeDegradeFloor");
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setDecodeDegradeFloor: null mp", LABEL_RETURN);
+
+    ijkmp_set_decode_degrade_floor(mp, level);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_setSyncClock(JNIEnv *env, jobject thiz, jlong msec)
+{
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setSyncClock: null mp", LABEL_RETURN);
+
+    ijkmp_set_sync_clock(mp, (long) msec);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+}
+
 static void
 IjkMediaPlayer_setMediaCodecEnabled(JNIEnv *env, jobject thiz, jboolean enabled)
 {
@@ -535,6 +972,139 @@ ijkMediaPlayer_setDataCache(JNIEnv *env, jobject thiz,jint cache)
     ijkmp_dec_ref_p(&mp);
 }
 
+static void
+IjkMediaPlayer_setBufferingPolicy(JNIEnv *env, jobject thiz, jint start_ms, jint next_ms, jint max_ms,
+    jint hwm_bytes, jint max_buffer_bytes, jint growth_percent, jint resume_min_packets, jboolean adaptive)
+{
+    MPTRACE("IjkMediaPlayer_setBufferingPolicy");
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setBufferingPolicy: null mp", LABEL_RETURN);
+
+    ijkmp_set_buffering_policy(mp, start_ms, next_ms, max_ms, hwm_bytes, max_buffer_bytes, growth_percent,
+                               resume_min_packets, adaptive ? 1 : 0);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_setInBackground(JNIEnv *env, jobject thiz, jboolean in_background)
+{
+    MPTRACE("IjkMediaPlayer_setInBackground");
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setInBackground: null mp", LABEL_RETURN);
+
+    ijkmp_set_in_background(mp, in_background ? 1 : 0);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_setLiveLatency(JNIEnv *env, jobject thiz, jint target_ms, jint min_ms, jint max_ms, jint aggressiveness)
+{
+    MPTRACE("IjkMediaPlayer_setLiveLatency");
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setLiveLatency: null mp", LABEL_RETURN);
+
+    ijkmp_set_live_latency(mp, target_ms, min_ms, max_ms, aggressiveness);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_setLiveCatchUpSpeed(JNIEnv *env, jobject thiz, jfloat max_speed)
+{
+    MPTRACE("IjkMediaPlayer_setLiveCatchUpSpeed");
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setLiveCatchUpSpeed: null mp", LABEL_RETURN);
+
+    ijkmp_set_live_catchup_speed(mp, max_speed);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+}
+
+static void
+IjkMediaPlayer_setTimeShift(JNIEnv *env, jobject thiz, jint window_ms, jlong max_bytes, jstring spill_dir)
+{
+    MPTRACE("IjkMediaPlayer_setTimeShift");
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    const char *c_spill_dir = NULL;
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setTimeShift: null mp", LABEL_RETURN);
+
+    if (spill_dir) {
+        c_spill_dir = (*env)->GetStringUTFChars(env, spill_dir, NULL );
+        JNI_CHECK_GOTO(c_spill_dir, env, "java/lang/OutOfMemoryError", "mpjni: setTimeShift: spillDir.string oom", LABEL_RETURN);
+    }
+
+    ijkmp_set_timeshift(mp, window_ms, max_bytes, c_spill_dir);
+
+    LABEL_RETURN:
+    if (c_spill_dir)
+        (*env)->ReleaseStringUTFChars(env, spill_dir, c_spill_dir);
+    ijkmp_dec_ref_p(&mp);
+}
+
+static jboolean
+IjkMediaPlayer_seekTimeShift(JNIEnv *env, jobject thiz, jlong behind_ms)
+{
+    MPTRACE("IjkMediaPlayer_seekTimeShift");
+    jboolean retval = JNI_FALSE;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: seekTimeShift: null mp", LABEL_RETURN);
+
+    retval = ijkmp_timeshift_seek(mp, (long) behind_ms) == 0 ? JNI_TRUE : JNI_FALSE;
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+    return retval;
+}
+
+static jlong
+IjkMediaPlayer_getTimeShift(JNIEnv *env, jobject thiz, jboolean delay)
+{
+    int64_t window_ms = 0;
+    int64_t behind_ms = 0;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, NULL, "mpjni: getTimeShift: null mp", LABEL_RETURN);
+
+    ijkmp_get_timeshift(mp, &window_ms, &behind_ms);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+    return delay ? behind_ms : window_ms;
+}
+
+static void
+IjkMediaPlayer_setStreamParamsCache(JNIEnv *env, jobject thiz, jstring dir, jstring key)
+{
+    MPTRACE("IjkMediaPlayer_setStreamParamsCache");
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    const char *c_dir = NULL;
+    const char *c_key = NULL;
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: setStreamParamsCache: null mp", LABEL_RETURN);
+
+    if (dir) {
+        c_dir = (*env)->GetStringUTFChars(env, dir, NULL );
+        JNI_CHECK_GOTO(c_dir, env, "java/lang/OutOfMemoryError", "mpjni: setStreamParamsCache: dir.string oom", LABEL_RETURN);
+    }
+    if (key) {
+        c_key = (*env)->GetStringUTFChars(env, key, NULL );
+        JNI_CHECK_GOTO(c_key, env, "java/lang/OutOfMemoryError", "mpjni: setStreamParamsCache: key.string oom", LABEL_RETURN);
+    }
+
+    ijkmp_set_stream_cache(mp, c_dir, c_key);
+
+    LABEL_RETURN:
+    if (c_dir)
+        (*env)->ReleaseStringUTFChars(env, dir, c_dir);
+    if (c_key)
+        (*env)->ReleaseStringUTFChars(env, key, c_key);
+    ijkmp_dec_ref_p(&mp);
+}
+
 static jstring
 IjkMediaPlayer_getColorFormatName(JNIEnv *env, jclass clazz, jint mediaCodecColorFormat)
 {
@@ -545,6 +1115,28 @@ IjkMediaPlayer_getColorFormatName(JNIEnv *env, jclass clazz, jint mediaCodecColo
     return (*env)->NewStringUTF(env, codec_name);
 }
 
+static void
+IjkMediaPlayer_setThreadRole(JNIEnv *env, jclass clazz, jint role, jint nice, jint policy, jint rtPriority, jlong cpuMask)
+{
+    SDL_ThreadRoleConfig config;
+
+    MPTRACE("%s(%d, %d, %d, %d, %llx)", __func__, role, nice, policy, rtPriority, (unsigned long long) cpuMask);
+    memset(&config, 0, sizeof(config));
+    config.enabled     = 1;
+    config.nice        = nice;
+    config.policy      = policy == 1 ? SCHED_FIFO : (policy == 2 ? SCHED_RR : SCHED_OTHER);
+    config.rt_priority = rtPriority;
+    config.cpu_mask    = (uint64_t) cpuMask;
+    SDL_SetThreadRoleConfig((SDL_ThreadRole) role, &config);
+}
+
+static void
+IjkMediaPlayer_resetThreadRole(JNIEnv *env, jclass clazz, jint role)
+{
+    MPTRACE("%s(%d)", __func__, role);
+    SDL_SetThreadRoleConfig((SDL_ThreadRole) role, NULL);
+}
+
 static jstring
 IjkMediaPlayer_getVideoCodecInfo(JNIEnv *env, jobject thiz)
 {
@@ -694,6 +1286,35 @@ IjkMediaPlayer_getMediaMeta(JNIEnv *env, jobject thiz)
     return jret_bundle;
 }
 
+static jbyteArray
+IjkMediaPlayer_getMediaMetaRecord(JNIEnv *env, jobject thiz)
+{
+    MPTRACE("%s", __func__);
+    jbyteArray jret_record = NULL;
+    const uint8_t *record = NULL;
+    size_t record_size = 0;
+    IjkMediaMeta *meta = NULL;
+    IjkMediaPlayer *mp = jni_get_media_player(env, thiz);
+    JNI_CHECK_GOTO(mp, env, "java/lang/IllegalStateException", "mpjni: getMediaMetaRecord: null mp", LABEL_RETURN);
+
+    meta = ijkmp_get_meta_l(mp);
+    if (!meta)
+        goto LABEL_RETURN;
+
+    ijkmeta_lock(meta);
+    record = ijkmeta_get_record_l(meta, &record_size);
+    if (record && record_size > 0) {
+        jret_record = (*env)->NewByteArray(env, (jsize) record_size);
+        if (jret_record && !SDL_JNI_RethrowException(env))
+            (*env)->SetByteArrayRegion(env, jret_record, 0, (jsize) record_size, (const jbyte *) record);
+    }
+    ijkmeta_unlock(meta);
+
+    LABEL_RETURN:
+    ijkmp_dec_ref_p(&mp);
+    return jret_record;
+}
+
 static void
 IjkMediaPlayer_native_init(JNIEnv *env)
 {
@@ -874,11 +1495,69 @@ inline static void post_event(JNIEnv *env, jobject weak_this, int what, int arg1
     // MPTRACE("post_event()=void");
 }
 
+/*
+ * Append an event to the back bank and wake java only when the bank turns non-empty.
+ * MEDIA_BUFFERING_UPDATE replaces the pending one, so java only sees the latest value;
+ * it moves to the tail, behind the events posted since.
+ * Fall back to post_event() when no ring is attached or the back bank is full.
+ */
+static void post_ring_event(JNIEnv *env, jobject weak_this, event_ring_t *ring, int what, int arg1, int arg2)
+{
+    if (!ring) {
+        post_event(env, weak_this, what, arg1, arg2);
+        return;
+    }
+
+    int32_t *record = NULL;
+    int need_notify = 0;
+
+    pthread_mutex_lock(&ring->mutex);
+    // once events went around the ring, later ones follow them until drained
+    if (ring->overflowed) {
+        record = NULL;
+    } else if (what == MEDIA_BUFFERING_UPDATE && ring->buffering_slot >= 0) {
+        int32_t *bank = ring->banks[ring->back];
+        int      tail = ring->count - 1;
+        if (ring->buffering_slot < tail) {
+            memmove(bank + ring->buffering_slot * EVENT_RING_RECORD_INTS,
+                    bank + (ring->buffering_slot + 1) * EVENT_RING_RECORD_INTS,
+                    (tail - ring->buffering_slot) * EVENT_RING_RECORD_INTS * sizeof(int32_t));
+            ring->buffering_slot = tail;
+        }
+        record = bank + tail * EVENT_RING_RECORD_INTS;
+    } else if (ring->count < ring->capacity) {
+        if (what == MEDIA_BUFFERING_UPDATE)
+            ring->buffering_slot = ring->count;
+        record = ring->banks[ring->back] + ring->count * EVENT_RING_RECORD_INTS;
+        ring->count++;
+        need_notify = !ring->notified;
+        ring->notified = 1;
+    } else {
+        ring->overflowed = 1;
+    }
+    if (record) {
+        record[0] = what;
+        record[1] = arg1;
+        record[2] = arg2;
+    }
+    pthread_mutex_unlock(&ring->mutex);
+
+    if (!record) {
+        // java still holds a full batch, keep order by queueing behind its notification
+        post_event(env, weak_this, what, arg1, arg2);
+    } else if (need_notify) {
+        post_event(env, weak_this, MEDIA_EVENT_RING, 0, 0);
+    }
+}
+
 static void message_loop_n(JNIEnv *env, IjkMediaPlayer *mp)
 {
+    event_ring_t *ring = NULL;
     jobject weak_thiz = (jobject) ijkmp_get_weak_thiz(mp);
     JNI_CHECK_GOTO(weak_thiz, env, NULL, "mpjni: message_loop_n: null weak_thiz", LABEL_RETURN);
 
+    ring = jni_get_event_ring(mp);
+
     while (1) {
         AVMessage msg;
 
@@ -892,39 +1571,39 @@ static void message_loop_n(JNIEnv *env, IjkMediaPlayer *mp)
         switch (msg.what) {
         case FFP_MSG_FLUSH:
             MPTRACE("FFP_MSG_FLUSH:");
-            post_event(env, weak_thiz, MEDIA_NOP, 0, 0);
+            post_ring_event(env, weak_thiz, ring, MEDIA_NOP, 0, 0);
             break;
         case FFP_MSG_ERROR:
             MPTRACE("FFP_MSG_ERROR: %d", msg.arg1);
-            post_event(env, weak_thiz, MEDIA_ERROR, MEDIA_ERROR_IJK_PLAYER, msg.arg1);
+            post_ring_event(env, weak_thiz, ring, MEDIA_ERROR, MEDIA_ERROR_IJK_PLAYER, msg.arg1);
             break;
         case FFP_MSG_PREPARED:
             MPTRACE("FFP_MSG_PREPARED:");
-            post_event(env, weak_thiz, MEDIA_PREPARED, 0, 0);
+            post_ring_event(env, weak_thiz, ring, MEDIA_PREPARED, 0, 0);
             break;
         case FFP_MSG_COMPLETED:
             MPTRACE("FFP_MSG_COMPLETED:");
-            post_event(env, weak_thiz, MEDIA_PLAYBACK_COMPLETE, 0, 0);
+            post_ring_event(env, weak_thiz, ring, MEDIA_PLAYBACK_COMPLETE, 0, 0);
             break;
         case FFP_MSG_VIDEO_SIZE_CHANGED:
             MPTRACE("FFP_MSG_VIDEO_SIZE_CHANGED: %d, %d", msg.arg1, msg.arg2);
-            post_event(env, weak_thiz, MEDIA_SET_VIDEO_SIZE, msg.arg1, msg.arg2);
+            post_ring_event(env, weak_thiz, ring, MEDIA_SET_VIDEO_SIZE, msg.arg1, msg.arg2);
             break;
         case FFP_MSG_SAR_CHANGED:
             MPTRACE("FFP_MSG_SAR_CHANGED: %d, %d", msg.arg1, msg.arg2);
-            post_event(env, weak_thiz, MEDIA_SET_VIDEO_SAR, msg.arg1, msg.arg2);
+            post_ring_event(env, weak_thiz, ring, MEDIA_SET_VIDEO_SAR, msg.arg1, msg.arg2);
             break;
         case FFP_MSG_BUFFERING_START:
             MPTRACE("FFP_MSG_BUFFERING_START:");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_BUFFERING_START, 0);
+            post_ring_event(env, weak_thiz, ring, MEDIA_INFO, MEDIA_INFO_BUFFERING_START, 0);
             break;
         case FFP_MSG_BUFFERING_END:
             MPTRACE("FFP_MSG_BUFFERING_END:");
-            post_event(env, weak_thiz, MEDIA_INFO, MEDIA_INFO_BUFFERING_END, 0);
+            post_ring_event(env, weak_thiz, ring, MEDIA_INFO, MEDIA_INFO_BUFFERING_END, 0);
             break;
         case FFP_MSG_BUFFERING_UPDATE:
             // MPTRACE("FFP_MSG_BUFFERING_UPDATE: %d, %d", msg.arg1, msg.arg2);
-            post_event(env, weak_thiz, MEDIA_BUFFERING_UPDATE, msg.arg1, msg.arg2);
+            post_ring_event(env, weak_thiz, ring, MEDIA_BUFFERING_UPDATE, msg.arg1, msg.arg2);
             break;
         case FFP_MSG_BUFFERING_BYTES_UPDATE:
             break;
@@ -932,10 +1611,25 @@ static void message_loop_n(JNIEnv *env, IjkMediaPlayer *mp)
             break;
         case FFP_MSG_SEEK_COMPLETE:
             MPTRACE("FFP_MSG_SEEK_COMPLETE:");
-            post_event(env, weak_thiz, MEDIA_SEEK_COMPLETE, 0, 0);
+            post_ring_event(env, weak_thiz, ring, MEDIA_SEEK_COMPLETE, 0, 0);
             break;
         case FFP_MSG_PLAYBACK_STATE_CHANGED:
             break;
+        case FFP_MSG_STARTED_AS_NEXT:
+            MPTRACE("FFP_MSG_STARTED_AS_NEXT:");
+            post_ring_event(env, weak_thiz, ring, MEDIA_INFO, MEDIA_INFO_STARTED_AS_NEXT, 0);
+            break;
+        case FFP_MSG_METADATA_UPDATE:
+            MPTRACE("FFP_MSG_METADATA_UPDATE:");
+            post_ring_event(env, weak_thiz, ring, MEDIA_INFO, MEDIA_INFO_METADATA_UPDATE, 0);
+            break;
+        case FFP_MSG_NETWORK_BANDWIDTH:
+            post_ring_event(env, weak_thiz, ring, MEDIA_INFO, MEDIA_INFO_NETWORK_BANDWIDTH, msg.arg1);
+            break;
+        case FFP_MSG_BUFFER_LOW_PREDICTED:
+            MPTRACE("FFP_MSG_BUFFER_LOW_PREDICTED: %d ms, %d%%\n", msg.arg1, msg.arg2);
+            post_ring_event(env, weak_thiz, ring, MEDIA_INFO, MEDIA_INFO_BUFFER_LOW_PREDICTED, msg.arg1);
+            break;
         default:
             ALOGE("unknown FFP_MSG_xxx(%d)", msg.what);
             break;
@@ -943,7 +1637,7 @@ static void message_loop_n(JNIEnv *env, IjkMediaPlayer *mp)
     }
 
     LABEL_RETURN:
-    ;
+    event_ring_dec_ref_p(env, &ring);
 }
 
 static int message_loop(void *arg)
@@ -979,6 +1673,7 @@ static JNINativeMethod g_methods[] = {
     { "_start", "()V", (void *) IjkMediaPlayer_start },
     { "_stop", "()V", (void *) IjkMediaPlayer_stop },
     { "seekTo", "(J)V", (void *) IjkMediaPlayer_seekTo },
+    { "_seekToMode", "(JI)V", (void *) IjkMediaPlayer_seekToMode },
     { "_pause", "()V", (void *) IjkMediaPlayer_pause },
     { "isPlaying", "()Z", (void *) IjkMediaPlayer_isPlaying },
     { "getCurrentPosition", "()J", (void *) IjkMediaPlayer_getCurrentPosition },
@@ -986,29 +1681,52 @@ static JNINativeMethod g_methods[] = {
     { "getPlayableDuration", "()J", (void *) IjkMediaPlayer_getPlayableDuration },
     { "getRemoteIpAddress", "()Ljava/lang/String;", (void *) IjkMediaPlayer_getRemoteIpAddress },
     { "getBitRate", "()I", (void *) IjkMediaPlayer_getBitRate },
+    { "_getStatistics", "([J)I", (void *) IjkMediaPlayer_getStatistics },
+    { "_getBandwidthEstimate", "(I)J", (void *) IjkMediaPlayer_getBandwidthEstimate },
+    { "_getPictureQueueHistogram", "(I[J)I", (void *) IjkMediaPlayer_getPictureQueueHistogram },
     { "_release", "()V", (void *) IjkMediaPlayer_release },
+    { "_releaseAsync", "(Ljava/lang/Object;)V", (void *) IjkMediaPlayer_releaseAsync },
     { "_reset", "()V", (void *) IjkMediaPlayer_reset },
+    { "_recycleAsync", "(Ljava/lang/Object;)V", (void *) IjkMediaPlayer_recycleAsync },
+    { "_setNextMediaPlayer", "(Ltv/danmaku/ijk/media/player/IjkMediaPlayer;Z)V", (void *) IjkMediaPlayer_setNextMediaPlayer },
     { "setVolume", "(FF)V", (void *) IjkMediaPlayer_setVolume },
     { "native_init", "()V", (void *) IjkMediaPlayer_native_init },
     { "native_setup", "(Ljava/lang/Object;)V", (void *) IjkMediaPlayer_native_setup },
     { "native_finalize", "()V", (void *) IjkMediaPlayer_native_finalize },
+    { "_setEventRing", "(Ljava/nio/ByteBuffer;)V", (void *) IjkMediaPlayer_setEventRing },
+    { "_drainEventRing", "()I", (void *) IjkMediaPlayer_drainEventRing },
 
     { "_setAvFormatOption", "(Ljava/lang/String;Ljava/lang/String;)V", (void *) IjkMediaPlayer_setAvFormatOption },
     { "_setAvCodecOption", "(Ljava/lang/String;Ljava/lang/String;)V", (void *) IjkMediaPlayer_setAvCodecOption },
     { "_setSwScaleOption", "(Ljava/lang/String;Ljava/lang/String;)V", (void *) IjkMediaPlayer_setSwScaleOption },
     { "_setOverlayFormat", "(I)V", (void *) IjkMediaPlayer_setOverlayFormat },
     { "_setFrameDrop", "(I)V", (void *) IjkMediaPlayer_setFrameDrop },
+    { "_setPictureQueueAdaptive", "(I)V", (void *) IjkMediaPlayer_setPictureQueueAdaptive },
+    { "_setSharedRefresh", "(Z)V", (void *) IjkMediaPlayer_setSharedRefresh },
+    { "_setDecodeDegradeFloor", "(I)V", (void *) IjkMediaPlayer_setDecodeDegradeFloor },
+    { "_setSyncClock", "(J)V", (void *) IjkMediaPlayer_setSyncClock },
     { "_setMediaCodecEnabled", "(Z)V", (void *) IjkMediaPlayer_setMediaCodecEnabled },
     { "_setOpenSLESEnabled", "(Z)V", (void *) IjkMediaPlayer_setOpenSLESEnabled },
     { "_setDataSourceType", "(I)V", (void *) IjkMediaPlayer_setDataSourceType },
     { "_setPlayerSpeedMode", "(I)V", (void *) IjkMediaPlayer_setPlayerSpeedMode },
     { "_setPlayerVolume", "(I)V", (void *) IjkMediaPlayer_setPlayerVolume },
     { "_setDataCache", "(I)V", (void*)ijkMediaPlayer_setDataCache},
+    { "_setBufferingPolicy", "(IIIIIIIZ)V", (void *) IjkMediaPlayer_setBufferingPolicy },
+    { "_setInBackground", "(Z)V", (void *) IjkMediaPlayer_setInBackground },
+    { "_setLiveLatency", "(IIII)V", (void *) IjkMediaPlayer_setLiveLatency },
+    { "_setLiveCatchUpSpeed", "(F)V", (void *) IjkMediaPlayer_setLiveCatchUpSpeed },
+    { "_setTimeShift", "(IJLjava/lang/String;)V", (void *) IjkMediaPlayer_setTimeShift },
+    { "_seekTimeShift", "(J)Z", (void *) IjkMediaPlayer_seekTimeShift },
+    { "_getTimeShift", "(Z)J", (void *) IjkMediaPlayer_getTimeShift },
+    { "_setStreamParamsCache", "(Ljava/lang/String;Ljava/lang/String;)V", (void *) IjkMediaPlayer_setStreamParamsCache },
 
     { "_getColorFormatName", "(I)Ljava/lang/String;", (void *) IjkMediaPlayer_getColorFormatName },
+    { "_setThreadRole", "(IIIIJ)V", (void *) IjkMediaPlayer_setThreadRole },
+    { "_resetThreadRole", "(I)V", (void *) IjkMediaPlayer_resetThreadRole },
     { "_getVideoCodecInfo", "()Ljava/lang/String;", (void *) IjkMediaPlayer_getVideoCodecInfo },
     { "_getAudioCodecInfo", "()Ljava/lang/String;", (void *) IjkMediaPlayer_getAudioCodecInfo },
     { "_getMediaMeta", "()Landroid/os/Bundle;", (void *) IjkMediaPlayer_getMediaMeta },
+    { "_getMediaMetaRecord", "()[B", (void *) IjkMediaPlayer_getMediaMetaRecord },
 
     { "_getAbsoluteTimestamp", "()J", (void *) IjkMediaPlayer_getAbsoluteTimestamp },
 };
@@ -1050,9 +1768,14 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved)
     IJK_FIND_JAVA_STATIC_METHOD(env, g_clazz.jmid_onControlResolveSegmentOfflineMrl, g_clazz.clazz,
         "onControlResolveSegmentOfflineMrl", "(Ljava/lang/Object;I)Ljava/lang/String;");
 
+    IJK_FIND_JAVA_STATIC_METHOD(env, g_clazz.jmid_onNativeReleased, g_clazz.clazz,
+        "onNativeReleased", "(Ljava/lang/Object;)V");
+
     ijkmp_global_init();
 
     FFmpegApi_global_init(env);
+    IjkFrameExtractor_global_init(env);
+    IjkMemoryBudget_global_init(env);
 
     return JNI_VERSION_1_4;
 }
@@ -309,6 +309,7 @@ static int amc_queue_picture(
 
         /* now we can update the picture count */
         ffp_frame_queue_push(&is->pictq);
+        ffp_fps_sampler_tick(&ffp->vdec_fps);
     }
     return 0;
 }
@@ -327,6 +328,11 @@ static int amc_queue_picture_buffer(
     double duration = (frame_rate.num && frame_rate.den ? av_q2d((AVRational){frame_rate.den, frame_rate.num}) : 0);
     int64_t amc_pts = av_rescale_q(buffer_info->presentationTimeUs, AV_TIME_BASE_Q, is->video_st->time_base);
     double pts = amc_pts < 0 ? NAN : amc_pts * av_q2d(tb);
+    if (ffp_decoder_skip_frame(&is->viddec, amc_pts < 0 ? AV_NOPTS_VALUE : amc_pts, tb, 1)) {
+        if (output_buffer_index >= 0)
+            SDL_AMediaCodec_releaseOutputBuffer(opaque->acodec, output_buffer_index, false);
+        return 0;
+    }
     // ALOGE("got_frame: %lld -> %lf", bufferInfo.presentationTimeUs, pts);
     return amc_queue_picture(node, opaque->acodec, output_buffer_index, buffer_info, pts, duration, 0, is->viddec.pkt_serial);
 }
@@ -916,7 +922,7 @@ static int func_run_sync(IJKFF_Pipenode *node)
     opaque->frame_width  = opaque->avctx->width;
     opaque->frame_height = opaque->avctx->height;
 
-    opaque->enqueue_thread = SDL_CreateThreadEx(&opaque->_enqueue_thread, enqueue_thread_func, node, "amediacodec_input_thread");
+    opaque->enqueue_thread = SDL_CreateThreadRole(&opaque->_enqueue_thread, enqueue_thread_func, node, "amediacodec_input_thread", SDL_THREAD_ROLE_VIDEO_DECODE);
     if (!opaque->enqueue_thread) {
         ALOGE("%s: SDL_CreateThreadEx failed\n", __func__);
         ret = -1;
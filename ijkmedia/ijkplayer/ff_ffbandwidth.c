@@ -0,0 +1,155 @@
+/*
+ * ff_ffbandwidth.c
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+
+#include "ff_ffbandwidth.h"
+#include <pthread.h>
+#include <stdlib.h>
+#include <string.h>
+
+struct FFBandwidthEstimator {
+    pthread_mutex_t mutex;
+
+    // sample being merged
+    int64_t pending_bytes;
+    int64_t pending_us;
+
+    double  ewma_bps;
+    int64_t window[FFP_BANDWIDTH_WINDOW_SIZE];
+    int     window_head;
+    int     window_count;
+};
+
+FFBandwidthEstimator *ffbandwidth_create(void)
+{
+    FFBandwidthEstimator *bw = (FFBandwidthEstimator*) calloc(1, sizeof(FFBandwidthEstimator));
+    if (!bw)
+        return NULL;
+
+    if (pthread_mutex_init(&bw->mutex, NULL)) {
+        free(bw);
+        return NULL;
+    }
+
+    return bw;
+}
+
+void ffbandwidth_free_p(FFBandwidthEstimator **bw)
+{
+    if (!bw || !*bw)
+        return;
+
+    pthread_mutex_destroy(&(*bw)->mutex);
+    free(*bw);
+    *bw = NULL;
+}
+
+void ffbandwidth_reset(FFBandwidthEstimator *bw)
+{
+    if (!bw)
+        return;
+
+    pthread_mutex_lock(&bw->mutex);
+    bw->pending_bytes = 0;
+    bw->pending_us    = 0;
+    bw->ewma_bps      = 0;
+    bw->window_head   = 0;
+    bw->window_count  = 0;
+    pthread_mutex_unlock(&bw->mutex);
+}
+
+static void add_sample_l(FFBandwidthEstimator *bw, int64_t bps)
+{
+    if (bw->ewma_bps > 0)
+        bw->ewma_bps += FFP_BANDWIDTH_EWMA_WEIGHT * (bps - bw->ewma_bps);
+    else
+        bw->ewma_bps = bps;
+
+    bw->window[bw->window_head] = bps;
+    bw->window_head = (bw->window_head + 1) % FFP_BANDWIDTH_WINDOW_SIZE;
+    if (bw->window_count < FFP_BANDWIDTH_WINDOW_SIZE)
+        bw->window_count++;
+}
+
+void ffbandwidth_add_transfer(FFBandwidthEstimator *bw, int64_t bytes, int64_t busy_us)
+{
+    if (!bw || bytes < 0 || busy_us < 0)
+        return;
+
+    pthread_mutex_lock(&bw->mutex);
+    bw->pending_bytes += bytes;
+    bw->pending_us    += busy_us;
+
+    // small transfers are mostly latency, merge them until long enough to tell the rate
+    if (bw->pending_us >= FFP_BANDWIDTH_SAMPLE_MAX_US ||
+        (bw->pending_us >= FFP_BANDWIDTH_SAMPLE_MIN_US && bw->pending_bytes >= FFP_BANDWIDTH_SAMPLE_BYTES)) {
+        add_sample_l(bw, bw->pending_bytes * 8 * 1000000 / bw->pending_us);
+        bw->pending_bytes = 0;
+        bw->pending_us    = 0;
+    }
+    pthread_mutex_unlock(&bw->mutex);
+}
+
+int64_t ffbandwidth_get_estimate(FFBandwidthEstimator *bw)
+{
+    int64_t bps;
+
+    if (!bw)
+        return 0;
+
+    pthread_mutex_lock(&bw->mutex);
+    bps = (int64_t)bw->ewma_bps;
+    pthread_mutex_unlock(&bw->mutex);
+    return bps;
+}
+
+static int compare_int64(const void *a, const void *b)
+{
+    int64_t l = *(const int64_t *)a;
+    int64_t r = *(const int64_t *)b;
+    return l < r ? -1 : (l > r ? 1 : 0);
+}
+
+int64_t ffbandwidth_get_percentile(FFBandwidthEstimator *bw, int percent)
+{
+    int64_t sorted[FFP_BANDWIDTH_WINDOW_SIZE];
+    int     count;
+
+    if (!bw)
+        return 0;
+
+    pthread_mutex_lock(&bw->mutex);
+    count = bw->window_count;
+    memcpy(sorted, bw->window, count * sizeof(int64_t));
+    pthread_mutex_unlock(&bw->mutex);
+
+    if (count <= 0)
+        return 0;
+
+    if (percent < 0)
+        percent = 0;
+    else if (percent > 100)
+        percent = 100;
+
+    qsort(sorted, count, sizeof(int64_t), compare_int64);
+    return sorted[(count - 1) * percent / 100];
+}
@@ -0,0 +1,58 @@
+/*
+ * ff_ffbandwidth.h
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+
+#ifndef FFPLAY__FF_FFBANDWIDTH_H
+#define FFPLAY__FF_FFBANDWIDTH_H
+
+#include <stdint.h>
+
+/*
+ * Network throughput of a player, fed by read_thread with bytes read and
+ * the time blocked in reading them. Time spent out of reads, e.g. waiting
+ * for queues to drain or paused, is never counted.
+ *
+ * Transfers are merged into samples of at least FFP_BANDWIDTH_SAMPLE_MIN_US,
+ * which update an EWMA and a window of the last FFP_BANDWIDTH_WINDOW_SIZE
+ * samples for percentiles. Safe to query from any thread.
+ */
+
+#define FFP_BANDWIDTH_SAMPLE_MIN_US     (50 * 1000)
+#define FFP_BANDWIDTH_SAMPLE_MAX_US     (500 * 1000)
+#define FFP_BANDWIDTH_SAMPLE_BYTES      (64 * 1024)
+#define FFP_BANDWIDTH_WINDOW_SIZE       32
+#define FFP_BANDWIDTH_EWMA_WEIGHT       0.2
+
+typedef struct FFBandwidthEstimator FFBandwidthEstimator;
+
+FFBandwidthEstimator *ffbandwidth_create(void);
+void ffbandwidth_free_p(FFBandwidthEstimator **bw);
+
+void ffbandwidth_reset(FFBandwidthEstimator *bw);
+void ffbandwidth_add_transfer(FFBandwidthEstimator *bw, int64_t bytes, int64_t busy_us);
+
+// bit/s, 0 if unknown
+int64_t ffbandwidth_get_estimate(FFBandwidthEstimator *bw);
+// bit/s of window samples, percent in 0 ~ 100, 0 if unknown
+int64_t ffbandwidth_get_percentile(FFBandwidthEstimator *bw, int percent);
+
+#endif
@@ -0,0 +1,353 @@
+/*
+ * ff_fflatency.c
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ff_fflatency.h"
+#include <stdlib.h>
+#include <string.h>
+
+IJKFF_LatencyController *fflatency_alloc(size_t opaque_size)
+{
+    IJKFF_LatencyController *ctrl = (IJKFF_LatencyController*) calloc(1, sizeof(IJKFF_LatencyController));
+    if (!ctrl)
+        return NULL;
+
+    ctrl->opaque = calloc(1, opaque_size);
+    if (!ctrl->opaque) {
+        free(ctrl);
+        return NULL;
+    }
+
+    return ctrl;
+}
+
+void fflatency_free(IJKFF_LatencyController *ctrl)
+{
+    if (!ctrl)
+        return;
+
+    if (ctrl->func_destroy) {
+        ctrl->func_destroy(ctrl);
+    }
+
+    free(ctrl->opaque);
+    memset(ctrl, 0, sizeof(IJKFF_LatencyController));
+    free(ctrl);
+}
+
+void fflatency_free_p(IJKFF_LatencyController **ctrl)
+{
+    if (!ctrl)
+        return;
+
+    fflatency_free(*ctrl);
+    *ctrl = NULL;
+}
+
+void fflatency_reset(IJKFF_LatencyController *ctrl)
+{
+    if (!ctrl || !ctrl->func_reset)
+        return;
+
+    ctrl->func_reset(ctrl);
+}
+
+void fflatency_update(IJKFF_LatencyController *ctrl, const IJKFF_LatencyInput *in, IJKFF_LatencyOutput *out)
+{
+    out->drop_audio_packet = 0;
+    out->drop_all          = 0;
+    out->playback_rate     = 1.0;
+    ctrl->func_update(ctrl, in, out);
+}
+
+/*
+ * legacy
+ */
+#define REALTIME_DURATION_LWM 1000
+#define REALTIME_DURATION_HWM 4000
+
+typedef struct Legacy_Opaque {
+    int     lwm;
+    int     hwm;
+    int     stalled_count;
+    int64_t stalled_begin_time;
+    int64_t flush_begin_time;
+    int64_t drop_begin_time;
+} Legacy_Opaque;
+
+static void legacy_reset(IJKFF_LatencyController *ctrl)
+{
+    Legacy_Opaque *opaque = ctrl->opaque;
+
+    opaque->lwm                = REALTIME_DURATION_LWM;
+    opaque->stalled_count      = 0;
+    opaque->stalled_begin_time = 0;
+    opaque->flush_begin_time   = 0;
+    opaque->drop_begin_time    = 0;
+}
+
+static void legacy_update(IJKFF_LatencyController *ctrl, const IJKFF_LatencyInput *in, IJKFF_LatencyOutput *out)
+{
+    Legacy_Opaque *opaque = ctrl->opaque;
+    int64_t now = in->now_ms;
+
+    // check stall
+    opaque->stalled_count += in->stalled_count;
+    if (opaque->stalled_begin_time == 0)
+        opaque->stalled_begin_time = now;
+    if (now - opaque->stalled_begin_time > 10 * 1000) {
+        if (opaque->stalled_count >= 1)
+            opaque->lwm += REALTIME_DURATION_LWM * opaque->stalled_count;
+        else
+            opaque->lwm -= REALTIME_DURATION_LWM;
+        opaque->stalled_count      = 0;
+        opaque->stalled_begin_time = 0;
+    }
+
+    if (opaque->lwm > opaque->hwm * 4 / 5)
+        opaque->lwm = opaque->hwm * 4 / 5;
+    if (opaque->lwm < REALTIME_DURATION_LWM)
+        opaque->lwm = REALTIME_DURATION_LWM;
+
+    // check delay, drop all
+    if (opaque->flush_begin_time == 0)
+        opaque->flush_begin_time = now;
+    if (in->cached_ms > opaque->hwm && now - opaque->flush_begin_time > 60 * 1000) {
+        out->drop_all = 1;
+        opaque->flush_begin_time = 0;
+    }
+
+    // drop one audio packet
+    if (opaque->drop_begin_time == 0)
+        opaque->drop_begin_time = now;
+    if (in->cached_ms > opaque->hwm / 2 && now - opaque->drop_begin_time > 10 * 1000) {
+        out->drop_audio_packet = 1;
+        opaque->drop_begin_time = 0;
+    }
+
+    out->lwm_ms = opaque->lwm;
+}
+
+IJKFF_LatencyController *fflatency_create_legacy(int data_cache)
+{
+    IJKFF_LatencyController *ctrl = fflatency_alloc(sizeof(Legacy_Opaque));
+    if (!ctrl)
+        return NULL;
+
+    Legacy_Opaque *opaque = ctrl->opaque;
+    opaque->hwm = data_cache > REALTIME_DURATION_HWM ? data_cache : REALTIME_DURATION_HWM;
+    legacy_reset(ctrl);
+
+    ctrl->func_reset  = legacy_reset;
+    ctrl->func_update = legacy_update;
+    return ctrl;
+}
+
+/*
+ * pid
+ *
+ * error is cached duration above target, output is how fast latency should
+ * be shed, in ms per second, realized by playing faster if catch-up speed
+ * is set, or by dropping audio packets.
+ * Each stall raises target for a while, instead of stepping lwm.
+ * read_thread polls once per packet, the loop itself runs every
+ * PID_PERIOD_MS so that dt is not a few ms of jitter, and the derivative
+ * is low-pass filtered as cached duration moves in packet steps.
+ */
+#define PID_KP                  0.05    // (ms/s) per ms
+#define PID_KI                  0.005   // (ms/s) per (ms*s)
+#define PID_KD                  0.02    // (ms/s) per (ms/s)
+#define PID_MAX_SHED_RATE       100.0   // ms/s, at default aggressiveness
+#define PID_BOOST_DECAY_MS      10000   // one stall step wears off in
+#define PID_MIN_OVER_MAX_MS     1000    // grace above max before drop all
+#define PID_CATCHUP_START_MS    100     // at least, above target before speeding up
+#define PID_PERIOD_MS           200     // control loop period
+#define PID_DERIVATIVE_TAU_MS   1000    // time constant of derivative filter
+#define PID_RATE_HOLD_MS        1000    // catch-up speed changes at most once in
+
+typedef struct Pid_Opaque {
+    IJKFF_LatencyParams params;
+    double  scale;
+
+    double  integral;
+    double  last_error;
+    double  derivative;
+    double  output;
+    int64_t last_time;
+
+    double  boost;
+    double  boost_step;
+
+    int64_t over_max_begin_time;
+    int64_t last_drop_time;
+
+    int     catching_up;
+    int     catchup_start_ms;
+    double  catchup_rate;
+    int64_t catchup_rate_time;
+} Pid_Opaque;
+
+static void pid_reset(IJKFF_LatencyController *ctrl)
+{
+    Pid_Opaque *opaque = ctrl->opaque;
+
+    opaque->integral            = 0;
+    opaque->last_error          = 0;
+    opaque->derivative          = 0;
+    opaque->output              = 0;
+    opaque->last_time           = 0;
+    opaque->boost               = 0;
+    opaque->over_max_begin_time = 0;
+    opaque->last_drop_time      = 0;
+    opaque->catching_up         = 0;
+    opaque->catchup_rate        = 1.0;
+    opaque->catchup_rate_time   = 0;
+}
+
+static double pid_clamp(double value, double min, double max)
+{
+    return value < min ? min : (value > max ? max : value);
+}
+
+static void pid_update(IJKFF_LatencyController *ctrl, const IJKFF_LatencyInput *in, IJKFF_LatencyOutput *out)
+{
+    Pid_Opaque          *opaque = ctrl->opaque;
+    IJKFF_LatencyParams *params = &opaque->params;
+    int64_t now = in->now_ms;
+    double  dt  = opaque->last_time ? (now - opaque->last_time) : 0;
+    double  headroom = params->max_ms - params->target_ms;
+
+    // stalls raise target at once, then wear off
+    if (in->stalled_count > 0)
+        opaque->boost = pid_clamp(opaque->boost + opaque->boost_step * in->stalled_count, 0, headroom);
+
+    double target = pid_clamp(params->target_ms + opaque->boost, params->min_ms, params->max_ms);
+    double error  = in->cached_ms - target;
+
+    if (opaque->last_time == 0) {
+        opaque->output     = PID_KP * opaque->scale * error;
+        opaque->last_error = error;
+        opaque->last_time  = now;
+    } else if (dt >= PID_PERIOD_MS) {
+        double integral_max = (params->max_ms - params->min_ms) * 10.0;
+        double derivative   = (error - opaque->last_error) * 1000 / dt;
+
+        opaque->boost      = pid_clamp(opaque->boost - opaque->boost_step * dt / PID_BOOST_DECAY_MS, 0, headroom);
+        opaque->integral   = pid_clamp(opaque->integral + error * dt / 1000, -integral_max, integral_max);
+        opaque->derivative += (derivative - opaque->derivative) * dt / (PID_DERIVATIVE_TAU_MS + dt);
+
+        opaque->output  = PID_KP * opaque->scale * error;
+        opaque->output += PID_KI * opaque->scale * opaque->integral;
+        opaque->output += PID_KD * opaque->scale * opaque->derivative;
+        opaque->last_error = error;
+        opaque->last_time  = now;
+    }
+    double output = opaque->output;
+
+    if (params->catchup_max_speed > 1.0f) {
+        // shed latency by playing faster, from well above target down to target
+        if (!opaque->catching_up && error > opaque->catchup_start_ms)
+            opaque->catching_up = 1;
+        else if (opaque->catching_up && (error <= 0 || in->cached_ms <= params->min_ms))
+            opaque->catching_up = 0;
+
+        if (!opaque->catching_up) {
+            opaque->catchup_rate = 1.0;
+        } else if (opaque->catchup_rate == 1.0 || now - opaque->catchup_rate_time >= PID_RATE_HOLD_MS) {
+            // in steps, so that audio tempo and frame timing are not retuned all the time
+            double rate  = pid_clamp(1.0 + output / 1000, FFP_LIVE_CATCHUP_SPEED_MIN, params->catchup_max_speed);
+            int    steps = (int)((rate - FFP_LIVE_CATCHUP_SPEED_MIN) / FFP_LIVE_CATCHUP_SPEED_STEP + 0.5);
+            rate = pid_clamp(FFP_LIVE_CATCHUP_SPEED_MIN + steps * FFP_LIVE_CATCHUP_SPEED_STEP, FFP_LIVE_CATCHUP_SPEED_MIN, params->catchup_max_speed);
+            if (rate != opaque->catchup_rate) {
+                opaque->catchup_rate      = rate;
+                opaque->catchup_rate_time = now;
+            }
+        }
+        out->playback_rate = opaque->catchup_rate;
+    } else if (output > 0 && in->cached_ms > params->min_ms && in->audio_packet_ms > 0) {
+        // shed latency by dropping audio packets at the rate wanted
+        output = pid_clamp(output, 0, PID_MAX_SHED_RATE * opaque->scale);
+        double interval = 1000.0 * in->audio_packet_ms / output;
+        if (now - opaque->last_drop_time >= interval) {
+            out->drop_audio_packet = 1;
+            opaque->last_drop_time = now;
+        }
+    }
+
+    // far behind live edge, catching up takes too long
+    if (in->cached_ms > params->max_ms) {
+        if (opaque->over_max_begin_time == 0)
+            opaque->over_max_begin_time = now;
+        if (now - opaque->over_max_begin_time > PID_MIN_OVER_MAX_MS + (100 - params->aggressiveness) * 50) {
+            out->drop_all = 1;
+            out->playback_rate = 1.0;
+            opaque->catching_up         = 0;
+            opaque->catchup_rate        = 1.0;
+            opaque->integral            = 0;
+            opaque->last_error          = 0;
+            opaque->derivative          = 0;
+            opaque->output              = 0;
+            opaque->last_time           = 0;
+            opaque->over_max_begin_time = 0;
+        }
+    } else {
+        opaque->over_max_begin_time = 0;
+    }
+
+    out->lwm_ms = (int)target;
+}
+
+IJKFF_LatencyController *fflatency_create_pid(const IJKFF_LatencyParams *params)
+{
+    if (!params || params->target_ms <= 0)
+        return NULL;
+
+    IJKFF_LatencyController *ctrl = fflatency_alloc(sizeof(Pid_Opaque));
+    if (!ctrl)
+        return NULL;
+
+    Pid_Opaque *opaque = ctrl->opaque;
+    opaque->params = *params;
+    if (opaque->params.min_ms <= 0 || opaque->params.min_ms > opaque->params.target_ms)
+        opaque->params.min_ms = opaque->params.target_ms / 2;
+    if (opaque->params.max_ms < opaque->params.target_ms)
+        opaque->params.max_ms = opaque->params.target_ms * 3;
+    if (opaque->params.aggressiveness < 0)
+        opaque->params.aggressiveness = FFP_LIVE_LATENCY_AGGRESSIVENESS_DEFAULT;
+    if (opaque->params.aggressiveness > 100)
+        opaque->params.aggressiveness = 100;
+
+    if (opaque->params.catchup_max_speed > FFP_LIVE_CATCHUP_SPEED_MAX)
+        opaque->params.catchup_max_speed = FFP_LIVE_CATCHUP_SPEED_MAX;
+    else if (opaque->params.catchup_max_speed > 1.0f && opaque->params.catchup_max_speed < FFP_LIVE_CATCHUP_SPEED_MIN)
+        opaque->params.catchup_max_speed = FFP_LIVE_CATCHUP_SPEED_MIN;
+
+    opaque->scale      = opaque->params.aggressiveness / (double)FFP_LIVE_LATENCY_AGGRESSIVENESS_DEFAULT;
+    opaque->boost_step = opaque->params.target_ms / 2;
+    opaque->catchup_start_ms = opaque->params.target_ms / 10;
+    if (opaque->catchup_start_ms < PID_CATCHUP_START_MS)
+        opaque->catchup_start_ms = PID_CATCHUP_START_MS;
+    pid_reset(ctrl);
+
+    ctrl->func_reset  = pid_reset;
+    ctrl->func_update = pid_update;
+    return ctrl;
+}
@@ -0,0 +1,83 @@
+/*
+ * ff_fflatency.h
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef FFPLAY__FF_FFLATENCY_H
+#define FFPLAY__FF_FFLATENCY_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+/*
+ * Latency controller of live streams, polled by read_thread.
+ * It decides from how much is cached when buffering may end and when
+ * cached packets should be dropped to catch up with the live edge.
+ */
+
+#define FFP_LIVE_LATENCY_AGGRESSIVENESS_DEFAULT 50
+#define FFP_LIVE_CATCHUP_SPEED_MIN              1.02
+#define FFP_LIVE_CATCHUP_SPEED_MAX              1.5
+#define FFP_LIVE_CATCHUP_SPEED_STEP             0.02
+
+typedef struct IJKFF_LatencyParams {
+    int target_ms;          // <= 0: legacy controller driven by data_cache
+    int min_ms;
+    int max_ms;
+    int aggressiveness;     // 0 ~ 100, how hard to chase target
+    float catchup_max_speed;    // > 1.0: catch up by playing faster instead of dropping audio packets
+} IJKFF_LatencyParams;
+
+typedef struct IJKFF_LatencyInput {
+    int64_t now_ms;
+    int64_t cached_ms;          // video queue duration, or audio if no video
+    int64_t audio_packet_ms;    // average duration of queued audio packets, 0 if unknown
+    int     stalled_count;      // buffering started since last update
+} IJKFF_LatencyInput;
+
+typedef struct IJKFF_LatencyOutput {
+    int lwm_ms;                 // buffering ends once queues are above
+    int drop_audio_packet;      // drop next audio packet read
+    int drop_all;               // flush all cached packets
+    double playback_rate;       // 1.0 for normal speed
+} IJKFF_LatencyOutput;
+
+typedef struct IJKFF_LatencyController IJKFF_LatencyController;
+typedef struct IJKFF_LatencyController {
+    void *opaque;
+
+    void (*func_destroy)(IJKFF_LatencyController *ctrl);
+    void (*func_reset)  (IJKFF_LatencyController *ctrl); // optional
+    void (*func_update) (IJKFF_LatencyController *ctrl, const IJKFF_LatencyInput *in, IJKFF_LatencyOutput *out);
+} IJKFF_LatencyController;
+
+IJKFF_LatencyController *fflatency_alloc(size_t opaque_size);
+void fflatency_free(IJKFF_LatencyController *ctrl);
+void fflatency_free_p(IJKFF_LatencyController **ctrl);
+
+void fflatency_reset(IJKFF_LatencyController *ctrl);
+void fflatency_update(IJKFF_LatencyController *ctrl, const IJKFF_LatencyInput *in, IJKFF_LatencyOutput *out);
+
+// lwm stepping and periodic drops of the early live code, hwm from data_cache
+IJKFF_LatencyController *fflatency_create_legacy(int data_cache);
+// PID on cached duration around params->target_ms
+IJKFF_LatencyController *fflatency_create_pid(const IJKFF_LatencyParams *params);
+
+#endif
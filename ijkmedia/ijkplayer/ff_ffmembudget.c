@@ -0,0 +1,204 @@
+/*
+ * ff_ffmembudget.c
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+
+#include "ff_ffmembudget.h"
+#include <pthread.h>
+#include <stdlib.h>
+
+struct FFMemBudgetClient {
+    FFMemBudgetClient *prev;
+    FFMemBudgetClient *next;
+
+    int64_t packet_bytes;
+    int64_t frame_bytes;
+    int     low_priority;
+    int64_t packet_limit;
+};
+
+static pthread_mutex_t    g_mutex   = PTHREAD_MUTEX_INITIALIZER;
+static FFMemBudgetClient *g_clients = NULL;
+static int64_t            g_limit   = 0;
+
+static int64_t shrinkable_bytes(const FFMemBudgetClient *client)
+{
+    int64_t bytes = client->packet_bytes - FFP_MEMBUDGET_MIN_PACKET_BYTES;
+    return bytes > 0 ? bytes : 0;
+}
+
+// a normal priority player may always grow to the minimum, e.g. to leave buffering
+static int64_t min_packet_limit(const FFMemBudgetClient *client)
+{
+    if (client->low_priority || client->packet_bytes >= FFP_MEMBUDGET_MIN_PACKET_BYTES)
+        return client->packet_bytes;
+    return FFP_MEMBUDGET_MIN_PACKET_BYTES;
+}
+
+static void rebalance_l(void)
+{
+    FFMemBudgetClient *client;
+    int64_t total        = 0;
+    int     normal_count = 0;
+    int     low_count    = 0;
+    int     low_priority;
+
+    for (client = g_clients; client; client = client->next) {
+        total += client->packet_bytes + client->frame_bytes;
+        client->packet_limit = INT64_MAX;
+        if (client->low_priority)
+            low_count++;
+        else
+            normal_count++;
+    }
+
+    if (g_limit <= 0)
+        return;
+
+    if (total <= g_limit) {
+        // low priority ones may not grow while anyone else could use it
+        int64_t headroom = g_limit - total;
+        for (client = g_clients; client; client = client->next) {
+            if (!client->low_priority) {
+                client->packet_limit = client->packet_bytes + headroom / normal_count;
+                if (client->packet_limit < min_packet_limit(client))
+                    client->packet_limit = min_packet_limit(client);
+            } else if (normal_count == 0) {
+                client->packet_limit = client->packet_bytes + headroom / low_count;
+            } else {
+                client->packet_limit = client->packet_bytes;
+            }
+        }
+        return;
+    }
+
+    // growth to the minimum is cut from the others too
+    int64_t over = total - g_limit;
+    for (client = g_clients; client; client = client->next) {
+        client->packet_limit = min_packet_limit(client);
+        over += client->packet_limit - client->packet_bytes;
+    }
+
+    for (low_priority = 1; low_priority >= 0 && over > 0; low_priority--) {
+        int64_t shrinkable = 0;
+        int64_t cut_total;
+
+        for (client = g_clients; client; client = client->next) {
+            if (client->low_priority == low_priority)
+                shrinkable += shrinkable_bytes(client);
+        }
+        if (shrinkable <= 0)
+            continue;
+
+        cut_total = over < shrinkable ? over : shrinkable;
+        for (client = g_clients; client; client = client->next) {
+            if (client->low_priority == low_priority)
+                client->packet_limit -= (int64_t)((double)cut_total * shrinkable_bytes(client) / shrinkable);
+        }
+        over -= cut_total;
+    }
+}
+
+void ffmembudget_set_limit(int64_t limit)
+{
+    pthread_mutex_lock(&g_mutex);
+    g_limit = limit > 0 ? limit : 0;
+    rebalance_l();
+    pthread_mutex_unlock(&g_mutex);
+}
+
+int64_t ffmembudget_get_limit(void)
+{
+    int64_t limit;
+
+    pthread_mutex_lock(&g_mutex);
+    limit = g_limit;
+    pthread_mutex_unlock(&g_mutex);
+    return limit;
+}
+
+int64_t ffmembudget_get_usage(void)
+{
+    FFMemBudgetClient *client;
+    int64_t usage = 0;
+
+    pthread_mutex_lock(&g_mutex);
+    for (client = g_clients; client; client = client->next)
+        usage += client->packet_bytes + client->frame_bytes;
+    pthread_mutex_unlock(&g_mutex);
+    return usage;
+}
+
+FFMemBudgetClient *ffmembudget_register(void)
+{
+    FFMemBudgetClient *client = (FFMemBudgetClient*) calloc(1, sizeof(FFMemBudgetClient));
+    if (!client)
+        return NULL;
+
+    client->packet_limit = INT64_MAX;
+
+    pthread_mutex_lock(&g_mutex);
+    client->next = g_clients;
+    if (g_clients)
+        g_clients->prev = client;
+    g_clients = client;
+    pthread_mutex_unlock(&g_mutex);
+    return client;
+}
+
+void ffmembudget_unregister_p(FFMemBudgetClient **pclient)
+{
+    FFMemBudgetClient *client;
+
+    if (!pclient || !*pclient)
+        return;
+
+    client = *pclient;
+    pthread_mutex_lock(&g_mutex);
+    if (client->prev)
+        client->prev->next = client->next;
+    else
+        g_clients = client->next;
+    if (client->next)
+        client->next->prev = client->prev;
+    rebalance_l();
+    pthread_mutex_unlock(&g_mutex);
+
+    free(client);
+    *pclient = NULL;
+}
+
+int64_t ffmembudget_update(FFMemBudgetClient *client, int64_t packet_bytes, int64_t frame_bytes, int low_priority)
+{
+    int64_t packet_limit;
+
+    if (!client)
+        return INT64_MAX;
+
+    pthread_mutex_lock(&g_mutex);
+    client->packet_bytes = packet_bytes;
+    client->frame_bytes  = frame_bytes;
+    client->low_priority = low_priority ? 1 : 0;
+    rebalance_l();
+    packet_limit = client->packet_limit;
+    pthread_mutex_unlock(&g_mutex);
+    return packet_limit;
+}
@@ -0,0 +1,54 @@
+/*
+ * ff_ffmembudget.h
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+
+#ifndef FFPLAY__FF_FFMEMBUDGET_H
+#define FFPLAY__FF_FFMEMBUDGET_H
+
+#include <stdint.h>
+
+/*
+ * Process-wide limit of packet and frame memory held by all players.
+ *
+ * Each player reports its usage periodically and gets back how many packet
+ * bytes it may hold. Over the limit, low priority players (paused after
+ * playing, or in background) are cut down first, to FFP_MEMBUDGET_MIN_PACKET_BYTES at
+ * least, then the others in proportion to their packets. Under it, the
+ * headroom goes to normal priority players. A normal priority player may
+ * always grow to FFP_MEMBUDGET_MIN_PACKET_BYTES, the others make room.
+ */
+
+#define FFP_MEMBUDGET_MIN_PACKET_BYTES  (512 * 1024)
+
+typedef struct FFMemBudgetClient FFMemBudgetClient;
+
+void    ffmembudget_set_limit(int64_t limit);  // <= 0 for no limit
+int64_t ffmembudget_get_limit(void);
+int64_t ffmembudget_get_usage(void);
+
+FFMemBudgetClient *ffmembudget_register(void);
+void    ffmembudget_unregister_p(FFMemBudgetClient **client);
+
+// returns packet bytes allowed, INT64_MAX if no limit
+int64_t ffmembudget_update(FFMemBudgetClient *client, int64_t packet_bytes, int64_t frame_bytes, int low_priority);
+
+#endif
@@ -37,6 +37,10 @@
 #define FFP_MSG_BUFFERING_TIME_UPDATE       504     /* arg1 = cached duration in milliseconds, arg2 = high water mark */
 #define FFP_MSG_SEEK_COMPLETE               600
 #define FFP_MSG_PLAYBACK_STATE_CHANGED      700
+#define FFP_MSG_STARTED_AS_NEXT             701     /* started by previous player at its completion */
+#define FFP_MSG_METADATA_UPDATE             702     /* media meta record rebuilt */
+#define FFP_MSG_NETWORK_BANDWIDTH           703     /* arg1 = bandwidth estimate in kbit/s */
+#define FFP_MSG_BUFFER_LOW_PREDICTED        704     /* arg1 = estimated time to stall in ms, arg2 = throughput to bitrate in percent or -1 */
 
 #define FFP_MSG_VIDEO_DECODER_OPEN          10001
 
@@ -36,8 +36,18 @@ typedef struct AVMessage {
     struct AVMessage *next;
 } AVMessage;
 
+/*
+ * Requests and state changes are delivered first, in order. Progress
+ * updates (msg_queue_is_update()) wait behind them, a pending update is
+ * overwritten in place by a newer one of the same what, so at most one of
+ * each is queued. Beyond FFP_MSG_QUEUE_CAPACITY, informational messages
+ * (msg_queue_is_droppable()) are dropped, requests and state changes never.
+ */
+#define FFP_MSG_QUEUE_CAPACITY  (256)
+
 typedef struct MessageQueue {
-    AVMessage *first_msg, *last_msg;
+    AVMessage *first_msg, *last_msg;        // requests and state changes
+    AVMessage *first_update, *last_update;  // progress updates, one per what
     int nb_messages;
     int abort_request;
     SDL_mutex *mutex;
@@ -46,16 +56,62 @@ typedef struct MessageQueue {
     AVMessage *recycle_msg;
     int recycle_count;
     int alloc_count;
+
+    int coalesced_count;
+    int dropped_count;
 } MessageQueue;
 
+inline static int msg_queue_is_update(int what)
+{
+    switch (what) {
+        case FFP_MSG_BUFFERING_UPDATE:
+        case FFP_MSG_BUFFERING_BYTES_UPDATE:
+        case FFP_MSG_BUFFERING_TIME_UPDATE:
+        case FFP_MSG_NETWORK_BANDWIDTH:
+        case FFP_MSG_BUFFER_LOW_PREDICTED:
+            return 1;
+        default:
+            return 0;
+    }
+}
+
+inline static int msg_queue_is_droppable(int what)
+{
+    switch (what) {
+        case FFP_MSG_VIDEO_SIZE_CHANGED:
+        case FFP_MSG_SAR_CHANGED:
+        case FFP_MSG_METADATA_UPDATE:
+        case FFP_MSG_VIDEO_DECODER_OPEN:
+            return 1;
+        default:
+            return 0;
+    }
+}
+
 // TODO: 9 msg pool
 inline static int msg_queue_put_private(MessageQueue *q, AVMessage *msg)
 {
     AVMessage *msg1;
+    int update;
 
     if (q->abort_request)
         return -1;
 
+    update = msg_queue_is_update(msg->what);
+    if (update) {
+        for (msg1 = q->first_update; msg1; msg1 = msg1->next) {
+            if (msg1->what == msg->what) {
+                msg1->arg1 = msg->arg1;
+                msg1->arg2 = msg->arg2;
+                q->coalesced_count++;
+                return 0;
+            }
+        }
+    } else if (q->nb_messages >= FFP_MSG_QUEUE_CAPACITY && msg_queue_is_droppable(msg->what)) {
+        q->dropped_count++;
+        return 0;
+    }
+
 #ifdef FFP_MERGE
     msg1 = av_malloc(sizeof(AVMessage));
 #else
@@ -81,11 +137,19 @@ inline static int msg_queue_put_private(MessageQueue *q, AVMessage *msg)
     *msg1 = *msg;
     msg1->next = NULL;
 
-    if (!q->last_msg)
-        q->first_msg = msg1;
-    else
-        q->last_msg->next = msg1;
-    q->last_msg = msg1;
+    if (update) {
+        if (!q->last_update)
+            q->first_update = msg1;
+        else
+            q->last_update->next = msg1;
+        q->last_update = msg1;
+    } else {
+        if (!q->last_msg)
+            q->first_msg = msg1;
+        else
+            q->last_msg->next = msg1;
+        q->last_msg = msg1;
+    }
     q->nb_messages++;
     SDL_CondSignal(q->cond);
     return 0;
@@ -142,12 +206,11 @@ inline static void msg_queue_init(MessageQueue *q)
     q->abort_request = 1;
 }
 
-inline static void msg_queue_flush(MessageQueue *q)
+inline static void msg_queue_recycle_list(MessageQueue *q, AVMessage *first)
 {
     AVMessage *msg, *msg1;
 
-    SDL_LockMutex(q->mutex);
-    for (msg = q->first_msg; msg != NULL; msg = msg1) {
+    for (msg = first; msg != NULL; msg = msg1) {
         msg1 = msg->next;
 #ifdef FFP_MERGE
         av_freep(&msg);
@@ -156,8 +219,17 @@ inline static void msg_queue_flush(MessageQueue *q)
         q->recycle_msg = msg;
 #endif
     }
+}
+
+inline static void msg_queue_flush(MessageQueue *q)
+{
+    SDL_LockMutex(q->mutex);
+    msg_queue_recycle_list(q, q->first_msg);
+    msg_queue_recycle_list(q, q->first_update);
     q->last_msg = NULL;
     q->first_msg = NULL;
+    q->last_update = NULL;
+    q->first_update = NULL;
     q->nb_messages = 0;
     SDL_UnlockMutex(q->mutex);
 }
@@ -221,6 +293,12 @@ inline static int msg_queue_get(MessageQueue *q, AVMessage *msg, int block)
             q->first_msg = msg1->next;
             if (!q->first_msg)
                 q->last_msg = NULL;
+        } else if ((msg1 = q->first_update) != NULL) {
+            q->first_update = msg1->next;
+            if (!q->first_update)
+                q->last_update = NULL;
+        }
+        if (msg1) {
             q->nb_messages--;
             *msg = *msg1;
 #ifdef FFP_MERGE
@@ -242,39 +320,42 @@ inline static int msg_queue_get(MessageQueue *q, AVMessage *msg, int block)
     return ret;
 }
 
-inline static void msg_queue_remove(MessageQueue *q, int what)
+inline static void msg_queue_remove_private(MessageQueue *q, AVMessage **p_first, AVMessage **p_last, int what)
 {
-    AVMessage **p_msg, *msg, *last_msg = q->first_msg;
-    SDL_LockMutex(q->mutex);
-
-    if (!q->abort_request && q->first_msg) {
-        p_msg = &q->first_msg;
-        while (*p_msg) {
-            msg = *p_msg;
-
-            if (msg->what == what) {
-                // ALOGE("remove msg %d", msg->what);
-                *p_msg = msg->next;
-                p_msg = &msg->next;
+    AVMessage **p_msg = p_first;
+    AVMessage *msg;
+    AVMessage *last_msg = NULL;
+
+    while ((msg = *p_msg) != NULL) {
+        if (msg->what == what) {
+            // ALOGE("remove msg %d", msg->what);
+            *p_msg = msg->next;
+            q->nb_messages--;
 #ifdef FFP_MERGE
-                av_free(msg);
+            av_free(msg);
 #else
-                msg->next = q->recycle_msg;
-                q->recycle_msg = msg;
+            msg->next = q->recycle_msg;
+            q->recycle_msg = msg;
 #endif
-            } else {
-                // ALOGE("retain msg %d", msg->what);
-                last_msg = msg;
-                p_msg = &msg->next;
-            }
-        }
-
-        if (q->first_msg) {
-            q->last_msg = last_msg;
         } else {
-            q->last_msg = NULL;
+            // ALOGE("retain msg %d", msg->what);
+            last_msg = msg;
+            p_msg = &msg->next;
         }
     }
+    *p_last = last_msg;
+}
+
+inline static void msg_queue_remove(MessageQueue *q, int what)
+{
+    SDL_LockMutex(q->mutex);
+
+    if (!q->abort_request) {
+        if (msg_queue_is_update(what))
+            msg_queue_remove_private(q, &q->first_update, &q->last_update, what);
+        else
+            msg_queue_remove_private(q, &q->first_msg, &q->last_msg, what);
+    }
 
     SDL_UnlockMutex(q->mutex);
 }
@@ -0,0 +1,201 @@
+/*
+ * ff_ffpktpool.c
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ff_ffpktpool.h"
+#include <string.h>
+#include "ff_ffinc.h"
+#include "libavutil/buffer.h"
+
+#define PKTPOOL_CLASS_STEPS (4)     // classes per power of two
+#define PKTPOOL_CLASS_COUNT (12 * PKTPOOL_CLASS_STEPS + 1)  // FFP_PKTPOOL_MIN_SIZE << 12 == FFP_PKTPOOL_MAX_SIZE
+
+struct FFPacketPool {
+    AVBufferPool *classes[PKTPOOL_CLASS_COUNT];
+    int64_t       last_used[PKTPOOL_CLASS_COUNT];
+    int64_t       used_tick;    // read thread time in ms of the last get
+    int64_t       last_trim;
+    int64_t       hits;
+    int64_t       misses;
+};
+
+/*
+ * av_buffer_pool_init() takes no opaque, so misses are counted globally and
+ * a get is a miss if the count moved meanwhile. A get racing with a miss of
+ * another player may be counted as a miss too.
+ */
+static volatile int g_pool_allocs;
+
+static AVBufferRef *pool_alloc(int size)
+{
+    __sync_add_and_fetch(&g_pool_allocs, 1);
+    return av_buffer_alloc(size);
+}
+
+// 512, 640, 768, 896, 1024, 1280, ...
+static int class_to_size(int index)
+{
+    int base = FFP_PKTPOOL_MIN_SIZE << (index / PKTPOOL_CLASS_STEPS);
+    return base + base / PKTPOOL_CLASS_STEPS * (index % PKTPOOL_CLASS_STEPS);
+}
+
+static int size_to_class(int size)
+{
+    int index = 0;
+
+    while (class_to_size(index) < size)
+        index++;
+    return index;
+}
+
+static AVBufferRef *pool_get(FFPacketPool *pool, int size)
+{
+    AVBufferRef *buf;
+    int          index;
+    int          allocs;
+
+    if (!pool || size <= 0 || size > FFP_PKTPOOL_MAX_SIZE)
+        return NULL;
+
+    index = size_to_class(size);
+    if (!pool->classes[index]) {
+        pool->classes[index] = av_buffer_pool_init(class_to_size(index) + FF_INPUT_BUFFER_PADDING_SIZE, pool_alloc);
+        if (!pool->classes[index])
+            return NULL;
+    }
+    pool->last_used[index] = pool->used_tick;
+
+    allocs = g_pool_allocs;
+    buf = av_buffer_pool_get(pool->classes[index]);
+    if (!buf)
+        return NULL;
+
+    if (allocs != g_pool_allocs)
+        pool->misses++;
+    else
+        pool->hits++;
+
+    memset(buf->data + size, 0, FF_INPUT_BUFFER_PADDING_SIZE);
+    return buf;
+}
+
+FFPacketPool *ffpktpool_create(void)
+{
+    return (FFPacketPool *)av_mallocz(sizeof(FFPacketPool));
+}
+
+void ffpktpool_free_p(FFPacketPool **pool)
+{
+    if (!pool || !*pool)
+        return;
+
+    ffpktpool_trim(*pool);
+    av_freep(pool);
+}
+
+void ffpktpool_trim(FFPacketPool *pool)
+{
+    int i;
+
+    if (!pool)
+        return;
+
+    // buffers in use are freed once released
+    for (i = 0; i < PKTPOOL_CLASS_COUNT; ++i)
+        av_buffer_pool_uninit(&pool->classes[i]);
+}
+
+void ffpktpool_trim_idle(FFPacketPool *pool, int64_t now_ms)
+{
+    int i;
+
+    if (!pool)
+        return;
+
+    pool->used_tick = now_ms;
+    if (now_ms - pool->last_trim < FFP_PKTPOOL_IDLE_MS)
+        return;
+    pool->last_trim = now_ms;
+
+    for (i = 0; i < PKTPOOL_CLASS_COUNT; ++i) {
+        if (pool->classes[i] && now_ms - pool->last_used[i] >= FFP_PKTPOOL_IDLE_MS)
+            av_buffer_pool_uninit(&pool->classes[i]);
+    }
+}
+
+int ffpktpool_new_packet(FFPacketPool *pool, AVPacket *pkt, int size)
+{
+    AVBufferRef *buf = pool_get(pool, size);
+    if (!buf)
+        return av_new_packet(pkt, size);
+
+    av_init_packet(pkt);
+    pkt->buf  = buf;
+    pkt->data = buf->data;
+    pkt->size = size;
+    return 0;
+}
+
+int ffpktpool_copy_packet(FFPacketPool *pool, AVPacket *dst, const AVPacket *src)
+{
+    AVBufferRef *buf = pool_get(pool, src->size);
+    if (!buf || !src->data)
+        goto fallback;
+
+    *dst = *src;
+    dst->buf             = buf;
+    dst->data            = buf->data;
+    dst->side_data       = NULL;
+    dst->side_data_elems = 0;
+    memcpy(dst->data, src->data, src->size);
+    if (src->side_data_elems && av_copy_packet_side_data(dst, src) < 0) {
+        av_free_packet(dst);
+        return AVERROR(ENOMEM);
+    }
+    return 0;
+fallback:
+    av_buffer_unref(&buf);
+    return av_copy_packet(dst, src);
+}
+
+int ffpktpool_repack(FFPacketPool *pool, AVPacket *pkt)
+{
+    AVBufferRef *buf;
+
+    if (!pkt->buf || !pkt->data || pkt->size > FFP_PKTPOOL_REPACK_MAX_SIZE)
+        return 0;
+
+    buf = pool_get(pool, pkt->size);
+    if (!buf)
+        return 0;
+
+    memcpy(buf->data, pkt->data, pkt->size);
+    av_buffer_unref(&pkt->buf);
+    pkt->buf  = buf;
+    pkt->data = buf->data;
+    return 1;
+}
+
+void ffpktpool_get_stats(FFPacketPool *pool, int64_t *hits, int64_t *misses)
+{
+    *hits   = pool ? pool->hits : 0;
+    *misses = pool ? pool->misses : 0;
+}
@@ -0,0 +1,68 @@
+/*
+ * ff_ffpktpool.h
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef FFPLAY__FF_FFPKTPOOL_H
+#define FFPLAY__FF_FFPKTPOOL_H
+
+#include <stdint.h>
+
+struct AVPacket;
+
+/*
+ * Size classes of AVBufferPool for payloads of queued packets, so that
+ * long lived packet memory is reused in a few fixed sizes instead of
+ * fragmenting the heap over long sessions.
+ *
+ * Classes are a quarter of a power of two apart, a payload wastes less
+ * than 25% of its buffer.
+ * Payloads larger than FFP_PKTPOOL_MAX_SIZE are left to the allocator.
+ * Only read thread gets buffers and trims, buffers may be released by any
+ * thread, and stay valid after the pool is trimmed or freed.
+ */
+
+#define FFP_PKTPOOL_MIN_SIZE        (512)
+#define FFP_PKTPOOL_MAX_SIZE        (2 * 1024 * 1024)
+// demuxed payloads are copied into the pool only up to, larger ones cost more to copy than they fragment
+#define FFP_PKTPOOL_REPACK_MAX_SIZE (64 * 1024)
+// a class not used for so long is released by ffpktpool_trim_idle()
+#define FFP_PKTPOOL_IDLE_MS         (10 * 1000)
+
+typedef struct FFPacketPool FFPacketPool;
+
+FFPacketPool *ffpktpool_create(void);
+void ffpktpool_free_p(FFPacketPool **pool);
+
+// release idle buffers, pools are created again on demand
+void ffpktpool_trim(FFPacketPool *pool);
+// release idle buffers of classes not used for FFP_PKTPOOL_IDLE_MS, cheap to call often
+void ffpktpool_trim_idle(FFPacketPool *pool, int64_t now_ms);
+
+// same as av_new_packet()
+int  ffpktpool_new_packet(FFPacketPool *pool, struct AVPacket *pkt, int size);
+// same as av_copy_packet()
+int  ffpktpool_copy_packet(FFPacketPool *pool, struct AVPacket *dst, const struct AVPacket *src);
+// move payload of a refcounted packet up to FFP_PKTPOOL_REPACK_MAX_SIZE into a pooled buffer, 1 if moved
+int  ffpktpool_repack(FFPacketPool *pool, struct AVPacket *pkt);
+
+void ffpktpool_get_stats(FFPacketPool *pool, int64_t *hits, int64_t *misses);
+
+#endif
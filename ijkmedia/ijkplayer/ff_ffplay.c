@@ -79,6 +79,46 @@ static AVPacket flush_pkt;
 
 static void free_picture(Frame *vp);
 
+/* memory held by a queued packet, pooled payloads hold their whole size class */
+static int packet_queue_entry_size(const MyAVPacketList *pkt1)
+{
+    int size = pkt1->pkt.buf ? pkt1->pkt.buf->size : pkt1->pkt.size;
+    return size + (int)sizeof(*pkt1);
+}
+
+static void packet_queue_account(PacketQueue *q, MyAVPacketList *pkt1, int sign)
+{
+    __sync_add_and_fetch(&q->nb_packets, sign);
+    __sync_add_and_fetch(&q->size, sign * packet_queue_entry_size(pkt1));
+    if (pkt1->pkt.duration > 0)
+        __sync_add_and_fetch(&q->duration, sign * (int64_t)pkt1->pkt.duration);
+}
+
+/* free packets of a list detached from queue, outside of mutex, then keep its nodes */
+static void packet_queue_recycle_list(PacketQueue *q, MyAVPacketList *first, MyAVPacketList *last)
+{
+    MyAVPacketList *pkt1, *next;
+
+    if (!first)
+        return;
+
+    last->next = NULL;
+    for (pkt1 = first; pkt1; pkt1 = next) {
+        next = pkt1->next;
+        av_free_packet(&pkt1->pkt);
+#ifdef FFP_MERGE
+        av_freep(&pkt1);
+#endif
+    }
+
+#ifndef FFP_MERGE
+    SDL_LockMutex(q->mutex);
+    last->next = q->recycle_pkt;
+    q->recycle_pkt = first;
+    SDL_UnlockMutex(q->mutex);
+#endif
+}
+
 static int packet_queue_put_private(PacketQueue *q, AVPacket *pkt)
 {
     MyAVPacketList *pkt1;
@@ -117,12 +157,10 @@ static int packet_queue_put_private(PacketQueue *q, AVPacket *pkt)
     else
         q->last_pkt->next = pkt1;
     q->last_pkt = pkt1;
-    q->nb_packets++;
-    q->size += pkt1->pkt.size + sizeof(*pkt1);
-    if (pkt1->pkt.duration > 0)
-        q->duration += pkt1->pkt.duration;
+    packet_queue_account(q, pkt1, 1);
     /* XXX: should duplicate packet data in DV case */
-    SDL_CondSignal(q->cond);
+    if (q->nb_waiters > 0)
+        SDL_CondSignal(q->cond);
     return 0;
 }
 
@@ -165,25 +203,19 @@ static void packet_queue_init(PacketQueue *q)
 
 static void packet_queue_flush(PacketQueue *q)
 {
-    MyAVPacketList *pkt, *pkt1;
+    MyAVPacketList *first, *last;
 
     SDL_LockMutex(q->mutex);
-    for (pkt = q->first_pkt; pkt; pkt = pkt1) {
-        pkt1 = pkt->next;
-        av_free_packet(&pkt->pkt);
-#ifdef FFP_MERGE
-        av_freep(&pkt);
-#else
-        pkt->next = q->recycle_pkt;
-        q->recycle_pkt = pkt;
-#endif
-    }
+    first = q->first_pkt;
+    last  = q->last_pkt;
     q->last_pkt = NULL;
     q->first_pkt = NULL;
-    q->nb_packets = 0;
-    q->size = 0;
-    q->duration = 0;
+    __sync_lock_test_and_set(&q->nb_packets, 0);
+    __sync_lock_test_and_set(&q->size, 0);
+    __sync_lock_test_and_set(&q->duration, 0);
     SDL_UnlockMutex(q->mutex);
+
+    packet_queue_recycle_list(q, first, last);
 }
 
 static void packet_queue_destroy(PacketQueue *q)
@@ -222,6 +254,215 @@ static void packet_queue_start(PacketQueue *q)
     SDL_UnlockMutex(q->mutex);
 }
 
+static int64_t packet_time_us(const AVPacket *pkt, AVRational tb)
+{
+    int64_t ts = pkt->pts != AV_NOPTS_VALUE ? pkt->pts : pkt->dts;
+    if (ts == AV_NOPTS_VALUE)
+        return AV_NOPTS_VALUE;
+    return av_rescale_q(ts, tb, AV_TIME_BASE_Q);
+}
+
+/* playback rate is written by read_thread, read by audio and video threads */
+static double stream_get_playback_rate(VideoState *is)
+{
+    return __sync_fetch_and_add(&is->playback_rate_permille, 0) / 1000.0;
+}
+
+/* return 1 if rate changed */
+static int stream_set_playback_rate(VideoState *is, double rate)
+{
+    int permille = (int)lrint(rate * 1000);
+    return __sync_lock_test_and_set(&is->playback_rate_permille, permille) != permille;
+}
+
+/*
+ * duration is updated by __sync builtins, a plain read may tear on 32-bit cpus.
+ * __atomic_load_n() of 64-bit would need libatomic on armeabi.
+ */
+static int64_t packet_queue_get_duration(PacketQueue *q)
+{
+    return __sync_fetch_and_add(&q->duration, 0);
+}
+
+static int64_t packet_queue_duration_ms(PacketQueue *q, AVStream *st)
+{
+    if (!st)
+        return 0;
+    return (int64_t)(packet_queue_get_duration(q) * av_q2d(st->time_base) * 1000);
+}
+
+/* find the keyframe closest to target_us, if target_us is within queued packets */
+static int packet_queue_find_nearest_keyframe(PacketQueue *q, AVRational tb, int64_t target_us, int64_t *keyframe_us)
+{
+    MyAVPacketList *pkt1;
+    int64_t first_us = AV_NOPTS_VALUE;
+    int64_t last_us  = AV_NOPTS_VALUE;
+    int64_t best_us  = AV_NOPTS_VALUE;
+
+    SDL_LockMutex(q->mutex);
+    for (pkt1 = q->first_pkt; pkt1; pkt1 = pkt1->next) {
+        if (pkt1->pkt.data == flush_pkt.data)
+            continue;
+
+        int64_t ts_us = packet_time_us(&pkt1->pkt, tb);
+        if (ts_us == AV_NOPTS_VALUE)
+            continue;
+
+        if (first_us == AV_NOPTS_VALUE || ts_us < first_us)
+            first_us = ts_us;
+        if (last_us == AV_NOPTS_VALUE || ts_us > last_us)
+            last_us = ts_us;
+        if ((pkt1->pkt.flags & AV_PKT_FLAG_KEY) &&
+            (best_us == AV_NOPTS_VALUE || FFABS(ts_us - target_us) < FFABS(best_us - target_us)))
+            best_us = ts_us;
+    }
+    SDL_UnlockMutex(q->mutex);
+
+    if (best_us == AV_NOPTS_VALUE || target_us < first_us || target_us > last_us)
+        return -1;
+
+    *keyframe_us = best_us;
+    return 0;
+}
+
+/*
+ * drop queued packets before the first (key) packet at or after target_us,
+ * and put a flush packet in front of the rest, as if they were read after a seek
+ */
+static int packet_queue_skip_to(PacketQueue *q, AVRational tb, int64_t target_us, int keyframe_only)
+{
+    MyAVPacketList *pkt1;
+    MyAVPacketList *found = NULL;
+    MyAVPacketList *dropped = NULL;
+    MyAVPacketList *dropped_last = NULL;
+
+    SDL_LockMutex(q->mutex);
+    for (pkt1 = q->first_pkt; pkt1; pkt1 = pkt1->next) {
+        if (pkt1->pkt.data == flush_pkt.data)
+            continue;
+        if (keyframe_only && !(pkt1->pkt.flags & AV_PKT_FLAG_KEY))
+            continue;
+
+        int64_t ts_us = packet_time_us(&pkt1->pkt, tb);
+        if (ts_us != AV_NOPTS_VALUE && ts_us >= target_us) {
+            found = pkt1;
+            break;
+        }
+    }
+
+    if (!found || q->abort_request) {
+        SDL_UnlockMutex(q->mutex);
+        return -1;
+    }
+
+    if (found != q->first_pkt)
+        dropped = q->first_pkt;
+    for (pkt1 = q->first_pkt; pkt1 != found; pkt1 = pkt1->next) {
+        packet_queue_account(q, pkt1, -1);
+        dropped_last = pkt1;
+    }
+
+    pkt1 = q->recycle_pkt;
+    if (pkt1) {
+        q->recycle_pkt = pkt1->next;
+    } else {
+        pkt1 = av_malloc(sizeof(MyAVPacketList));
+        if (!pkt1) {
+            q->first_pkt = found;
+            SDL_UnlockMutex(q->mutex);
+            packet_queue_recycle_list(q, dropped, dropped_last);
+            return -1;
+        }
+    }
+
+    q->serial++;
+    pkt1->pkt    = flush_pkt;
+    pkt1->serial = q->serial;
+    pkt1->next   = found;
+    q->first_pkt = pkt1;
+    packet_queue_account(q, pkt1, 1);
+    for (pkt1 = found; pkt1; pkt1 = pkt1->next)
+        pkt1->serial = q->serial;
+
+    if (q->nb_waiters > 0)
+        SDL_CondSignal(q->cond);
+    SDL_UnlockMutex(q->mutex);
+
+    packet_queue_recycle_list(q, dropped, dropped_last);
+    return 0;
+}
+
+/* drop the first packet at or after from_us and all after it, return bytes dropped */
+static int packet_queue_truncate_from(PacketQueue *q, AVRational tb, int64_t from_us)
+{
+    MyAVPacketList *pkt1;
+    MyAVPacketList *prev = NULL;
+    MyAVPacketList *dropped = NULL;
+    MyAVPacketList *dropped_last = NULL;
+    int size;
+
+    SDL_LockMutex(q->mutex);
+    size = q->size;
+    for (pkt1 = q->first_pkt; pkt1; prev = pkt1, pkt1 = pkt1->next) {
+        if (pkt1->pkt.data == flush_pkt.data)
+            continue;
+
+        int64_t ts_us = packet_time_us(&pkt1->pkt, tb);
+        if (ts_us != AV_NOPTS_VALUE && ts_us >= from_us)
+            break;
+    }
+
+    if (pkt1) {
+        if (prev)
+            prev->next = NULL;
+        else
+            q->first_pkt = NULL;
+        dropped      = pkt1;
+        dropped_last = q->last_pkt;
+        q->last_pkt  = prev;
+
+        for (; pkt1; pkt1 = pkt1->next)
+            packet_queue_account(q, pkt1, -1);
+    }
+    size -= q->size;
+    SDL_UnlockMutex(q->mutex);
+
+    packet_queue_recycle_list(q, dropped, dropped_last);
+    return size;
+}
+
+static int64_t packet_queue_last_time_us(PacketQueue *q, AVRational tb)
+{
+    MyAVPacketList *pkt1;
+    int64_t last_us = AV_NOPTS_VALUE;
+
+    SDL_LockMutex(q->mutex);
+    for (pkt1 = q->first_pkt; pkt1; pkt1 = pkt1->next) {
+        if (pkt1->pkt.data == flush_pkt.data)
+            continue;
+
+        int64_t ts_us = packet_time_us(&pkt1->pkt, tb);
+        if (ts_us != AV_NOPTS_VALUE && (last_us == AV_NOPTS_VALUE || ts_us > last_us))
+            last_us = ts_us;
+    }
+    SDL_UnlockMutex(q->mutex);
+    return last_us;
+}
+
+static int packet_queue_has_keyframe(PacketQueue *q)
+{
+    MyAVPacketList *pkt1;
+    int found = 0;
+
+    SDL_LockMutex(q->mutex);
+    for (pkt1 = q->first_pkt; pkt1 && !found; pkt1 = pkt1->next) {
+        if (pkt1->pkt.data != flush_pkt.data && (pkt1->pkt.flags & AV_PKT_FLAG_KEY))
+            found = 1;
+    }
+    SDL_UnlockMutex(q->mutex);
+    return found;
+}
+
 /* return < 0 if aborted, 0 if no packet and > 0 if packet.  */
 static int packet_queue_get(PacketQueue *q, AVPacket *pkt, int block, int *serial)
 {
@@ -241,10 +482,7 @@ static int packet_queue_get(PacketQueue *q, AVPacket *pkt, int block, int *seria
             q->first_pkt = pkt1->next;
             if (!q->first_pkt)
                 q->last_pkt = NULL;
-            q->nb_packets--;
-            q->size -= pkt1->pkt.size + sizeof(*pkt1);
-            if (pkt1->pkt.duration > 0)
-                q->duration -= pkt1->pkt.duration;
+            packet_queue_account(q, pkt1, -1);
             *pkt = pkt1->pkt;
             if (serial)
                 *serial = pkt1->serial;
@@ -260,7 +498,9 @@ static int packet_queue_get(PacketQueue *q, AVPacket *pkt, int block, int *seria
             ret = 0;
             break;
         } else {
+            q->nb_waiters++;
             SDL_CondWait(q->cond, q->mutex);
+            q->nb_waiters--;
         }
     }
     SDL_UnlockMutex(q->mutex);
@@ -299,6 +539,30 @@ static void decoder_init(Decoder *d, AVCodecContext *avctx, PacketQueue *queue,
     d->queue = queue;
     d->empty_queue_cond = empty_queue_cond;
     d->start_pts = AV_NOPTS_VALUE;
+    d->skip_until = AV_NOPTS_VALUE;
+}
+
+static void decoder_set_skip(Decoder *d, int64_t skip_until, int skip_serial)
+{
+    d->skip_until  = skip_until;
+    d->skip_serial = skip_serial;
+}
+
+/* return 1 if pkt is dropped to reach next keyframe */
+static int decoder_skip_to_keyframe(Decoder *d, AVPacket *pkt)
+{
+    if (!d->skip_to_keyframe)
+        return 0;
+
+    if (!(pkt->flags & AV_PKT_FLAG_KEY)) {
+        av_free_packet(pkt);
+        return 1;
+    }
+
+    // references of pending frames are gone
+    avcodec_flush_buffers(d->avctx);
+    d->skip_to_keyframe = 0;
+    return 0;
 }
 
 static int decoder_decode_frame(FFPlayer *ffp, Decoder *d, AVFrame *frame, AVSubtitle *sub) {
@@ -319,11 +583,12 @@ static int decoder_decode_frame(FFPlayer *ffp, Decoder *d, AVFrame *frame, AVSub
                     return -1;
                 if (pkt.data == flush_pkt.data) {
                     avcodec_flush_buffers(d->avctx);
+                    d->skip_to_keyframe = 0;
                     d->finished = 0;
                     d->next_pts = d->start_pts;
                     d->next_pts_tb = d->start_pts_tb;
                 }
-            } while (pkt.data == flush_pkt.data || d->queue->serial != d->pkt_serial);
+            } while (pkt.data == flush_pkt.data || d->queue->serial != d->pkt_serial || decoder_skip_to_keyframe(d, &pkt));
             av_free_packet(&d->pkt);
             d->pkt_temp = d->pkt = pkt;
             d->packet_pending = 1;
@@ -434,9 +699,11 @@ static int frame_queue_init(FrameQueue *f, PacketQueue *pktq, int max_size, int
     if (!(f->cond = SDL_CreateCond()))
         return AVERROR(ENOMEM);
     f->pktq = pktq;
-    f->max_size = FFMIN(max_size, FRAME_QUEUE_SIZE);
+    f->max_size = av_clip(max_size, 1, FRAME_QUEUE_SIZE);
+    f->target_size = f->max_size;
     f->keep_last = !!keep_last;
-    for (i = 0; i < f->max_size; i++)
+    // every slot, a queue may grow up to FRAME_QUEUE_SIZE
+    for (i = 0; i < FRAME_QUEUE_SIZE; i++)
         if (!(f->queue[i].frame = av_frame_alloc()))
             return AVERROR(ENOMEM);
     return 0;
@@ -445,7 +712,7 @@ static int frame_queue_init(FrameQueue *f, PacketQueue *pktq, int max_size, int
 static void frame_queue_destory(FrameQueue *f)
 {
     int i;
-    for (i = 0; i < f->max_size; i++) {
+    for (i = 0; i < FRAME_QUEUE_SIZE; i++) {
         Frame *vp = &f->queue[i];
         frame_queue_unref_item(vp);
         av_frame_free(&vp->frame);
@@ -477,11 +744,30 @@ static Frame *frame_queue_peek_last(FrameQueue *f)
     return &f->queue[f->rindex];
 }
 
+/* slots in round of writer, under mutex */
+static int frame_queue_write_size(FrameQueue *f)
+{
+    return f->shrink_size > 0 ? f->shrink_size : f->max_size;
+}
+
+/*
+ * Resize takes effect at round boundaries, so that reader and writer agree
+ * on where to wrap. Growing extends round of writer when it reaches the
+ * end. Shrinking starts a shorter round for writer, and reader switches to
+ * it when it wraps, writer can not fill the shorter round before that.
+ */
+static void frame_queue_set_target(FrameQueue *f, int target_size)
+{
+    SDL_LockMutex(f->mutex);
+    f->target_size = av_clip(target_size, 1, FRAME_QUEUE_SIZE);
+    SDL_UnlockMutex(f->mutex);
+}
+
 static Frame *frame_queue_peek_writable(FrameQueue *f)
 {
     /* wait until we have space to put a new frame */
     SDL_LockMutex(f->mutex);
-    while (f->size >= f->max_size &&
+    while (f->size >= frame_queue_write_size(f) &&
            !f->pktq->abort_request) {
         SDL_CondWait(f->cond, f->mutex);
     }
@@ -511,9 +797,16 @@ static Frame *frame_queue_peek_readable(FrameQueue *f)
 
 static void frame_queue_push(FrameQueue *f)
 {
-    if (++f->windex == f->max_size)
-        f->windex = 0;
     SDL_LockMutex(f->mutex);
+    if (++f->windex == frame_queue_write_size(f)) {
+        if (!f->shrink_size && f->target_size > f->max_size) {
+            f->max_size = f->target_size;
+        } else {
+            f->windex = 0;
+            if (!f->shrink_size && f->target_size < f->max_size)
+                f->shrink_size = f->target_size;
+        }
+    }
     f->size++;
     SDL_CondSignal(f->cond);
     SDL_UnlockMutex(f->mutex);
@@ -521,17 +814,32 @@ static void frame_queue_push(FrameQueue *f)
 
 static void frame_queue_next(FrameQueue *f)
 {
+    int i;
+    int old_size = 0;
+
     if (f->keep_last && !f->rindex_shown) {
         f->rindex_shown = 1;
         return;
     }
     frame_queue_unref_item(&f->queue[f->rindex]);
-    if (++f->rindex == f->max_size)
-        f->rindex = 0;
     SDL_LockMutex(f->mutex);
+    if (++f->rindex == f->max_size) {
+        f->rindex = 0;
+        if (f->shrink_size > 0) {
+            old_size       = f->max_size;
+            f->max_size    = f->shrink_size;
+            f->shrink_size = 0;
+        }
+    }
     f->size--;
     SDL_CondSignal(f->cond);
     SDL_UnlockMutex(f->mutex);
+
+    // slots out of both rounds now, overlays are allocated again on demand
+    for (i = f->max_size; i < old_size; i++) {
+        frame_queue_unref_item(&f->queue[i]);
+        free_picture(&f->queue[i]);
+    }
 }
 
 /* jump back to the previous frame if available by resetting rindex_shown */
@@ -584,6 +892,22 @@ static void free_picture(Frame *vp)
         SDL_VoutFreeYUVOverlay(vp->bmp);
         vp->bmp = NULL;
     }
+    vp->bmp_bytes = 0;
+}
+
+static int overlay_bytes(SDL_VoutOverlay *bmp)
+{
+    int i;
+    int bytes = 0;
+
+    if (!bmp || !bmp->pitches || !bmp->pixels)
+        return 0;
+
+    for (i = 0; i < bmp->planes; ++i) {
+        if (bmp->pixels[i])
+            bytes += bmp->pitches[i] * (i == 0 ? bmp->h : (bmp->h + 1) / 2);
+    }
+    return bytes;
 }
 
 // FFP_MERGE: calculate_display_rect
@@ -635,8 +959,14 @@ static void stream_close(VideoState *is)
     packet_queue_abort(&is->audioq);
     ALOGW("wait for read_tid\n");
     SDL_WaitThread(is->read_tid, NULL);
-    ALOGW("wait for video_refresh_tid\n");
-    SDL_WaitThread(is->video_refresh_tid, NULL);
+    fftimeshift_free_p(&is->timeshift);
+    if (is->refresh_task) {
+        ALOGW("unregister refresh_task\n");
+        ffscheduler_unregister_p(&is->refresh_task);
+    } else {
+        ALOGW("wait for video_refresh_tid\n");
+        SDL_WaitThread(is->video_refresh_tid, NULL);
+    }
 
     packet_queue_destroy(&is->videoq);
     packet_queue_destroy(&is->audioq);
@@ -667,8 +997,10 @@ static void stream_close(VideoState *is)
 static void video_display2(FFPlayer *ffp)
 {
     VideoState *is = ffp->is;
-    if (is->video_st)
+    if (is->video_st) {
         video_image_display2(ffp);
+        ffp_fps_sampler_tick(&ffp->vout_fps);
+    }
 }
 
 static double get_clock(Clock *c)
@@ -768,18 +1100,54 @@ static void check_external_clock_speed(VideoState *is) {
    }
 }
 
-/* seek in the stream */
-static void stream_seek(VideoState *is, int64_t pos, int64_t rel, int seek_by_bytes)
+/* seek in the stream, a pending request is replaced by the latest one */
+static void stream_seek(VideoState *is, int64_t pos, int64_t rel, int seek_by_bytes, int seek_mode)
 {
-    if (!is->seek_req) {
-        is->seek_pos = pos;
-        is->seek_rel = rel;
-        is->seek_flags &= ~AVSEEK_FLAG_BYTE;
-        if (seek_by_bytes)
-            is->seek_flags |= AVSEEK_FLAG_BYTE;
-        is->seek_req = 1;
-        SDL_CondSignal(is->continue_read_thread);
+    SDL_LockMutex(is->play_mutex);
+    is->seek_pos = pos;
+    is->seek_rel = rel;
+    is->seek_flags &= ~AVSEEK_FLAG_BYTE;
+    if (seek_by_bytes)
+        is->seek_flags |= AVSEEK_FLAG_BYTE;
+    is->seek_mode = seek_mode;
+    is->seek_req_serial++;
+    is->seek_req = 1;
+    SDL_UnlockMutex(is->play_mutex);
+    SDL_CondSignal(is->continue_read_thread);
+}
+
+/* jump to the cached keyframe nearest to *target, without touching demuxer */
+static int stream_seek_cached(FFPlayer *ffp, int64_t *target)
+{
+    VideoState *is = ffp->is;
+    int64_t keyframe_us = AV_NOPTS_VALUE;
+
+    if (is->video_stream >= 0) {
+        if (packet_queue_find_nearest_keyframe(&is->videoq, is->video_st->time_base, *target, &keyframe_us) < 0)
+            return -1;
+    } else if (is->audio_stream >= 0) {
+        if (packet_queue_find_nearest_keyframe(&is->audioq, is->audio_st->time_base, *target, &keyframe_us) < 0)
+            return -1;
+    } else {
+        return -1;
+    }
+
+    if (is->video_stream >= 0) {
+        if (ffp->node_vdec)
+            ffpipenode_flush(ffp->node_vdec);
+        decoder_set_skip(&is->viddec, AV_NOPTS_VALUE, 0);
+        if (packet_queue_skip_to(&is->videoq, is->video_st->time_base, keyframe_us, 1) < 0)
+            return -1;
+    }
+    if (is->audio_stream >= 0) {
+        decoder_set_skip(&is->auddec, AV_NOPTS_VALUE, 0);
+        // video is cut already, caller falls back to demuxer seek which flushes both
+        if (packet_queue_skip_to(&is->audioq, is->audio_st->time_base, keyframe_us, 0) < 0)
+            return -1;
     }
+
+    *target = keyframe_us;
+    return 0;
 }
 
 /* pause or resume the video */
@@ -823,6 +1191,8 @@ static void toggle_pause_l(FFPlayer *ffp, int pause_on)
     // ALOGE("toggle_pause_l\n");
     VideoState *is = ffp->is;
     is->pause_req = pause_on;
+    if (!pause_on)
+        is->start_pending = 0;
     ffp->auto_resume = !pause_on;
     stream_update_pause_l(ffp);
     is->step = 0;
@@ -926,7 +1296,7 @@ retry:
         if (frame_queue_nb_remaining(&is->pictq) == 0) {
             // nothing to do, no picture to display in the queue
         } else {
-            double last_duration, duration, delay;
+            double last_duration, duration, delay, playback_rate;
             Frame *vp, *lastvp;
 
             /* dequeue the picture */
@@ -952,6 +1322,9 @@ retry:
 			
             /* compute nominal last_duration */
             last_duration = vp_duration(is, lastvp, vp);
+            playback_rate = stream_get_playback_rate(is);
+            if (playback_rate != 1.0)
+                last_duration /= playback_rate;
             if (redisplay)
                 delay = 0.0;
             else
@@ -1002,6 +1375,8 @@ display:
             if (!ffp->display_disable && is->show_mode == SHOW_MODE_VIDEO)
                 video_display2(ffp);
 
+            is->pictq_depth_hist[FFMIN(is->pictq.max_size, FFP_PICTQ_HISTOGRAM_SIZE - 1)]++;
+            is->pictq_occupancy_hist[FFMIN(frame_queue_nb_remaining(&is->pictq), FFP_PICTQ_HISTOGRAM_SIZE - 1)]++;
             frame_queue_next(&is->pictq);
 
             SDL_LockMutex(ffp->is->play_mutex);
@@ -1096,6 +1471,7 @@ static void alloc_picture(FFPlayer *ffp)
                         "to reduce the image size.\n", vp->width, vp->height );
         free_picture(vp);
     }
+    vp->bmp_bytes = overlay_bytes(vp->bmp);
 
     SDL_LockMutex(is->pictq.mutex);
     vp->allocated = 1;
@@ -1123,10 +1499,74 @@ static void duplicate_right_border_pixels(SDL_Overlay *bmp) {
 }
 #endif
 
+/* size picture queue by gaps between decoded frames, called by video decoder thread */
+static void ffp_check_pictq_depth(FFPlayer *ffp, Frame *vp, int64_t gap_us)
+{
+    VideoState *is = ffp->is;
+    int64_t     now = av_gettime_relative();
+    double      frame_us;
+    double      mean_us;
+    double      jitter_us;
+    int         max_depth;
+    int         depth;
+    int         target;
+
+    if (gap_us > 0 && gap_us < PICTQ_ADAPT_MAX_GAP_MILLISECONDS * 1000) {
+        is->pictq_gap_count++;
+        is->pictq_gap_sum    += gap_us;
+        is->pictq_gap_sq_sum += (double)gap_us * gap_us;
+        is->pictq_gap_max     = FFMAX(is->pictq_gap_max, gap_us);
+    }
+
+    if (!is->pictq_window_us) {
+        is->pictq_window_us = now;
+        return;
+    }
+    if (now - is->pictq_window_us < PICTQ_ADAPT_WINDOW_MILLISECONDS * 1000)
+        return;
+
+    if (is->pictq_gap_count >= PICTQ_ADAPT_MIN_SAMPLES) {
+        frame_us  = vp->duration > 0 ? vp->duration * 1000000 : 1000000.0 / VIDEO_MAX_FPS_DEFAULT;
+        mean_us   = is->pictq_gap_sum / is->pictq_gap_count;
+        jitter_us = mean_us + 3 * sqrt(FFMAX(is->pictq_gap_sq_sum / is->pictq_gap_count - mean_us * mean_us, 0));
+        jitter_us = FFMIN(jitter_us, is->pictq_gap_max);
+
+        // frames to cover the gap, plus the one shown and the one being decoded
+        target    = (int)ceil(jitter_us / frame_us) + 2;
+        max_depth = FFMIN(ffp->pictq_adaptive_max, FRAME_QUEUE_SIZE);
+        if (vp->bmp_bytes > 0)
+            max_depth = FFMIN(max_depth, PICTQ_ADAPT_MAX_BYTES / vp->bmp_bytes);
+        // never below the fixed queue, even if that alone exceeds MAX_BYTES
+        max_depth = FFMAX(max_depth, VIDEO_PICTURE_QUEUE_SIZE_MIN);
+        target    = av_clip(target, VIDEO_PICTURE_QUEUE_SIZE_MIN, max_depth);
+
+        depth = is->pictq.target_size;
+        if (target > depth) {
+            is->pictq_calm_windows = 0;
+            frame_queue_set_target(&is->pictq, target);
+            ALOGI("pictq: %d -> %d, gap %.1f ms, frame %.1f ms\n", depth, target, jitter_us / 1000, frame_us / 1000);
+        } else if (target < depth && ++is->pictq_calm_windows >= PICTQ_ADAPT_SHRINK_WINDOWS) {
+            is->pictq_calm_windows = 0;
+            frame_queue_set_target(&is->pictq, depth - 1);
+            ALOGI("pictq: %d -> %d\n", depth, depth - 1);
+        } else if (target >= depth) {
+            is->pictq_calm_windows = 0;
+        }
+    }
+
+    is->pictq_window_us  = now;
+    is->pictq_gap_count  = 0;
+    is->pictq_gap_sum    = 0;
+    is->pictq_gap_sq_sum = 0;
+    is->pictq_gap_max    = 0;
+}
+
 static int queue_picture(FFPlayer *ffp, AVFrame *src_frame, double pts, double duration, int64_t pos, int serial)
 {
     VideoState *is = ffp->is;
     Frame *vp;
+    // time spent decoding since last push, waiting for a free slot is not a gap
+    int64_t gap_us = is->pictq_last_push_us ? av_gettime_relative() - is->pictq_last_push_us : 0;
 
 #if defined(DEBUG_SYNC) && 0
     printf("frame_type=%c pts=%0.3f\n",
@@ -1179,24 +1619,114 @@ static int queue_picture(FFPlayer *ffp, AVFrame *src_frame, double pts, double d
 
         /* now we can update the picture count */
         frame_queue_push(&is->pictq);
+        ffp_fps_sampler_tick(&ffp->vdec_fps);
+
+        is->pictq_last_push_us = av_gettime_relative();
+        if (ffp->pictq_adaptive_max > 0)
+            ffp_check_pictq_depth(ffp, vp, gap_us);
     }
     return 0;
 }
 
+static int decoder_degrade_level(VideoState *is)
+{
+    return FFMAX(is->degrade_level, is->degrade_floor);
+}
+
+static void decoder_apply_degrade(VideoState *is)
+{
+    AVCodecContext *avctx = is->viddec.avctx;
+    int             level = decoder_degrade_level(is);
+
+    avctx->skip_loop_filter = is->viddec_skip_loop_filter;
+    avctx->skip_frame       = is->viddec_skip_frame;
+    if (level >= DECODE_DEGRADE_SKIP_LOOP_FILTER)
+        avctx->skip_loop_filter = AVDISCARD_ALL;
+    if (level >= DECODE_DEGRADE_SKIP_NONREF)
+        avctx->skip_frame       = FFMAX(avctx->skip_frame, AVDISCARD_NONREF);
+    if (level >= DECODE_DEGRADE_KEYFRAME_ONLY)
+        avctx->skip_frame       = FFMAX(avctx->skip_frame, AVDISCARD_NONKEY);
+}
+
+/* follow ffp->decode_degrade_floor, called by video decoder thread */
+static void ffp_check_decode_degrade_floor(FFPlayer *ffp)
+{
+    VideoState *is    = ffp->is;
+    int         floor = ffp->decode_degrade_floor;
+
+    if (floor == is->degrade_floor)
+        return;
+
+    ALOGI("decode degrade: floor %d -> %d\n", is->degrade_floor, floor);
+    // frames after the last keyframe miss their references, resume from a queued keyframe if any
+    if (is->degrade_floor >= DECODE_DEGRADE_KEYFRAME_ONLY && floor < DECODE_DEGRADE_KEYFRAME_ONLY &&
+        packet_queue_has_keyframe(&is->videoq))
+        is->viddec.skip_to_keyframe = 1;
+    is->degrade_floor = floor;
+    decoder_apply_degrade(is);
+}
+
+/* move along the ladder by frames dropped for lateness, called by video decoder thread */
+static void ffp_check_decode_degrade(FFPlayer *ffp)
+{
+    VideoState *is    = ffp->is;
+    int64_t     now   = SDL_GetTickHR();
+    int         drops = is->frame_drops_early + is->frame_drops_late;
+    int         level = is->degrade_level;
+
+    if (is->degrade_tick && now - is->degrade_tick < DECODE_DEGRADE_CHECK_PER_MILLISECONDS)
+        return;
+
+    if (is->degrade_tick && !is->paused) {
+        int new_drops  = drops - is->degrade_drops;
+        int new_frames = is->frames_decoded - is->degrade_frames;
+
+        if (new_drops * 100 >= FFMAX(new_frames, 1) * DECODE_DEGRADE_UP_DROP_PERCENT) {
+            is->degrade_calm_checks = 0;
+            if (level < DECODE_DEGRADE_SKIP_TO_KEYFRAME)
+                level++;
+        } else if (new_drops > 0) {
+            is->degrade_calm_checks = 0;
+        } else if (level > DECODE_DEGRADE_NONE && ++is->degrade_calm_checks >= DECODE_DEGRADE_DOWN_CALM_CHECKS) {
+            is->degrade_calm_checks = 0;
+            level--;
+        }
+    }
+    is->degrade_tick   = now;
+    is->degrade_drops  = drops;
+    is->degrade_frames = is->frames_decoded;
+
+    if (level != is->degrade_level) {
+        ALOGI("decode degrade: level %d -> %d\n", is->degrade_level, level);
+        is->degrade_level = level;
+        decoder_apply_degrade(is);
+    }
+}
+
 static int get_video_frame(FFPlayer *ffp, AVFrame *frame)
 {
     VideoState *is = ffp->is;
     int got_picture;
 
+    ffp_check_decode_degrade_floor(ffp);
     if ((got_picture = decoder_decode_frame(ffp, &is->viddec, frame, NULL)) < 0)
         return -1;
 
     if (got_picture) {
         double dpts = NAN;
 
+        is->frames_decoded++;
+        if (ffp->framedrop)
+            ffp_check_decode_degrade(ffp);
+
         if (frame->pts != AV_NOPTS_VALUE)
             dpts = av_q2d(is->video_st->time_base) * frame->pts;
 
+        if (ffp_decoder_skip_frame(&is->viddec, frame->pts, is->video_st->time_base, 1)) {
+            av_frame_unref(frame);
+            return 0;
+        }
+
         frame->sample_aspect_ratio = av_guess_sample_aspect_ratio(is->ic, is->video_st, frame);
 
         if (ffp->framedrop>0 || (ffp->framedrop && get_master_sync_type(is) != AV_SYNC_VIDEO_MASTER)) {
@@ -1208,6 +1738,11 @@ static int get_video_frame(FFPlayer *ffp, AVFrame *frame)
                     is->videoq.nb_packets) {
                     is->frame_drops_early++;
                     is->continuous_frame_drops_early++;
+                    // still late at top of the ladder, give up rest of the GOP
+                    if (decoder_degrade_level(is) >= DECODE_DEGRADE_SKIP_TO_KEYFRAME && !is->viddec.skip_to_keyframe &&
+                        packet_queue_has_keyframe(&is->videoq)) {
+                        is->viddec.skip_to_keyframe = 1;
+                    }
                     if (is->continuous_frame_drops_early > ffp->framedrop) {
                         is->continuous_frame_drops_early = 0;
                     } else {
@@ -1525,6 +2060,10 @@ static int audio_thread(void *arg)
         if (got_frame) {
                 tb = (AVRational){1, frame->sample_rate};
 				tmp_pts = frame->pts;
+                if (ffp_decoder_skip_frame(&is->auddec, frame->pts, tb, frame->nb_samples)) {
+                    av_frame_unref(frame);
+                    continue;
+                }
 #if CONFIG_AVFILTER
 				if(is->realtime)
 				{
@@ -1644,10 +2183,10 @@ static int audio_thread(void *arg)
     return ret;
 }
 
-static void decoder_start(Decoder *d, int (*fn)(void *), void *arg, const char *name)
+static void decoder_start(Decoder *d, int (*fn)(void *), void *arg, const char *name, SDL_ThreadRole role)
 {
     packet_queue_start(d->queue);
-    d->decoder_tid = SDL_CreateThreadEx(&d->_decoder_tid, fn, arg, name);
+    d->decoder_tid = SDL_CreateThreadRole(&d->_decoder_tid, fn, arg, name, role);
 }
 
 static int ffplay_video_thread(void *arg)
@@ -1831,6 +2370,44 @@ static int synchronize_audio(VideoState *is, int nb_samples)
     return wanted_nb_samples;
 }
 
+/* stretch is->audio_buf by playback rate, return its new size */
+static int audio_apply_tempo(FFPlayer *ffp, int serial, int data_size)
+{
+    VideoState *is = ffp->is;
+    double rate = stream_get_playback_rate(is);
+    int frame_size = is->audio_tgt.channels * av_get_bytes_per_sample(is->audio_tgt.fmt);
+    int out_frames = 0;
+
+    if (is->audio_tempo && is->audio_tempo_serial != serial)
+        fftempo_reset(is->audio_tempo);
+    is->audio_tempo_serial = serial;
+
+    is->audio_buf_rate = 1.0;
+    if (rate == 1.0 && !fftempo_is_active(is->audio_tempo) && !fftempo_get_pending_frames(is->audio_tempo))
+        return data_size;
+
+    if (is->audio_tgt.fmt != AV_SAMPLE_FMT_S16 || frame_size <= 0)
+        return data_size;
+
+    if (!is->audio_tempo) {
+        is->audio_tempo = fftempo_create(is->audio_tgt.freq, is->audio_tgt.channels);
+        if (!is->audio_tempo)
+            return data_size;
+    }
+
+    const int16_t *out = fftempo_process(is->audio_tempo, rate, (const int16_t *)is->audio_buf, data_size / frame_size, &out_frames);
+    if (!out) {
+        fftempo_reset(is->audio_tempo);
+        return data_size;
+    }
+
+    is->audio_buf      = (uint8_t *)out;
+    is->audio_buf_rate = rate;
+    if (!isnan(is->audio_clock))
+        is->audio_clock -= (double)fftempo_get_pending_frames(is->audio_tempo) / is->audio_tgt.freq;
+    return out_frames * frame_size;
+}
+
 /**
  * Decode one audio frame and return its uncompressed size.
  *
@@ -1933,6 +2510,8 @@ static int audio_decode_frame(FFPlayer *ffp)
         else
             is->audio_clock = NAN;
         is->audio_clock_serial = af->serial;
+
+        resampled_data_size = audio_apply_tempo(ffp, af->serial, resampled_data_size);
 #ifdef FFP_SHOW_AUDIO_DELAY
 #ifdef DEBUG
         {
@@ -1991,7 +2570,9 @@ static void sdl_audio_callback(void *opaque, Uint8 *stream, int len)
     is->audio_write_buf_size = is->audio_buf_size - is->audio_buf_index;
     /* Let's assume the audio driver that is used by SDL has two periods. */
     if (!isnan(is->audio_clock)) {
-        set_clock_at(&is->audclk, is->audio_clock - (double)(is->audio_write_buf_size) / is->audio_tgt.bytes_per_sec - SDL_AoutGetLatencySeconds(ffp->aout), is->audio_clock_serial, ffp->audio_callback_time / 1000000.0);
+        if (is->audclk.speed != is->audio_buf_rate)
+            set_clock_speed(&is->audclk, is->audio_buf_rate);
+        set_clock_at(&is->audclk, is->audio_clock - is->audio_buf_rate * ((double)(is->audio_write_buf_size) / is->audio_tgt.bytes_per_sec + SDL_AoutGetLatencySeconds(ffp->aout)), is->audio_clock_serial, ffp->audio_callback_time / 1000000.0);
         sync_clock_to_slave(&is->extclk, &is->audclk);
     }
 }
@@ -2199,8 +2780,8 @@ static int stream_component_open(FFPlayer *ffp, int stream_index)
             is->auddec.start_pts = is->audio_st->start_time;
             is->auddec.start_pts_tb = is->audio_st->time_base;
         }
-        decoder_start(&is->auddec, audio_thread, ffp, "ff_audio_dec");
-        SDL_AoutPauseAudio(ffp->aout, 0);
+        decoder_start(&is->auddec, audio_thread, ffp, "ff_audio_dec", SDL_THREAD_ROLE_AUDIO_DECODE);
+        SDL_AoutPauseAudio(ffp->aout, is->pause_req);
         break;
     case AVMEDIA_TYPE_VIDEO:
         is->video_stream = stream_index;
@@ -2210,7 +2791,7 @@ static int stream_component_open(FFPlayer *ffp, int stream_index)
         ffp->node_vdec = ffpipeline_open_video_decoder(ffp->pipeline, ffp);
         if (!ffp->node_vdec)
             goto fail;
-        decoder_start(&is->viddec, video_thread, ffp, "ff_video_dec");
+        decoder_start(&is->viddec, video_thread, ffp, "ff_video_dec", SDL_THREAD_ROLE_VIDEO_DECODE);
         is->queue_attachments_req = 1;
 
         if(is->video_st->avg_frame_rate.den && is->video_st->avg_frame_rate.num) {
@@ -2237,6 +2818,8 @@ static int stream_component_open(FFPlayer *ffp, int stream_index)
             avctx->skip_loop_filter = FFMAX(avctx->skip_loop_filter, AVDISCARD_NONREF);
             avctx->skip_idct        = FFMAX(avctx->skip_loop_filter, AVDISCARD_NONREF);
         }
+        is->viddec_skip_loop_filter = avctx->skip_loop_filter;
+        is->viddec_skip_frame       = avctx->skip_frame;
 
         break;
     // FFP_MERGE: case AVMEDIA_TYPE_SUBTITLE:
@@ -2268,6 +2851,7 @@ static void stream_component_close(FFPlayer *ffp, int stream_index)
         printf("decoder_destroy\n");
         decoder_destroy(&is->auddec);
         swr_free(&is->swr_ctx);
+        fftempo_free_p(&is->audio_tempo);
         av_freep(&is->audio_buf1);
         is->audio_buf1_size = 0;
         is->audio_buf = NULL;
@@ -2350,35 +2934,277 @@ int64_t systemTime() {
     return t.tv_sec * 1000000000LL + t.tv_usec * 1000LL;
 }
 
-/* this thread gets the stream from the disk or the network */
-static int read_thread(void *arg)
+static int frame_queue_bytes(FrameQueue *f)
 {
-    FFPlayer *ffp = arg;
-    VideoState *is = ffp->is;
-    AVFormatContext *ic = NULL;
-    int err, i, ret __unused;
-    int st_index[AVMEDIA_TYPE_NB];
-    AVPacket pkt1, *pkt = &pkt1;
-    int64_t stream_start_time;
-    int completed = 0;
+    int i;
+    int bytes = 0;
+
+    for (i = 0; i < FRAME_QUEUE_SIZE; ++i)
+        bytes += f->queue[i].bmp_bytes;
+    return bytes;
+}
+
+/*
+ * drop cached packets from a keyframe on to fit in packet_limit, and seek
+ * demuxer back to it, packets read again before it are skipped by stream_refill_skip()
+ */
+static int stream_shrink_queues(FFPlayer *ffp, int64_t packet_limit)
+{
+    VideoState     *is       = ffp->is;
+    int64_t         cached   = is->audioq.size + is->videoq.size;
+    int             has_video = is->video_st && !(is->video_st->disposition & AV_DISPOSITION_ATTACHED_PIC);
+    PacketQueue    *q        = has_video ? &is->videoq : &is->audioq;
+    AVStream       *st       = has_video ? is->video_st : is->audio_st;
+    MyAVPacketList *pkt1;
+    int64_t         keep_bytes;
+    int64_t         bytes    = 0;
+    int64_t         cut_us   = AV_NOPTS_VALUE;
+    int             dropped  = 0;
+
+    if (!st || cached <= 0 || packet_limit >= cached)
+        return -1;
+
+    // keep the same share of each queue
+    SDL_LockMutex(q->mutex);
+    keep_bytes = (int64_t)((double)q->size * packet_limit / cached);
+    for (pkt1 = q->first_pkt; pkt1 && bytes <= keep_bytes; pkt1 = pkt1->next) {
+        if (pkt1->pkt.data == flush_pkt.data)
+            continue;
+
+        int64_t ts_us = packet_time_us(&pkt1->pkt, st->time_base);
+        if (ts_us != AV_NOPTS_VALUE && (!has_video || (pkt1->pkt.flags & AV_PKT_FLAG_KEY)))
+            cut_us = ts_us;
+        bytes += packet_queue_entry_size(pkt1);
+    }
+    SDL_UnlockMutex(q->mutex);
+
+    if (cut_us == AV_NOPTS_VALUE)
+        return -1;
+
+    // audio has to reach the cut, or packets up to it would be lost
+    if (has_video && is->audio_st) {
+        int64_t audio_last_us = packet_queue_last_time_us(&is->audioq, is->audio_st->time_base);
+        if (audio_last_us == AV_NOPTS_VALUE || audio_last_us < cut_us)
+            return -1;
+    }
+
+    if (avformat_seek_file(is->ic, -1, INT64_MIN, cut_us, cut_us, 0) < 0)
+        return -1;
+
+    if (has_video)
+        dropped += packet_queue_truncate_from(&is->videoq, is->video_st->time_base, cut_us);
+    if (is->audio_st)
+        dropped += packet_queue_truncate_from(&is->audioq, is->audio_st->time_base, cut_us);
+
+    is->eof                  = 0;
+    is->refill_req           = 1;
+    is->refill_from_us       = cut_us;
+    is->refill_video_pending = has_video;
+    is->refill_audio_pending = is->audio_st != NULL;
+    // give back idle payload buffers too, queued ones are released as consumed
+    ffpktpool_trim(ffp->pkt_pool);
+    ALOGD("membudget: dropped %d bytes from %"PRId64" us\n", dropped, cut_us);
+    return 0;
+}
+
+/* skip packets read again up to where stream_shrink_queues() cut */
+static int stream_refill_skip(VideoState *is, AVPacket *pkt)
+{
+    AVRational tb    = is->ic->streams[pkt->stream_index]->time_base;
+    int64_t    ts_us = packet_time_us(pkt, tb);
+    int        skip;
+
+    if (pkt->stream_index == is->video_stream && is->refill_video_pending) {
+        skip = !(pkt->flags & AV_PKT_FLAG_KEY) || ts_us == AV_NOPTS_VALUE || ts_us < is->refill_from_us;
+        if (!skip)
+            is->refill_video_pending = 0;
+    } else if (pkt->stream_index == is->audio_stream && is->refill_audio_pending) {
+        skip = ts_us == AV_NOPTS_VALUE || ts_us < is->refill_from_us;
+        if (!skip)
+            is->refill_audio_pending = 0;
+    } else {
+        return 0;
+    }
+
+    is->refill_req = is->refill_video_pending || is->refill_audio_pending;
+    return skip;
+}
+
+static void stream_timeshift_flush(FFPlayer *ffp)
+{
+    VideoState *is = ffp->is;
+
+    if (is->audio_stream >= 0) {
+        packet_queue_flush(&is->audioq);
+        packet_queue_put(&is->audioq, &flush_pkt);
+    }
+    if (is->video_stream >= 0) {
+        if (ffp->node_vdec)
+            ffpipenode_flush(ffp->node_vdec);
+        packet_queue_flush(&is->videoq);
+        packet_queue_put(&is->videoq, &flush_pkt);
+    }
+    set_clock(&is->extclk, NAN, 0);
+    stream_set_playback_rate(is, 1.0);
+    ffp_toggle_buffering(ffp, 1);
+}
+
+/* store a packet read in ring, return 1 if it should be queued as well */
+static int stream_timeshift_put(FFPlayer *ffp, AVPacket *pkt)
+{
+    VideoState       *is = ffp->is;
+    FFTimeShiftPacket tsp;
+    int               caught_up;
+
+    if (pkt->stream_index != is->audio_stream && pkt->stream_index != is->video_stream)
+        return 1;
+
+    memset(&tsp, 0, sizeof(tsp));
+    tsp.pts          = pkt->pts;
+    tsp.dts          = pkt->dts;
+    tsp.duration     = pkt->duration;
+    tsp.ab_timestamp = pkt->ab_timestamp;
+    tsp.time_us      = packet_time_us(pkt, is->ic->streams[pkt->stream_index]->time_base);
+    tsp.stream_index = pkt->stream_index;
+    tsp.flags        = pkt->flags;
+    tsp.size         = pkt->size;
+    if (is->video_stream >= 0)
+        tsp.sync = pkt->stream_index == is->video_stream && (pkt->flags & AV_PKT_FLAG_KEY);
+    else
+        tsp.sync = 1;
+
+    caught_up = !is->pause_req && fftimeshift_is_live(is->timeshift);
+    if (fftimeshift_put(is->timeshift, &tsp, pkt->data) < 0) {
+        // larger than ring, can only be played live
+        if (caught_up)
+            return 1;
+    } else if (caught_up) {
+        // queued as is, move cursor past it
+        fftimeshift_get(is->timeshift, &tsp, NULL);
+        return 1;
+    }
+
+    av_free_packet(pkt);
+    return 0;
+}
+
+/* queue packets from ring, when playing behind live */
+static void stream_timeshift_feed(FFPlayer *ffp)
+{
+    VideoState       *is = ffp->is;
+    PacketQueue      *q  = is->video_stream >= 0 ? &is->videoq : &is->audioq;
+    AVStream         *st = is->video_stream >= 0 ? is->video_st : is->audio_st;
+    FFTimeShiftPacket tsp;
+    const uint8_t    *data;
+    AVPacket          pkt;
+
+    while (packet_queue_duration_ms(q, st) < TIMESHIFT_FEED_AHEAD_IN_MS &&
+           fftimeshift_get(is->timeshift, &tsp, &data) > 0) {
+        if (tsp.gap) {
+            ALOGD("timeshift: packets dropped from ring before played\n");
+            stream_timeshift_flush(ffp);
+        }
+
+        if (ffpktpool_new_packet(ffp->pkt_pool, &pkt, tsp.size) < 0)
+            break;
+        memcpy(pkt.data, data, tsp.size);
+        pkt.pts          = tsp.pts;
+        pkt.dts          = tsp.dts;
+        pkt.duration     = tsp.duration;
+        pkt.ab_timestamp = tsp.ab_timestamp;
+        pkt.flags        = tsp.flags;
+        pkt.stream_index = tsp.stream_index;
+
+        if (pkt.stream_index == is->audio_stream)
+            packet_queue_put(&is->audioq, &pkt);
+        else if (pkt.stream_index == is->video_stream)
+            packet_queue_put(&is->videoq, &pkt);
+        else
+            av_free_packet(&pkt);
+    }
+}
+
+static int stream_timeshift_seek(FFPlayer *ffp, int64_t behind_us)
+{
+    VideoState *is = ffp->is;
+    int64_t     oldest_us;
+    int64_t     newest_us;
+
+    fftimeshift_get_range(is->timeshift, &oldest_us, &newest_us);
+    if (newest_us == FFP_TIMESHIFT_NOTIME)
+        return -1;
+
+    if (fftimeshift_seek(is->timeshift, newest_us - FFMAX(behind_us, 0)) < 0)
+        return -1;
+
+    ALOGD("timeshift: %"PRId64" ms behind live, %"PRId64" ms in ring\n",
+          behind_us / 1000, (newest_us - oldest_us) / 1000);
+    stream_timeshift_flush(ffp);
+    return 0;
+}
+
+static void ffp_check_memory_budget_l(FFPlayer *ffp)
+{
+    VideoState *is          = ffp->is;
+    int64_t     packet_bytes = is->audioq.size + is->videoq.size;
+    // a player held to be started, e.g. preloaded or next, is not idle
+    int         low_priority = ffp->in_background || (is->pause_req && !is->start_pending);
+
+    is->membudget_packet_limit = ffmembudget_update(ffp->membudget, packet_bytes, frame_queue_bytes(&is->pictq), low_priority);
+
+    // paused or background player would keep its packets for long, give them back
+    if (low_priority && !is->realtime && !is->seek_req && !is->refill_req &&
+        packet_bytes > is->membudget_packet_limit + MEMBUDGET_SHRINK_SLACK_IN_BYTES)
+        stream_shrink_queues(ffp, is->membudget_packet_limit);
+}
+
+/* url without query, which often carries per-session tokens */
+static char *stream_cache_make_key(FFPlayer *ffp, const char *filename)
+{
+    const char *query;
+
+    if (ffp->stream_cache_key)
+        return av_strdup(ffp->stream_cache_key);
+
+    query = strchr(filename, '?');
+    if (query)
+        return av_strndup(filename, query - filename);
+    return av_strdup(filename);
+}
+
+/* this thread gets the stream from the disk or the network */
+static int read_thread(void *arg)
+{
+    FFPlayer *ffp = arg;
+    VideoState *is = ffp->is;
+    AVFormatContext *ic = NULL;
+    int err, i, ret __unused;
+    int st_index[AVMEDIA_TYPE_NB];
+    AVPacket pkt1, *pkt = &pkt1;
+    int64_t stream_start_time;
+    int completed = 0;
     int pkt_in_play_range = 0;
     AVDictionaryEntry *t;
     AVDictionary **opts;
     int orig_nb_streams;
+    FFStreamCache *stream_cache = NULL;
+    char *stream_cache_key = NULL;
+    int64_t orig_probesize = 0;
+    int64_t orig_analyzeduration = 0;
     SDL_mutex *wait_mutex = SDL_CreateMutex();
     int scan_all_pmts_set = 0;
     int64_t pkt_ts;
     int last_error = 0;
     int64_t prev_io_tick_counter = 0;
     int64_t io_tick_counter = 0;
-
-    // add by William Shi
-    int64_t av_flush_time = 0;
-    int64_t av_now_time = 0;
-    
-    int64_t av_stalled_begin_time = 0;
-    int64_t av_stalled_now_time = 0;
-    //
+    int64_t prev_bandwidth_tick_counter = 0;
+    int64_t prev_membudget_tick_counter = 0;
+    int64_t membudget_tick_counter = 0;
+    int64_t read_begin_us = 0;
+    int64_t read_begin_bytes = 0;
+
+    IJKFF_LatencyController *latency_ctrl = NULL;
+    IJKFF_LatencyOutput latency = {0};
     
     // add by William Shi
     int64_t av_bitrate_begin_time = 0;
@@ -2438,6 +3264,18 @@ static int read_thread(void *arg)
 
     av_format_inject_global_side_data(ic);
 
+    if (ffp->stream_cache_dir) {
+        stream_cache_key = stream_cache_make_key(ffp, is->filename);
+        stream_cache = ffstreamcache_load(ffp->stream_cache_dir, stream_cache_key);
+    }
+    if (stream_cache) {
+        // probe as little as needed to create streams, the rest comes from cache
+        av_opt_get_int(ic, "probesize", 0, &orig_probesize);
+        av_opt_get_int(ic, "analyzeduration", 0, &orig_analyzeduration);
+        av_opt_set_int(ic, "probesize", FFMIN(orig_probesize, FFP_STREAMCACHE_PROBESIZE), 0);
+        av_opt_set_int(ic, "analyzeduration", FFMIN(orig_analyzeduration, FFP_STREAMCACHE_ANALYZE_DURATION), 0);
+    }
+
     opts = setup_find_stream_info_opts(ic, ffp->codec_opts);
     orig_nb_streams = ic->nb_streams;
 
@@ -2447,6 +3285,32 @@ static int read_thread(void *arg)
         av_dict_free(&opts[i]);
     av_freep(&opts);
 
+    if (stream_cache) {
+        av_opt_set_int(ic, "probesize", orig_probesize, 0);
+        av_opt_set_int(ic, "analyzeduration", orig_analyzeduration, 0);
+
+        if (err >= 0 && ffstreamcache_apply(stream_cache, ic) == 0) {
+            av_log(NULL, AV_LOG_INFO, "stream params from cache: %s\n", stream_cache_key);
+        } else {
+            // streams changed, or not found in short probe
+            av_log(NULL, AV_LOG_WARNING, "stream params cache mismatch, probe again: %s\n", stream_cache_key);
+            ffstreamcache_free_p(&stream_cache);
+
+            opts = setup_find_stream_info_opts(ic, ffp->codec_opts);
+            orig_nb_streams = ic->nb_streams;
+
+            err = avformat_find_stream_info(ic, opts);
+
+            for (i = 0; i < orig_nb_streams; i++)
+                av_dict_free(&opts[i]);
+            av_freep(&opts);
+        }
+    }
+    if (err >= 0 && !stream_cache && ffp->stream_cache_dir)
+        ffstreamcache_save(ffp->stream_cache_dir, stream_cache_key, ic);
+    ffstreamcache_free_p(&stream_cache);
+    av_freep(&stream_cache_key);
+
     if (err < 0) {
         av_log(NULL, AV_LOG_WARNING,
                "%s: could not find codec parameters\n", is->filename);
@@ -2491,6 +3355,12 @@ static int read_thread(void *arg)
     {
         printf("realtime data source\n");
     }
+    if (is->realtime && ffp->timeshift_window_ms > 0) {
+        is->timeshift = fftimeshift_create(ffp->timeshift_max_bytes, ffp->timeshift_spill_dir,
+                                           (int64_t)ffp->timeshift_window_ms * 1000);
+        if (!is->timeshift)
+            ALOGE("timeshift: create failed, play without it\n");
+    }
 
     if (true || ffp->show_status)
         av_dump_format(ic, 0, is->filename, 0);
@@ -2595,6 +3465,11 @@ static int read_thread(void *arg)
     if (ffp->infinite_buffer < 0 && is->realtime)
         ffp->infinite_buffer = 1;
 
+    ijkmeta_lock(ffp->meta);
+    ijkmeta_build_record_l(ffp->meta, ffp->video_codec_info, ffp->audio_codec_info);
+    ijkmeta_unlock(ffp->meta);
+    ffp_notify_msg1(ffp, FFP_MSG_METADATA_UPDATE);
+
     ffp->prepared = true;
     ffp_notify_msg1(ffp, FFP_MSG_PREPARED);
     if (is->video_st && is->video_st->codec) {
@@ -2609,19 +3484,18 @@ static int read_thread(void *arg)
 
     // add by william
     ffp->stalled_count = 0;
-    
-    int live_duration_lwm = REALTIME_DURATION_LWM;
-    int live_duration_hwm = REALTIME_DURATION_HWM;
-    
-    if(ffp->data_cache>REALTIME_DURATION_HWM)
-    {
-        live_duration_hwm = ffp->data_cache;
+
+    if (ffp->live_latency.target_ms > 0)
+        latency_ctrl = fflatency_create_pid(&ffp->live_latency);
+    else
+        latency_ctrl = fflatency_create_legacy(ffp->data_cache);
+    if (!latency_ctrl) {
+        last_error = AVERROR(ENOMEM);
+        goto fail;
     }
-    //
-    
+    latency.lwm_ms = ffp->live_latency.target_ms > 0 ? ffp->live_latency.target_ms : 1000;
+
     // for drop
-    uint64_t drop_audiopacket_timing_begin = 0;
-    uint64_t drop_audiopacket_timing_now = 0;
     bool enable_drop_audiopacket = false;
     //
     
@@ -2655,20 +3529,40 @@ static int read_thread(void *arg)
         }
 #endif
         if (is->seek_req) {
-            int64_t seek_target = is->seek_pos;
-            int64_t seek_min    = is->seek_rel > 0 ? seek_target - is->seek_rel + 2: INT64_MIN;
-            int64_t seek_max    = is->seek_rel < 0 ? seek_target - is->seek_rel - 2: INT64_MAX;
+            SDL_LockMutex(is->play_mutex);
+            int64_t seek_target     = is->seek_pos;
+            int64_t seek_rel        = is->seek_rel;
+            int     seek_flags      = is->seek_flags;
+            int     seek_mode       = is->seek_mode;
+            int     seek_req_serial = is->seek_req_serial;
+            SDL_UnlockMutex(is->play_mutex);
+
+            int64_t seek_min    = seek_rel > 0 ? seek_target - seek_rel + 2: INT64_MIN;
+            int64_t seek_max    = seek_rel < 0 ? seek_target - seek_rel - 2: INT64_MAX;
 // FIXME the +-2 is due to rounding being not done in the correct direction in generation
 //      of the seek_pos/seek_rel variables
+            int64_t skip_until  = seek_mode == FFP_SEEK_MODE_EXACT ? seek_target : AV_NOPTS_VALUE;
+            int     seek_cached = 0;
 
             ffp_toggle_buffering(ffp, 1);
-            ret = avformat_seek_file(is->ic, -1, seek_min, seek_target, seek_max, is->seek_flags);
-            if (ret < 0) {
+            if (seek_mode == FFP_SEEK_MODE_NEAREST_CACHED && !(seek_flags & AVSEEK_FLAG_BYTE))
+                seek_cached = stream_seek_cached(ffp, &seek_target) == 0;
+
+            if (seek_cached) {
+                ALOGD("seek: in cache %"PRId64"\n", seek_target);
+                set_clock(&is->extclk, seek_target / (double)AV_TIME_BASE, 0);
+                ret = 0;
+            } else if ((ret = avformat_seek_file(is->ic, -1, seek_min, seek_target, seek_max, seek_flags)) < 0) {
                 av_log(NULL, AV_LOG_ERROR,
                        "%s: error while seeking\n", is->ic->filename);
             } else {
+                is->refill_req           = 0;
+                is->refill_video_pending = 0;
+                is->refill_audio_pending = 0;
                 if (is->audio_stream >= 0) {
                     packet_queue_flush(&is->audioq);
+                    // set before flush packet, decoder sees it with the new serial
+                    decoder_set_skip(&is->auddec, skip_until, is->audioq.serial + 1);
                     packet_queue_put(&is->audioq, &flush_pkt);
                 }
 #ifdef FFP_MERGE
@@ -2682,28 +3576,33 @@ static int read_thread(void *arg)
                         ffpipenode_flush(ffp->node_vdec);
                     }
                     packet_queue_flush(&is->videoq);
+                    decoder_set_skip(&is->viddec, skip_until, is->videoq.serial + 1);
                     packet_queue_put(&is->videoq, &flush_pkt);
                     isFlushing = true;
                 }
-                if (is->seek_flags & AVSEEK_FLAG_BYTE) {
+                if (seek_flags & AVSEEK_FLAG_BYTE) {
                    set_clock(&is->extclk, NAN, 0);
                 } else {
                    set_clock(&is->extclk, seek_target / (double)AV_TIME_BASE, 0);
                 }
+                is->eof = 0;
             }
             ffp->current_high_water_mark_in_ms = ffp->start_high_water_mark_in_ms;
-            is->seek_req = 0;
             is->queue_attachments_req = 1;
-            is->eof = 0;
 #ifdef FFP_MERGE
             if (is->paused)
                 step_to_next_frame(is);
 #endif
             completed = 0;
             SDL_LockMutex(ffp->is->play_mutex);
+            // requests arrived while seeking are coalesced into the next round
+            int seek_done = is->seek_req_serial == seek_req_serial;
+            if (seek_done)
+                is->seek_req = 0;
             if (ffp->auto_resume) {
                 // ALOGE("seek: auto_resume\n");
                 is->pause_req = 0;
+                is->start_pending = 0;
                 is->buffering_on = 1;
                 ffp->auto_resume = 0;
                 stream_update_pause_l(ffp);
@@ -2711,13 +3610,14 @@ static int read_thread(void *arg)
             if (is->pause_req)
                 step_to_next_frame_l(ffp);
             SDL_UnlockMutex(ffp->is->play_mutex);
-            ffp_notify_msg1(ffp, FFP_MSG_SEEK_COMPLETE);
+            if (seek_done)
+                ffp_notify_msg1(ffp, FFP_MSG_SEEK_COMPLETE);
             ffp_toggle_buffering(ffp, 1);
         }
         if (is->queue_attachments_req) {
             if (is->video_st && (is->video_st->disposition & AV_DISPOSITION_ATTACHED_PIC)) {
                 AVPacket copy;
-                if ((ret = av_copy_packet(&copy, &is->video_st->attached_pic)) < 0)
+                if ((ret = ffpktpool_copy_packet(ffp->pkt_pool, &copy, &is->video_st->attached_pic)) < 0)
                     goto fail;
                 packet_queue_put(&is->videoq, &copy);
                 packet_queue_put_nullpacket(&is->videoq, is->video_stream);
@@ -2727,8 +3627,10 @@ static int read_thread(void *arg)
 
         if(is->realtime)
         {
-            if (is->pause_req){
-                if(!isDropAllPackets)
+            // a player held to be started keeps what it read, e.g. next player
+            if (is->pause_req && !is->start_pending){
+                // time-shift keeps reading into its ring instead
+                if(!isDropAllPackets && !is->timeshift)
                 {
                     if (is->audio_stream >= 0) {
                         packet_queue_flush(&is->audioq);
@@ -2743,6 +3645,8 @@ static int read_thread(void *arg)
                         packet_queue_put(&is->videoq, &flush_pkt);
                     }
                     set_clock(&is->extclk, NAN, 0); //fix the slow motion bug
+                    stream_set_playback_rate(is, 1.0);
+                    fflatency_reset(latency_ctrl);
                     isDropAllPackets = true;
                 }
             }else{
@@ -2756,46 +3660,41 @@ static int read_thread(void *arg)
             }
             
             
-            if(!is->pause_req)
-            {
-                // check stall
-                if(av_stalled_begin_time==0)
-                {
-                    av_stalled_begin_time = GetNowMs();
-                }
-                av_stalled_now_time = GetNowMs();
-                
-                if(av_stalled_now_time-av_stalled_begin_time > 10*1000)
-                {
-                    if(ffp->stalled_count>=1)
-                    {
-                        live_duration_lwm = live_duration_lwm + REALTIME_DURATION_LWM*ffp->stalled_count;
-                    }else{
-                        live_duration_lwm = live_duration_lwm - REALTIME_DURATION_LWM;
+            if (is->timeshift) {
+                if (is->timeshift_seek_req) {
+                    is->timeshift_seek_req = 0;
+                    if (stream_timeshift_seek(ffp, is->timeshift_seek_behind_us) == 0) {
+                        fflatency_reset(latency_ctrl);
+                        isFlushing = false;
                     }
-                    ffp->stalled_count = 0;
-                    av_stalled_begin_time = 0;
-                }
-                
-                if(live_duration_lwm>live_duration_hwm*4/5)
-                {
-                    live_duration_lwm = live_duration_hwm*4/5;
-                }
-                
-                if(live_duration_lwm<REALTIME_DURATION_LWM)
-                {
-                    live_duration_lwm = REALTIME_DURATION_LWM;
                 }
-                
-                // check delay
-                if(av_flush_time==0)
-                {
-                    av_flush_time = GetNowMs();
+                if (!is->pause_req && !fftimeshift_is_live(is->timeshift))
+                    stream_timeshift_feed(ffp);
+            }
+
+            // no catch-up while playing behind live on purpose
+            if(!is->pause_req && (!is->timeshift || fftimeshift_is_live(is->timeshift)))
+            {
+                IJKFF_LatencyInput latency_in = {0};
+                latency_in.now_ms          = GetNowMs();
+                int64_t audio_cached_ms    = packet_queue_duration_ms(&is->audioq, is->audio_st);
+                int     audio_nb_packets   = is->audioq.nb_packets;
+                latency_in.cached_ms       = is->video_stream >= 0 ? packet_queue_duration_ms(&is->videoq, is->video_st) : audio_cached_ms;
+                latency_in.audio_packet_ms = audio_nb_packets > 0 ? audio_cached_ms / audio_nb_packets : 0;
+                latency_in.stalled_count   = ffp->stalled_count;
+                ffp->stalled_count = 0;
+
+                fflatency_update(latency_ctrl, &latency_in, &latency);
+                double last_rate = stream_get_playback_rate(is);
+                if (stream_set_playback_rate(is, latency.playback_rate)) {
+                    if (last_rate == 1.0)
+                        ALOGD("live catch-up: start, rate %.2f, cached %"PRId64" ms\n", latency.playback_rate, latency_in.cached_ms);
+                    else if (latency.playback_rate == 1.0)
+                        ALOGD("live catch-up: stop, cached %"PRId64" ms\n", latency_in.cached_ms);
                 }
-                av_now_time = GetNowMs();
-                
+
                 //drop all
-                if(is->videoq.duration>live_duration_hwm && av_now_time - av_flush_time>60*1000)
+                if (latency.drop_all)
                 {
                     if (is->audio_stream >= 0) {
                         packet_queue_flush(&is->audioq);
@@ -2817,29 +3716,17 @@ static int read_thread(void *arg)
                     ffp_toggle_buffering(ffp, 1);
                     
                     printf("live stream is delay,flush all cached packets...\n");
-                    
-                    av_flush_time = 0;
                 }
  
                 //drop one audiopacket
-                if(drop_audiopacket_timing_begin==0)
+                if (latency.drop_audio_packet)
                 {
-                    drop_audiopacket_timing_begin = GetNowMs();
-                }
-                
-                drop_audiopacket_timing_now = GetNowMs();
-                
-                if(is->videoq.duration>live_duration_hwm*1/2 && drop_audiopacket_timing_now-drop_audiopacket_timing_begin>10*1000)
-                {
-                    drop_audiopacket_timing_begin = 0;
                     enable_drop_audiopacket = true;
                 }
-
-//                printf("is->videoq.duration:%lld\n",is->videoq.duration);
             }
         }
         
-        if (ffp->infinite_buffer==1 && !is->seek_req && ((is->audioq.duration > live_duration_lwm || is->audio_stream < 0 || is->audioq.abort_request) && (is->videoq.duration > live_duration_lwm || is->video_stream < 0 || is->videoq.abort_request || (is->video_st->disposition & AV_DISPOSITION_ATTACHED_PIC))))
+        if (ffp->infinite_buffer==1 && !is->seek_req && ((packet_queue_duration_ms(&is->audioq, is->audio_st) > latency.lwm_ms || is->audio_stream < 0 || is->audioq.abort_request) && (packet_queue_duration_ms(&is->videoq, is->video_st) > latency.lwm_ms || is->video_stream < 0 || is->videoq.abort_request || (is->video_st->disposition & AV_DISPOSITION_ATTACHED_PIC))))
         {
             if (!is->eof) {
 //                ALOGE("ffp_toggle_buffering: full\n");
@@ -2847,12 +3734,18 @@ static int read_thread(void *arg)
             }
         }
 
+        membudget_tick_counter = SDL_GetTickHR();
+        if (membudget_tick_counter - prev_membudget_tick_counter > MEMBUDGET_CHECK_PER_MILLISECONDS) {
+            prev_membudget_tick_counter = membudget_tick_counter;
+            ffp_check_memory_budget_l(ffp);
+        }
+
         /* if the queue are full, no need to read more */
         if (ffp->infinite_buffer<1 && !is->seek_req &&
 #ifdef FFP_MERGE
               (is->audioq.size + is->videoq.size + is->subtitleq.size > MAX_QUEUE_SIZE
 #else
-              (((is->audioq.size + is->videoq.size > ffp->max_buffer_size)
+              (((is->audioq.size + is->videoq.size > FFMIN(ffp->max_buffer_size, is->membudget_packet_limit))
                  && (is->audioq.nb_packets > 5 || is->audio_stream < 0 || is->audioq.abort_request)
                  && (is->videoq.nb_packets > 5 || is->video_stream < 0 || is->videoq.abort_request)
                 )
@@ -2879,7 +3772,7 @@ static int read_thread(void *arg)
             (!is->audio_st || (is->auddec.finished == is->audioq.serial && frame_queue_nb_remaining(&is->sampq) == 0)) &&
             (!is->video_st || (is->viddec.finished == is->videoq.serial && frame_queue_nb_remaining(&is->pictq) == 0))) {
             if (ffp->loop != 1 && (!ffp->loop || --ffp->loop)) {
-                stream_seek(is, ffp->start_time != AV_NOPTS_VALUE ? ffp->start_time : 0, 0, 0);
+                stream_seek(is, ffp->start_time != AV_NOPTS_VALUE ? ffp->start_time : 0, 0, 0, FFP_SEEK_MODE_FAST);
             } else if (ffp->autoexit) {
                 ret = AVERROR_EOF;
                 goto fail;
@@ -2911,9 +3804,18 @@ static int read_thread(void *arg)
             }
         }
         
+        // give back payload buffers of sizes no longer read
+        ffpktpool_trim_idle(ffp->pkt_pool, GetNowMs());
+
         // read data
         pkt->flags = 0;
+        read_begin_us    = av_gettime_relative();
+        read_begin_bytes = ic->pb ? ic->pb->bytes_read : 0;
         ret = av_read_frame(ic, pkt);
+        if (ic->pb)
+            ffbandwidth_add_transfer(ffp->bandwidth, ic->pb->bytes_read - read_begin_bytes, av_gettime_relative() - read_begin_us);
+        else if (ret >= 0)
+            ffbandwidth_add_transfer(ffp->bandwidth, pkt->size, av_gettime_relative() - read_begin_us);
 
         if(ret>=0)
         {
@@ -3040,6 +3942,14 @@ static int read_thread(void *arg)
             is->eof = 0;
         }
 
+        if (is->refill_req && stream_refill_skip(is, pkt)) {
+            av_free_packet(pkt);
+            continue;
+        }
+
+        if (is->timeshift && !stream_timeshift_put(ffp, pkt))
+            continue;
+
         /* check if packet is in play range specified by user, then queue, otherwise discard */
         stream_start_time = ic->streams[pkt->stream_index]->start_time;
         pkt_ts = pkt->pts == AV_NOPTS_VALUE ? pkt->dts : pkt->pts;
@@ -3049,9 +3959,11 @@ static int read_thread(void *arg)
                 (double)(ffp->start_time != AV_NOPTS_VALUE ? ffp->start_time : 0) / 1000000
                 <= ((double)ffp->duration / 1000000);
         if (pkt->stream_index == is->audio_stream && pkt_in_play_range) {
+            ffpktpool_repack(ffp->pkt_pool, pkt);
             packet_queue_put(&is->audioq, pkt);
         } else if (pkt->stream_index == is->video_stream && pkt_in_play_range
                    && !(is->video_st && (is->video_st->disposition & AV_DISPOSITION_ATTACHED_PIC))) {
+            ffpktpool_repack(ffp->pkt_pool, pkt);
             packet_queue_put(&is->videoq, pkt);
 #ifdef FFP_MERGE
         } else if (pkt->stream_index == is->subtitle_stream && pkt_in_play_range) {
@@ -3066,6 +3978,12 @@ static int read_thread(void *arg)
             prev_io_tick_counter = io_tick_counter;
             ffp_check_buffering_l(ffp);
         }
+        if (io_tick_counter - prev_bandwidth_tick_counter > BANDWIDTH_NOTIFY_PER_MILLISECONDS) {
+            int64_t bandwidth_bps = ffbandwidth_get_estimate(ffp->bandwidth);
+            prev_bandwidth_tick_counter = io_tick_counter;
+            if (bandwidth_bps > 0)
+                ffp_notify_msg2(ffp, FFP_MSG_NETWORK_BANDWIDTH, (int)(bandwidth_bps / 1000));
+        }
     }
     /* wait until the end */
     while (!is->abort_request) {
@@ -3095,11 +4013,13 @@ static int read_thread(void *arg)
         ffp->last_error = last_error;
         ffp_notify_msg2(ffp, FFP_MSG_ERROR, last_error);
     }
+    fflatency_free_p(&latency_ctrl);
     SDL_DestroyMutex(wait_mutex);
     return 0;
 }
 
 static int video_refresh_thread(void *arg);
+static double video_refresh_task(void *arg);
 static VideoState *stream_open(FFPlayer *ffp, const char *filename, AVInputFormat *iformat)
 {
     assert(!ffp->is);
@@ -3135,23 +4055,36 @@ static VideoState *stream_open(FFPlayer *ffp, const char *filename, AVInputForma
     init_clock(&is->audclk, &is->audioq.serial);
     init_clock(&is->extclk, &is->extclk.serial);
     is->audio_clock_serial = -1;
+    is->audio_buf_rate = 1.0;
+    is->playback_rate_permille = 1000;
+    is->membudget_packet_limit = INT64_MAX;
     is->av_sync_type = ffp->av_sync_type;
 
     is->play_mutex = SDL_CreateMutex();
+    // hold at first frame until started, e.g. waiting to be started as next player
+    is->pause_req = !ffp->start_on_prepared;
+    is->start_pending = !ffp->start_on_prepared;
     ffp->is = is;
 
-    is->video_refresh_tid = SDL_CreateThreadEx(&is->_video_refresh_tid, video_refresh_thread, ffp, "ff_vout");
-    if (!is->video_refresh_tid) {
+    if (ffp->shared_refresh) {
+        is->refresh_task = ffscheduler_register(video_refresh_task, ffp);
+        if (!is->refresh_task)
+            ALOGW("stream_open: no shared refresh worker, fallback to own thread\n");
+    }
+    if (!is->refresh_task)
+        is->video_refresh_tid = SDL_CreateThreadRole(&is->_video_refresh_tid, video_refresh_thread, ffp, "ff_vout", SDL_THREAD_ROLE_RENDER);
+    if (!is->refresh_task && !is->video_refresh_tid) {
         av_freep(&ffp->is);
         return NULL;
     }
 
-    is->read_tid = SDL_CreateThreadEx(&is->_read_tid, read_thread, ffp, "ff_read");
+    is->read_tid = SDL_CreateThreadRole(&is->_read_tid, read_thread, ffp, "ff_read", SDL_THREAD_ROLE_DEMUX);
     if (!is->read_tid) {
 fail:
         is->abort_request = true;
         if (is->video_refresh_tid)
             SDL_WaitThread(is->video_refresh_tid, NULL);
+        ffscheduler_unregister_p(&is->refresh_task);
         stream_close(is);
         return NULL;
     }
@@ -3194,6 +4127,17 @@ static int ffplay_video_refresh_thread(void *arg)
 
     return 0;
 }
+// one round of ffplay_video_refresh_thread() on a shared worker
+static double video_refresh_task(void *arg)
+{
+    FFPlayer *ffp = arg;
+    VideoState *is = ffp->is;
+    double remaining_time = REFRESH_RATE;
+    if (!is->abort_request && is->show_mode != SHOW_MODE_NONE && (!is->paused || is->force_refresh))
+        video_refresh(ffp, &remaining_time);
+
+    return remaining_time;
+}
 static int video_refresh_thread(void *arg)
 {
     FFPlayer *ffp = (FFPlayer *)arg;
@@ -3352,6 +4296,9 @@ FFPlayer *ffp_create()
     msg_queue_init(&ffp->msg_queue);
     ffp_reset_internal(ffp);
     ffp->meta = ijkmeta_create();
+    ffp->bandwidth = ffbandwidth_create();
+    ffp->membudget = ffmembudget_register();
+    ffp->pkt_pool = ffpktpool_create();
 	//add by fw
 	ffp->speed_mode = 0;
 	ffp->volume = 0;
@@ -3378,6 +4325,9 @@ void ffp_destroy(FFPlayer *ffp)
     msg_queue_destroy(&ffp->msg_queue);
 
     ijkmeta_destroy_p(&ffp->meta);
+    ffbandwidth_free_p(&ffp->bandwidth);
+    ffmembudget_unregister_p(&ffp->membudget);
+    ffpktpool_free_p(&ffp->pkt_pool);
 
     av_free(ffp);
 }
@@ -3391,6 +4341,49 @@ void ffp_destroy_p(FFPlayer **pffp)
     *pffp = NULL;
 }
 
+/*
+ * Back to the state of ffp_create(), but keep vout/aout/pipeline and format callback,
+ * which are expensive to re-create and owned by ijkmp.
+ * ffp->is should have been closed by ffp_wait_stop_l().
+ */
+void ffp_reset(FFPlayer *ffp)
+{
+    if (!ffp)
+        return;
+
+    if (ffp->is) {
+        av_log(NULL, AV_LOG_WARNING, "ffp_reset: force stream_close()");
+        stream_close(ffp->is);
+        ffp->is = NULL;
+    }
+    ffmembudget_update(ffp->membudget, 0, 0, 1);
+    ffpktpool_trim(ffp->pkt_pool);
+
+    SDL_Vout       *vout     = ffp->vout;
+    SDL_Aout       *aout     = ffp->aout;
+    IJKFF_Pipeline *pipeline = ffp->pipeline;
+    ijk_format_control_message format_control_message = ffp->format_control_message;
+    void           *format_control_opaque  = ffp->format_control_opaque;
+
+    ffpipenode_free_p(&ffp->node_vdec);
+    ijkmeta_destroy_p(&ffp->meta);
+    ffp_reset_internal(ffp);
+    ffbandwidth_reset(ffp->bandwidth);
+
+    ffp->vout                   = vout;
+    ffp->aout                   = aout;
+    ffp->pipeline               = pipeline;
+    ffp->format_control_message = format_control_message;
+    ffp->format_control_opaque  = format_control_opaque;
+    ffp->meta                   = ijkmeta_create();
+
+    ffp->speed_mode             = 0;
+    ffp->volume                 = 0;
+    ffp->stalled_count          = 0;
+    ffp->data_cache             = 0;
+    ffp->ab_tm                  = 0;
+}
+
 void ffp_set_format_callback(FFPlayer *ffp, ijk_format_control_message cb, void *opaque)
 {
     ffp->format_control_message = cb;
@@ -3442,6 +4435,21 @@ void ffp_set_picture_queue_capicity(FFPlayer *ffp, int frame_count)
     ffp->pictq_size = frame_count;
 }
 
+void ffp_set_picture_queue_adaptive(FFPlayer *ffp, int max_frame_count)
+{
+    ffp->pictq_adaptive_max = max_frame_count;
+}
+
+void ffp_set_shared_refresh(FFPlayer *ffp, int shared)
+{
+    ffp->shared_refresh = shared ? 1 : 0;
+}
+
+void ffp_set_decode_degrade_floor(FFPlayer *ffp, int level)
+{
+    ffp->decode_degrade_floor = av_clip(level, DECODE_DEGRADE_NONE, DECODE_DEGRADE_KEYFRAME_ONLY);
+}
+
 void ffp_set_max_fps(FFPlayer *ffp, int max_fps)
 {
     ffp->max_fps = max_fps;
@@ -3460,6 +4468,37 @@ void ffp_set_max_buffer_size(FFPlayer *ffp, int max_buffer_size)
         ffp->max_buffer_size = max_buffer_size;
 }
 
+void ffp_set_buffering_policy(FFPlayer *ffp, const FFBufferingPolicy *policy)
+{
+    assert(ffp);
+    assert(policy);
+
+    ffp->start_high_water_mark_in_ms = policy->start_hwm_ms > 0 ? policy->start_hwm_ms : DEFAULT_START_HIGH_WATER_MARK_IN_MS;
+    ffp->next_high_water_mark_in_ms  = policy->next_hwm_ms > 0 ? policy->next_hwm_ms : DEFAULT_NEXT_HIGH_WATER_MARK_IN_MS;
+    ffp->next_high_water_mark_in_ms  = FFMAX(ffp->next_high_water_mark_in_ms, ffp->start_high_water_mark_in_ms);
+    ffp->max_high_water_mark_in_ms   = policy->max_hwm_ms > 0 ? policy->max_hwm_ms : DEFAULT_MAX_HIGH_WATER_MARK_IN_MS;
+    ffp->max_high_water_mark_in_ms   = FFMAX(ffp->max_high_water_mark_in_ms, ffp->next_high_water_mark_in_ms);
+    // while playing, the current mark restarts from the start mark at next seek
+    if (!ffp->is)
+        ffp->current_high_water_mark_in_ms = ffp->start_high_water_mark_in_ms;
+
+    ffp->high_water_mark_in_bytes    = policy->hwm_bytes > 0 ? policy->hwm_bytes : DEFAULT_HIGH_WATER_MARK_IN_BYTES;
+    ffp_set_max_buffer_size(ffp, policy->max_buffer_bytes > 0 ? policy->max_buffer_bytes : -1);
+
+    ffp->high_water_mark_growth_percent = policy->growth_percent > 0 ? FFMAX(policy->growth_percent, 100) : DEFAULT_HIGH_WATER_MARK_GROWTH_PERCENT;
+    ffp->buffering_resume_min_packets   = policy->resume_min_packets >= 0 ? policy->resume_min_packets : DEFAULT_BUFFERING_RESUME_MIN_PACKETS;
+    ffp->adaptive_buffering             = policy->adaptive;
+}
+
+void ffp_set_start_on_prepared(FFPlayer *ffp, int start_on_prepared)
+{
+    assert(ffp);
+    ffp->start_on_prepared = start_on_prepared;
+    // no longer held for a start, e.g. not next player anymore
+    if (start_on_prepared && ffp->is)
+        ffp->is->start_pending = 0;
+}
+
 int ffp_get_video_codec_info(FFPlayer *ffp, char **codec_info)
 {
     if (!codec_info)
@@ -3542,6 +4581,20 @@ int ffp_pause_l(FFPlayer *ffp)
     return 0;
 }
 
+int ffp_hold_for_start_l(FFPlayer *ffp)
+{
+    assert(ffp);
+    VideoState *is = ffp->is;
+    if (!is)
+        return EIJK_NULL_IS_PTR;
+
+    SDL_LockMutex(is->play_mutex);
+    toggle_pause_l(ffp, 1);
+    is->start_pending = 1;
+    SDL_UnlockMutex(is->play_mutex);
+    return 0;
+}
+
 int ffp_is_paused_l(FFPlayer *ffp)
 {
     assert(ffp);
@@ -3571,11 +4624,18 @@ int ffp_wait_stop_l(FFPlayer *ffp)
         ffp_stop_l(ffp);
         stream_close(ffp->is);
         ffp->is = NULL;
+        ffmembudget_update(ffp->membudget, 0, 0, 1);
+        ffpktpool_trim(ffp->pkt_pool);
     }
     return 0;
 }
 
 int ffp_seek_to_l(FFPlayer *ffp, long msec)
+{
+    return ffp_seek_to_mode_l(ffp, msec, FFP_SEEK_MODE_FAST);
+}
+
+int ffp_seek_to_mode_l(FFPlayer *ffp, long msec, int seek_mode)
 {
     assert(ffp);
     VideoState *is = ffp->is;
@@ -3590,8 +4650,8 @@ int ffp_seek_to_l(FFPlayer *ffp, long msec)
     // FIXME: 9 seek by bytes
     // FIXME: 9 seek out of range
     // FIXME: 9 seekable
-    ALOGE("stream_seek %"PRId64"(%d) + %"PRId64", \n", seek_pos, (int)msec, start_time);
-    stream_seek(is, seek_pos, 0, 0);
+    ALOGE("stream_seek %"PRId64"(%d) + %"PRId64", mode=%d\n", seek_pos, (int)msec, start_time, seek_mode);
+    stream_seek(is, seek_pos, 0, 0, seek_mode);
     return 0;
 }
 
@@ -3625,6 +4685,28 @@ long ffp_get_current_position_l(FFPlayer *ffp)
     return (long)adjust_pos;
 }
 
+void ffp_set_sync_clock_l(FFPlayer *ffp, long msec)
+{
+    assert(ffp);
+    VideoState *is = ffp->is;
+    if (!is || !is->ic)
+        return;
+
+    if (msec < 0) {
+        is->av_sync_type = ffp->av_sync_type;
+        return;
+    }
+
+    // same base as ffp_get_current_position_l()
+    int64_t start_time = is->ic->start_time;
+    int64_t start_diff = 0;
+    if (start_time > 0 && start_time != AV_NOPTS_VALUE)
+        start_diff = fftime_to_milliseconds(start_time);
+
+    set_clock(&is->extclk, (msec + start_diff) / 1000.0, is->extclk.serial);
+    is->av_sync_type = AV_SYNC_EXTERNAL_CLOCK;
+}
+
 long ffp_get_duration_l(FFPlayer *ffp)
 {
     assert(ffp);
@@ -3692,6 +4774,126 @@ int64_t ffp_get_abtm_l(FFPlayer *ffp)
     return ffp->ab_tm;
 }
 
+void ffp_set_stream_cache(FFPlayer *ffp, const char *dir, const char *key)
+{
+    assert(ffp);
+    av_freep(&ffp->stream_cache_dir);
+    av_freep(&ffp->stream_cache_key);
+    if (dir && *dir)
+        ffp->stream_cache_dir = av_strdup(dir);
+    if (key && *key)
+        ffp->stream_cache_key = av_strdup(key);
+}
+
+void ffp_set_timeshift(FFPlayer *ffp, int window_ms, int64_t max_bytes, const char *spill_dir)
+{
+    assert(ffp);
+    ffp->timeshift_window_ms = window_ms;
+    ffp->timeshift_max_bytes = max_bytes;
+    av_freep(&ffp->timeshift_spill_dir);
+    if (spill_dir && *spill_dir)
+        ffp->timeshift_spill_dir = av_strdup(spill_dir);
+}
+
+int ffp_timeshift_seek_l(FFPlayer *ffp, long behind_ms)
+{
+    assert(ffp);
+    VideoState *is = ffp->is;
+    if (!is)
+        return EIJK_NULL_IS_PTR;
+    if (!is->timeshift)
+        return EIJK_INVALID_STATE;
+
+    is->timeshift_seek_behind_us = milliseconds_to_fftime(behind_ms);
+    is->timeshift_seek_req       = 1;
+    SDL_CondSignal(is->continue_read_thread);
+    return 0;
+}
+
+void ffp_get_timeshift_l(FFPlayer *ffp, int64_t *window_ms, int64_t *behind_ms)
+{
+    assert(ffp);
+    VideoState *is       = ffp->is;
+    int64_t    oldest_us = FFP_TIMESHIFT_NOTIME;
+    int64_t    newest_us = FFP_TIMESHIFT_NOTIME;
+    double     clock;
+
+    *window_ms = 0;
+    *behind_ms = 0;
+    if (!is || !is->timeshift)
+        return;
+
+    fftimeshift_get_range(is->timeshift, &oldest_us, &newest_us);
+    if (oldest_us == FFP_TIMESHIFT_NOTIME)
+        return;
+
+    *window_ms = (newest_us - oldest_us) / 1000;
+    clock = get_master_clock(is);
+    if (!isnan(clock))
+        *behind_ms = FFMAX(newest_us - (int64_t)(clock * 1000000), 0) / 1000;
+}
+
+int ffp_get_statistics_l(FFPlayer *ffp, int64_t *stats, int count)
+{
+    assert(ffp);
+    int64_t values[FFP_STAT_COUNT];
+    VideoState *is = ffp->is;
+
+    memset(values, 0, sizeof(values));
+    values[FFP_STAT_CURRENT_POSITION]       = ffp_get_current_position_l(ffp);
+    values[FFP_STAT_DURATION]               = ffp_get_duration_l(ffp);
+    values[FFP_STAT_PLAYABLE_DURATION]      = ffp->playable_duration_ms;
+    values[FFP_STAT_DECODE_FPS_X100]        = ffp->vdec_fps.fps_x100;
+    values[FFP_STAT_RENDER_FPS_X100]        = ffp->vout_fps.fps_x100;
+    values[FFP_STAT_ABSOLUTE_TIMESTAMP]     = ffp->ab_tm;
+    values[FFP_STAT_MEMORY_LIMIT]           = -1;
+    if (is) {
+        values[FFP_STAT_AUDIO_CACHED_BYTES]     = is->audioq.size;
+        values[FFP_STAT_AUDIO_CACHED_PACKETS]   = is->audioq.nb_packets;
+        values[FFP_STAT_AUDIO_CACHED_DURATION]  = packet_queue_duration_ms(&is->audioq, is->audio_st);
+        values[FFP_STAT_VIDEO_CACHED_BYTES]     = is->videoq.size;
+        values[FFP_STAT_VIDEO_CACHED_PACKETS]   = is->videoq.nb_packets;
+        values[FFP_STAT_VIDEO_CACHED_DURATION]  = packet_queue_duration_ms(&is->videoq, is->video_st);
+        values[FFP_STAT_FRAME_DROPS_EARLY]      = is->frame_drops_early;
+        values[FFP_STAT_FRAME_DROPS_LATE]       = is->frame_drops_late;
+        values[FFP_STAT_BUFFERING]              = is->buffering_on;
+        values[FFP_STAT_FRAME_BYTES]            = frame_queue_bytes(&is->pictq);
+        if (is->membudget_packet_limit != INT64_MAX)
+            values[FFP_STAT_MEMORY_LIMIT]       = is->membudget_packet_limit;
+        values[FFP_STAT_DECODE_DEGRADE_LEVEL]   = decoder_degrade_level(is);
+        values[FFP_STAT_PICTQ_DEPTH]            = is->pictq.max_size;
+        if (is->ic)
+            values[FFP_STAT_BIT_RATE]           = is->ic->bit_rate;
+    }
+    values[FFP_STAT_BANDWIDTH_ESTIMATE]     = ffbandwidth_get_estimate(ffp->bandwidth);
+    values[FFP_STAT_MSG_QUEUE_DEPTH]        = ffp->msg_queue.nb_messages;
+    values[FFP_STAT_MSG_COALESCED]          = ffp->msg_queue.coalesced_count;
+    values[FFP_STAT_MSG_DROPPED]            = ffp->msg_queue.dropped_count;
+    ffpktpool_get_stats(ffp->pkt_pool, &values[FFP_STAT_PACKET_POOL_HITS], &values[FFP_STAT_PACKET_POOL_MISSES]);
+
+    if (count > FFP_STAT_COUNT)
+        count = FFP_STAT_COUNT;
+    if (count > 0)
+        memcpy(stats, values, count * sizeof(int64_t));
+    return count > 0 ? count : 0;
+}
+
+int ffp_get_pictq_histogram_l(FFPlayer *ffp, int type, int64_t *buckets, int count)
+{
+    VideoState    *is = ffp->is;
+    const int64_t *hist;
+
+    if (!is)
+        return 0;
+
+    hist = type == FFP_PICTQ_HISTOGRAM_OCCUPANCY ? is->pictq_occupancy_hist : is->pictq_depth_hist;
+    if (count > FFP_PICTQ_HISTOGRAM_SIZE)
+        count = FFP_PICTQ_HISTOGRAM_SIZE;
+    if (count > 0)
+        memcpy(buckets, hist, count * sizeof(int64_t));
+    return count > 0 ? count : 0;
+}
+
 void ffp_packet_queue_init(PacketQueue *q)
 {
     return packet_queue_init(q);
@@ -3774,6 +4976,90 @@ void ffp_toggle_buffering(FFPlayer *ffp, int start_buffering)
     SDL_UnlockMutex(ffp->is->play_mutex);
 }
 
+static int ffp_next_high_water_mark_l(FFPlayer *ffp, int hwm_in_ms)
+{
+    int64_t next_in_ms;
+    int64_t throughput_bps = 0;
+
+    if (ffp->adaptive_buffering)
+        throughput_bps = ffbandwidth_get_percentile(ffp->bandwidth, ADAPTIVE_BANDWIDTH_PERCENTILE);
+
+    if (throughput_bps > 0 && ffp->buffering_bitrate_bps > 0) {
+        int64_t ratio_percent = throughput_bps * 100 / ffp->buffering_bitrate_bps;
+        if (ratio_percent <= 100)
+            next_in_ms = ffp->max_high_water_mark_in_ms;
+        else
+            next_in_ms = (int64_t)ffp->start_high_water_mark_in_ms * 100 / (ratio_percent - 100);
+        next_in_ms = FFMAX(next_in_ms, ffp->start_high_water_mark_in_ms);
+    } else if (hwm_in_ms < ffp->next_high_water_mark_in_ms) {
+        next_in_ms = ffp->next_high_water_mark_in_ms;
+    } else {
+        next_in_ms = (int64_t)hwm_in_ms * ffp->high_water_mark_growth_percent / 100;
+    }
+
+    return (int)FFMIN(next_in_ms, ffp->max_high_water_mark_in_ms);
+}
+
+static void ffp_check_buffer_health_l(FFPlayer *ffp, int cached_duration_in_ms)
+{
+    VideoState *is            = ffp->is;
+    int64_t now               = SDL_GetTickHR();
+    int64_t bandwidth_bps     = 0;
+    int     ratio_percent     = -1;
+    int64_t stall_in_ms       = -1;
+
+    // a stall is only ahead while playing
+    if (is->buffering_on || is->paused || is->eof || cached_duration_in_ms < 0) {
+        is->health_tick            = 0;
+        is->buffer_low_notify_tick = 0;
+        return;
+    }
+
+    if (!is->health_tick) {
+        is->health_tick      = now;
+        is->health_cached_ms = cached_duration_in_ms;
+        is->health_slope     = 0;
+        return;
+    }
+
+    if (now - is->health_tick < BUFFER_HEALTH_MIN_SAMPLE_MILLISECONDS)
+        return;
+
+    double slope = (cached_duration_in_ms - is->health_cached_ms) * 1000.0 / (now - is->health_tick);
+    is->health_slope     += (slope - is->health_slope) * BUFFER_HEALTH_SLOPE_WEIGHT;
+    is->health_tick       = now;
+    is->health_cached_ms  = cached_duration_in_ms;
+
+    if (is->health_slope < 0)
+        stall_in_ms = (int64_t)(cached_duration_in_ms * 1000.0 / -is->health_slope);
+
+    // media ms arriving per ms, against ms played per ms
+    bandwidth_bps = ffbandwidth_get_estimate(ffp->bandwidth);
+    if (bandwidth_bps > 0 && ffp->buffering_bitrate_bps > 0) {
+        double ratio = (double)bandwidth_bps / ffp->buffering_bitrate_bps;
+        ratio_percent = (int)FFMIN(ratio * 100, INT_MAX);
+        double playback_rate = stream_get_playback_rate(is);
+        if (ratio < playback_rate) {
+            int64_t ratio_stall_in_ms = (int64_t)(cached_duration_in_ms / (playback_rate - ratio));
+            if (stall_in_ms < 0 || ratio_stall_in_ms < stall_in_ms)
+                stall_in_ms = ratio_stall_in_ms;
+        }
+    }
+
+    if (stall_in_ms < 0 || stall_in_ms > BUFFER_LOW_PREDICT_HORIZON_MILLISECONDS) {
+        is->buffer_low_notify_tick = 0;
+        return;
+    }
+
+    if (is->buffer_low_notify_tick && now - is->buffer_low_notify_tick < BUFFER_LOW_NOTIFY_PER_MILLISECONDS)
+        return;
+
+    is->buffer_low_notify_tick = now;
+    ALOGD("buffer low: stall in %"PRId64" ms, slope %.0f ms/s, throughput %d%%\n",
+          stall_in_ms, is->health_slope, ratio_percent);
+    ffp_notify_msg3(ffp, FFP_MSG_BUFFER_LOW_PREDICTED, (int)stall_in_ms, ratio_percent);
+}
+
 void ffp_check_buffering_l(FFPlayer *ffp)
 {
     VideoState *is            = ffp->is;
@@ -3785,13 +5071,13 @@ void ffp_check_buffering_l(FFPlayer *ffp)
     int audio_time_base_valid = is->audio_st && is->audio_st->time_base.den > 0 && is->audio_st->time_base.num > 0;
     int video_time_base_valid = is->video_st && is->video_st->time_base.den > 0 && is->video_st->time_base.num > 0;
     int64_t buf_time_position = -1;
+    int cached_duration_in_ms = -1;
     if (hwm_in_ms > 0) {
-        int     cached_duration_in_ms = -1;
         int64_t audio_cached_duration = -1;
         int64_t video_cached_duration = -1;
 
         if (is->audio_st && audio_time_base_valid) {
-            audio_cached_duration = is->audioq.duration * av_q2d(is->audio_st->time_base) * 1000;
+            audio_cached_duration = packet_queue_duration_ms(&is->audioq, is->audio_st);
 #ifdef FFP_SHOW_DEMUX_CACHE
             int audio_cached_percent = (int)av_rescale(audio_cached_duration, 1005, hwm_in_ms * 10);
             ALOGE("audio cache=%%%d (%d/%d) (%d/%d)\n", audio_cached_percent,
@@ -3801,7 +5087,7 @@ void ffp_check_buffering_l(FFPlayer *ffp)
         }
 
         if (is->video_st && video_time_base_valid) {
-            video_cached_duration = is->videoq.duration * av_q2d(is->video_st->time_base) * 1000;
+            video_cached_duration = packet_queue_duration_ms(&is->videoq, is->video_st);
 #ifdef FFP_SHOW_DEMUX_CACHE
             int video_cached_percent = (int)av_rescale(video_cached_duration, 1005, hwm_in_ms * 10);
             ALOGE("video cache=%%%d (%d/%d) (%d/%d)\n", video_cached_percent,
@@ -3838,6 +5124,12 @@ void ffp_check_buffering_l(FFPlayer *ffp)
     }
 
     int cached_size = is->audioq.size + is->videoq.size;
+    if (is->audioq_duration > 0 || is->videoq_duration > 0) {
+        int64_t cached_duration = FFMAX(is->audioq_duration, is->videoq_duration);
+        ffp->buffering_bitrate_bps = (int64_t)cached_size * 8 * 1000 / cached_duration;
+    }
+    ffp_check_buffer_health_l(ffp, cached_duration_in_ms);
+
     if (hwm_in_bytes > 0) {
         buf_size_percent = (int)av_rescale(cached_size, 1005, hwm_in_bytes * 10);
 #ifdef FFP_SHOW_DEMUX_CACHE
@@ -3871,20 +5163,12 @@ void ffp_check_buffering_l(FFPlayer *ffp)
     }
 
     if (need_start_buffering) {
-        if (hwm_in_ms < ffp->next_high_water_mark_in_ms) {
-            hwm_in_ms = ffp->next_high_water_mark_in_ms;
-        } else {
-            hwm_in_ms *= 2;
-        }
-
-        if (hwm_in_ms > ffp->max_high_water_mark_in_ms)
-            hwm_in_ms = ffp->max_high_water_mark_in_ms;
-
-        ffp->current_high_water_mark_in_ms = hwm_in_ms;
+        ffp->current_high_water_mark_in_ms = ffp_next_high_water_mark_l(ffp, hwm_in_ms);
 
         if (is->buffer_indicator_queue && is->buffer_indicator_queue->nb_packets > 0) {
-            if (   (is->audioq.nb_packets > 5 || is->audio_stream < 0 || is->audioq.abort_request)
-                && (is->videoq.nb_packets > 5 || is->video_stream < 0 || is->videoq.abort_request)) {
+            int min_packets = ffp->buffering_resume_min_packets;
+            if (   (is->audioq.nb_packets > min_packets || is->audio_stream < 0 || is->audioq.abort_request)
+                && (is->videoq.nb_packets > min_packets || is->video_stream < 0 || is->videoq.abort_request)) {
                 ffp_toggle_buffering(ffp, 0);
             }
         }
@@ -48,9 +48,14 @@ void      ffp_set_codec_option(FFPlayer *ffp, const char *name, const char *valu
 void      ffp_set_sws_option(FFPlayer *ffp, const char *name, const char *value);
 void      ffp_set_overlay_format(FFPlayer *ffp, int chroma_fourcc);
 void      ffp_set_picture_queue_capicity(FFPlayer *ffp, int frame_count);
+void      ffp_set_picture_queue_adaptive(FFPlayer *ffp, int max_frame_count);
+void      ffp_set_shared_refresh(FFPlayer *ffp, int shared);
+void      ffp_set_decode_degrade_floor(FFPlayer *ffp, int level);
 void      ffp_set_max_fps(FFPlayer *ffp, int max_fps);
 void      ffp_set_framedrop(FFPlayer *ffp, int framedrop);
 void      ffp_set_max_buffer_size(FFPlayer *ffp, int max_buffer_size);
+void      ffp_set_buffering_policy(FFPlayer *ffp, const FFBufferingPolicy *policy);
+void      ffp_set_start_on_prepared(FFPlayer *ffp, int start_on_prepared);
 int       ffp_get_video_codec_info(FFPlayer *ffp, char **codec_info);
 int       ffp_get_audio_codec_info(FFPlayer *ffp, char **codec_info);
 
@@ -59,13 +64,18 @@ int       ffp_prepare_async_l(FFPlayer *ffp, const char *file_name);
 int       ffp_start_from_l(FFPlayer *ffp, long msec);
 int       ffp_start_l(FFPlayer *ffp);
 int       ffp_pause_l(FFPlayer *ffp);
+// pause, but keep what is read like a player waiting for its first start
+int       ffp_hold_for_start_l(FFPlayer *ffp);
 int       ffp_is_paused_l(FFPlayer *ffp);
 int       ffp_stop_l(FFPlayer *ffp);
 int       ffp_wait_stop_l(FFPlayer *ffp);
 
 /* all in milliseconds */
 int       ffp_seek_to_l(FFPlayer *ffp, long msec);
+int       ffp_seek_to_mode_l(FFPlayer *ffp, long msec, int seek_mode);
 long      ffp_get_current_position_l(FFPlayer *ffp);
+// present by a clock set to msec now instead of own audio, < 0 to stop
+void      ffp_set_sync_clock_l(FFPlayer *ffp, long msec);
 long      ffp_get_duration_l(FFPlayer *ffp);
 long      ffp_get_playable_duration_l(FFPlayer *ffp);
 
@@ -74,6 +84,49 @@ int ffp_get_bitRate_l(FFPlayer *ffp);
 char* ffp_get_ipaddress_l(FFPlayer *ffp);
 int64_t ffp_get_abtm_l(FFPlayer *ffp);
 
+/* live time-shift, set before ffp_prepare_async_l(), window_ms <= 0 to disable */
+void      ffp_set_stream_cache(FFPlayer *ffp, const char *dir, const char *key);
+void      ffp_set_timeshift(FFPlayer *ffp, int window_ms, int64_t max_bytes, const char *spill_dir);
+int       ffp_timeshift_seek_l(FFPlayer *ffp, long behind_ms);
+void      ffp_get_timeshift_l(FFPlayer *ffp, int64_t *window_ms, int64_t *behind_ms);
+
+/* layout of the array filled by ffp_get_statistics_l() */
+#define FFP_STAT_CURRENT_POSITION       0   // ms
+#define FFP_STAT_DURATION               1   // ms
+#define FFP_STAT_PLAYABLE_DURATION      2   // ms
+#define FFP_STAT_AUDIO_CACHED_BYTES     3
+#define FFP_STAT_AUDIO_CACHED_PACKETS   4
+#define FFP_STAT_AUDIO_CACHED_DURATION  5   // ms
+#define FFP_STAT_VIDEO_CACHED_BYTES     6
+#define FFP_STAT_VIDEO_CACHED_PACKETS   7
+#define FFP_STAT_VIDEO_CACHED_DURATION  8   // ms
+#define FFP_STAT_FRAME_DROPS_EARLY      9
+#define FFP_STAT_FRAME_DROPS_LATE       10
+#define FFP_STAT_DECODE_FPS_X100        11
+#define FFP_STAT_RENDER_FPS_X100        12
+#define FFP_STAT_BIT_RATE               13  // kbit/s, measured on input
+#define FFP_STAT_BUFFERING              14  // 0 or 1
+#define FFP_STAT_ABSOLUTE_TIMESTAMP     15
+#define FFP_STAT_BANDWIDTH_ESTIMATE     16  // bit/s, measured while reading
+#define FFP_STAT_FRAME_BYTES            17  // held by decoded pictures
+#define FFP_STAT_MEMORY_LIMIT           18  // packet bytes allowed by memory budget, -1 if no limit
+#define FFP_STAT_DECODE_DEGRADE_LEVEL   19  // DECODE_DEGRADE_xxx, software decoder only, floor included
+#define FFP_STAT_PACKET_POOL_HITS       20  // packet payloads from a reused buffer
+#define FFP_STAT_PACKET_POOL_MISSES     21  // packet payloads from a new pooled buffer
+#define FFP_STAT_PICTQ_DEPTH            22  // frames picture queue holds at most now
+#define FFP_STAT_MSG_QUEUE_DEPTH        23  // messages not taken by application yet
+#define FFP_STAT_MSG_COALESCED          24  // updates overwritten by newer ones while queued
+#define FFP_STAT_MSG_DROPPED            25  // messages dropped when queue was full
+#define FFP_STAT_COUNT                  26
+
+/* fills at most count values, returns the number of values filled */
+int ffp_get_statistics_l(FFPlayer *ffp, int64_t *stats, int count);
+
+/* frames shown while picture queue held at most / had ready i frames, FFP_PICTQ_HISTOGRAM_SIZE buckets */
+#define FFP_PICTQ_HISTOGRAM_DEPTH       0
+#define FFP_PICTQ_HISTOGRAM_OCCUPANCY   1
+int ffp_get_pictq_histogram_l(FFPlayer *ffp, int type, int64_t *buckets, int count);
+
 /* for internal usage */
 void      ffp_packet_queue_init(PacketQueue *q);
 void      ffp_packet_queue_destroy(PacketQueue *q);
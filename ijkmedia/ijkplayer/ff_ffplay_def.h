@@ -29,6 +29,14 @@
 #include "ff_ffplay_config.h"
 #include "ff_ffmsg_queue.h"
 #include "ff_ffpipenode.h"
+#include "ff_ffbandwidth.h"
+#include "ff_fflatency.h"
+#include "ff_ffmembudget.h"
+#include "ff_ffpktpool.h"
+#include "ff_fftimeshift.h"
+#include "ff_ffstreamcache.h"
+#include "ff_ffscheduler.h"
+#include "ff_fftempo.h"
 #if CONFIG_AVFILTER
 # include "libavfilter/avcodec.h"
 # include "libavfilter/avfilter.h"
@@ -36,10 +44,6 @@
 # include "libavfilter/buffersrc.h"
 #endif
 
-// add by william
-#define REALTIME_DURATION_LWM 1000
-#define REALTIME_DURATION_HWM 4000
-
 #define DEFAULT_HIGH_WATER_MARK_IN_BYTES        (256 * 1024)
 
 /*
@@ -51,9 +55,72 @@
 #define DEFAULT_NEXT_HIGH_WATER_MARK_IN_MS      (1 * 1000)
 #define DEFAULT_MAX_HIGH_WATER_MARK_IN_MS       (5 * 1000)
 
+/*
+ * GROWTH:  hwm after NEXT is multiplied by GROWTH / 100 on each full buffer
+ * RESUME:  buffering ends only with more packets than this in each queue
+ */
+#define DEFAULT_HIGH_WATER_MARK_GROWTH_PERCENT  (200)
+#define DEFAULT_BUFFERING_RESUME_MIN_PACKETS    (5)
+
+/*
+ * ADAPTIVE: hwm = START / (throughput / bitrate - 1), in [START, MAX]
+ *           throughput is the lower quartile of recent bandwidth samples
+ */
+#define ADAPTIVE_BANDWIDTH_PERCENTILE           (25)
+
+#define BANDWIDTH_NOTIFY_PER_MILLISECONDS       (1000)
+
 #define BUFFERING_CHECK_PER_BYTES               (512)
 #define BUFFERING_CHECK_PER_MILLISECONDS        (500)
 
+/*
+ * stall is predicted when cached duration would run out within HORIZON,
+ * going by its smoothed slope, or by throughput / bitrate if below playback rate
+ */
+#define BUFFER_HEALTH_MIN_SAMPLE_MILLISECONDS   (400)
+#define BUFFER_HEALTH_SLOPE_WEIGHT              (0.3)
+#define BUFFER_LOW_PREDICT_HORIZON_MILLISECONDS (5000)
+#define BUFFER_LOW_NOTIFY_PER_MILLISECONDS      (1000)
+
+/*
+ * queues of low priority player are shrunk once above limit by SLACK
+ */
+#define MEMBUDGET_CHECK_PER_MILLISECONDS        (500)
+#define MEMBUDGET_SHRINK_SLACK_IN_BYTES         (256 * 1024)
+
+/*
+ * behind live, time-shift packets are queued while queue holds less than FEED_AHEAD
+ */
+#define TIMESHIFT_FEED_AHEAD_IN_MS              (1000)
+
+/*
+ * software video decoding steps up one level when DROP_PERCENT of frames were
+ * dropped since last check, and back one level after CALM checks without drops
+ */
+#define DECODE_DEGRADE_NONE                     (0)
+#define DECODE_DEGRADE_SKIP_LOOP_FILTER         (1)
+#define DECODE_DEGRADE_SKIP_NONREF              (2)
+#define DECODE_DEGRADE_SKIP_TO_KEYFRAME         (3)
+#define DECODE_DEGRADE_KEYFRAME_ONLY            (4)     // floor only, never reached by drops
+#define DECODE_DEGRADE_CHECK_PER_MILLISECONDS   (1000)
+#define DECODE_DEGRADE_UP_DROP_PERCENT          (10)
+#define DECODE_DEGRADE_DOWN_CALM_CHECKS         (5)
+
+/*
+ * adaptive picture queue covers gaps between decoded frames, estimated as
+ * mean + 3 stddev (at most the longest gap) over each window, gaps above
+ * MAX_GAP are stalls, not jitter. Grows at once, shrinks one frame after
+ * SHRINK_WINDOWS windows in a row asking less. Depth above
+ * VIDEO_PICTURE_QUEUE_SIZE_MIN is also limited so that overlays fit in
+ * MAX_BYTES, by actual overlay bytes; the minimum may take more, e.g. 4K
+ * in RV32.
+ */
+#define PICTQ_ADAPT_WINDOW_MILLISECONDS         (1000)
+#define PICTQ_ADAPT_MIN_SAMPLES                 (10)
+#define PICTQ_ADAPT_MAX_GAP_MILLISECONDS        (500)
+#define PICTQ_ADAPT_SHRINK_WINDOWS              (3)
+#define PICTQ_ADAPT_MAX_BYTES                   (48 * 1024 * 1024)
+
 #define MAX_QUEUE_SIZE (10 * 1024 * 1024)
 #define MIN_FRAMES 50000
 
@@ -75,6 +142,11 @@
 /* no AV correction is done if too big error */
 #define AV_NOSYNC_THRESHOLD 100.0
 
+/* seek modes, see ffp_seek_to_mode_l() */
+#define FFP_SEEK_MODE_FAST              0   /* nearest keyframe before target */
+#define FFP_SEEK_MODE_EXACT             1   /* decode from keyframe, output from target on */
+#define FFP_SEEK_MODE_NEAREST_CACHED    2   /* nearest keyframe in packet queues, no demuxer seek if found */
+
 /* maximum audio speed change to get correct sync */
 #define SAMPLE_CORRECTION_PERCENT_MAX 10
 
@@ -108,6 +180,7 @@ typedef struct MyAVPacketList {
 
 typedef struct PacketQueue {
     MyAVPacketList *first_pkt, *last_pkt;
+    /* changed under mutex with atomic ops, may be read without mutex */
     int nb_packets;
     int size;
     int64_t duration;
@@ -115,6 +188,7 @@ typedef struct PacketQueue {
     int serial;
     SDL_mutex *mutex;
     SDL_cond *cond;
+    int nb_waiters;     // consumer blocked in packet_queue_get(), only then cond is signaled
     MyAVPacketList *recycle_pkt;
     int recycle_count;
     int alloc_count;
@@ -129,6 +203,7 @@ typedef struct PacketQueue {
 #define SUBPICTURE_QUEUE_SIZE 16
 #define SAMPLE_QUEUE_SIZE 9
 #define FRAME_QUEUE_SIZE FFMAX(SAMPLE_QUEUE_SIZE, FFMAX(VIDEO_PICTURE_QUEUE_SIZE_MAX, SUBPICTURE_QUEUE_SIZE))
+#define FFP_PICTQ_HISTOGRAM_SIZE (FRAME_QUEUE_SIZE + 1)
 
 #define VIDEO_MAX_FPS_DEFAULT 30
 
@@ -160,6 +235,7 @@ typedef struct Frame {
     double duration;      /* estimated duration of the frame */
     int64_t pos;          /* byte position of the frame in the input file */
     SDL_VoutOverlay *bmp;
+    int bmp_bytes;        /* pixel memory held by bmp */
     int allocated;
     int reallocate;
     int width;
@@ -172,7 +248,9 @@ typedef struct FrameQueue {
     int rindex;
     int windex;
     int size;
-    int max_size;
+    int max_size;       // slots in round of reader
+    int shrink_size;    // slots in round of writer until reader wraps, 0 if not shrinking
+    int target_size;    // slots wanted, taken when writer wraps
     int keep_last;
     int rindex_shown;
     SDL_mutex *mutex;
@@ -204,8 +282,31 @@ typedef struct Decoder {
     AVRational next_pts_tb;
     SDL_Thread *decoder_tid;
     SDL_Thread _decoder_tid;
+
+    /* exact seek: frames of skip_serial ending before skip_until (AV_TIME_BASE) are dropped */
+    int64_t skip_until;
+    int skip_serial;
+
+    /* decode degradation: packets before next keyframe are dropped */
+    int skip_to_keyframe;
 } Decoder;
 
+inline static int ffp_decoder_skip_frame(Decoder *d, int64_t pts, AVRational tb, int64_t duration)
+{
+    if (d->skip_until == AV_NOPTS_VALUE || pts == AV_NOPTS_VALUE)
+        return 0;
+
+    if (d->pkt_serial != d->skip_serial)
+        return 0;
+
+    if (av_rescale_q(pts + duration, tb, AV_TIME_BASE_Q) <= d->skip_until)
+        return 1;
+
+    /* reached target */
+    d->skip_until = AV_NOPTS_VALUE;
+    return 0;
+}
+
 typedef struct VideoState {
     SDL_Thread *read_tid;
     SDL_Thread _read_tid;
@@ -219,6 +320,8 @@ typedef struct VideoState {
     int seek_flags;
     int64_t seek_pos;
     int64_t seek_rel;
+    int seek_mode;
+    int seek_req_serial;    // bumped by each request, only the latest target is sought
 #ifdef FFP_MERGE
     int read_pause_return;
 #endif
@@ -268,9 +371,35 @@ typedef struct VideoState {
 #endif
     struct AudioParams audio_tgt;
     struct SwrContext *swr_ctx;
+    FFTempo *audio_tempo;
+    int audio_tempo_serial;
+    double audio_buf_rate;          /* playback rate of samples in audio_buf */
+    int playback_rate_permille;     /* live catch-up, set by read_thread, access with stream_get/set_playback_rate() */
     int frame_drops_early;
     int frame_drops_late;
     int continuous_frame_drops_early;
+    int frames_decoded;
+
+    /* software decoder degradation ladder, see ffp_check_decode_degrade() */
+    int     degrade_level;
+    int64_t degrade_tick;
+    int     degrade_drops;          // frame drops at degrade_tick
+    int     degrade_frames;         // frames decoded at degrade_tick
+    int     degrade_calm_checks;
+    int     degrade_floor;          // ffp->decode_degrade_floor as applied by decoder
+    enum AVDiscard viddec_skip_loop_filter;  // as opened, restored on recovery
+    enum AVDiscard viddec_skip_frame;
+
+    /* adaptive picture queue, see ffp_check_pictq_depth() */
+    int64_t pictq_last_push_us;
+    int64_t pictq_window_us;
+    int     pictq_gap_count;
+    double  pictq_gap_sum;
+    double  pictq_gap_sq_sum;
+    double  pictq_gap_max;
+    int     pictq_calm_windows;
+    int64_t pictq_depth_hist[FFP_PICTQ_HISTOGRAM_SIZE];      // sampled on each display
+    int64_t pictq_occupancy_hist[FFP_PICTQ_HISTOGRAM_SIZE];
 
     enum ShowMode {
         SHOW_MODE_NONE = -1, SHOW_MODE_VIDEO = 0, SHOW_MODE_WAVES, SHOW_MODE_RDFT, SHOW_MODE_NB
@@ -329,15 +458,32 @@ typedef struct VideoState {
     SDL_mutex  *play_mutex; // only guard state, do not block any long operation
     SDL_Thread *video_refresh_tid;
     SDL_Thread _video_refresh_tid;
+    FFSchedulerTask *refresh_task;  // instead of video_refresh_tid if shared_refresh
 
     int buffering_on;
     int pause_req;
+    int start_pending;              /* held by start_on_prepared=0 or ffp_hold_for_start_l(), until first start */
 
     int dropping_frame;
     int is_video_high_fps; // above 30fps
     int is_video_high_res; // above 1080p
 
     PacketQueue *buffer_indicator_queue;
+
+    int64_t membudget_packet_limit; // bytes, INT64_MAX if no limit
+    int     refill_req;             // re-reading packets dropped by stream_shrink_queues()
+    int64_t refill_from_us;
+    int     refill_video_pending;
+    int     refill_audio_pending;
+
+    int64_t health_tick;            // ms of last sample, 0 if none
+    int     health_cached_ms;
+    double  health_slope;           // cached ms gained per second, smoothed
+    int64_t buffer_low_notify_tick; // ms of last FFP_MSG_BUFFER_LOW_PREDICTED, 0 if healthy
+
+    FFTimeShift *timeshift;         // realtime only, NULL if disabled
+    int     timeshift_seek_req;
+    int64_t timeshift_seek_behind_us;
 } VideoState;
 
 /* options specified by the user */
@@ -403,6 +549,52 @@ static SDL_Surface *screen;
  * near packet_queue_put
  ****************************************************************************/
 
+/* frames per second, sampled over windows of about one second */
+typedef struct FFFpsSampler {
+    int64_t begin_time;
+    int     count;
+    int     fps_x100;
+} FFFpsSampler;
+
+inline static void ffp_fps_sampler_reset(FFFpsSampler *sampler)
+{
+    sampler->begin_time = 0;
+    sampler->count      = 0;
+    sampler->fps_x100   = 0;
+}
+
+inline static void ffp_fps_sampler_tick(FFFpsSampler *sampler)
+{
+    int64_t now = av_gettime_relative();
+    int64_t elapsed;
+
+    if (!sampler->begin_time) {
+        sampler->begin_time = now;
+        sampler->count      = 0;
+        return;
+    }
+
+    sampler->count++;
+    elapsed = now - sampler->begin_time;
+    if (elapsed >= AV_TIME_BASE) {
+        sampler->fps_x100   = (int)av_rescale(sampler->count, AV_TIME_BASE * 100, elapsed);
+        sampler->begin_time = now;
+        sampler->count      = 0;
+    }
+}
+
+/* buffering policy, <= 0 for defaults */
+typedef struct FFBufferingPolicy {
+    int start_hwm_ms;
+    int next_hwm_ms;
+    int max_hwm_ms;
+    int hwm_bytes;              // used when cached duration is unknown
+    int max_buffer_bytes;       // reading pauses when queues are above
+    int growth_percent;         // of hwm after NEXT, 100 for no growth
+    int resume_min_packets;     // < 0 for default
+    int adaptive;               // hwm from throughput / bitrate instead of growth
+} FFBufferingPolicy;
+
 /* ffplayer */
 typedef struct IjkMediaMeta IjkMediaMeta;
 typedef struct IJKFF_Pipeline IJKFF_Pipeline;
@@ -499,6 +691,7 @@ typedef struct FFPlayer {
     int auto_resume;
     int error;
     int error_count;
+    int start_on_prepared;
 
     MessageQueue msg_queue;
 
@@ -509,10 +702,22 @@ typedef struct FFPlayer {
     int next_high_water_mark_in_ms;
     int max_high_water_mark_in_ms;
     int current_high_water_mark_in_ms;
+    int high_water_mark_growth_percent;
+    int buffering_resume_min_packets;
+
+    int adaptive_buffering;
+    FFBandwidthEstimator *bandwidth;    // kept by ffp_reset_internal()
+    FFMemBudgetClient *membudget;       // kept by ffp_reset_internal()
+    FFPacketPool      *pkt_pool;        // kept by ffp_reset_internal()
+    int in_background;
+    int64_t buffering_bitrate_bps;      // of cached packets, 0 if unknown
 
     int64_t playable_duration_ms;
 
     int pictq_size;
+    int pictq_adaptive_max;     // upper bound of adaptive depth, 0 for fixed pictq_size
+    int shared_refresh;         // refresh video on ffscheduler workers
+    int decode_degrade_floor;   // DECODE_DEGRADE_xxx kept at least, changed at runtime
     int max_fps;
 
     IjkMediaMeta *meta;
@@ -533,9 +738,23 @@ typedef struct FFPlayer {
     
     //add by William
     int data_cache;
+    // live latency controller, replaces data_cache if target_ms > 0
+    IJKFF_LatencyParams live_latency;
+
+    // live time-shift ring, disabled if window <= 0
+    int     timeshift_window_ms;
+    int64_t timeshift_max_bytes;
+    char   *timeshift_spill_dir;
+
+    // cached stream params to cut probing, disabled if no dir
+    char   *stream_cache_dir;
+    char   *stream_cache_key;
     
     //absolute timestamp
     int64_t ab_tm;
+
+    FFFpsSampler vdec_fps;
+    FFFpsSampler vout_fps;
 } FFPlayer;
 
 #define fftime_to_milliseconds(ts) (av_rescale(ts, 1000, AV_TIME_BASE));
@@ -552,6 +771,11 @@ inline static void ffp_reset_internal(FFPlayer *ffp)
 
     /* ffplay options specified by the user */
     av_freep(&ffp->input_filename);
+    av_freep(&ffp->timeshift_spill_dir);
+    av_freep(&ffp->stream_cache_dir);
+    av_freep(&ffp->stream_cache_key);
+    ffp->timeshift_window_ms    = 0;
+    ffp->timeshift_max_bytes    = 0;
     ffp->audio_disable          = 0;
     ffp->video_disable          = 0;
     memset(ffp->wanted_stream_spec, 0, sizeof(ffp->wanted_stream_spec));
@@ -605,6 +829,7 @@ inline static void ffp_reset_internal(FFPlayer *ffp)
     ffp->auto_resume            = 0;
     ffp->error                  = 0;
     ffp->error_count            = 0;
+    ffp->start_on_prepared      = 1;
 
     ffp->max_buffer_size                = MAX_QUEUE_SIZE;
     ffp->high_water_mark_in_bytes       = DEFAULT_HIGH_WATER_MARK_IN_BYTES;
@@ -613,12 +838,26 @@ inline static void ffp_reset_internal(FFPlayer *ffp)
     ffp->next_high_water_mark_in_ms     = DEFAULT_NEXT_HIGH_WATER_MARK_IN_MS;
     ffp->max_high_water_mark_in_ms      = DEFAULT_MAX_HIGH_WATER_MARK_IN_MS;
     ffp->current_high_water_mark_in_ms  = DEFAULT_START_HIGH_WATER_MARK_IN_MS;
+    ffp->high_water_mark_growth_percent = DEFAULT_HIGH_WATER_MARK_GROWTH_PERCENT;
+    ffp->buffering_resume_min_packets   = DEFAULT_BUFFERING_RESUME_MIN_PACKETS;
+
+    ffp->adaptive_buffering             = 0;
+    memset(&ffp->live_latency, 0, sizeof(ffp->live_latency));
+    ffp->live_latency.aggressiveness    = FFP_LIVE_LATENCY_AGGRESSIVENESS_DEFAULT;
+    ffp->buffering_bitrate_bps          = 0;
+    ffp->in_background                  = 0;
 
     ffp->playable_duration_ms           = 0;
 
     ffp->pictq_size                     = VIDEO_PICTURE_QUEUE_SIZE_DEFAULT;
+    ffp->pictq_adaptive_max             = 0;
+    ffp->shared_refresh                 = 0;
+    ffp->decode_degrade_floor           = DECODE_DEGRADE_NONE;
     ffp->max_fps                        = VIDEO_MAX_FPS_DEFAULT;
 
+    ffp_fps_sampler_reset(&ffp->vdec_fps);
+    ffp_fps_sampler_reset(&ffp->vout_fps);
+
     ffp->format_control_message = NULL;
     ffp->format_control_opaque  = NULL;
 
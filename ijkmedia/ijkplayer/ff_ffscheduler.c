@@ -0,0 +1,234 @@
+/*
+ * ff_ffscheduler.c
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+
+#include "ff_ffscheduler.h"
+#include <errno.h>
+#include <pthread.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <unistd.h>
+#include <sys/time.h>
+#include "ff_ffinc.h"
+
+struct FFSchedulerTask {
+    FFSchedulerTask *prev;
+    FFSchedulerTask *next;
+
+    FFSchedulerTaskFn fn;
+    void    *opaque;
+
+    int64_t  due_us;        // av_gettime_relative() based
+    uint64_t last_run;      // g_run_count when it last started
+    int      running;
+};
+
+static pthread_mutex_t  g_mutex     = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t   g_cond      = PTHREAD_COND_INITIALIZER;   // tasks changed
+static pthread_cond_t   g_done_cond = PTHREAD_COND_INITIALIZER;   // a task finished running
+static FFSchedulerTask *g_tasks      = NULL;
+static int              g_task_count = 0;
+static int              g_worker_count = 0;
+static int              g_max_workers  = 0;
+static uint64_t         g_run_count    = 0;
+
+static int max_workers_l(void)
+{
+    if (g_max_workers <= 0) {
+        long cpus = sysconf(_SC_NPROCESSORS_ONLN);
+        if (cpus < 1)
+            cpus = 1;
+        g_max_workers = cpus < FFP_SCHEDULER_MAX_WORKERS ? (int)cpus : FFP_SCHEDULER_MAX_WORKERS;
+    }
+    return g_max_workers;
+}
+
+static FFSchedulerTask *pick_task_l(void)
+{
+    FFSchedulerTask *task;
+    FFSchedulerTask *best = NULL;
+
+    for (task = g_tasks; task; task = task->next) {
+        if (task->running)
+            continue;
+        if (!best ||
+            task->due_us < best->due_us ||
+            (task->due_us == best->due_us && task->last_run < best->last_run))
+            best = task;
+    }
+    return best;
+}
+
+// return ETIMEDOUT if nobody signaled until due_us
+static int wait_until_l(int64_t due_us)
+{
+    struct timeval  now;
+    struct timespec abstime;
+    int64_t delay_us = due_us - av_gettime_relative();
+    int64_t abs_us;
+
+    if (delay_us <= 0)
+        return ETIMEDOUT;
+
+    gettimeofday(&now, NULL);
+    abs_us = (int64_t)now.tv_sec * 1000000 + now.tv_usec + delay_us;
+    abstime.tv_sec  = (time_t)(abs_us / 1000000);
+    abstime.tv_nsec = (long)(abs_us % 1000000) * 1000;
+    return pthread_cond_timedwait(&g_cond, &g_mutex, &abstime);
+}
+
+static void *worker_thread(void *arg)
+{
+    FFSchedulerTask *task;
+    double delay;
+    int generation;
+    int role_generation = 0;
+    int role_applied    = 0;
+
+    pthread_mutex_lock(&g_mutex);
+    for (;;) {
+        task = pick_task_l();
+        if (!task) {
+            if (wait_until_l(av_gettime_relative() + FFP_SCHEDULER_IDLE_MS * 1000) == ETIMEDOUT &&
+                g_worker_count > g_task_count)
+                break;
+            continue;
+        }
+        if (task->due_us > av_gettime_relative()) {
+            wait_until_l(task->due_us);
+            continue;
+        }
+
+        task->running  = 1;
+        task->last_run = ++g_run_count;
+        pthread_mutex_unlock(&g_mutex);
+
+        // worker outlives setThreadRole(), pick up a changed render role
+        generation = SDL_GetThreadRoleGeneration();
+        if (!role_applied) {
+            role_applied    = 1;
+            role_generation = generation;
+            SDL_ApplyThreadRole(SDL_THREAD_ROLE_RENDER);
+        } else if (generation != role_generation) {
+            role_generation = generation;
+            SDL_ReapplyThreadRole(SDL_THREAD_ROLE_RENDER);
+        }
+
+        delay = task->fn(task->opaque);
+
+        pthread_mutex_lock(&g_mutex);
+        task->running = 0;
+        task->due_us  = av_gettime_relative() + (int64_t)(delay > 0 ? delay * 1000000 : 0);
+        pthread_cond_broadcast(&g_done_cond);
+        // another worker may sleep until a later task
+        pthread_cond_signal(&g_cond);
+    }
+    g_worker_count--;
+    ALOGI("ffscheduler: %d worker(s) for %d task(s)\n", g_worker_count, g_task_count);
+    pthread_mutex_unlock(&g_mutex);
+    return NULL;
+}
+
+static void start_worker_l(void)
+{
+    pthread_t tid;
+
+    if (g_worker_count >= g_task_count || g_worker_count >= max_workers_l())
+        return;
+
+    if (pthread_create(&tid, NULL, worker_thread, NULL)) {
+        ALOGE("ffscheduler: pthread_create() failed\n");
+        return;
+    }
+    pthread_detach(tid);
+    g_worker_count++;
+    ALOGI("ffscheduler: %d worker(s) for %d task(s)\n", g_worker_count, g_task_count);
+}
+
+FFSchedulerTask *ffscheduler_register(FFSchedulerTaskFn fn, void *opaque)
+{
+    FFSchedulerTask *task = (FFSchedulerTask*) calloc(1, sizeof(FFSchedulerTask));
+    if (!task)
+        return NULL;
+
+    task->fn     = fn;
+    task->opaque = opaque;
+
+    pthread_mutex_lock(&g_mutex);
+    task->due_us   = av_gettime_relative();
+    task->last_run = g_run_count;
+    task->next = g_tasks;
+    if (g_tasks)
+        g_tasks->prev = task;
+    g_tasks = task;
+    g_task_count++;
+
+    start_worker_l();
+    if (g_worker_count == 0) {
+        // no worker could be started, let caller fall back to its own thread
+        g_tasks = task->next;
+        if (g_tasks)
+            g_tasks->prev = NULL;
+        g_task_count--;
+        pthread_mutex_unlock(&g_mutex);
+        free(task);
+        return NULL;
+    }
+    pthread_cond_signal(&g_cond);
+    pthread_mutex_unlock(&g_mutex);
+    return task;
+}
+
+void ffscheduler_unregister_p(FFSchedulerTask **ptask)
+{
+    FFSchedulerTask *task;
+
+    if (!ptask || !*ptask)
+        return;
+
+    task = *ptask;
+    pthread_mutex_lock(&g_mutex);
+    while (task->running)
+        pthread_cond_wait(&g_done_cond, &g_mutex);
+
+    if (task->prev)
+        task->prev->next = task->next;
+    else
+        g_tasks = task->next;
+    if (task->next)
+        task->next->prev = task->prev;
+    g_task_count--;
+    pthread_mutex_unlock(&g_mutex);
+
+    free(task);
+    *ptask = NULL;
+}
+
+int ffscheduler_get_worker_count(void)
+{
+    int count;
+
+    pthread_mutex_lock(&g_mutex);
+    count = g_worker_count;
+    pthread_mutex_unlock(&g_mutex);
+    return count;
+}
@@ -0,0 +1,59 @@
+/*
+ * ff_ffscheduler.h
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+
+#ifndef FFPLAY__FF_FFSCHEDULER_H
+#define FFPLAY__FF_FFSCHEDULER_H
+
+/*
+ * Process-wide pool of workers running short periodic tasks of all
+ * players, instead of one thread per player. Only the video refresh loop
+ * runs here: demuxing, decoding and audio output block in ffmpeg,
+ * MediaCodec or the audio device for unbounded time and keep their own
+ * threads. A task must never block either, or it stalls the players
+ * behind it.
+ *
+ * A task runs when it is due and returns seconds until it is due again.
+ * Workers pick the earliest due task, the one run least recently on ties,
+ * so a slow task delays others but never starves them. Workers are
+ * started on demand, one per online cpu up to FFP_SCHEDULER_MAX_WORKERS,
+ * and never more than tasks registered. A worker exits once it has found
+ * nothing to run for FFP_SCHEDULER_IDLE_MS while workers outnumber tasks.
+ * Workers run in the render thread role, applied again before the next
+ * task whenever a role config changed.
+ */
+
+#define FFP_SCHEDULER_MAX_WORKERS   4
+#define FFP_SCHEDULER_IDLE_MS       5000
+
+typedef struct FFSchedulerTask FFSchedulerTask;
+
+// returns seconds until next run
+typedef double (*FFSchedulerTaskFn)(void *opaque);
+
+FFSchedulerTask *ffscheduler_register(FFSchedulerTaskFn fn, void *opaque);
+// blocks until task is not running, must not be called by the task itself
+void    ffscheduler_unregister_p(FFSchedulerTask **task);
+
+int     ffscheduler_get_worker_count(void);
+
+#endif
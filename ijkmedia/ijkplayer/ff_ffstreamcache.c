@@ -0,0 +1,300 @@
+/*
+ * ff_ffstreamcache.c
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ff_ffstreamcache.h"
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include "ff_ffinc.h"
+#include "libavutil/md5.h"
+
+#define STREAMCACHE_MAGIC       "IJKSPC01"
+#define STREAMCACHE_MAX_EXTRADATA (64 * 1024)
+
+// as stored, host byte order, cache is never shared between devices
+typedef struct StreamRecord {
+    int32_t  codec_type;
+    int32_t  codec_id;
+    uint32_t codec_tag;
+    int32_t  width;
+    int32_t  height;
+    int32_t  pix_fmt;
+    int32_t  sample_rate;
+    int32_t  channels;
+    int32_t  sample_fmt;
+    int32_t  frame_size;
+    uint64_t channel_layout;
+    int32_t  avg_frame_rate_num;
+    int32_t  avg_frame_rate_den;
+    int32_t  r_frame_rate_num;
+    int32_t  r_frame_rate_den;
+    int32_t  extradata_size;
+} StreamRecord;
+
+typedef struct CachedStream {
+    StreamRecord record;
+    uint8_t     *extradata;
+} CachedStream;
+
+struct FFStreamCache {
+    char         format_name[32];
+    int          nb_streams;
+    CachedStream streams[FFP_STREAMCACHE_MAX_STREAMS];
+};
+
+static int is_cached_type(enum AVMediaType type)
+{
+    return type == AVMEDIA_TYPE_VIDEO || type == AVMEDIA_TYPE_AUDIO;
+}
+
+static char *make_path(const char *dir, const char *key)
+{
+    uint8_t digest[16];
+    char    hex[33];
+    int     i;
+
+    av_md5_sum(digest, (const uint8_t *)key, strlen(key));
+    for (i = 0; i < 16; ++i)
+        snprintf(hex + i * 2, 3, "%02x", digest[i]);
+    return av_asprintf("%s/%s.spc", dir, hex);
+}
+
+FFStreamCache *ffstreamcache_load(const char *dir, const char *key)
+{
+    FFStreamCache *sc   = NULL;
+    FILE          *fp   = NULL;
+    char          *path = NULL;
+    char           magic[8];
+    int32_t        nb_streams;
+    int            i;
+
+    if (!dir || !*dir || !key || !*key)
+        return NULL;
+
+    path = make_path(dir, key);
+    if (!path)
+        return NULL;
+
+    fp = fopen(path, "rb");
+    av_free(path);
+    if (!fp)
+        return NULL;
+
+    sc = (FFStreamCache *)av_mallocz(sizeof(FFStreamCache));
+    if (!sc)
+        goto fail;
+
+    if (fread(magic, sizeof(magic), 1, fp) != 1 || memcmp(magic, STREAMCACHE_MAGIC, sizeof(magic)))
+        goto fail;
+    if (fread(sc->format_name, sizeof(sc->format_name), 1, fp) != 1)
+        goto fail;
+    sc->format_name[sizeof(sc->format_name) - 1] = 0;
+    if (fread(&nb_streams, sizeof(nb_streams), 1, fp) != 1 ||
+        nb_streams <= 0 || nb_streams > FFP_STREAMCACHE_MAX_STREAMS)
+        goto fail;
+
+    for (i = 0; i < nb_streams; ++i) {
+        CachedStream *cs = &sc->streams[i];
+        if (fread(&cs->record, sizeof(cs->record), 1, fp) != 1)
+            goto fail;
+        sc->nb_streams = i + 1;
+
+        if (cs->record.extradata_size < 0 || cs->record.extradata_size > STREAMCACHE_MAX_EXTRADATA)
+            goto fail;
+        if (cs->record.extradata_size > 0) {
+            cs->extradata = av_mallocz(cs->record.extradata_size + FF_INPUT_BUFFER_PADDING_SIZE);
+            if (!cs->extradata || fread(cs->extradata, cs->record.extradata_size, 1, fp) != 1)
+                goto fail;
+        }
+    }
+
+    fclose(fp);
+    return sc;
+fail:
+    fclose(fp);
+    ffstreamcache_free_p(&sc);
+    return NULL;
+}
+
+void ffstreamcache_free_p(FFStreamCache **sc)
+{
+    int i;
+
+    if (!sc || !*sc)
+        return;
+
+    for (i = 0; i < (*sc)->nb_streams; ++i)
+        av_freep(&(*sc)->streams[i].extradata);
+    av_freep(sc);
+}
+
+static int fill_stream(CachedStream *cs, AVStream *st)
+{
+    AVCodecContext *avctx  = st->codec;
+    StreamRecord   *record = &cs->record;
+
+    if (avctx->codec_id != record->codec_id)
+        return -1;
+
+    if (!avctx->extradata && cs->extradata) {
+        avctx->extradata = av_mallocz(record->extradata_size + FF_INPUT_BUFFER_PADDING_SIZE);
+        if (!avctx->extradata)
+            return -1;
+        memcpy(avctx->extradata, cs->extradata, record->extradata_size);
+        avctx->extradata_size = record->extradata_size;
+    }
+    if (!avctx->codec_tag)
+        avctx->codec_tag = record->codec_tag;
+
+    if (avctx->codec_type == AVMEDIA_TYPE_VIDEO) {
+        if (avctx->width <= 0 || avctx->height <= 0) {
+            avctx->width  = record->width;
+            avctx->height = record->height;
+        }
+        if (avctx->pix_fmt == AV_PIX_FMT_NONE)
+            avctx->pix_fmt = record->pix_fmt;
+        if (!st->avg_frame_rate.num && record->avg_frame_rate_den)
+            st->avg_frame_rate = av_make_q(record->avg_frame_rate_num, record->avg_frame_rate_den);
+        if (!st->r_frame_rate.num && record->r_frame_rate_den)
+            st->r_frame_rate = av_make_q(record->r_frame_rate_num, record->r_frame_rate_den);
+        return avctx->width > 0 && avctx->height > 0 ? 0 : -1;
+    } else {
+        if (avctx->sample_rate <= 0 || avctx->channels <= 0) {
+            avctx->sample_rate    = record->sample_rate;
+            avctx->channels       = record->channels;
+            avctx->channel_layout = record->channel_layout;
+        }
+        if (avctx->sample_fmt == AV_SAMPLE_FMT_NONE)
+            avctx->sample_fmt = record->sample_fmt;
+        if (!avctx->frame_size)
+            avctx->frame_size = record->frame_size;
+        return avctx->sample_rate > 0 && avctx->channels > 0 ? 0 : -1;
+    }
+}
+
+int ffstreamcache_apply(FFStreamCache *sc, AVFormatContext *ic)
+{
+    int cached = 0;
+    int i;
+
+    if (!sc || !ic->iformat || strcmp(sc->format_name, ic->iformat->name))
+        return -1;
+
+    // n-th stream of a type matches n-th cached one of the type
+    for (i = 0; i < ic->nb_streams; ++i) {
+        AVStream *st   = ic->streams[i];
+        int       type = st->codec->codec_type;
+
+        if (!is_cached_type(type))
+            continue;
+        if (cached >= sc->nb_streams || sc->streams[cached].record.codec_type != type)
+            return -1;
+        if (fill_stream(&sc->streams[cached], st) < 0)
+            return -1;
+        cached++;
+    }
+
+    return cached == sc->nb_streams ? 0 : -1;
+}
+
+int ffstreamcache_save(const char *dir, const char *key, AVFormatContext *ic)
+{
+    FILE   *fp       = NULL;
+    char   *path     = NULL;
+    char   *tmp_path = NULL;
+    char    format_name[32];
+    int32_t nb_streams = 0;
+    int     ret = -1;
+    int     i;
+
+    if (!dir || !*dir || !key || !*key || !ic->iformat)
+        return -1;
+
+    for (i = 0; i < ic->nb_streams; ++i) {
+        if (is_cached_type(ic->streams[i]->codec->codec_type))
+            nb_streams++;
+    }
+    if (nb_streams <= 0 || nb_streams > FFP_STREAMCACHE_MAX_STREAMS)
+        return -1;
+
+    path     = make_path(dir, key);
+    tmp_path = path ? av_asprintf("%s.tmp", path) : NULL;
+    if (!tmp_path)
+        goto end;
+
+    // readers never see a partial file
+    fp = fopen(tmp_path, "wb");
+    if (!fp)
+        goto end;
+
+    memset(format_name, 0, sizeof(format_name));
+    av_strlcpy(format_name, ic->iformat->name, sizeof(format_name));
+    if (fwrite(STREAMCACHE_MAGIC, 8, 1, fp) != 1 ||
+        fwrite(format_name, sizeof(format_name), 1, fp) != 1 ||
+        fwrite(&nb_streams, sizeof(nb_streams), 1, fp) != 1)
+        goto end;
+
+    for (i = 0; i < ic->nb_streams; ++i) {
+        AVStream       *st    = ic->streams[i];
+        AVCodecContext *avctx = st->codec;
+        StreamRecord    record;
+
+        if (!is_cached_type(avctx->codec_type))
+            continue;
+
+        memset(&record, 0, sizeof(record));
+        record.codec_type         = avctx->codec_type;
+        record.codec_id           = avctx->codec_id;
+        record.codec_tag          = avctx->codec_tag;
+        record.width              = avctx->width;
+        record.height             = avctx->height;
+        record.pix_fmt            = avctx->pix_fmt;
+        record.sample_rate        = avctx->sample_rate;
+        record.channels           = avctx->channels;
+        record.sample_fmt         = avctx->sample_fmt;
+        record.frame_size         = avctx->frame_size;
+        record.channel_layout     = avctx->channel_layout;
+        record.avg_frame_rate_num = st->avg_frame_rate.num;
+        record.avg_frame_rate_den = st->avg_frame_rate.den;
+        record.r_frame_rate_num   = st->r_frame_rate.num;
+        record.r_frame_rate_den   = st->r_frame_rate.den;
+        if (avctx->extradata && avctx->extradata_size <= STREAMCACHE_MAX_EXTRADATA)
+            record.extradata_size = avctx->extradata_size;
+
+        if (fwrite(&record, sizeof(record), 1, fp) != 1)
+            goto end;
+        if (record.extradata_size > 0 && fwrite(avctx->extradata, record.extradata_size, 1, fp) != 1)
+            goto end;
+    }
+
+    if (fclose(fp) == 0 && rename(tmp_path, path) == 0)
+        ret = 0;
+    fp = NULL;
+end:
+    if (fp)
+        fclose(fp);
+    if (ret < 0 && tmp_path)
+        remove(tmp_path);
+    av_free(tmp_path);
+    av_free(path);
+    return ret;
+}
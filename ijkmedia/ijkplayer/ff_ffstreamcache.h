@@ -0,0 +1,55 @@
+/*
+ * ff_ffstreamcache.h
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef FFPLAY__FF_FFSTREAMCACHE_H
+#define FFPLAY__FF_FFSTREAMCACHE_H
+
+#include <stdint.h>
+
+struct AVFormatContext;
+
+/*
+ * Codec parameters of audio and video streams of a source, one file per key
+ * under a cache directory, to open the same source again with a minimal
+ * probe.
+ *
+ * With a cached entry, probing is cut to FFP_STREAMCACHE_PROBESIZE and
+ * FFP_STREAMCACHE_ANALYZE_DURATION, then parameters not found yet are
+ * filled from the entry. If streams do not match the entry, the caller
+ * probes again with its own limits.
+ */
+
+#define FFP_STREAMCACHE_PROBESIZE           (32 * 1024)
+#define FFP_STREAMCACHE_ANALYZE_DURATION    (200 * 1000)    // AV_TIME_BASE
+#define FFP_STREAMCACHE_MAX_STREAMS         (8)
+
+typedef struct FFStreamCache FFStreamCache;
+
+// NULL if no entry, or it is unreadable
+FFStreamCache *ffstreamcache_load(const char *dir, const char *key);
+void ffstreamcache_free_p(FFStreamCache **sc);
+
+// 0 if every cached stream is found with the same codec, and complete once filled
+int  ffstreamcache_apply(FFStreamCache *sc, struct AVFormatContext *ic);
+int  ffstreamcache_save(const char *dir, const char *key, struct AVFormatContext *ic);
+
+#endif
@@ -0,0 +1,300 @@
+/*
+ * ff_fftempo.c
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ff_fftempo.h"
+#include <math.h>
+#include <stdlib.h>
+#include <string.h>
+
+#define FFTEMPO_SEQUENCE_MS     40
+#define FFTEMPO_OVERLAP_MS      8
+#define FFTEMPO_SEEK_MS         15
+#define FFTEMPO_SEEK_COARSE     4   // frames per step of coarse seek
+
+#define FFTEMPO_RATE_MIN        0.5
+#define FFTEMPO_RATE_MAX        2.0
+
+struct FFTempo {
+    int      channels;
+    int      sequence;      // frames output per step, including overlap
+    int      overlap;
+    int      seek;
+
+    int16_t *in_buf;
+    int      in_frames;
+    int      in_capacity;
+
+    int16_t *out_buf;
+    int      out_capacity;
+
+    int16_t *mid_buf;       // tail of last sequence, overlap frames
+    int      active;
+    double   skip_fract;
+};
+
+static int ensure_capacity(int16_t **buf, int *capacity, int frames, int channels)
+{
+    if (frames <= *capacity)
+        return 0;
+
+    int new_capacity = *capacity ? *capacity : 1024;
+    while (new_capacity < frames)
+        new_capacity *= 2;
+
+    int16_t *new_buf = realloc(*buf, (size_t)new_capacity * channels * sizeof(int16_t));
+    if (!new_buf)
+        return -1;
+
+    *buf      = new_buf;
+    *capacity = new_capacity;
+    return 0;
+}
+
+FFTempo *fftempo_create(int sample_rate, int channels)
+{
+    if (sample_rate <= 0 || channels <= 0)
+        return NULL;
+
+    FFTempo *tempo = (FFTempo *)calloc(1, sizeof(FFTempo));
+    if (!tempo)
+        return NULL;
+
+    tempo->channels = channels;
+    tempo->sequence = sample_rate * FFTEMPO_SEQUENCE_MS / 1000;
+    tempo->overlap  = sample_rate * FFTEMPO_OVERLAP_MS / 1000;
+    tempo->seek     = sample_rate * FFTEMPO_SEEK_MS / 1000;
+    if (tempo->overlap < 1)
+        tempo->overlap = 1;
+    if (tempo->sequence < 2 * tempo->overlap)
+        tempo->sequence = 2 * tempo->overlap;
+    if (tempo->seek < 1)
+        tempo->seek = 1;
+
+    tempo->mid_buf = (int16_t *)calloc((size_t)tempo->overlap * channels, sizeof(int16_t));
+    if (!tempo->mid_buf) {
+        free(tempo);
+        return NULL;
+    }
+
+    return tempo;
+}
+
+void fftempo_free_p(FFTempo **tempo)
+{
+    if (!tempo || !*tempo)
+        return;
+
+    free((*tempo)->in_buf);
+    free((*tempo)->out_buf);
+    free((*tempo)->mid_buf);
+    free(*tempo);
+    *tempo = NULL;
+}
+
+void fftempo_reset(FFTempo *tempo)
+{
+    if (!tempo)
+        return;
+
+    tempo->in_frames  = 0;
+    tempo->active     = 0;
+    tempo->skip_fract = 0;
+}
+
+int fftempo_get_pending_frames(FFTempo *tempo)
+{
+    return tempo ? tempo->in_frames : 0;
+}
+
+int fftempo_is_active(FFTempo *tempo)
+{
+    return tempo ? tempo->active : 0;
+}
+
+static double correlate(FFTempo *tempo, const int16_t *ref, const int16_t *in)
+{
+    int     n    = tempo->overlap * tempo->channels;
+    int64_t corr = 0;
+    int64_t norm = 0;
+    int     i;
+
+    for (i = 0; i < n; i++) {
+        corr += (int32_t)ref[i] * in[i];
+        norm += (int32_t)in[i] * in[i];
+    }
+    return norm > 0 ? corr / sqrt((double)norm) : 0;
+}
+
+// offset in in_buf which continues mid_buf best
+static int seek_best_offset(FFTempo *tempo)
+{
+    const int16_t *in = tempo->in_buf;
+    int    channels   = tempo->channels;
+    int    best       = 0;
+    double best_corr  = -INFINITY;
+    int    i;
+
+    for (i = 0; i < tempo->seek; i += FFTEMPO_SEEK_COARSE) {
+        double corr = correlate(tempo, tempo->mid_buf, in + i * channels);
+        if (corr > best_corr) {
+            best_corr = corr;
+            best      = i;
+        }
+    }
+
+    int coarse = best;
+    int begin  = coarse - FFTEMPO_SEEK_COARSE + 1;
+    int end    = coarse + FFTEMPO_SEEK_COARSE - 1;
+    if (begin < 0)
+        begin = 0;
+    if (end > tempo->seek - 1)
+        end = tempo->seek - 1;
+    for (i = begin; i <= end; i++) {
+        if (i == coarse)
+            continue;
+        double corr = correlate(tempo, tempo->mid_buf, in + i * channels);
+        if (corr > best_corr) {
+            best_corr = corr;
+            best      = i;
+        }
+    }
+
+    return best;
+}
+
+// linear crossfade from mid_buf to in, overlap frames
+static void cross_fade(FFTempo *tempo, int16_t *out, const int16_t *in)
+{
+    int channels = tempo->channels;
+    int overlap  = tempo->overlap;
+    int i, c;
+
+    for (i = 0; i < overlap; i++) {
+        for (c = 0; c < channels; c++) {
+            int idx = i * channels + c;
+            out[idx] = (int16_t)((tempo->mid_buf[idx] * (overlap - i) + in[idx] * i) / overlap);
+        }
+    }
+}
+
+static void consume_input(FFTempo *tempo, int frames)
+{
+    if (frames > tempo->in_frames)
+        frames = tempo->in_frames;
+
+    tempo->in_frames -= frames;
+    memmove(tempo->in_buf, tempo->in_buf + frames * tempo->channels,
+            (size_t)tempo->in_frames * tempo->channels * sizeof(int16_t));
+}
+
+const int16_t *fftempo_process(FFTempo *tempo, double rate, const int16_t *in, int nb_frames, int *out_frames)
+{
+    int channels = tempo->channels;
+    int overlap  = tempo->overlap;
+    int sequence = tempo->sequence;
+    int out_n    = 0;
+
+    *out_frames = 0;
+    if (rate < FFTEMPO_RATE_MIN)
+        rate = FFTEMPO_RATE_MIN;
+    if (rate > FFTEMPO_RATE_MAX)
+        rate = FFTEMPO_RATE_MAX;
+
+    if (!tempo->active && rate == 1.0 && tempo->in_frames == 0) {
+        *out_frames = nb_frames;
+        return in;
+    }
+
+    if (nb_frames > 0) {
+        if (ensure_capacity(&tempo->in_buf, &tempo->in_capacity, tempo->in_frames + nb_frames, channels) < 0)
+            return NULL;
+        memcpy(tempo->in_buf + tempo->in_frames * channels, in, (size_t)nb_frames * channels * sizeof(int16_t));
+        tempo->in_frames += nb_frames;
+    }
+
+    // worst case: every step outputs a whole sequence, plus passthrough of the rest
+    int max_out = tempo->in_frames + (tempo->in_frames / (sequence - overlap) + 2) * sequence;
+    if (ensure_capacity(&tempo->out_buf, &tempo->out_capacity, max_out, channels) < 0)
+        return NULL;
+
+    if (!tempo->active) {
+        if (rate == 1.0) {
+            // nothing stretched yet, flush held input as is
+            memcpy(tempo->out_buf, tempo->in_buf, (size_t)tempo->in_frames * channels * sizeof(int16_t));
+            *out_frames = tempo->in_frames;
+            tempo->in_frames = 0;
+            return tempo->out_buf;
+        }
+        if (tempo->in_frames < overlap)
+            return tempo->out_buf;
+
+        // the first overlap frames become the tail to continue from
+        memcpy(tempo->mid_buf, tempo->in_buf, (size_t)overlap * channels * sizeof(int16_t));
+        consume_input(tempo, overlap);
+        tempo->active     = 1;
+        tempo->skip_fract = 0;
+    }
+
+    while (tempo->active) {
+        if (rate == 1.0) {
+            // back to normal: fade into best match, then pass the rest through
+            if (tempo->in_frames < tempo->seek + overlap)
+                break;
+
+            int offset = seek_best_offset(tempo);
+            int16_t *in_ptr = tempo->in_buf + offset * channels;
+            cross_fade(tempo, tempo->out_buf + out_n * channels, in_ptr);
+            out_n += overlap;
+
+            int rest = tempo->in_frames - offset - overlap;
+            memcpy(tempo->out_buf + out_n * channels, in_ptr + overlap * channels, (size_t)rest * channels * sizeof(int16_t));
+            out_n += rest;
+
+            tempo->in_frames = 0;
+            tempo->active    = 0;
+            break;
+        }
+
+        if (tempo->in_frames < tempo->seek + sequence)
+            break;
+
+        int offset = seek_best_offset(tempo);
+        int16_t *in_ptr = tempo->in_buf + offset * channels;
+
+        cross_fade(tempo, tempo->out_buf + out_n * channels, in_ptr);
+        out_n += overlap;
+
+        int body = sequence - 2 * overlap;
+        memcpy(tempo->out_buf + out_n * channels, in_ptr + overlap * channels, (size_t)body * channels * sizeof(int16_t));
+        out_n += body;
+
+        memcpy(tempo->mid_buf, in_ptr + (sequence - overlap) * channels, (size_t)overlap * channels * sizeof(int16_t));
+
+        double skip = (sequence - overlap) * rate + tempo->skip_fract;
+        int    iskip = (int)skip;
+        tempo->skip_fract = skip - iskip;
+        consume_input(tempo, iskip);
+    }
+
+    *out_frames = out_n;
+    return tempo->out_buf;
+}
@@ -0,0 +1,51 @@
+/*
+ * ff_fftempo.h
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef FFPLAY__FF_FFTEMPO_H
+#define FFPLAY__FF_FFTEMPO_H
+
+#include <stdint.h>
+
+/*
+ * Time stretch of interleaved s16 audio, keeping pitch (WSOLA).
+ * Used instead of avfilter atempo, which is not built.
+ * Tempo 1.0 is passed through untouched once pending input is drained.
+ */
+typedef struct FFTempo FFTempo;
+
+FFTempo *fftempo_create(int sample_rate, int channels);
+void     fftempo_free_p(FFTempo **tempo);
+
+// drop pending samples, e.g. after flush
+void     fftempo_reset(FFTempo *tempo);
+
+/*
+ * Feed nb_frames of input, return output owned by tempo and valid until next
+ * call, with its frame count in *out_frames. NULL on error.
+ */
+const int16_t *fftempo_process(FFTempo *tempo, double rate, const int16_t *in, int nb_frames, int *out_frames);
+
+// input frames held but not output yet
+int      fftempo_get_pending_frames(FFTempo *tempo);
+int      fftempo_is_active(FFTempo *tempo);
+
+#endif
@@ -0,0 +1,321 @@
+/*
+ * ff_fftimeshift.c
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ff_fftimeshift.h"
+#include <pthread.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/mman.h>
+
+#define ENTRIES_INIT_SIZE   1024
+
+typedef struct Entry {
+    FFTimeShiftPacket pkt;
+    int64_t offset;
+    int64_t span;           // bytes taken in ring, including skipped tail when wrapped
+} Entry;
+
+struct FFTimeShift {
+    pthread_mutex_t mutex;
+
+    uint8_t *buf;
+    int64_t  capacity;
+    int      mapped;
+    int64_t  window_us;
+
+    int64_t  write_pos;
+    int64_t  used;
+
+    // circular index of packets in ring, oldest first
+    Entry   *entries;
+    int      entries_size;
+    int      first;
+    int      count;
+    int64_t  first_seq;     // sequence number of entries[first]
+
+    int64_t  cursor;        // sequence number of next packet to get
+    int      gap_pending;
+    int64_t  newest_us;
+};
+
+FFTimeShift *fftimeshift_create(int64_t capacity, const char *spill_dir, int64_t window_us)
+{
+    FFTimeShift *ts = (FFTimeShift*) calloc(1, sizeof(FFTimeShift));
+    if (!ts)
+        return NULL;
+
+    ts->capacity  = capacity > 0 ? capacity : FFP_TIMESHIFT_DEFAULT_CAPACITY;
+    ts->window_us = window_us;
+    ts->newest_us = FFP_TIMESHIFT_NOTIME;
+
+    if (spill_dir && *spill_dir) {
+        char path[1024];
+        int  fd;
+
+        snprintf(path, sizeof(path), "%s/ijktimeshift-XXXXXX", spill_dir);
+        fd = mkstemp(path);
+        if (fd < 0)
+            goto fail;
+
+        // nobody else needs the file, it goes away with the mapping
+        unlink(path);
+        if (ftruncate(fd, ts->capacity) == 0) {
+            ts->buf = mmap(NULL, ts->capacity, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+            if (ts->buf == MAP_FAILED)
+                ts->buf = NULL;
+        }
+        close(fd);
+        ts->mapped = 1;
+    } else {
+        ts->buf = (uint8_t*) malloc(ts->capacity);
+    }
+    if (!ts->buf)
+        goto fail;
+
+    ts->entries = (Entry*) calloc(ENTRIES_INIT_SIZE, sizeof(Entry));
+    if (!ts->entries)
+        goto fail;
+    ts->entries_size = ENTRIES_INIT_SIZE;
+
+    if (pthread_mutex_init(&ts->mutex, NULL))
+        goto fail;
+
+    return ts;
+fail:
+    if (ts->buf) {
+        if (ts->mapped)
+            munmap(ts->buf, ts->capacity);
+        else
+            free(ts->buf);
+    }
+    free(ts->entries);
+    free(ts);
+    return NULL;
+}
+
+void fftimeshift_free_p(FFTimeShift **ts)
+{
+    if (!ts || !*ts)
+        return;
+
+    if ((*ts)->mapped)
+        munmap((*ts)->buf, (*ts)->capacity);
+    else
+        free((*ts)->buf);
+    free((*ts)->entries);
+    pthread_mutex_destroy(&(*ts)->mutex);
+    free(*ts);
+    *ts = NULL;
+}
+
+static Entry *entry_at_l(FFTimeShift *ts, int64_t seq)
+{
+    return &ts->entries[(ts->first + (seq - ts->first_seq)) % ts->entries_size];
+}
+
+static void evict_l(FFTimeShift *ts)
+{
+    ts->used -= ts->entries[ts->first].span;
+    ts->first = (ts->first + 1) % ts->entries_size;
+    ts->count--;
+    ts->first_seq++;
+    if (ts->cursor < ts->first_seq) {
+        ts->cursor      = ts->first_seq;
+        ts->gap_pending = 1;
+    }
+}
+
+static int grow_entries_l(FFTimeShift *ts)
+{
+    int    new_size = ts->entries_size * 2;
+    Entry *entries  = (Entry*) calloc(new_size, sizeof(Entry));
+    int    i;
+
+    if (!entries)
+        return -1;
+
+    for (i = 0; i < ts->count; ++i)
+        entries[i] = ts->entries[(ts->first + i) % ts->entries_size];
+
+    free(ts->entries);
+    ts->entries      = entries;
+    ts->entries_size = new_size;
+    ts->first        = 0;
+    return 0;
+}
+
+int fftimeshift_put(FFTimeShift *ts, const FFTimeShiftPacket *pkt, const uint8_t *data)
+{
+    int64_t size = pkt->size;
+    int64_t offset;
+    int64_t span;
+    Entry  *entry;
+
+    if (size < 0 || size > ts->capacity)
+        return -1;
+
+    pthread_mutex_lock(&ts->mutex);
+    for (;;) {
+        int wrap = ts->write_pos + size > ts->capacity;
+        offset = wrap ? 0 : ts->write_pos;
+        span   = wrap ? ts->capacity - ts->write_pos + size : size;
+        if (ts->capacity - ts->used >= span)
+            break;
+
+        if (ts->count == 0) {
+            ts->write_pos = 0;
+            ts->used      = 0;
+        } else {
+            evict_l(ts);
+        }
+    }
+
+    if (ts->count == ts->entries_size && grow_entries_l(ts) < 0) {
+        pthread_mutex_unlock(&ts->mutex);
+        return -1;
+    }
+
+    if (size > 0)
+        memcpy(ts->buf + offset, data, size);
+    ts->write_pos = offset + size;
+    ts->used     += span;
+
+    entry = &ts->entries[(ts->first + ts->count) % ts->entries_size];
+    entry->pkt     = *pkt;
+    entry->pkt.gap = 0;
+    entry->offset  = offset;
+    entry->span    = span;
+    ts->count++;
+
+    if (pkt->time_us != FFP_TIMESHIFT_NOTIME &&
+        (ts->newest_us == FFP_TIMESHIFT_NOTIME || pkt->time_us > ts->newest_us))
+        ts->newest_us = pkt->time_us;
+
+    // keep the window, never the packet just put
+    while (ts->window_us > 0 && ts->count > 1) {
+        int64_t time_us = ts->entries[ts->first].pkt.time_us;
+        if (time_us != FFP_TIMESHIFT_NOTIME && ts->newest_us - time_us <= ts->window_us)
+            break;
+        evict_l(ts);
+    }
+    pthread_mutex_unlock(&ts->mutex);
+    return 0;
+}
+
+int fftimeshift_get(FFTimeShift *ts, FFTimeShiftPacket *pkt, const uint8_t **data)
+{
+    int64_t end;
+    Entry  *entry;
+
+    pthread_mutex_lock(&ts->mutex);
+    end = ts->first_seq + ts->count;
+
+    // restart from a sync packet after losing some
+    if (ts->gap_pending) {
+        while (ts->cursor < end && !entry_at_l(ts, ts->cursor)->pkt.sync)
+            ts->cursor++;
+    }
+
+    if (ts->cursor >= end) {
+        pthread_mutex_unlock(&ts->mutex);
+        return 0;
+    }
+
+    entry    = entry_at_l(ts, ts->cursor);
+    *pkt     = entry->pkt;
+    pkt->gap = ts->gap_pending;
+    if (data)
+        *data = ts->buf + entry->offset;
+    ts->gap_pending = 0;
+    ts->cursor++;
+    pthread_mutex_unlock(&ts->mutex);
+    return 1;
+}
+
+int fftimeshift_is_live(FFTimeShift *ts)
+{
+    int live;
+
+    pthread_mutex_lock(&ts->mutex);
+    live = ts->cursor >= ts->first_seq + ts->count;
+    pthread_mutex_unlock(&ts->mutex);
+    return live;
+}
+
+int fftimeshift_seek(FFTimeShift *ts, int64_t time_us)
+{
+    int64_t seq;
+    int64_t end;
+    int64_t found = -1;
+
+    pthread_mutex_lock(&ts->mutex);
+    end = ts->first_seq + ts->count;
+    for (seq = ts->first_seq; seq < end; ++seq) {
+        FFTimeShiftPacket *pkt = &entry_at_l(ts, seq)->pkt;
+        if (!pkt->sync || pkt->time_us == FFP_TIMESHIFT_NOTIME)
+            continue;
+
+        if (pkt->time_us <= time_us)
+            found = seq;
+        else if (found < 0)
+            found = seq;
+        else
+            break;
+    }
+
+    if (found >= 0) {
+        ts->cursor      = found;
+        ts->gap_pending = 0;
+    }
+    pthread_mutex_unlock(&ts->mutex);
+    return found >= 0 ? 0 : -1;
+}
+
+void fftimeshift_get_range(FFTimeShift *ts, int64_t *oldest_us, int64_t *newest_us)
+{
+    int64_t seq;
+    int64_t end;
+    int64_t oldest = FFP_TIMESHIFT_NOTIME;
+
+    pthread_mutex_lock(&ts->mutex);
+    end = ts->first_seq + ts->count;
+    for (seq = ts->first_seq; seq < end && oldest == FFP_TIMESHIFT_NOTIME; ++seq)
+        oldest = entry_at_l(ts, seq)->pkt.time_us;
+
+    if (oldest_us)
+        *oldest_us = oldest;
+    if (newest_us)
+        *newest_us = ts->count > 0 ? ts->newest_us : FFP_TIMESHIFT_NOTIME;
+    pthread_mutex_unlock(&ts->mutex);
+}
+
+int64_t fftimeshift_get_bytes(FFTimeShift *ts)
+{
+    int64_t used;
+
+    pthread_mutex_lock(&ts->mutex);
+    used = ts->used;
+    pthread_mutex_unlock(&ts->mutex);
+    return used;
+}
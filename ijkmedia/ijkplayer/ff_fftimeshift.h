@@ -0,0 +1,74 @@
+/*
+ * ff_fftimeshift.h
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef FFPLAY__FF_FFTIMESHIFT_H
+#define FFPLAY__FF_FFTIMESHIFT_H
+
+#include <stdint.h>
+
+/*
+ * Time-shift ring of compressed packets of a live stream.
+ *
+ * read_thread puts every packet read, and gets them back through a cursor,
+ * which stays at the live edge until playback is paused or rewound. Packets
+ * older than the window, or not fitting in capacity, are dropped oldest
+ * first. The ring is on heap, or in a mapped file of a spill directory, so
+ * a large window is paged to disk by kernel instead of staying resident.
+ *
+ * put/get/seek are called by one thread only; range queries are safe from
+ * any thread.
+ */
+
+#define FFP_TIMESHIFT_DEFAULT_CAPACITY  (32 * 1024 * 1024)
+#define FFP_TIMESHIFT_NOTIME            INT64_MIN   // same as AV_NOPTS_VALUE
+
+typedef struct FFTimeShiftPacket {
+    int64_t pts;
+    int64_t dts;
+    int64_t duration;
+    int64_t ab_timestamp;
+    int64_t time_us;        // FFP_TIMESHIFT_NOTIME if unknown
+    int     stream_index;
+    int     flags;
+    int     size;
+    int     sync;           // playback may start from it, e.g. video keyframe
+    int     gap;            // set by get: packets before it were dropped unread
+} FFTimeShiftPacket;
+
+typedef struct FFTimeShift FFTimeShift;
+
+// capacity <= 0 for default, spill_dir NULL or empty to keep it on heap
+FFTimeShift *fftimeshift_create(int64_t capacity, const char *spill_dir, int64_t window_us);
+void fftimeshift_free_p(FFTimeShift **ts);
+
+int  fftimeshift_put(FFTimeShift *ts, const FFTimeShiftPacket *pkt, const uint8_t *data);
+// 1 if got, 0 if at live edge; data is valid until next put
+int  fftimeshift_get(FFTimeShift *ts, FFTimeShiftPacket *pkt, const uint8_t **data);
+int  fftimeshift_is_live(FFTimeShift *ts);
+// move cursor to the last sync packet at or before time_us, or the oldest one
+int  fftimeshift_seek(FFTimeShift *ts, int64_t time_us);
+
+// FFP_TIMESHIFT_NOTIME if empty
+void fftimeshift_get_range(FFTimeShift *ts, int64_t *oldest_us, int64_t *newest_us);
+int64_t fftimeshift_get_bytes(FFTimeShift *ts);
+
+#endif
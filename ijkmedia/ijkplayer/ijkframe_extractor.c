@@ -0,0 +1,294 @@
+/*
+ * ijkframe_extractor.c
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#include "ijkframe_extractor.h"
+#include "ff_ffinc.h"
+
+// give up if no keyframe comes out after so many video packets
+#define IJKFE_MAX_PACKETS_PER_FRAME 600
+// give up network io of open and of one extraction after
+#define IJKFE_OPEN_TIMEOUT_MS       15000
+#define IJKFE_EXTRACT_TIMEOUT_MS    10000
+
+struct IjkFrameExtractor {
+    AVFormatContext   *ic;
+    AVCodecContext    *avctx;
+    int                video_stream;
+
+    AVFrame           *frame;
+    struct SwsContext *sws_ctx;
+
+    int64_t            deadline_us;     // 0 for none
+};
+
+static int ijkfe_interrupt_cb(void *opaque)
+{
+    IjkFrameExtractor *fe = opaque;
+    return fe->deadline_us && av_gettime_relative() > fe->deadline_us;
+}
+
+static void ijkfe_set_deadline(IjkFrameExtractor *fe, int timeout_ms)
+{
+    fe->deadline_us = timeout_ms > 0 ? av_gettime_relative() + (int64_t)timeout_ms * 1000 : 0;
+}
+
+IjkFrameExtractor *ijkfe_create()
+{
+    IjkFrameExtractor *fe = (IjkFrameExtractor *)calloc(1, sizeof(IjkFrameExtractor));
+    if (!fe)
+        return NULL;
+
+    fe->video_stream = -1;
+    return fe;
+}
+
+void ijkfe_destroy_p(IjkFrameExtractor **pfe)
+{
+    if (!pfe || !*pfe)
+        return;
+
+    ijkfe_close(*pfe);
+    free(*pfe);
+    *pfe = NULL;
+}
+
+int ijkfe_open(IjkFrameExtractor *fe, const char *url)
+{
+    AVFormatContext *ic    = NULL;
+    AVCodec         *codec = NULL;
+    AVDictionary    *opts  = NULL;
+    int              ret   = 0;
+    int              i;
+
+    assert(fe);
+    ijkfe_close(fe);
+
+    ic = avformat_alloc_context();
+    if (!ic) {
+        ret = AVERROR(ENOMEM);
+        goto fail;
+    }
+    // a stalled server must not hold caller forever
+    ic->interrupt_callback.callback = ijkfe_interrupt_cb;
+    ic->interrupt_callback.opaque   = fe;
+    ijkfe_set_deadline(fe, IJKFE_OPEN_TIMEOUT_MS);
+
+    ret = avformat_open_input(&ic, url, NULL, NULL);
+    if (ret < 0) {
+        ALOGE("ijkfe_open: failed to open %s: %d\n", url, ret);
+        goto fail;
+    }
+
+    ret = avformat_find_stream_info(ic, NULL);
+    if (ret < 0) {
+        ALOGE("ijkfe_open: failed to find stream info: %d\n", ret);
+        goto fail;
+    }
+
+    ret = av_find_best_stream(ic, AVMEDIA_TYPE_VIDEO, -1, -1, &codec, 0);
+    if (ret < 0 || !codec) {
+        ALOGE("ijkfe_open: no video stream\n");
+        ret = ret < 0 ? ret : AVERROR_DECODER_NOT_FOUND;
+        goto fail;
+    }
+    fe->video_stream = ret;
+
+    // demuxer drops packets of other streams, including all audio
+    for (i = 0; i < ic->nb_streams; i++) {
+        if (i != fe->video_stream)
+            ic->streams[i]->discard = AVDISCARD_ALL;
+    }
+
+    fe->avctx = ic->streams[fe->video_stream]->codec;
+    fe->avctx->skip_frame = AVDISCARD_NONKEY;
+    // frame threading delays output, while only one frame is wanted per call
+    av_dict_set(&opts, "threads", "1", 0);
+    av_dict_set(&opts, "refcounted_frames", "1", 0);
+    ret = avcodec_open2(fe->avctx, codec, &opts);
+    av_dict_free(&opts);
+    if (ret < 0) {
+        ALOGE("ijkfe_open: failed to open codec %s: %d\n", codec->name, ret);
+        fe->avctx = NULL;
+        goto fail;
+    }
+
+    fe->frame = av_frame_alloc();
+    if (!fe->frame) {
+        ret = AVERROR(ENOMEM);
+        goto fail;
+    }
+
+    fe->ic = ic;
+    ijkfe_set_deadline(fe, 0);
+    return 0;
+fail:
+    if (fe->avctx) {
+        avcodec_close(fe->avctx);
+        fe->avctx = NULL;
+    }
+    if (ic)
+        avformat_close_input(&ic);
+    fe->video_stream = -1;
+    ijkfe_set_deadline(fe, 0);
+    return ret;
+}
+
+void ijkfe_close(IjkFrameExtractor *fe)
+{
+    if (!fe)
+        return;
+
+    if (fe->sws_ctx) {
+        sws_freeContext(fe->sws_ctx);
+        fe->sws_ctx = NULL;
+    }
+    av_frame_free(&fe->frame);
+    if (fe->avctx) {
+        avcodec_close(fe->avctx);
+        fe->avctx = NULL;
+    }
+    if (fe->ic)
+        avformat_close_input(&fe->ic);
+    fe->video_stream = -1;
+}
+
+long ijkfe_get_duration(IjkFrameExtractor *fe)
+{
+    if (!fe || !fe->ic || fe->ic->duration == AV_NOPTS_VALUE)
+        return 0;
+
+    return (long)(fe->ic->duration / 1000);
+}
+
+int ijkfe_get_video_width(IjkFrameExtractor *fe)
+{
+    return (fe && fe->avctx) ? fe->avctx->width : 0;
+}
+
+int ijkfe_get_video_height(IjkFrameExtractor *fe)
+{
+    return (fe && fe->avctx) ? fe->avctx->height : 0;
+}
+
+static int decode_keyframe(IjkFrameExtractor *fe)
+{
+    AVPacket pkt;
+    int      got_frame = 0;
+    int      eof       = 0;
+    int      count     = 0;
+    int      ret       = 0;
+
+    while (!got_frame && count < IJKFE_MAX_PACKETS_PER_FRAME) {
+        av_init_packet(&pkt);
+        pkt.data = NULL;
+        pkt.size = 0;
+        if (!eof) {
+            ret = av_read_frame(fe->ic, &pkt);
+            if (ret == AVERROR_EXIT) {
+                // timed out
+                return ret;
+            } else if (ret < 0) {
+                // drain decoder with empty packet
+                eof = 1;
+                pkt.data = NULL;
+                pkt.size = 0;
+                pkt.stream_index = fe->video_stream;
+            } else if (pkt.stream_index != fe->video_stream) {
+                av_free_packet(&pkt);
+                continue;
+            }
+        }
+
+        count++;
+        ret = avcodec_decode_video2(fe->avctx, fe->frame, &got_frame, &pkt);
+        av_free_packet(&pkt);
+        if (ret < 0 && !eof) {
+            // corrupted packet, try next one
+            continue;
+        }
+        if (eof && !got_frame)
+            return AVERROR_EOF;
+    }
+
+    return got_frame ? 0 : AVERROR(EAGAIN);
+}
+
+int64_t ijkfe_extract_rgba(IjkFrameExtractor *fe, int64_t msec,
+                           uint8_t *rgba, int width, int height, int stride)
+{
+    AVStream *st;
+    int64_t   seek_target;
+    int64_t   pts;
+    int       ret;
+
+    if (!fe || !fe->ic || !fe->avctx || !rgba || width <= 0 || height <= 0 || stride < width * 4)
+        return AVERROR(EINVAL);
+
+    st = fe->ic->streams[fe->video_stream];
+    seek_target = msec * 1000;
+    if (fe->ic->start_time != AV_NOPTS_VALUE)
+        seek_target += fe->ic->start_time;
+
+    ijkfe_set_deadline(fe, IJKFE_EXTRACT_TIMEOUT_MS);
+
+    // backward to the keyframe at or before target
+    ret = avformat_seek_file(fe->ic, -1, INT64_MIN, seek_target, seek_target, 0);
+    if (ret < 0)
+        ret = avformat_seek_file(fe->ic, -1, INT64_MIN, seek_target, INT64_MAX, 0);
+    if (ret < 0) {
+        ALOGE("ijkfe_extract_rgba: failed to seek to %"PRId64"\n", msec);
+        ijkfe_set_deadline(fe, 0);
+        return ret;
+    }
+    avcodec_flush_buffers(fe->avctx);
+
+    ret = decode_keyframe(fe);
+    ijkfe_set_deadline(fe, 0);
+    if (ret < 0) {
+        ALOGE("ijkfe_extract_rgba: no keyframe near %"PRId64": %d\n", msec, ret);
+        return ret;
+    }
+
+    fe->sws_ctx = sws_getCachedContext(fe->sws_ctx,
+        fe->frame->width, fe->frame->height, fe->frame->format,
+        width, height, AV_PIX_FMT_RGBA,
+        SWS_FAST_BILINEAR, NULL, NULL, NULL);
+    if (!fe->sws_ctx) {
+        av_frame_unref(fe->frame);
+        return AVERROR(EINVAL);
+    }
+
+    uint8_t *dst_data[4]     = {rgba, NULL, NULL, NULL};
+    int      dst_linesize[4] = {stride, 0, 0, 0};
+    sws_scale(fe->sws_ctx, (const uint8_t * const *)fe->frame->data, fe->frame->linesize,
+              0, fe->frame->height, dst_data, dst_linesize);
+
+    pts = av_frame_get_best_effort_timestamp(fe->frame);
+    av_frame_unref(fe->frame);
+    if (pts == AV_NOPTS_VALUE)
+        return msec;
+
+    pts = av_rescale_q(pts, st->time_base, AV_TIME_BASE_Q);
+    if (fe->ic->start_time != AV_NOPTS_VALUE)
+        pts -= fe->ic->start_time;
+    return pts > 0 ? pts / 1000 : 0;
+}
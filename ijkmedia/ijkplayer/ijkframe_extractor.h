@@ -0,0 +1,56 @@
+/*
+ * ijkframe_extractor.h
+ *
+ * Copyright (c) 2015 Zhang Rui <bbcallen@gmail.com>
+ *
+ * This file is part of ijkPlayer.
+ *
+ * ijkPlayer is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * ijkPlayer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with ijkPlayer; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+#ifndef IJKPLAYER__IJKFRAME_EXTRACTOR_H
+#define IJKPLAYER__IJKFRAME_EXTRACTOR_H
+
+#include <stdint.h>
+
+/*
+ * Headless keyframe extractor for thumbnails.
+ * No thread, no audio, no vout: every call demuxes and decodes on caller's
+ * thread, with the video decoder discarding all non-key frames.
+ * Open and each extraction fail with AVERROR_EXIT after a timeout.
+ * Not thread-safe, serialize calls on one extractor.
+ */
+typedef struct IjkFrameExtractor IjkFrameExtractor;
+
+IjkFrameExtractor *ijkfe_create();
+void               ijkfe_destroy_p(IjkFrameExtractor **pfe);
+
+// return 0 if ok, or AVERROR
+int                ijkfe_open(IjkFrameExtractor *fe, const char *url);
+void               ijkfe_close(IjkFrameExtractor *fe);
+
+long               ijkfe_get_duration(IjkFrameExtractor *fe);
+int                ijkfe_get_video_width(IjkFrameExtractor *fe);
+int                ijkfe_get_video_height(IjkFrameExtractor *fe);
+
+/*
+ * Decode the last keyframe at or before msec, scaled to width x height,
+ * into rgba (4 bytes per pixel, R G B A in memory, line size of stride).
+ * return pts of the frame in milliseconds, or < 0 on error
+ */
+int64_t            ijkfe_extract_rgba(IjkFrameExtractor *fe, int64_t msec,
+                                      uint8_t *rgba, int width, int height, int stride);
+
+#endif
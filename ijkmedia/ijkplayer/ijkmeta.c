@@ -34,6 +34,9 @@ typedef struct IjkMediaMeta {
     size_t children_count;
     size_t children_capacity;
     IjkMediaMeta **children;
+
+    uint8_t *record;
+    size_t record_size;
 } IjkMediaMeta;
 
 IjkMediaMeta *ijkmeta_create()
@@ -72,6 +75,9 @@ void ijkmeta_destroy(IjkMediaMeta *meta)
         meta->children = NULL;
     }
 
+    av_freep(&meta->record);
+    meta->record_size = 0;
+
     SDL_DestroyMutexP(&meta->mutex);
 }
 
@@ -298,3 +304,186 @@ IjkMediaMeta *ijkmeta_get_child_l(IjkMediaMeta *meta, size_t index)
 
     return meta->children[index];
 }
+
+typedef struct IjkMetaRecordStrings {
+    const char **strings;
+    int count;
+    int capacity;
+    size_t size;
+} IjkMetaRecordStrings;
+
+static int32_t record_intern_string(IjkMetaRecordStrings *table, const char *str)
+{
+    if (!str || !*str)
+        return -1;
+
+    for (int i = 0; i < table->count; ++i) {
+        if (0 == strcmp(table->strings[i], str))
+            return i;
+    }
+
+    if (table->count >= table->capacity)
+        return -1;
+
+    table->strings[table->count] = str;
+    table->size += 4 + strlen(str);
+    return table->count++;
+}
+
+static void record_put_int32(uint8_t *buf, size_t offset, int32_t value)
+{
+    memcpy(buf + offset, &value, sizeof(value));
+}
+
+static void record_put_int64(uint8_t *buf, size_t offset, int64_t value)
+{
+    memcpy(buf + offset, &value, sizeof(value));
+}
+
+static void record_split_codec_info(const char *codec_info, char *module, size_t module_size, char *codec, size_t codec_size)
+{
+    module[0] = '\0';
+    codec[0]  = '\0';
+    if (!codec_info)
+        return;
+
+    const char *sep = strchr(codec_info, ',');
+    if (!sep) {
+        av_strlcpy(module, codec_info, module_size);
+        return;
+    }
+
+    av_strlcpy(module, codec_info, FFMIN(module_size, (size_t)(sep - codec_info) + 1));
+    sep++;
+    while (*sep == ' ')
+        sep++;
+    av_strlcpy(codec, sep, codec_size);
+}
+
+int ijkmeta_build_record_l(IjkMediaMeta *meta, const char *video_codec_info, const char *audio_codec_info)
+{
+    char video_module[64];
+    char video_codec[128];
+    char audio_module[64];
+    char audio_codec[128];
+    IjkMetaRecordStrings table;
+    int32_t header_ids[5];
+    int32_t *stream_ids = NULL;
+    uint8_t *record = NULL;
+    size_t stream_count;
+    size_t table_offset;
+    size_t record_size;
+    size_t offset;
+
+    if (!meta)
+        return -1;
+
+    av_freep(&meta->record);
+    meta->record_size = 0;
+
+    stream_count = ijkmeta_get_children_count_l(meta);
+    memset(&table, 0, sizeof(table));
+    table.capacity = (int)(5 + 3 * stream_count);
+    table.strings  = (const char **)av_mallocz(table.capacity * sizeof(const char *));
+    if (!table.strings)
+        goto fail;
+    if (stream_count > 0) {
+        stream_ids = (int32_t *)av_mallocz(3 * stream_count * sizeof(int32_t));
+        if (!stream_ids)
+            goto fail;
+    }
+
+    record_split_codec_info(video_codec_info, video_module, sizeof(video_module), video_codec, sizeof(video_codec));
+    record_split_codec_info(audio_codec_info, audio_module, sizeof(audio_module), audio_codec, sizeof(audio_codec));
+
+    header_ids[0] = record_intern_string(&table, ijkmeta_get_string_l(meta, IJKM_KEY_FORMAT));
+    header_ids[1] = record_intern_string(&table, video_module);
+    header_ids[2] = record_intern_string(&table, video_codec);
+    header_ids[3] = record_intern_string(&table, audio_module);
+    header_ids[4] = record_intern_string(&table, audio_codec);
+    for (size_t i = 0; i < stream_count; ++i) {
+        IjkMediaMeta *child = ijkmeta_get_child_l(meta, i);
+        stream_ids[i * 3 + 0] = record_intern_string(&table, ijkmeta_get_string_l(child, IJKM_KEY_CODEC_NAME));
+        stream_ids[i * 3 + 1] = record_intern_string(&table, ijkmeta_get_string_l(child, IJKM_KEY_CODEC_PROFILE));
+        stream_ids[i * 3 + 2] = record_intern_string(&table, ijkmeta_get_string_l(child, IJKM_KEY_CODEC_LONG_NAME));
+    }
+
+    table_offset = IJKM_RECORD_HEADER_SIZE + stream_count * IJKM_RECORD_STREAM_SIZE;
+    record_size  = table_offset + 4 + table.size;
+    record = (uint8_t *)av_mallocz(record_size);
+    if (!record)
+        goto fail;
+
+    record_put_int32(record, 0,  IJKM_RECORD_VERSION);
+    record_put_int32(record, 4,  (int32_t)record_size);
+    record_put_int32(record, 8,  (int32_t)ijkmeta_get_int64_l(meta, IJKM_KEY_VIDEO_STREAM, -1));
+    record_put_int32(record, 12, (int32_t)ijkmeta_get_int64_l(meta, IJKM_KEY_AUDIO_STREAM, -1));
+    record_put_int64(record, 16, ijkmeta_get_int64_l(meta, IJKM_KEY_DURATION_US, 0));
+    record_put_int64(record, 24, ijkmeta_get_int64_l(meta, IJKM_KEY_START_US, 0));
+    record_put_int64(record, 32, ijkmeta_get_int64_l(meta, IJKM_KEY_BITRATE, 0));
+    record_put_int32(record, 40, (int32_t)stream_count);
+    record_put_int32(record, 44, (int32_t)table_offset);
+    for (int i = 0; i < 5; ++i)
+        record_put_int32(record, 48 + i * 4, header_ids[i]);
+
+    offset = IJKM_RECORD_HEADER_SIZE;
+    for (size_t i = 0; i < stream_count; ++i, offset += IJKM_RECORD_STREAM_SIZE) {
+        IjkMediaMeta *child = ijkmeta_get_child_l(meta, i);
+        const char *type = ijkmeta_get_string_l(child, IJKM_KEY_TYPE);
+        int32_t record_type = IJKM_RECORD_TYPE__UNKNOWN;
+        if (type && 0 == strcmp(type, IJKM_VAL_TYPE__VIDEO))
+            record_type = IJKM_RECORD_TYPE__VIDEO;
+        else if (type && 0 == strcmp(type, IJKM_VAL_TYPE__AUDIO))
+            record_type = IJKM_RECORD_TYPE__AUDIO;
+
+        record_put_int32(record, offset + 0,  record_type);
+        record_put_int32(record, offset + 4,  stream_ids[i * 3 + 0]);
+        record_put_int32(record, offset + 8,  stream_ids[i * 3 + 1]);
+        record_put_int32(record, offset + 12, stream_ids[i * 3 + 2]);
+        record_put_int64(record, offset + 16, ijkmeta_get_int64_l(child, IJKM_KEY_BITRATE, 0));
+        record_put_int32(record, offset + 24, (int32_t)ijkmeta_get_int64_l(child, IJKM_KEY_WIDTH, 0));
+        record_put_int32(record, offset + 28, (int32_t)ijkmeta_get_int64_l(child, IJKM_KEY_HEIGHT, 0));
+        record_put_int32(record, offset + 32, (int32_t)ijkmeta_get_int64_l(child, IJKM_KEY_FPS_NUM, 0));
+        record_put_int32(record, offset + 36, (int32_t)ijkmeta_get_int64_l(child, IJKM_KEY_FPS_DEN, 0));
+        record_put_int32(record, offset + 40, (int32_t)ijkmeta_get_int64_l(child, IJKM_KEY_TBR_NUM, 0));
+        record_put_int32(record, offset + 44, (int32_t)ijkmeta_get_int64_l(child, IJKM_KEY_TBR_DEN, 0));
+        record_put_int32(record, offset + 48, (int32_t)ijkmeta_get_int64_l(child, IJKM_KEY_SAR_NUM, 0));
+        record_put_int32(record, offset + 52, (int32_t)ijkmeta_get_int64_l(child, IJKM_KEY_SAR_DEN, 0));
+        record_put_int32(record, offset + 56, (int32_t)ijkmeta_get_int64_l(child, IJKM_KEY_SAMPLE_RATE, 0));
+        record_put_int64(record, offset + 64, ijkmeta_get_int64_l(child, IJKM_KEY_CHANNEL_LAYOUT, 0));
+    }
+
+    record_put_int32(record, offset, table.count);
+    offset += 4;
+    for (int i = 0; i < table.count; ++i) {
+        size_t len = strlen(table.strings[i]);
+        record_put_int32(record, offset, (int32_t)len);
+        memcpy(record + offset + 4, table.strings[i], len);
+        offset += 4 + len;
+    }
+    assert(offset == record_size);
+
+    meta->record      = record;
+    meta->record_size = record_size;
+    av_freep(&table.strings);
+    av_freep(&stream_ids);
+    return 0;
+fail:
+    av_freep(&record);
+    av_freep(&table.strings);
+    av_freep(&stream_ids);
+    return -1;
+}
+
+const uint8_t *ijkmeta_get_record_l(IjkMediaMeta *meta, size_t *size)
+{
+    if (!meta || !meta->record) {
+        if (size)
+            *size = 0;
+        return NULL;
+    }
+
+    if (size)
+        *size = meta->record_size;
+    return meta->record;
+}
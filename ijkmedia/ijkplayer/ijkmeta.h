@@ -60,6 +60,34 @@
 // reserved for user
 #define IJKM_KEY_STREAMS        "streams"
 
+/*
+ * packed record, built once per prepare, all values in native byte order
+ *
+ * header (IJKM_RECORD_HEADER_SIZE bytes):
+ *   int32 version, int32 record size, int32 video stream, int32 audio stream,
+ *   int64 duration_us, int64 start_us, int64 bitrate,
+ *   int32 stream count, int32 string table offset,
+ *   int32 string ids of: format, video decoder, video decoder impl,
+ *                        audio decoder, audio decoder impl
+ * stream (IJKM_RECORD_STREAM_SIZE bytes each):
+ *   int32 type, int32 string ids of: codec name, codec profile, codec long name,
+ *   int64 bitrate,
+ *   int32 width, height, fps_num, fps_den, tbr_num, tbr_den, sar_num, sar_den,
+ *   int32 sample rate, int32 reserved, int64 channel layout
+ * string table:
+ *   int32 count, then count times: int32 length, utf-8 bytes
+ *
+ * string ids index the string table, -1 stands for no value.
+ * equal strings share one id.
+ */
+#define IJKM_RECORD_VERSION         1
+#define IJKM_RECORD_HEADER_SIZE     72
+#define IJKM_RECORD_STREAM_SIZE     72
+
+#define IJKM_RECORD_TYPE__UNKNOWN   0
+#define IJKM_RECORD_TYPE__VIDEO     1
+#define IJKM_RECORD_TYPE__AUDIO     2
+
 
 typedef struct IjkMediaMeta IjkMediaMeta;
 typedef struct AVFormatContext AVFormatContext;
@@ -83,4 +111,9 @@ size_t        ijkmeta_get_children_count_l(IjkMediaMeta *meta);
 // do not free
 IjkMediaMeta *ijkmeta_get_child_l(IjkMediaMeta *meta, size_t index);
 
+// codec info is formatted as "module, codec", as in ffp_set_video_codec_info()
+int           ijkmeta_build_record_l(IjkMediaMeta *meta, const char *video_codec_info, const char *audio_codec_info);
+// do not free
+const uint8_t *ijkmeta_get_record_l(IjkMediaMeta *meta, size_t *size);
+
 #endif//IJKPLAYER__IJKMETA_H
@@ -186,6 +186,39 @@ void ijkmp_set_picture_queue_capicity(IjkMediaPlayer *mp, int frame_count)
     MPTRACE("ijkmp_set_picture_queue_capicity()=void\n");
 }
 
+void ijkmp_set_picture_queue_adaptive(IjkMediaPlayer *mp, int max_frame_count)
+{
+    assert(mp);
+
+    MPTRACE("%s(%d)\n", __func__, max_frame_count);
+    pthread_mutex_lock(&mp->mutex);
+    ffp_set_picture_queue_adaptive(mp->ffplayer, max_frame_count);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("%s()=void\n", __func__);
+}
+
+void ijkmp_set_shared_refresh(IjkMediaPlayer *mp, int shared)
+{
+    assert(mp);
+
+    MPTRACE("%s(%d)\n", __func__, shared);
+    pthread_mutex_lock(&mp->mutex);
+    ffp_set_shared_refresh(mp->ffplayer, shared);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("%s()=void\n", __func__);
+}
+
+void ijkmp_set_decode_degrade_floor(IjkMediaPlayer *mp, int level)
+{
+    assert(mp);
+
+    MPTRACE("%s(%d)\n", __func__, level);
+    pthread_mutex_lock(&mp->mutex);
+    ffp_set_decode_degrade_floor(mp->ffplayer, level);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("%s()=void\n", __func__);
+}
+
 void ijkmp_set_max_fps(IjkMediaPlayer *mp, int max_fps)
 {
     assert(mp);
@@ -218,6 +251,41 @@ void ijkmp_set_max_buffer_size(IjkMediaPlayer *mp, int max_buffer_size)
     pthread_mutex_unlock(&mp->mutex);
     MPTRACE("%s()=void\n", __func__);
 }
+
+void ijkmp_set_buffering_policy(IjkMediaPlayer *mp, int start_hwm_ms, int next_hwm_ms, int max_hwm_ms,
+                                int hwm_bytes, int max_buffer_bytes, int growth_percent,
+                                int resume_min_packets, int adaptive)
+{
+    assert(mp);
+
+    FFBufferingPolicy policy = {
+        .start_hwm_ms       = start_hwm_ms,
+        .next_hwm_ms        = next_hwm_ms,
+        .max_hwm_ms         = max_hwm_ms,
+        .hwm_bytes          = hwm_bytes,
+        .max_buffer_bytes   = max_buffer_bytes,
+        .growth_percent     = growth_percent,
+        .resume_min_packets = resume_min_packets,
+        .adaptive           = adaptive,
+    };
+
+    MPTRACE("%s(%d, %d, %d, adaptive=%d)\n", __func__, start_hwm_ms, next_hwm_ms, max_hwm_ms, adaptive);
+    pthread_mutex_lock(&mp->mutex);
+    ffp_set_buffering_policy(mp->ffplayer, &policy);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("%s()=void\n", __func__);
+}
+
+void ijkmp_set_in_background(IjkMediaPlayer *mp, int in_background)
+{
+    assert(mp);
+
+    MPTRACE("%s(%d)\n", __func__, in_background);
+    pthread_mutex_lock(&mp->mutex);
+    mp->ffplayer->in_background = in_background;
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("%s()=void\n", __func__);
+}
 int ijkmp_get_video_codec_info(IjkMediaPlayer *mp, char **codec_info)
 {
     assert(mp);
@@ -264,11 +332,58 @@ void ijkmp_shutdown_l(IjkMediaPlayer *mp)
     MPTRACE("ijkmp_shutdown_l()=void\n");
 }
 
+inline static IjkMediaPlayer *ijkmp_take_next_l(IjkMediaPlayer *mp)
+{
+    IjkMediaPlayer *next = mp->next_mp;
+    mp->next_mp = NULL;
+    mp->next_share_display = 0;
+    return next;
+}
+
 void ijkmp_shutdown(IjkMediaPlayer *mp)
 {
+    pthread_mutex_lock(&mp->mutex);
+    IjkMediaPlayer *next = ijkmp_take_next_l(mp);
+    pthread_mutex_unlock(&mp->mutex);
+    ijkmp_dec_ref_p(&next);
+
     return ijkmp_shutdown_l(mp);
 }
 
+int ijkmp_reset(IjkMediaPlayer *mp)
+{
+    assert(mp);
+
+    MPTRACE("ijkmp_reset()\n");
+    pthread_mutex_lock(&mp->mutex);
+    ijkmp_shutdown_l(mp);
+    SDL_Thread *msg_thread = mp->msg_thread;
+    mp->msg_thread = NULL;
+    IjkMediaPlayer *next = ijkmp_take_next_l(mp);
+    pthread_mutex_unlock(&mp->mutex);
+    ijkmp_dec_ref_p(&next);
+
+    // msg_loop may be waiting for mp->mutex, join it without lock
+    if (msg_thread)
+        SDL_WaitThread(msg_thread, NULL);
+
+    pthread_mutex_lock(&mp->mutex);
+    ffp_reset(mp->ffplayer);
+    // default is VOD mode
+    mp->ffplayer->data_source_type = 2;
+
+    av_freep(&mp->data_source);
+    mp->restart_from_beginning = 0;
+    mp->seek_req = 0;
+    mp->seek_msec = 0;
+    mp->start_as_next_pending = 0;
+    mp->mp_state = MP_STATE_IDLE;
+    pthread_mutex_unlock(&mp->mutex);
+
+    MPTRACE("ijkmp_reset()=0\n");
+    return 0;
+}
+
 void ijkmp_inc_ref(IjkMediaPlayer *mp)
 {
     assert(mp);
@@ -297,6 +412,123 @@ void ijkmp_dec_ref_p(IjkMediaPlayer **pmp)
     *pmp = NULL;
 }
 
+/* players released by ijkmp_release_async() or ijkmp_reset_async(), torn down by at most IJKMP_REAPER_MAX_THREADS threads */
+#define IJKMP_REAPER_MAX_THREADS 2
+
+typedef struct IjkMediaPlayerReapItem {
+    IjkMediaPlayer *mp;
+    int reset;          // ijkmp_reset() instead of shutdown
+    void (*on_done)(void *opaque);
+    void *opaque;
+    struct IjkMediaPlayerReapItem *next;
+} IjkMediaPlayerReapItem;
+
+static pthread_mutex_t         g_reaper_mutex = PTHREAD_MUTEX_INITIALIZER;
+static IjkMediaPlayerReapItem *g_reaper_first;
+static IjkMediaPlayerReapItem *g_reaper_last;
+static int                     g_reaper_threads;
+
+static void ijkmp_reap(IjkMediaPlayerReapItem *item)
+{
+    if (item->reset)
+        ijkmp_reset(item->mp);
+    else
+        ijkmp_shutdown(item->mp);
+    ijkmp_dec_ref_p(&item->mp);
+    if (item->on_done)
+        item->on_done(item->opaque);
+    av_freep(&item);
+}
+
+static void *ijkmp_reaper_thread(void *arg)
+{
+    MPTRACE("ijkmp_reaper_thread()\n");
+    while (1) {
+        pthread_mutex_lock(&g_reaper_mutex);
+        IjkMediaPlayerReapItem *item = g_reaper_first;
+        if (!item) {
+            // exit when idle, threads are created again on demand
+            g_reaper_threads--;
+            pthread_mutex_unlock(&g_reaper_mutex);
+            break;
+        }
+        g_reaper_first = item->next;
+        if (!g_reaper_first)
+            g_reaper_last = NULL;
+        pthread_mutex_unlock(&g_reaper_mutex);
+
+        ijkmp_reap(item);
+    }
+    MPTRACE("ijkmp_reaper_thread()=void\n");
+    return NULL;
+}
+
+static int ijkmp_reap_async(IjkMediaPlayer *mp, int reset, void (*on_done)(void *opaque), void *opaque)
+{
+    IjkMediaPlayerReapItem *item = (IjkMediaPlayerReapItem *) av_mallocz(sizeof(IjkMediaPlayerReapItem));
+    if (!item)
+        return EIJK_OUT_OF_MEMORY;
+
+    item->mp      = mp;
+    item->reset   = reset;
+    item->on_done = on_done;
+    item->opaque  = opaque;
+
+    pthread_mutex_lock(&g_reaper_mutex);
+    if (g_reaper_last)
+        g_reaper_last->next = item;
+    else
+        g_reaper_first = item;
+    g_reaper_last = item;
+
+    if (g_reaper_threads < IJKMP_REAPER_MAX_THREADS) {
+        pthread_t tid;
+        pthread_attr_t attr;
+        pthread_attr_init(&attr);
+        pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+        if (0 == pthread_create(&tid, &attr, ijkmp_reaper_thread, NULL)) {
+            g_reaper_threads++;
+        } else if (g_reaper_threads == 0) {
+            // nobody would pick it up, tear down inline
+            g_reaper_first = item->next;
+            if (!g_reaper_first)
+                g_reaper_last = NULL;
+            pthread_attr_destroy(&attr);
+            pthread_mutex_unlock(&g_reaper_mutex);
+
+            ALOGE("ijkmp_reap_async: failed to create reaper thread\n");
+            ijkmp_reap(item);
+            return 0;
+        }
+        pthread_attr_destroy(&attr);
+    }
+    pthread_mutex_unlock(&g_reaper_mutex);
+    return 0;
+}
+
+int ijkmp_release_async(IjkMediaPlayer *mp, void (*on_released)(void *opaque), void *opaque)
+{
+    assert(mp);
+
+    MPTRACE("ijkmp_release_async()\n");
+    int retval = ijkmp_reap_async(mp, 0, on_released, opaque);
+    MPTRACE("ijkmp_release_async()=%d\n", retval);
+    return retval;
+}
+
+int ijkmp_reset_async(IjkMediaPlayer *mp, void (*on_reset)(void *opaque), void *opaque)
+{
+    assert(mp);
+
+    MPTRACE("ijkmp_reset_async()\n");
+    ijkmp_inc_ref(mp);
+    int retval = ijkmp_reap_async(mp, 1, on_reset, opaque);
+    if (retval)
+        ijkmp_dec_ref(mp);
+    MPTRACE("ijkmp_reset_async()=%d\n", retval);
+    return retval;
+}
+
 static int ijkmp_set_data_source_l(IjkMediaPlayer *mp, const char *url)
 {
     assert(mp);
@@ -367,6 +599,68 @@ void ijkmp_set_data_cache(IjkMediaPlayer *mp, int cache)
     pthread_mutex_unlock(&mp->mutex);
 }
 
+void ijkmp_set_live_latency(IjkMediaPlayer *mp, int target_ms, int min_ms, int max_ms, int aggressiveness)
+{
+    assert(mp);
+
+    pthread_mutex_lock(&mp->mutex);
+    mp->ffplayer->live_latency.target_ms      = target_ms;
+    mp->ffplayer->live_latency.min_ms         = min_ms;
+    mp->ffplayer->live_latency.max_ms         = max_ms;
+    mp->ffplayer->live_latency.aggressiveness = aggressiveness;
+    pthread_mutex_unlock(&mp->mutex);
+}
+
+void ijkmp_set_live_catchup_speed(IjkMediaPlayer *mp, float max_speed)
+{
+    assert(mp);
+
+    pthread_mutex_lock(&mp->mutex);
+    mp->ffplayer->live_latency.catchup_max_speed = max_speed;
+    pthread_mutex_unlock(&mp->mutex);
+}
+
+void ijkmp_set_timeshift(IjkMediaPlayer *mp, int window_ms, int64_t max_bytes, const char *spill_dir)
+{
+    assert(mp);
+
+    MPTRACE("%s(%d, %"PRId64", %s)\n", __func__, window_ms, max_bytes, spill_dir ? spill_dir : "");
+    pthread_mutex_lock(&mp->mutex);
+    ffp_set_timeshift(mp->ffplayer, window_ms, max_bytes, spill_dir);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("%s()=void\n", __func__);
+}
+
+int ijkmp_timeshift_seek(IjkMediaPlayer *mp, long behind_ms)
+{
+    assert(mp);
+    MPTRACE("%s(%ld)\n", __func__, behind_ms);
+    pthread_mutex_lock(&mp->mutex);
+    int retval = ffp_timeshift_seek_l(mp->ffplayer, behind_ms);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("%s()=%d\n", __func__, retval);
+    return retval;
+}
+
+void ijkmp_get_timeshift(IjkMediaPlayer *mp, int64_t *window_ms, int64_t *behind_ms)
+{
+    assert(mp);
+    pthread_mutex_lock(&mp->mutex);
+    ffp_get_timeshift_l(mp->ffplayer, window_ms, behind_ms);
+    pthread_mutex_unlock(&mp->mutex);
+}
+
+void ijkmp_set_stream_cache(IjkMediaPlayer *mp, const char *dir, const char *key)
+{
+    assert(mp);
+
+    MPTRACE("%s(%s, %s)\n", __func__, dir ? dir : "", key ? key : "");
+    pthread_mutex_lock(&mp->mutex);
+    ffp_set_stream_cache(mp->ffplayer, dir, key);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("%s()=void\n", __func__);
+}
+
 int ijkmp_set_data_source(IjkMediaPlayer *mp, const char *url)
 {
     assert(mp);
@@ -402,7 +696,7 @@ static int ijkmp_prepare_async_l(IjkMediaPlayer *mp)
 
     // released in msg_loop
     ijkmp_inc_ref(mp);
-    mp->msg_thread = SDL_CreateThreadEx(&mp->_msg_thread, mp->msg_loop, mp, "ff_msg_loop");
+    mp->msg_thread = SDL_CreateThreadRole(&mp->_msg_thread, mp->msg_loop, mp, "ff_msg_loop", SDL_THREAD_ROLE_MESSAGE);
     // TODO: 9 release weak_thiz if pthread_create() failed;
 
     int retval = ffp_prepare_async_l(mp->ffplayer, mp->data_source);
@@ -569,7 +863,7 @@ static int ikjmp_chkst_seek_l(int mp_state)
     return 0;
 }
 
-int ijkmp_seek_to_l(IjkMediaPlayer *mp, long msec)
+int ijkmp_seek_to_mode_l(IjkMediaPlayer *mp, long msec, int seek_mode)
 {
     assert(mp);
 
@@ -578,12 +872,17 @@ int ijkmp_seek_to_l(IjkMediaPlayer *mp, long msec)
     mp->seek_req = 1;
     mp->seek_msec = msec;
     ffp_remove_msg(mp->ffplayer, FFP_REQ_SEEK);
-    ffp_notify_msg2(mp->ffplayer, FFP_REQ_SEEK, (int)msec);
+    ffp_notify_msg3(mp->ffplayer, FFP_REQ_SEEK, (int)msec, seek_mode);
     // TODO: 9 64-bit long?
 
     return 0;
 }
 
+int ijkmp_seek_to_l(IjkMediaPlayer *mp, long msec)
+{
+    return ijkmp_seek_to_mode_l(mp, msec, FFP_SEEK_MODE_FAST);
+}
+
 int ijkmp_seek_to(IjkMediaPlayer *mp, long msec)
 {
     assert(mp);
@@ -596,6 +895,26 @@ int ijkmp_seek_to(IjkMediaPlayer *mp, long msec)
     return retval;
 }
 
+void ijkmp_set_sync_clock(IjkMediaPlayer *mp, long msec)
+{
+    assert(mp);
+    pthread_mutex_lock(&mp->mutex);
+    ffp_set_sync_clock_l(mp->ffplayer, msec);
+    pthread_mutex_unlock(&mp->mutex);
+}
+
+int ijkmp_seek_to_mode(IjkMediaPlayer *mp, long msec, int seek_mode)
+{
+    assert(mp);
+    MPTRACE("ijkmp_seek_to_mode(%ld, %d)\n", msec, seek_mode);
+    pthread_mutex_lock(&mp->mutex);
+    int retval = ijkmp_seek_to_mode_l(mp, msec, seek_mode);
+    pthread_mutex_unlock(&mp->mutex);
+    MPTRACE("ijkmp_seek_to_mode(%ld, %d)=%d\n", msec, seek_mode, retval);
+
+    return retval;
+}
+
 int ijkmp_get_state(IjkMediaPlayer *mp)
 {
     return mp->mp_state;
@@ -690,6 +1009,110 @@ int64_t ijkmp_get_abtm(IjkMediaPlayer *mp)
     return retval;
 }
 
+int ijkmp_get_statistics(IjkMediaPlayer *mp, int64_t *stats, int count)
+{
+    assert(mp);
+    pthread_mutex_lock(&mp->mutex);
+    int retval = ffp_get_statistics_l(mp->ffplayer, stats, count);
+    if (retval > FFP_STAT_CURRENT_POSITION && mp->seek_req)
+        stats[FFP_STAT_CURRENT_POSITION] = mp->seek_msec;
+    pthread_mutex_unlock(&mp->mutex);
+    return retval;
+}
+
+int ijkmp_get_pictq_histogram(IjkMediaPlayer *mp, int type, int64_t *buckets, int count)
+{
+    assert(mp);
+    pthread_mutex_lock(&mp->mutex);
+    int retval = ffp_get_pictq_histogram_l(mp->ffplayer, type, buckets, count);
+    pthread_mutex_unlock(&mp->mutex);
+    return retval;
+}
+
+int64_t ijkmp_get_bandwidth_estimate(IjkMediaPlayer *mp, int percentile)
+{
+    assert(mp);
+    int64_t retval;
+    pthread_mutex_lock(&mp->mutex);
+    if (percentile < 0)
+        retval = ffbandwidth_get_estimate(mp->ffplayer->bandwidth);
+    else
+        retval = ffbandwidth_get_percentile(mp->ffplayer->bandwidth, percentile);
+    pthread_mutex_unlock(&mp->mutex);
+    return retval;
+}
+
+
+int ijkmp_set_next_media_player(IjkMediaPlayer *mp, IjkMediaPlayer *next, int share_display)
+{
+    assert(mp);
+    if (next == mp)
+        return EIJK_INVALID_STATE;
+
+    MPTRACE("ijkmp_set_next_media_player(%p)\n", next);
+    if (next) {
+        int retval = 0;
+        pthread_mutex_lock(&next->mutex);
+        switch (next->mp_state) {
+        case MP_STATE_IDLE:
+        case MP_STATE_INITIALIZED:
+        case MP_STATE_STOPPED:
+            // keep read/decode running, but hold at first frame after prepared
+            ffp_set_start_on_prepared(next->ffplayer, 0);
+            break;
+        case MP_STATE_ASYNC_PREPARING:
+        case MP_STATE_PREPARED:
+        case MP_STATE_PAUSED:
+            // held like above, keep what is read until started
+            ffp_hold_for_start_l(next->ffplayer);
+            break;
+        default:
+            retval = EIJK_INVALID_STATE;
+            break;
+        }
+        pthread_mutex_unlock(&next->mutex);
+        if (retval) {
+            MPTRACE("ijkmp_set_next_media_player()=%d\n", retval);
+            return retval;
+        }
+        ijkmp_inc_ref(next);
+    }
+
+    pthread_mutex_lock(&mp->mutex);
+    IjkMediaPlayer *prev = mp->next_mp;
+    mp->next_mp = next;
+    mp->next_share_display = next && share_display;
+    pthread_mutex_unlock(&mp->mutex);
+
+    if (prev && prev != next) {
+        pthread_mutex_lock(&prev->mutex);
+        ffp_set_start_on_prepared(prev->ffplayer, 1);
+        pthread_mutex_unlock(&prev->mutex);
+    }
+    ijkmp_dec_ref_p(&prev);
+
+    MPTRACE("ijkmp_set_next_media_player()=0\n");
+    return 0;
+}
+
+static void ijkmp_start_as_next(IjkMediaPlayer *next)
+{
+    MPTRACE("ijkmp_start_as_next()\n");
+    pthread_mutex_lock(&next->mutex);
+    ffp_set_start_on_prepared(next->ffplayer, 1);
+    if (next->mp_state == MP_STATE_ASYNC_PREPARING) {
+        // not ready yet, auto resume once prepared, STARTED and notified there
+        ffp_start_l(next->ffplayer);
+        next->start_as_next_pending = 1;
+    } else if (0 == ikjmp_chkst_start_l(next->mp_state) && 0 == ffp_start_l(next->ffplayer)) {
+        ijkmp_change_state_l(next, MP_STATE_STARTED);
+        ffp_notify_msg1(next->ffplayer, FFP_MSG_STARTED_AS_NEXT);
+    } else {
+        ALOGE("ijkmp_start_as_next: invalid state %d\n", next->mp_state);
+    }
+    pthread_mutex_unlock(&next->mutex);
+    MPTRACE("ijkmp_start_as_next()=void\n");
+}
 
 void *ijkmp_get_weak_thiz(IjkMediaPlayer *mp)
 {
@@ -705,11 +1128,27 @@ void *ijkmp_set_weak_thiz(IjkMediaPlayer *mp, void *weak_thiz)
     return prev_weak_thiz;
 }
 
+void *ijkmp_get_event_ring(IjkMediaPlayer *mp)
+{
+    return mp->event_ring;
+}
+
+void *ijkmp_set_event_ring(IjkMediaPlayer *mp, void *event_ring)
+{
+    void *prev_event_ring = mp->event_ring;
+
+    mp->event_ring = event_ring;
+
+    return prev_event_ring;
+}
+
 int ijkmp_get_msg(IjkMediaPlayer *mp, AVMessage *msg, int block)
 {
     assert(mp);
     while (1) {
         int continue_wait_next_msg = 0;
+        IjkMediaPlayer *next = NULL;
+        int share_display = 0;
         int retval = msg_queue_get(&mp->ffplayer->msg_queue, msg, block);
         if (retval <= 0)
             return retval;
@@ -723,8 +1162,14 @@ int ijkmp_get_msg(IjkMediaPlayer *mp, AVMessage *msg, int block)
             } else {
                 // FIXME: 1: onError() ?
                 ALOGE("FFP_MSG_PREPARED: expecting mp_state==MP_STATE_ASYNC_PREPARING\n");
+                mp->start_as_next_pending = 0;
             }
-            if (ffp_is_paused_l(mp->ffplayer)) {
+            if (mp->start_as_next_pending) {
+                // previous player completed while this one was preparing
+                mp->start_as_next_pending = 0;
+                ijkmp_change_state_l(mp, MP_STATE_STARTED);
+                ffp_notify_msg1(mp->ffplayer, FFP_MSG_STARTED_AS_NEXT);
+            } else if (ffp_is_paused_l(mp->ffplayer)) {
                 ijkmp_change_state_l(mp, MP_STATE_PAUSED);
             }
             pthread_mutex_unlock(&mp->mutex);
@@ -736,7 +1181,17 @@ int ijkmp_get_msg(IjkMediaPlayer *mp, AVMessage *msg, int block)
             pthread_mutex_lock(&mp->mutex);
             mp->restart_from_beginning = 1;
             ijkmp_change_state_l(mp, MP_STATE_COMPLETED);
+            share_display = mp->next_share_display;
+            next = ijkmp_take_next_l(mp);
             pthread_mutex_unlock(&mp->mutex);
+
+            // gapless: switch to next player without a round trip to java
+            if (next) {
+                if (share_display && mp->share_display)
+                    mp->share_display(mp, next);
+                ijkmp_start_as_next(next);
+                ijkmp_dec_ref_p(&next);
+            }
             break;
 
         case FFP_MSG_SEEK_COMPLETE:
@@ -795,7 +1250,7 @@ int ijkmp_get_msg(IjkMediaPlayer *mp, AVMessage *msg, int block)
 
             pthread_mutex_lock(&mp->mutex);
             if (0 == ikjmp_chkst_seek_l(mp->mp_state)) {
-                if (0 == ffp_seek_to_l(mp->ffplayer, msg->arg1)) {
+                if (0 == ffp_seek_to_mode_l(mp->ffplayer, msg->arg1, msg->arg2)) {
                     ALOGD("ijkmp_get_msg: FFP_REQ_SEEK: seek to %d\n", (int)msg->arg1);
                     mp->restart_from_beginning = 0;
                 }
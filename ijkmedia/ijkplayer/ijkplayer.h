@@ -161,9 +161,20 @@ void            ijkmp_set_codec_option(IjkMediaPlayer *mp, const char *name, con
 void            ijkmp_set_sws_option(IjkMediaPlayer *mp, const char *name, const char *value);
 void            ijkmp_set_overlay_format(IjkMediaPlayer *mp, int chroma_fourcc);
 void            ijkmp_set_picture_queue_capicity(IjkMediaPlayer *mp, int frame_count);
+// size picture queue from decode jitter up to max_frame_count, 0 to keep capacity fixed
+void            ijkmp_set_picture_queue_adaptive(IjkMediaPlayer *mp, int max_frame_count);
+// refresh video on workers shared by all players instead of an own thread
+void            ijkmp_set_shared_refresh(IjkMediaPlayer *mp, int shared);
+// decode at least this degraded, DECODE_DEGRADE_xxx, applies at once
+void            ijkmp_set_decode_degrade_floor(IjkMediaPlayer *mp, int level);
 void            ijkmp_set_max_fps(IjkMediaPlayer *mp, int max_fps);
 void            ijkmp_set_framedrop(IjkMediaPlayer *mp, int framedrop);
 void            ijkmp_set_max_buffer_size(IjkMediaPlayer *mp, int max_buffer_size);
+void            ijkmp_set_buffering_policy(IjkMediaPlayer *mp, int start_hwm_ms, int next_hwm_ms, int max_hwm_ms,
+                                           int hwm_bytes, int max_buffer_bytes, int growth_percent,
+                                           int resume_min_packets, int adaptive);
+// background players give back memory first when memory budget is exceeded
+void            ijkmp_set_in_background(IjkMediaPlayer *mp, int in_background);
 
 int             ijkmp_get_video_codec_info(IjkMediaPlayer *mp, char **codec_info);
 int             ijkmp_get_audio_codec_info(IjkMediaPlayer *mp, char **codec_info);
@@ -175,12 +186,28 @@ IjkMediaMeta   *ijkmp_get_meta_l(IjkMediaPlayer *mp);
 // NOTE: ijkmp_shutdown may block thread
 void            ijkmp_shutdown(IjkMediaPlayer *mp);
 
+// next player is held at its first frame, and started at completion of mp
+// with share_display, next gets the display of mp right before it is started, if it has none
+// pass NULL to clear
+int             ijkmp_set_next_media_player(IjkMediaPlayer *mp, IjkMediaPlayer *next, int share_display);
+
+// back to MP_STATE_IDLE, keep vout/aout/pipeline for next data source
+// NOTE: ijkmp_reset may block thread
+int             ijkmp_reset(IjkMediaPlayer *mp);
+
 void            ijkmp_inc_ref(IjkMediaPlayer *mp);
 
 // call close at last release, also free memory
 // NOTE: ijkmp_dec_ref may block thread
 void            ijkmp_dec_ref(IjkMediaPlayer *mp);
 void            ijkmp_dec_ref_p(IjkMediaPlayer **pmp);
+
+// takes over one reference of mp, shutdown and dec_ref are done on a reaper thread,
+// on_released is called on that thread when done
+int             ijkmp_release_async(IjkMediaPlayer *mp, void (*on_released)(void *opaque), void *opaque);
+// same as ijkmp_reset, done on a reaper thread, caller keeps its reference
+// mp must not be used until on_reset is called on that thread
+int             ijkmp_reset_async(IjkMediaPlayer *mp, void (*on_reset)(void *opaque), void *opaque);
 //add by fw-----start
 void ijkmp_set_player_speed_mode(IjkMediaPlayer *mp, int speed_mode);
 void ijkmp_set_player_volume(IjkMediaPlayer *mp, int volume);
@@ -193,6 +220,15 @@ void            ijkmp_set_data_source_type(IjkMediaPlayer *mp, int type);
 
 //set data cache
 void            ijkmp_set_data_cache(IjkMediaPlayer *mp, int cache);
+void            ijkmp_set_live_latency(IjkMediaPlayer *mp, int target_ms, int min_ms, int max_ms, int aggressiveness);
+void            ijkmp_set_live_catchup_speed(IjkMediaPlayer *mp, float max_speed);
+// keep packets of a realtime stream for pause and rewind, window_ms <= 0 to disable
+void            ijkmp_set_timeshift(IjkMediaPlayer *mp, int window_ms, int64_t max_bytes, const char *spill_dir);
+// play from behind_ms before live edge, 0 to go back live
+int             ijkmp_timeshift_seek(IjkMediaPlayer *mp, long behind_ms);
+void            ijkmp_get_timeshift(IjkMediaPlayer *mp, int64_t *window_ms, int64_t *behind_ms);
+// open with a short probe if stream params of key were cached in dir, key NULL for url without query
+void            ijkmp_set_stream_cache(IjkMediaPlayer *mp, const char *dir, const char *key);
 
 int             ijkmp_set_data_source(IjkMediaPlayer *mp, const char *url);
 int             ijkmp_prepare_async(IjkMediaPlayer *mp);
@@ -200,9 +236,12 @@ int             ijkmp_start(IjkMediaPlayer *mp);
 int             ijkmp_pause(IjkMediaPlayer *mp);
 int             ijkmp_stop(IjkMediaPlayer *mp);
 int             ijkmp_seek_to(IjkMediaPlayer *mp, long msec);
+int             ijkmp_seek_to_mode(IjkMediaPlayer *mp, long msec, int seek_mode);
 int             ijkmp_get_state(IjkMediaPlayer *mp);
 bool            ijkmp_is_playing(IjkMediaPlayer *mp);
 long            ijkmp_get_current_position(IjkMediaPlayer *mp);
+// present video by a clock at msec now, e.g. position of another player, < 0 to follow own audio again
+void            ijkmp_set_sync_clock(IjkMediaPlayer *mp, long msec);
 long            ijkmp_get_duration(IjkMediaPlayer *mp);
 long            ijkmp_get_playable_duration(IjkMediaPlayer *mp);
 
@@ -210,9 +249,15 @@ long            ijkmp_get_playable_duration(IjkMediaPlayer *mp);
 int             ijkmp_get_bitRate(IjkMediaPlayer *mp);
 char           *ijkmp_get_iPAddress(IjkMediaPlayer *mp);
 int64_t         ijkmp_get_abtm(IjkMediaPlayer *mp);
+int             ijkmp_get_statistics(IjkMediaPlayer *mp, int64_t *stats, int count);
+// bit/s, percentile of recent samples or < 0 for the moving average, 0 if unknown
+int             ijkmp_get_pictq_histogram(IjkMediaPlayer *mp, int type, int64_t *buckets, int count);
+int64_t         ijkmp_get_bandwidth_estimate(IjkMediaPlayer *mp, int percentile);
 
 void           *ijkmp_get_weak_thiz(IjkMediaPlayer *mp);
 void           *ijkmp_set_weak_thiz(IjkMediaPlayer *mp, void *weak_thiz);
+void           *ijkmp_get_event_ring(IjkMediaPlayer *mp);
+void           *ijkmp_set_event_ring(IjkMediaPlayer *mp, void *event_ring);
 
 /* return < 0 if aborted, 0 if no packet and > 0 if packet.  */
 int             ijkmp_get_msg(IjkMediaPlayer *mp, AVMessage *msg, int block);
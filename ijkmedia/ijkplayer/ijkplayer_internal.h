@@ -41,10 +41,17 @@ typedef struct IjkMediaPlayer {
     int mp_state;
     char *data_source;
     void *weak_thiz;
+    void *event_ring;
 
     int restart_from_beginning;
     int seek_req;
     long seek_msec;
+
+    struct IjkMediaPlayer *next_mp;
+    int next_share_display;
+    int start_as_next_pending;  // started as next while preparing, STARTED once prepared
+    // platform, lend display of mp to next if next has none, optional
+    void (*share_display)(IjkMediaPlayer *mp, IjkMediaPlayer *next);
 } IjkMediaPlayer;
 
 #endif
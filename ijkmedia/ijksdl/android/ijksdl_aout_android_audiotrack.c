@@ -74,8 +74,6 @@ static int aout_thread_n(JNIEnv *env, SDL_Aout *aout)
     assert(atrack);
     assert(buffer);
 
-    SDL_SetThreadPriority(SDL_THREAD_PRIORITY_HIGH);
-
     if (!opaque->abort_request && !opaque->pause_on)
         SDL_Android_AudioTrack_play(env, atrack);
 
@@ -171,7 +169,7 @@ static int aout_open_audio_n(JNIEnv *env, SDL_Aout *aout, const SDL_AudioSpec *d
 
     opaque->pause_on = 1;
     opaque->abort_request = 0;
-    opaque->audio_tid = SDL_CreateThreadEx(&opaque->_audio_tid, aout_thread, aout, "ff_aout_android");
+    opaque->audio_tid = SDL_CreateThreadRole(&opaque->_audio_tid, aout_thread, aout, "ff_aout_android", SDL_THREAD_ROLE_AUDIO_OUT);
     if (!opaque->audio_tid) {
         ALOGE("aout_open_audio_n: failed to create audio thread");
         SDL_Android_AudioTrack_free(env, opaque->atrack);
@@ -126,8 +126,6 @@ static int aout_thread_n(SDL_Aout *aout)
     int                            next_buffer_index = 0;
     size_t                         bytes_per_buffer = opaque->bytes_per_buffer;
 
-    SDL_SetThreadPriority(SDL_THREAD_PRIORITY_HIGH);
-
     if (!opaque->abort_request && !opaque->pause_on)
         (*slPlayItf)->SetPlayState(slPlayItf, SL_PLAYSTATE_PLAYING);
 
@@ -415,7 +413,7 @@ static int aout_open_audio(SDL_Aout *aout, const SDL_AudioSpec *desired, SDL_Aud
 
     opaque->pause_on = 1;
     opaque->abort_request = 0;
-    opaque->audio_tid = SDL_CreateThreadEx(&opaque->_audio_tid, aout_thread, aout, "ff_aout_opensles");
+    opaque->audio_tid = SDL_CreateThreadRole(&opaque->_audio_tid, aout_thread, aout, "ff_aout_opensles", SDL_THREAD_ROLE_AUDIO_OUT);
     CHECK_COND_ERROR(opaque->audio_tid, "%s: failed to SDL_CreateThreadEx", __func__);
 
     if (obtained) {
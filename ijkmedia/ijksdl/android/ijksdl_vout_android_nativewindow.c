@@ -151,6 +151,17 @@ void SDL_VoutAndroid_SetNativeWindow(SDL_Vout *vout, ANativeWindow *native_windo
     SDL_UnlockMutex(vout->mutex);
 }
 
+ANativeWindow *SDL_VoutAndroid_AcquireNativeWindow(SDL_Vout *vout)
+{
+    SDL_LockMutex(vout->mutex);
+    SDL_Vout_Opaque *opaque = vout->opaque;
+    ANativeWindow *native_window = opaque->native_window;
+    if (native_window)
+        ANativeWindow_acquire(native_window);
+    SDL_UnlockMutex(vout->mutex);
+    return native_window;
+}
+
 void SDL_VoutAndroid_setAMediaCodec(SDL_Vout *vout, SDL_AMediaCodec *acodec)
 {
     SDL_LockMutex(vout->mutex);
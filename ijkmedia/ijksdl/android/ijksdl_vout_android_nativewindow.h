@@ -32,6 +32,8 @@ typedef struct SDL_AMediaCodec SDL_AMediaCodec;
 
 SDL_Vout *SDL_VoutAndroid_CreateForANativeWindow();
 void SDL_VoutAndroid_SetNativeWindow(SDL_Vout *vout, ANativeWindow *native_window);
+// NULL if none, otherwise release it with ANativeWindow_release()
+ANativeWindow *SDL_VoutAndroid_AcquireNativeWindow(SDL_Vout *vout);
 void SDL_VoutAndroid_setAMediaCodec(SDL_Vout *vout, SDL_AMediaCodec *acodec);
 
 #endif
@@ -21,25 +21,177 @@
  * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
  */
 
+#ifndef _GNU_SOURCE
+#define _GNU_SOURCE     // sched_setaffinity()
+#endif
 #include <errno.h>
 #include <assert.h>
+#include <sched.h>
+#include <string.h>
+#include <sys/resource.h>
 #include "ijksdl_inc_internal.h"
 #include "ijksdl_thread.h"
 
+static pthread_mutex_t      g_role_mutex = PTHREAD_MUTEX_INITIALIZER;
+static SDL_ThreadRoleConfig g_role_configs[SDL_THREAD_ROLE_COUNT];
+static int                  g_role_configs_inited = 0;
+static int                  g_role_generation = 0;
+
+static void default_role_config(SDL_ThreadRole role, SDL_ThreadRoleConfig *config)
+{
+    memset(config, 0, sizeof(SDL_ThreadRoleConfig));
+    config->policy = SCHED_OTHER;
+#if defined(__ANDROID__)
+    if (role == SDL_THREAD_ROLE_AUDIO_OUT) {
+        config->enabled = 1;
+        config->nice    = -16;  // ANDROID_PRIORITY_AUDIO
+    } else if (role == SDL_THREAD_ROLE_RENDER) {
+        config->enabled = 1;
+        config->nice    = -4;   // ANDROID_PRIORITY_DISPLAY
+    }
+#endif
+}
+
+static void init_role_configs_l(void)
+{
+    int i;
+
+    if (g_role_configs_inited)
+        return;
+
+    for (i = 0; i < SDL_THREAD_ROLE_COUNT; ++i)
+        default_role_config((SDL_ThreadRole)i, &g_role_configs[i]);
+    g_role_configs_inited = 1;
+}
+
+void SDL_SetThreadRoleConfig(SDL_ThreadRole role, const SDL_ThreadRoleConfig *config)
+{
+    if (role <= SDL_THREAD_ROLE_DEFAULT || role >= SDL_THREAD_ROLE_COUNT)
+        return;
+
+    pthread_mutex_lock(&g_role_mutex);
+    init_role_configs_l();
+    if (config)
+        g_role_configs[role] = *config;
+    else
+        default_role_config(role, &g_role_configs[role]);
+    __sync_fetch_and_add(&g_role_generation, 1);
+    pthread_mutex_unlock(&g_role_mutex);
+}
+
+int SDL_GetThreadRoleGeneration(void)
+{
+    return __sync_fetch_and_add(&g_role_generation, 0);
+}
+
+void SDL_GetThreadRoleConfig(SDL_ThreadRole role, SDL_ThreadRoleConfig *config)
+{
+    if (role <= SDL_THREAD_ROLE_DEFAULT || role >= SDL_THREAD_ROLE_COUNT) {
+        memset(config, 0, sizeof(SDL_ThreadRoleConfig));
+        return;
+    }
+
+    pthread_mutex_lock(&g_role_mutex);
+    init_role_configs_l();
+    *config = g_role_configs[role];
+    pthread_mutex_unlock(&g_role_mutex);
+}
+
+/*
+ * Set every part of the config, so that applying it again also undoes an
+ * earlier one: SCHED_OTHER is set explicitly and cpu_mask 0 allows all cpus.
+ */
+static int apply_role_config(SDL_ThreadRole role, SDL_ThreadRoleConfig *config)
+{
+    struct sched_param sched;
+    int ret = 0;
+
+    if (config->policy == SCHED_FIFO || config->policy == SCHED_RR) {
+        sched.sched_priority = config->rt_priority;
+        if (pthread_setschedparam(pthread_self(), config->policy, &sched)) {
+            ALOGW("SDL_ApplyThreadRole(%d): realtime policy refused, use nice %d\n", role, config->nice);
+            config->policy = SCHED_OTHER;
+            ret = -1;
+        }
+    }
+
+    if (config->policy == SCHED_OTHER) {
+        // the only priority of SCHED_OTHER on linux, the default one on darwin
+        sched.sched_priority = (sched_get_priority_min(SCHED_OTHER) + sched_get_priority_max(SCHED_OTHER)) / 2;
+        if (pthread_setschedparam(pthread_self(), SCHED_OTHER, &sched)) {
+            ALOGW("SDL_ApplyThreadRole(%d): restore SCHED_OTHER failed\n", role);
+            ret = -1;
+        }
+    }
+
+#if !defined(__APPLE__)
+    if (config->policy == SCHED_OTHER && setpriority(PRIO_PROCESS, gettid(), config->nice)) {
+        ALOGW("SDL_ApplyThreadRole(%d): setpriority(%d) failed\n", role, config->nice);
+        ret = -1;
+    }
+
+    cpu_set_t cpu_set;
+    int cpu;
+
+    CPU_ZERO(&cpu_set);
+    for (cpu = 0; cpu < CPU_SETSIZE; ++cpu) {
+        if (!config->cpu_mask || (cpu < 64 && (config->cpu_mask & ((uint64_t)1 << cpu))))
+            CPU_SET(cpu, &cpu_set);
+    }
+    if (sched_setaffinity(gettid(), sizeof(cpu_set), &cpu_set)) {
+        ALOGW("SDL_ApplyThreadRole(%d): sched_setaffinity(%llx) failed\n", role, (unsigned long long)config->cpu_mask);
+        ret = -1;
+    }
+#endif
+    return ret;
+}
+
+int SDL_ApplyThreadRole(SDL_ThreadRole role)
+{
+    SDL_ThreadRoleConfig config;
+
+    SDL_GetThreadRoleConfig(role, &config);
+    if (!config.enabled)
+        return 0;
+
+    return apply_role_config(role, &config);
+}
+
+int SDL_ReapplyThreadRole(SDL_ThreadRole role)
+{
+    SDL_ThreadRoleConfig config;
+
+    SDL_GetThreadRoleConfig(role, &config);
+    if (!config.enabled) {
+        // nothing to leave as created anymore, back to normal scheduling
+        memset(&config, 0, sizeof(config));
+        config.policy = SCHED_OTHER;
+    }
+
+    return apply_role_config(role, &config);
+}
+
 #if !defined(__APPLE__)
 // using ios implement for autorelease
 static void *SDL_RunThread(void *data)
 {
     SDL_Thread *thread = data;
     ALOGI("SDL_RunThread: [%d] %s\n", (int)gettid(), thread->name);
+    SDL_ApplyThreadRole(thread->role);
     thread->retval = thread->func(thread->data);
     return NULL;
 }
 
 SDL_Thread *SDL_CreateThreadEx(SDL_Thread *thread, int (*fn)(void *), void *data, const char *name)
+{
+    return SDL_CreateThreadRole(thread, fn, data, name, SDL_THREAD_ROLE_DEFAULT);
+}
+
+SDL_Thread *SDL_CreateThreadRole(SDL_Thread *thread, int (*fn)(void *), void *data, const char *name, SDL_ThreadRole role)
 {
     thread->func = fn;
     thread->data = data;
+    thread->role = role;
     strlcpy(thread->name, name, sizeof(thread->name) - 1);
     int retval = pthread_create(&thread->id, NULL, SDL_RunThread, thread);
     if (retval)
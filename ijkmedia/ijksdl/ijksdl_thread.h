@@ -33,6 +33,35 @@ typedef enum {
     SDL_THREAD_PRIORITY_HIGH
 } SDL_ThreadPriority;
 
+typedef enum {
+    SDL_THREAD_ROLE_DEFAULT,
+    SDL_THREAD_ROLE_DEMUX,
+    SDL_THREAD_ROLE_VIDEO_DECODE,
+    SDL_THREAD_ROLE_AUDIO_DECODE,
+    SDL_THREAD_ROLE_AUDIO_OUT,
+    SDL_THREAD_ROLE_RENDER,
+    SDL_THREAD_ROLE_MESSAGE,
+    SDL_THREAD_ROLE_COUNT
+} SDL_ThreadRole;
+
+/*
+ * Process-wide scheduling of threads by role, applied when a thread of the
+ * role starts. Long-lived pooled threads compare
+ * SDL_GetThreadRoleGeneration() between tasks and reapply their role after
+ * a change. nice is used with SCHED_OTHER, or when a realtime policy is
+ * refused, as it usually is for apps. On Android, audio out runs at nice -16
+ * and render at nice -4 by default, like audio and display threads of the
+ * framework. Only policy is applied on iOS.
+ */
+typedef struct SDL_ThreadRoleConfig
+{
+    int      enabled;       // 0 to leave threads as created
+    int      nice;          // -20 ~ 19
+    int      policy;        // SCHED_OTHER, SCHED_FIFO or SCHED_RR
+    int      rt_priority;   // for SCHED_FIFO and SCHED_RR
+    uint64_t cpu_mask;      // bit n allows cpu n, 0 for any
+} SDL_ThreadRoleConfig;
+
 typedef struct SDL_Thread
 {
     pthread_t id;
@@ -40,10 +69,23 @@ typedef struct SDL_Thread
     void *data;
     char name[32];
     int retval;
+    SDL_ThreadRole role;
 } SDL_Thread;
 
 SDL_Thread *SDL_CreateThreadEx(SDL_Thread *thread, int (*fn)(void *), void *data, const char *name);
+SDL_Thread *SDL_CreateThreadRole(SDL_Thread *thread, int (*fn)(void *), void *data, const char *name, SDL_ThreadRole role);
 int         SDL_SetThreadPriority(SDL_ThreadPriority priority);
 void        SDL_WaitThread(SDL_Thread *thread, int *status);
 
+// config NULL to restore default
+void        SDL_SetThreadRoleConfig(SDL_ThreadRole role, const SDL_ThreadRoleConfig *config);
+void        SDL_GetThreadRoleConfig(SDL_ThreadRole role, SDL_ThreadRoleConfig *config);
+// changes with every SDL_SetThreadRoleConfig() of any role
+int         SDL_GetThreadRoleGeneration(void);
+// for calling thread, e.g. one not created by SDL_CreateThreadRole()
+int         SDL_ApplyThreadRole(SDL_ThreadRole role);
+// for calling thread that applied role before, undoes it where the config
+// changed, and restores normal scheduling if the config is disabled now
+int         SDL_ReapplyThreadRole(SDL_ThreadRole role);
+
 #endif
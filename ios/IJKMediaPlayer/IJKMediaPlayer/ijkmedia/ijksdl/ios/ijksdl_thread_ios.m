@@ -28,15 +28,22 @@ static void *SDL_RunThread(void *data)
     @autoreleasepool {
         SDL_Thread *thread = data;
         pthread_setname_np(thread->name);
+        SDL_ApplyThreadRole(thread->role);
         thread->retval = thread->func(thread->data);
         return NULL;
     }
 }
 
 SDL_Thread *SDL_CreateThreadEx(SDL_Thread *thread, int (*fn)(void *), void *data, const char *name)
+{
+    return SDL_CreateThreadRole(thread, fn, data, name, SDL_THREAD_ROLE_DEFAULT);
+}
+
+SDL_Thread *SDL_CreateThreadRole(SDL_Thread *thread, int (*fn)(void *), void *data, const char *name, SDL_ThreadRole role)
 {
     thread->func = fn;
     thread->data = data;
+    thread->role = role;
     strlcpy(thread->name, name, sizeof(thread->name) - 1);
     int retval = pthread_create(&thread->id, NULL, SDL_RunThread, thread);
     if (retval)